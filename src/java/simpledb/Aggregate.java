@@ -0,0 +1,442 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
+ * min). Note that we only support aggregates over a single column, grouped by
+ * a single column.
+ * <p>
+ * Groups are accumulated in a {@link HashAggregator} sized to the operator's
+ * memory budget. Once it is full, tuples of groups it already holds keep
+ * being aggregated in memory, while tuples of any other group are written to
+ * one of several {@link SpillFile} partitions by the hash of their group.
+ * Each partition is then aggregated on its own the same way. When hashing
+ * stops paying off -- a partition has been split too many times, or almost
+ * every tuple of the previous pass started a group of its own -- the
+ * partition is instead sorted on the group field with {@link OrderBy} and
+ * aggregated one group at a time.
+ */
+public class Aggregate extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of partitions spilled groups are split into per pass. */
+    static final int NUM_PARTITIONS = 16;
+
+    /** Partitioning passes after which partitions are aggregated by sorting. */
+    static final int MAX_PARTITION_DEPTH = 3;
+
+    /**
+     * If a pass produced more groups than this fraction of its tuples,
+     * hashing barely aggregates anything and its partitions are sorted instead.
+     */
+    static final double HIGH_CARDINALITY_RATIO = 0.5;
+
+    private DbIterator child;
+    private final int afield;
+    private final int gfield;
+    private final Aggregator.Op aop;
+    private final int memPages;
+    private TupleDesc td;
+
+    private transient TupleDesc spillTd;
+    private transient LinkedList<Partition> pending;
+    private transient ArrayList<SpillFile> spills;
+    private transient HashAggregator emitting;
+    private transient int emitPos;
+    private transient OrderBy sorted;
+    private transient HashAggregator streaming;
+    private transient int spilledPartitions;
+    private transient int sortedPartitions;
+
+    /**
+     * Constructor, using the default memory budget of
+     * {@link BufferPool#DEFAULT_PAGES} pages.
+     *
+     * @param child
+     *            The DbIterator that is feeding us tuples.
+     * @param afield
+     *            The column over which we are computing an aggregate.
+     * @param gfield
+     *            The column over which we are grouping the result, or -1 if
+     *            there is no grouping
+     * @param aop
+     *            The aggregation operator to use
+     */
+    public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this(child, afield, gfield, aop, BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param memPages
+     *            the number of pages of group state the operator may hold in
+     *            memory before it spills
+     * @throws IllegalArgumentException if aop is not COUNT and the aggregate
+     *            field is not an INT_TYPE field
+     */
+    public Aggregate(DbIterator child, int afield, int gfield,
+            Aggregator.Op aop, int memPages) {
+        if (aop != Aggregator.Op.COUNT
+                && child.getTupleDesc().getFieldType(afield) != Type.INT_TYPE)
+            throw new IllegalArgumentException("only COUNT is supported over string fields");
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+        this.memPages = Math.max(memPages, 1);
+        this.td = resultTupleDesc();
+    }
+
+    /**
+     * @return If this aggregate is accompanied by a groupby, return the groupby
+     *         field index in the <b>INPUT</b> tuples. If not, return
+     *         {@link simpledb.Aggregator#NO_GROUPING}
+     * */
+    public int groupField() {
+        return gfield;
+    }
+
+    /**
+     * @return If this aggregate is accompanied by a group by, return the name
+     *         of the groupby field in the <b>OUTPUT</b> tuples If not, return
+     *         null;
+     * */
+    public String groupFieldName() {
+        if (gfield == Aggregator.NO_GROUPING)
+            return null;
+        return td.getFieldName(0);
+    }
+
+    /**
+     * @return the aggregate field
+     * */
+    public int aggregateField() {
+        return afield;
+    }
+
+    /**
+     * @return return the name of the aggregate field in the <b>OUTPUT</b>
+     *         tuples
+     * */
+    public String aggregateFieldName() {
+        return td.getFieldName(gfield == Aggregator.NO_GROUPING ? 0 : 1);
+    }
+
+    /**
+     * @return return the aggregate operator
+     * */
+    public Aggregator.Op aggregateOp() {
+        return aop;
+    }
+
+    public static String nameOfAggregatorOp(Aggregator.Op aop) {
+        return aop.toString();
+    }
+
+    /**
+     * @return the number of partitions spilled to disk since the operator was
+     *         last opened
+     */
+    public int getSpilledPartitions() {
+        return spilledPartitions;
+    }
+
+    /**
+     * @return the number of spilled partitions that were aggregated by
+     *         sorting rather than hashing
+     */
+    public int getSortedPartitions() {
+        return sortedPartitions;
+    }
+
+    private TupleDesc resultTupleDesc() {
+        TupleDesc childTd = child.getTupleDesc();
+        String aggName = nameOfAggregatorOp(aop) + "(" + childTd.getFieldName(afield) + ")";
+        if (gfield == Aggregator.NO_GROUPING)
+            return new TupleDesc(new Type[] { Type.INT_TYPE }, new String[] { aggName });
+        return new TupleDesc(new Type[] { childTd.getFieldType(gfield), Type.INT_TYPE },
+                new String[] { childTd.getFieldName(gfield), aggName });
+    }
+
+    private HashAggregator newAggregator(int g, int a) {
+        Type gtype = gfield == Aggregator.NO_GROUPING ? null
+                : child.getTupleDesc().getFieldType(gfield);
+        int maxGroups = (int) Math.min(Integer.MAX_VALUE, (long) memPages
+                * BufferPool.getPageSize() / HashAggregator.bytesPerGroup(gtype, aop));
+        return new HashAggregator(gfield == Aggregator.NO_GROUPING ? Aggregator.NO_GROUPING : g,
+                gtype, a, aop, maxGroups);
+    }
+
+    public void open() throws NoSuchElementException, DbException,
+            TransactionAbortedException {
+        child.open();
+        super.open();
+        start();
+    }
+
+    private void start() throws DbException, TransactionAbortedException {
+        cleanup();
+        pending = new LinkedList<Partition>();
+        spills = new ArrayList<SpillFile>();
+        spilledPartitions = 0;
+        sortedPartitions = 0;
+        TupleDesc childTd = child.getTupleDesc();
+        spillTd = gfield == Aggregator.NO_GROUPING ? null : new TupleDesc(
+                new Type[] { childTd.getFieldType(gfield), childTd.getFieldType(afield) });
+        hashPass(new ChildSource(child), gfield, afield, 0);
+    }
+
+    /**
+     * Aggregates the tuples of one input in memory, spilling the tuples of
+     * groups that do not fit into partitions, which are queued for later.
+     */
+    private void hashPass(DbFileIterator in, int g, int a, int depth)
+            throws DbException, TransactionAbortedException {
+        HashAggregator agg = newAggregator(g, a);
+        SpillFile[] parts = null;
+        int merged = 0;
+        try {
+            while (in.hasNext()) {
+                Tuple t = in.next();
+                if (agg.mergeTupleIntoGroup(t)) {
+                    merged++;
+                    continue;
+                }
+                if (parts == null) {
+                    parts = new SpillFile[NUM_PARTITIONS];
+                    for (int i = 0; i < NUM_PARTITIONS; i++) {
+                        parts[i] = new SpillFile(spillTd);
+                        spills.add(parts[i]);
+                    }
+                }
+                Field key = t.getField(g);
+                int h = TupleHashTable.mix(TupleHashTable.hash(key), depth + 1);
+                Tuple narrow = new Tuple(spillTd);
+                narrow.setField(0, key);
+                narrow.setField(1, t.getField(a));
+                parts[(h >>> 1) % NUM_PARTITIONS].add(narrow);
+            }
+            if (parts != null) {
+                boolean sortNext = depth + 1 >= MAX_PARTITION_DEPTH
+                        || agg.numGroups() > merged * HIGH_CARDINALITY_RATIO;
+                for (SpillFile part : parts) {
+                    part.finish();
+                    if (part.numTuples() == 0) {
+                        part.delete();
+                        continue;
+                    }
+                    spilledPartitions++;
+                    pending.add(new Partition(part, depth + 1, sortNext));
+                }
+            }
+        } catch (IOException e) {
+            throw new DbException("could not spill aggregate partition: " + e.getMessage());
+        }
+        emitting = agg;
+        emitPos = 0;
+    }
+
+    /** Sets up the next spilled partition for output. */
+    private void process(Partition part) throws DbException,
+            TransactionAbortedException {
+        DbFileIterator in;
+        try {
+            in = part.file.iterator();
+        } catch (IOException e) {
+            throw new DbException("could not read aggregate partition: " + e.getMessage());
+        }
+        if (!part.sort) {
+            in.open();
+            hashPass(in, 0, 1, part.depth);
+            in.close();
+            part.file.delete();
+            return;
+        }
+
+        sortedPartitions++;
+        sorted = new OrderBy(new int[] { 0 }, new boolean[] { true },
+                new FileScan(in, spillTd), Math.max(memPages, 2));
+        sorted.open();
+        // one group at a time: the aggregator rejects a tuple when its group ends
+        streaming = new HashAggregator(0, spillTd.getFieldType(0), 1, aop, 1);
+    }
+
+    /** @return the next group of the sorted partition, or null if it is done */
+    private Tuple nextSortedGroup() throws DbException, TransactionAbortedException {
+        while (sorted.hasNext()) {
+            Tuple t = sorted.next();
+            if (!streaming.mergeTupleIntoGroup(t)) {
+                Tuple result = streaming.resultTuple(0, td);
+                streaming.clear();
+                streaming.mergeTupleIntoGroup(t);
+                return result;
+            }
+        }
+        if (streaming.numGroups() > 0) {
+            Tuple result = streaming.resultTuple(0, td);
+            streaming.clear();
+            return result;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the next tuple. If there is a group by field, then the first
+     * field is the field by which we are grouping, and the second field is the
+     * result of computing the aggregate, If there is no group by field, then
+     * the result tuple should contain one field representing the result of
+     * the aggregate. Should return null if there are no more tuples.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (emitting != null) {
+                if (emitPos < emitting.numGroups())
+                    return emitting.resultTuple(emitPos++, td);
+                emitting = null;
+            }
+            if (sorted != null) {
+                Tuple t = nextSortedGroup();
+                if (t != null)
+                    return t;
+                sorted.close();
+                sorted = null;
+            }
+            if (pending == null || pending.isEmpty())
+                return null;
+            process(pending.removeFirst());
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        clearNext();
+        child.rewind();
+        start();
+    }
+
+    /**
+     * Returns the TupleDesc of this Aggregate. If there is no group by field,
+     * this will have one field - the aggregate column. If there is a group by
+     * field, the first field will be the group by field, and the second field
+     * will be the aggregate value column.
+     *
+     * The name of an aggregate column should be informative. For example:
+     * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
+     * given in the constructor, and child_td is the TupleDesc of the child
+     * iterator.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void close() {
+        super.close();
+        cleanup();
+        child.close();
+    }
+
+    private void cleanup() {
+        emitting = null;
+        if (sorted != null)
+            sorted.close();
+        sorted = null;
+        streaming = null;
+        if (pending != null)
+            pending.clear();
+        if (spills != null) {
+            for (SpillFile f : spills)
+                f.delete();
+            spills.clear();
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+        this.td = resultTupleDesc();
+    }
+
+    /** A spilled partition waiting to be aggregated. */
+    private static class Partition {
+        final SpillFile file;
+        final int depth;
+        final boolean sort;
+
+        Partition(SpillFile file, int depth, boolean sort) {
+            this.file = file;
+            this.depth = depth;
+            this.sort = sort;
+        }
+    }
+
+    /** Presents the (already open) child operator as a DbFileIterator. */
+    private static class ChildSource implements DbFileIterator {
+        private final DbIterator child;
+
+        ChildSource(DbIterator child) {
+            this.child = child;
+        }
+
+        public void open() {
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            return child.hasNext();
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            return child.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+        }
+
+        public void close() {
+        }
+    }
+
+    /** Presents a spill file iterator as a DbIterator, so it can be sorted. */
+    private static class FileScan implements DbIterator {
+        private static final long serialVersionUID = 1L;
+        private final transient DbFileIterator it;
+        private final TupleDesc td;
+
+        FileScan(DbFileIterator it, TupleDesc td) {
+            this.it = it;
+            this.td = td;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            it.open();
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            return it.hasNext();
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            return it.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            it.rewind();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            it.close();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * The common interface for any class that can compute an aggregate over a
+ * list of Tuples.
+ */
+public interface Aggregator extends Serializable {
+    static final int NO_GROUPING = -1;
+
+    /** The supported aggregate functions. AVG uses integer division. */
+    public enum Op implements Serializable {
+        MIN, MAX, SUM, AVG, COUNT;
+
+        /**
+         * Interface to access operations by a string containing an integer
+         * index for command-line convenience.
+         *
+         * @param s
+         *            a string containing a valid integer Op index
+         */
+        public static Op getOp(String s) {
+            return getOp(Integer.parseInt(s));
+        }
+
+        /**
+         * Interface to access operations by integer value for command-line
+         * convenience.
+         *
+         * @param i
+         *            a valid integer Op index
+         */
+        public static Op getOp(int i) {
+            return values()[i];
+        }
+
+        public String toString()
+        {
+            if (this==MIN)
+                return "min";
+            if (this==MAX)
+                return "max";
+            if (this==SUM)
+                return "sum";
+            if (this==AVG)
+                return "avg";
+            if (this==COUNT)
+                return "count";
+            throw new IllegalStateException("impossible to reach here");
+        }
+    }
+
+    /**
+     * Merge a new tuple into the aggregate for a distinct group value.
+     *
+     * @param tup
+     *            the Tuple containing an aggregate field and a group-by field
+     * @return true if the tuple was merged; false if it belongs to a group
+     *         the aggregator has not seen yet and it has no room for another
+     *         group, in which case the aggregator is left unchanged
+     */
+    public boolean mergeTupleIntoGroup(Tuple tup);
+
+    /**
+     * @return the number of distinct groups merged so far
+     */
+    public int numGroups();
+
+    /**
+     * Create a DbIterator over group aggregate results.
+     *
+     * @see simpledb.TupleIterator for a possible helper
+     */
+    public DbIterator iterator();
+
+}
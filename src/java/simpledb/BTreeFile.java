@@ -0,0 +1,722 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeFile is an implementation of a DbFile that stores a B+ tree of
+ * tuples, sorted on one key field. The tuples themselves are stored in the
+ * leaf pages of the tree, which are linked to their left and right
+ * siblings; internal pages hold keys and the page numbers of their
+ * children. Page 0 of the file is a {@link BTreeRootPtrPage} recording the
+ * root of the tree and the first {@link BTreeHeaderPage}, which track the
+ * pages freed by deletes so they can be reused.
+ * <p>
+ * All pages are read and cached through the BufferPool. Pages do not point
+ * to their parents: inserts and deletes remember the path from the root to
+ * the leaf they change, so that splits and merges only touch the pages
+ * along that path and their siblings. Full pages are split in two on
+ * insert, and pages left less than half full by a delete take entries from
+ * a sibling, or are merged with it when the sibling cannot spare any.
+ * <p>
+ * Duplicate keys are allowed. Updates to one file must not run
+ * concurrently; only the allocation of new pages is synchronized.
+ *
+ * @see BTreeLeafPage
+ * @see BTreeInternalPage
+ */
+public class BTreeFile implements IndexFile {
+
+    private final File f;
+    private final TupleDesc td;
+    private final int tableid;
+    private final int keyField;
+
+    /**
+     * Constructs a B+ tree file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this
+     *            B+ tree; it may be empty or not exist yet
+     * @param key the field the tuples are sorted on
+     * @param td the schema of the tuples
+     */
+    public BTreeFile(File f, int key, TupleDesc td) {
+        if (key < 0 || key >= td.numFields())
+            throw new IllegalArgumentException("invalid key field " + key);
+        this.f = f;
+        this.tableid = f.getAbsoluteFile().hashCode();
+        this.keyField = key;
+        this.td = td;
+    }
+
+    /**
+     * Returns the File backing this BTreeFile on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this BTreeFile, the hash code of the
+     * absolute path of its file.
+     */
+    public int getId() {
+        return tableid;
+    }
+
+    /** @return the index of the field the tuples are sorted on */
+    public int keyField() {
+        return keyField;
+    }
+
+    /**
+     * Returns the TupleDesc of the table stored in this DbFile.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Returns the number of pages in this BTreeFile, including the root
+     * pointer page.
+     */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        BTreePageId id = (BTreePageId) pid;
+        int pageSize = BufferPool.getPageSize();
+        byte[] data = new byte[pageSize];
+        long offset = (long) id.pageNumber() * pageSize;
+        // the root pointer page of a new file reads as an empty tree
+        if (id.pageNumber() != 0 && offset >= f.length())
+            throw new IllegalArgumentException("page " + pid + " is not in the file");
+        try {
+            if (offset < f.length()) {
+                RandomAccessFile raf = new RandomAccessFile(f, "r");
+                try {
+                    raf.seek(offset);
+                    raf.readFully(data);
+                } finally {
+                    raf.close();
+                }
+            }
+            switch (id.pgcateg()) {
+            case BTreePageId.ROOT_PTR:
+                return new BTreeRootPtrPage(id, data);
+            case BTreePageId.INTERNAL:
+                return new BTreeInternalPage(id, data, td, keyField);
+            case BTreePageId.LEAF:
+                return new BTreeLeafPage(id, data, td, keyField);
+            default:
+                return new BTreeHeaderPage(id, data);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("could not read page " + pid + ": " + e.getMessage());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        writePageData(page.getId().pageNumber(), page.getPageData());
+    }
+
+    private void writePageData(int pgNo, byte[] data) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            raf.seek((long) pgNo * BufferPool.getPageSize());
+            raf.write(data);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Reads a page through the BufferPool, or from dirtypages if this
+     * operation has already modified it. Pages read for writing are added to
+     * dirtypages and marked dirty right away, so that the BufferPool cannot
+     * evict them before the operation returns them.
+     */
+    private Page getPage(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId pid,
+            Permissions perm) throws DbException, TransactionAbortedException {
+        Page p = dirtypages.get(pid);
+        if (p != null)
+            return p;
+        p = Database.getBufferPool().getPage(tid, pid, perm);
+        if (perm == Permissions.READ_WRITE) {
+            p.markDirty(true, tid);
+            dirtypages.put(pid, p);
+        }
+        return p;
+    }
+
+    private BTreeRootPtrPage getRootPtrPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            Permissions perm) throws DbException, TransactionAbortedException {
+        return (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), perm);
+    }
+
+    /**
+     * Finds the leftmost leaf page that may hold key, descending from page
+     * pid; the leftmost leaf if key is null. The internal pages passed on
+     * the way are appended to path, if it is not null.
+     *
+     * @param perm the permissions to read the leaf with; internal pages are
+     *            read with READ_ONLY
+     */
+    BTreeLeafPage findLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            BTreePageId pid, Permissions perm, Field key, ArrayList<BTreePageId> path)
+            throws DbException, TransactionAbortedException {
+        while (pid.pgcateg() == BTreePageId.INTERNAL) {
+            BTreeInternalPage p = (BTreeInternalPage) getPage(tid, dirtypages, pid,
+                    Permissions.READ_ONLY);
+            if (path != null)
+                path.add(pid);
+            pid = p.getChildId(p.findChild(key));
+        }
+        return (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
+    }
+
+    /**
+     * Finds the path from page pid to leaf page target, which holds a tuple
+     * with the specified key. Keys equal to key may span several leaves, so
+     * every child that may hold key is searched.
+     *
+     * @return true if target was found, in which case the internal pages on
+     *         the way to it have been appended to path
+     */
+    private boolean findPath(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId pid,
+            Field key, int target, ArrayList<BTreePageId> path)
+            throws DbException, TransactionAbortedException {
+        if (pid.pgcateg() == BTreePageId.LEAF)
+            return pid.pageNumber() == target;
+        BTreeInternalPage p = (BTreeInternalPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
+        path.add(pid);
+        for (int i = p.findChild(key); i <= p.findLastChild(key); i++) {
+            if (findPath(tid, dirtypages, p.getChildId(i), key, target, path))
+                return true;
+        }
+        path.remove(path.size() - 1);
+        return false;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tupledesc mismatch");
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        BTreePageId rootId = getRootPtrPage(tid, dirtypages, Permissions.READ_ONLY).getRootId();
+        if (rootId == null) {
+            BTreeLeafPage root = (BTreeLeafPage) getEmptyPage(tid, dirtypages, BTreePageId.LEAF);
+            getRootPtrPage(tid, dirtypages, Permissions.READ_WRITE).setRootId(root.getId());
+            rootId = root.getId();
+        }
+
+        Field key = t.getField(keyField);
+        ArrayList<BTreePageId> path = new ArrayList<BTreePageId>();
+        BTreeLeafPage leaf = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, key, path);
+        if (leaf.getNumEmptySlots() == 0)
+            leaf = splitLeafPage(tid, dirtypages, path, leaf, key);
+        leaf.insertTuple(t);
+        return new ArrayList<Page>(dirtypages.values());
+    }
+
+    /**
+     * Splits a full leaf page, moving the upper half of its tuples to a new
+     * right sibling, and adds the first key of the new page to the parent.
+     *
+     * @param path the internal pages from the root to the leaf's parent
+     * @param key the key about to be inserted
+     * @return the page key should be inserted into
+     */
+    private BTreeLeafPage splitLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            ArrayList<BTreePageId> path, BTreeLeafPage page, Field key)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeLeafPage right = (BTreeLeafPage) getEmptyPage(tid, dirtypages, BTreePageId.LEAF);
+        int keep = page.getNumTuples() - page.getNumTuples() / 2;
+        ArrayList<Tuple> moving = new ArrayList<Tuple>();
+        while (page.getNumTuples() > keep) {
+            Tuple t = page.getTuple(page.getNumTuples() - 1);
+            page.deleteTuple(t);
+            moving.add(t);
+        }
+        for (int i = moving.size() - 1; i >= 0; i--)
+            right.insertTuple(moving.get(i));
+
+        BTreePageId oldRight = page.getRightSiblingId();
+        right.setRightSiblingId(oldRight);
+        right.setLeftSiblingId(page.getId());
+        page.setRightSiblingId(right.getId());
+        if (oldRight != null) {
+            BTreeLeafPage r = (BTreeLeafPage) getPage(tid, dirtypages, oldRight, Permissions.READ_WRITE);
+            r.setLeftSiblingId(right.getId());
+        }
+
+        Field separator = right.getKey(0);
+        insertIntoParent(tid, dirtypages, path, path.size() - 1, page.getId(), separator, right.getId());
+        return TupleComparator.compareFields(key, separator) > 0 ? right : page;
+    }
+
+    /**
+     * Adds key and its right child to the parent of left, which is
+     * path[level], splitting the parent first if it is full, or creating a
+     * new root above left if level is -1.
+     */
+    private void insertIntoParent(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            ArrayList<BTreePageId> path, int level, BTreePageId left, Field key, BTreePageId right)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeInternalPage parent;
+        if (level < 0) {
+            parent = (BTreeInternalPage) getEmptyPage(tid, dirtypages, BTreePageId.INTERNAL);
+            parent.setOnlyChild(left);
+            getRootPtrPage(tid, dirtypages, Permissions.READ_WRITE).setRootId(parent.getId());
+        } else {
+            parent = (BTreeInternalPage) getPage(tid, dirtypages, path.get(level), Permissions.READ_WRITE);
+            if (parent.getNumEmptySlots() == 0) {
+                BTreeInternalPage sibling = splitInternalPage(tid, dirtypages, path, level, parent);
+                if (sibling.childIndex(left.pageNumber()) >= 0)
+                    parent = sibling;
+            }
+        }
+        parent.insertEntry(left, key, right);
+    }
+
+    /**
+     * Splits a full internal page, moving the keys and children after its
+     * middle key to a new right sibling, and moves the middle key up to the
+     * parent.
+     *
+     * @return the new right sibling
+     */
+    private BTreeInternalPage splitInternalPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            ArrayList<BTreePageId> path, int level, BTreeInternalPage page)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeInternalPage right = (BTreeInternalPage) getEmptyPage(tid, dirtypages,
+                BTreePageId.INTERNAL);
+        int n = page.getNumKeys();
+        int mid = n / 2;
+        Field up = page.getKey(mid);
+        right.setOnlyChild(page.getChildId(mid + 1));
+        for (int i = mid + 1; i < n; i++)
+            right.append(page.getKey(i), page.getChildId(i + 1));
+        for (int i = n - 1; i >= mid; i--)
+            page.deleteKeyAndRightChild(i);
+        insertIntoParent(tid, dirtypages, path, level - 1, page.getId(), up, right.getId());
+        return right;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !(rid.getPageId() instanceof BTreePageId)
+                || rid.getPageId().getTableId() != tableid
+                || ((BTreePageId) rid.getPageId()).pgcateg() != BTreePageId.LEAF)
+            throw new DbException("tuple is not a member of this file");
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        BTreePageId rootId = getRootPtrPage(tid, dirtypages, Permissions.READ_ONLY).getRootId();
+        ArrayList<BTreePageId> path = new ArrayList<BTreePageId>();
+        if (rootId == null || !findPath(tid, dirtypages, rootId, t.getField(keyField),
+                rid.getPageId().pageNumber(), path))
+            throw new DbException("tuple is not a member of this file");
+
+        BTreeLeafPage leaf = (BTreeLeafPage) getPage(tid, dirtypages,
+                (BTreePageId) rid.getPageId(), Permissions.READ_WRITE);
+        leaf.deleteTuple(t);
+        if (!path.isEmpty() && leaf.getNumTuples() < leaf.getMaxTuples() / 2)
+            handleMinOccupancyLeaf(tid, dirtypages, path, leaf);
+        return new ArrayList<Page>(dirtypages.values());
+    }
+
+    /**
+     * Refills a leaf page that is less than half full with tuples from a
+     * sibling with the same parent, or merges the two if the sibling cannot
+     * spare any.
+     */
+    private void handleMinOccupancyLeaf(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            ArrayList<BTreePageId> path, BTreeLeafPage page)
+            throws DbException, IOException, TransactionAbortedException {
+        int level = path.size() - 1;
+        BTreeInternalPage parent = (BTreeInternalPage) getPage(tid, dirtypages, path.get(level),
+                Permissions.READ_WRITE);
+        int i = parent.childIndex(page.getId().pageNumber());
+        BTreeLeafPage left, right;
+        int k;
+        if (i > 0) {
+            k = i - 1;
+            left = (BTreeLeafPage) getPage(tid, dirtypages, parent.getChildId(k), Permissions.READ_WRITE);
+            right = page;
+        } else {
+            k = 0;
+            left = page;
+            right = (BTreeLeafPage) getPage(tid, dirtypages, parent.getChildId(1), Permissions.READ_WRITE);
+        }
+        BTreeLeafPage sibling = left == page ? right : left;
+        if (sibling.getNumTuples() > sibling.getMaxTuples() / 2) {
+            redistributeLeaves(left, right, parent, k);
+            return;
+        }
+
+        // merge right into left
+        while (right.getNumTuples() > 0) {
+            Tuple t = right.getTuple(0);
+            right.deleteTuple(t);
+            left.insertTuple(t);
+        }
+        BTreePageId next = right.getRightSiblingId();
+        left.setRightSiblingId(next);
+        if (next != null) {
+            BTreeLeafPage n = (BTreeLeafPage) getPage(tid, dirtypages, next, Permissions.READ_WRITE);
+            n.setLeftSiblingId(left.getId());
+        }
+        parent.deleteKeyAndRightChild(k);
+        setEmptyPage(tid, dirtypages, right.getId().pageNumber());
+        handleMinOccupancyInternal(tid, dirtypages, path, level);
+    }
+
+    /** Moves tuples between two sibling leaves until they hold about as many. */
+    private void redistributeLeaves(BTreeLeafPage left, BTreeLeafPage right,
+            BTreeInternalPage parent, int k) throws DbException {
+        int keepLeft = (left.getNumTuples() + right.getNumTuples()) / 2;
+        while (left.getNumTuples() > keepLeft) {
+            Tuple t = left.getTuple(left.getNumTuples() - 1);
+            left.deleteTuple(t);
+            right.insertTuple(t);
+        }
+        while (left.getNumTuples() < keepLeft) {
+            Tuple t = right.getTuple(0);
+            right.deleteTuple(t);
+            left.insertTuple(t);
+        }
+        parent.setKey(k, right.getKey(0));
+    }
+
+    /**
+     * Restores the occupancy of internal page path[level] after one of its
+     * entries was deleted: the root is replaced by its only child once it
+     * has no keys left, and other pages less than half full take entries
+     * from a sibling through their parent, or are merged with it.
+     */
+    private void handleMinOccupancyInternal(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            ArrayList<BTreePageId> path, int level)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeInternalPage page = (BTreeInternalPage) getPage(tid, dirtypages, path.get(level),
+                Permissions.READ_WRITE);
+        if (level == 0) {
+            if (page.getNumKeys() == 0) {
+                getRootPtrPage(tid, dirtypages, Permissions.READ_WRITE).setRootId(page.getChildId(0));
+                setEmptyPage(tid, dirtypages, page.getId().pageNumber());
+            }
+            return;
+        }
+        if (page.getNumKeys() >= page.getMaxKeys() / 2)
+            return;
+
+        BTreeInternalPage parent = (BTreeInternalPage) getPage(tid, dirtypages, path.get(level - 1),
+                Permissions.READ_WRITE);
+        int i = parent.childIndex(page.getId().pageNumber());
+        BTreeInternalPage left, right;
+        int k;
+        if (i > 0) {
+            k = i - 1;
+            left = (BTreeInternalPage) getPage(tid, dirtypages, parent.getChildId(k),
+                    Permissions.READ_WRITE);
+            right = page;
+        } else {
+            k = 0;
+            left = page;
+            right = (BTreeInternalPage) getPage(tid, dirtypages, parent.getChildId(1),
+                    Permissions.READ_WRITE);
+        }
+        BTreeInternalPage sibling = left == page ? right : left;
+        if (sibling.getNumKeys() > sibling.getMaxKeys() / 2) {
+            redistributeInternal(left, right, parent, k);
+            return;
+        }
+
+        // merge right into left, pulling down the key between them
+        left.append(parent.getKey(k), right.getChildId(0));
+        for (int j = 0; j < right.getNumKeys(); j++)
+            left.append(right.getKey(j), right.getChildId(j + 1));
+        parent.deleteKeyAndRightChild(k);
+        setEmptyPage(tid, dirtypages, right.getId().pageNumber());
+        handleMinOccupancyInternal(tid, dirtypages, path, level - 1);
+    }
+
+    /**
+     * Rotates entries between two sibling internal pages, through the key
+     * between them in their parent, until they hold about as many keys.
+     */
+    private void redistributeInternal(BTreeInternalPage left, BTreeInternalPage right,
+            BTreeInternalPage parent, int k) throws DbException {
+        int keepLeft = (left.getNumKeys() + right.getNumKeys()) / 2;
+        while (left.getNumKeys() > keepLeft) {
+            int last = left.getNumKeys() - 1;
+            right.insertFirst(left.getChildId(last + 1), parent.getKey(k));
+            parent.setKey(k, left.getKey(last));
+            left.deleteKeyAndRightChild(last);
+        }
+        while (left.getNumKeys() < keepLeft) {
+            left.append(parent.getKey(k), right.getChildId(0));
+            parent.setKey(k, right.getKey(0));
+            right.deleteKeyAndLeftChild(0);
+        }
+    }
+
+    /**
+     * Returns an empty page of the specified category, reusing a page freed
+     * by an earlier delete if there is one and appending a page to the file
+     * otherwise. The page is cleared on disk and any copy of it the
+     * BufferPool holds under its old category is discarded; its old contents
+     * are no longer referenced by the tree.
+     */
+    private Page getEmptyPage(TransactionId tid, HashMap<PageId, Page> dirtypages, int pgcateg)
+            throws DbException, IOException, TransactionAbortedException {
+        int pgNo = getEmptyPageNo(tid, dirtypages);
+        for (int c = BTreePageId.INTERNAL; c <= BTreePageId.HEADER; c++) {
+            BTreePageId old = new BTreePageId(tableid, pgNo, c);
+            dirtypages.remove(old);
+            Database.getBufferPool().discardPage(old);
+        }
+        writePageData(pgNo, BTreeLeafPage.createEmptyPageData());
+        return getPage(tid, dirtypages, new BTreePageId(tableid, pgNo, pgcateg),
+                Permissions.READ_WRITE);
+    }
+
+    /** @return the number of a free page, marked as used, or of a new page */
+    private int getEmptyPageNo(TransactionId tid, HashMap<PageId, Page> dirtypages)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreePageId hid = getRootPtrPage(tid, dirtypages, Permissions.READ_ONLY).getHeaderId();
+        for (int k = 0; hid != null; k++) {
+            BTreeHeaderPage h = (BTreeHeaderPage) getPage(tid, dirtypages, hid, Permissions.READ_ONLY);
+            int slot = h.getEmptySlot();
+            if (slot >= 0) {
+                h = (BTreeHeaderPage) getPage(tid, dirtypages, hid, Permissions.READ_WRITE);
+                h.markSlotUsed(slot, true);
+                return k * BTreeHeaderPage.getNumSlots() + slot;
+            }
+            hid = h.getNextPageId();
+        }
+        return appendPage();
+    }
+
+    /** Extends the file by one empty page and returns its number. */
+    private synchronized int appendPage() throws IOException {
+        int pgNo = Math.max(1, numPages());
+        writePageData(pgNo, BTreeLeafPage.createEmptyPageData());
+        return pgNo;
+    }
+
+    /**
+     * Marks page pgNo as free in the header pages, adding header pages until
+     * one tracks pgNo.
+     */
+    private void setEmptyPage(TransactionId tid, HashMap<PageId, Page> dirtypages, int pgNo)
+            throws DbException, IOException, TransactionAbortedException {
+        int slots = BTreeHeaderPage.getNumSlots();
+        BTreePageId hid = getRootPtrPage(tid, dirtypages, Permissions.READ_ONLY).getHeaderId();
+        BTreeHeaderPage prev = null;
+        for (int k = 0; ; k++) {
+            BTreeHeaderPage h;
+            if (hid == null) {
+                hid = new BTreePageId(tableid, appendPage(), BTreePageId.HEADER);
+                h = (BTreeHeaderPage) getPage(tid, dirtypages, hid, Permissions.READ_WRITE);
+                h.init();
+                if (prev == null) {
+                    getRootPtrPage(tid, dirtypages, Permissions.READ_WRITE).setHeaderId(hid);
+                } else {
+                    prev = (BTreeHeaderPage) getPage(tid, dirtypages, prev.getId(),
+                            Permissions.READ_WRITE);
+                    prev.setNextPageId(hid);
+                    h.setPrevPageId(prev.getId());
+                }
+            } else {
+                h = (BTreeHeaderPage) getPage(tid, dirtypages, hid, Permissions.READ_ONLY);
+            }
+            if (k == pgNo / slots) {
+                h = (BTreeHeaderPage) getPage(tid, dirtypages, hid, Permissions.READ_WRITE);
+                h.markSlotUsed(pgNo % slots, false);
+                return;
+            }
+            prev = h;
+            hid = h.getNextPageId();
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BTreeFileIterator(tid, new IndexPredicate[0]);
+    }
+
+    // see IndexFile.java for javadocs
+    public DbFileIterator lookup(TransactionId tid, Field key) {
+        return indexIterator(tid, new IndexPredicate(Predicate.Op.EQUALS, key));
+    }
+
+    /**
+     * Returns an iterator over the tuples whose keys satisfy every one of the
+     * specified predicates, in key order. EQUALS, LESS_THAN and GREATER_THAN
+     * predicates (and their OR_EQ variants) bound the range of leaves read;
+     * NOT_EQUALS predicates only filter the tuples in that range.
+     *
+     * @param tid the transaction the scan is running as a part of
+     * @param preds the predicates on the key field
+     */
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate... preds) {
+        return new BTreeFileIterator(tid, preds);
+    }
+
+    /**
+     * Iterates over the tuples of the leaves in key order, starting at the
+     * leftmost leaf that may hold the lower bound and stopping at the first
+     * key above the upper bound. The tuples of each leaf are copied when the
+     * iterator reaches it.
+     */
+    private class BTreeFileIterator implements DbFileIterator {
+        private final TransactionId tid;
+        private final IndexPredicate[] preds;
+        private Field low, high;
+        private boolean lowInclusive, highInclusive;
+
+        private boolean open = false;
+        private List<Tuple> tuples;
+        private int pos;
+        private BTreePageId nextLeaf;
+        private Tuple next;
+
+        BTreeFileIterator(TransactionId tid, IndexPredicate[] preds) {
+            this.tid = tid;
+            this.preds = preds.clone();
+            for (IndexPredicate p : preds) {
+                Field v = p.getField();
+                switch (p.getOp()) {
+                case EQUALS:
+                    raiseLow(v, true);
+                    lowerHigh(v, true);
+                    break;
+                case GREATER_THAN:
+                    raiseLow(v, false);
+                    break;
+                case GREATER_THAN_OR_EQ:
+                    raiseLow(v, true);
+                    break;
+                case LESS_THAN:
+                    lowerHigh(v, false);
+                    break;
+                case LESS_THAN_OR_EQ:
+                    lowerHigh(v, true);
+                    break;
+                default:
+                    break;
+                }
+            }
+        }
+
+        private void raiseLow(Field v, boolean inclusive) {
+            int c = low == null ? 1 : TupleComparator.compareFields(v, low);
+            if (c > 0 || (c == 0 && !inclusive)) {
+                low = v;
+                lowInclusive = inclusive;
+            }
+        }
+
+        private void lowerHigh(Field v, boolean inclusive) {
+            int c = high == null ? -1 : TupleComparator.compareFields(v, high);
+            if (c < 0 || (c == 0 && !inclusive)) {
+                high = v;
+                highInclusive = inclusive;
+            }
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            open = true;
+            next = null;
+            tuples = null;
+            nextLeaf = null;
+            HashMap<PageId, Page> none = new HashMap<PageId, Page>();
+            BTreePageId rootId = getRootPtrPage(tid, none, Permissions.READ_ONLY).getRootId();
+            if (rootId == null)
+                return;
+            BTreeLeafPage leaf = findLeafPage(tid, none, rootId, Permissions.READ_ONLY, low, null);
+            load(leaf);
+            pos = low == null ? 0 : leaf.lowerBound(low);
+        }
+
+        private void load(BTreeLeafPage leaf) {
+            tuples = new ArrayList<Tuple>();
+            Iterator<Tuple> it = leaf.iterator();
+            while (it.hasNext())
+                tuples.add(it.next());
+            pos = 0;
+            nextLeaf = leaf.getRightSiblingId();
+        }
+
+        private Tuple fetch() throws DbException, TransactionAbortedException {
+            while (tuples != null) {
+                while (pos < tuples.size()) {
+                    Tuple t = tuples.get(pos++);
+                    Field k = t.getField(keyField);
+                    if (low != null) {
+                        int c = TupleComparator.compareFields(k, low);
+                        if (c < 0 || (c == 0 && !lowInclusive))
+                            continue;
+                    }
+                    if (high != null) {
+                        int c = TupleComparator.compareFields(k, high);
+                        if (c > 0 || (c == 0 && !highInclusive)) {
+                            tuples = null;
+                            return null;
+                        }
+                    }
+                    if (matches(k))
+                        return t;
+                }
+                if (nextLeaf == null) {
+                    tuples = null;
+                } else {
+                    load((BTreeLeafPage) Database.getBufferPool().getPage(tid, nextLeaf,
+                            Permissions.READ_ONLY));
+                }
+            }
+            return null;
+        }
+
+        private boolean matches(Field k) {
+            for (IndexPredicate p : preds) {
+                if (!p.matches(k))
+                    return false;
+            }
+            return true;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (!open)
+                return false;
+            if (next == null)
+                next = fetch();
+            return next != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            open = false;
+            tuples = null;
+            next = null;
+        }
+    }
+}
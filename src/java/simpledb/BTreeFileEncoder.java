@@ -0,0 +1,256 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeFileEncoder bulk loads a {@link BTreeFile} from the tuples of an
+ * existing table, which is much faster than inserting them one at a time.
+ * <p>
+ * The tuples are sorted on the key field with an external sort
+ * ({@link OrderBy}), and the leaf pages are then filled left to right, each
+ * up to a fill factor of its capacity. Every level of the tree emits the
+ * first key and page number of each of its pages into a {@link SpillFile},
+ * from which the level above is built the same way, until a level fits on
+ * a single page, which becomes the root. Pages are written to the end of
+ * the output file as they are completed, without going through the
+ * BufferPool, and the root pointer page is written last.
+ * <p>
+ * The last two pages of each level are balanced so that every page other
+ * than the root is at least half full, as BTreeFile expects; so the fill
+ * factor may not be below 0.5. A fill factor of 1 gives the smallest,
+ * fastest tree to read, but the first inserts into any page will split it.
+ */
+public class BTreeFileEncoder {
+
+    /** The fill factor used when none is specified: pages are packed full. */
+    public static final double DEFAULT_FILL_FACTOR = 1.0;
+
+    /**
+     * Builds a BTreeFile holding the tuples of the specified table, packing
+     * pages full and sorting with the default memory budget of
+     * {@link BufferPool#DEFAULT_PAGES} pages.
+     *
+     * @see #build(TransactionId, int, int, File, double, int)
+     */
+    public static BTreeFile build(TransactionId tid, int tableid, int keyField, File outFile)
+            throws IOException, DbException, TransactionAbortedException {
+        return build(tid, tableid, keyField, outFile, DEFAULT_FILL_FACTOR, BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * Builds a BTreeFile holding the tuples of the specified table. The
+     * returned file is not added to the Catalog.
+     *
+     * @param tid the transaction the table is read as a part of
+     * @param tableid the table to index, usually a HeapFile
+     * @param keyField the field to sort the tuples on
+     * @param outFile the file to write the tree to; any existing contents
+     *            are overwritten, so it must not belong to a table in use
+     * @param fillFactor the fraction of each page to fill, from 0.5 to 1
+     * @param memPages the number of pages of tuples the sort may hold in
+     *            memory
+     * @return a BTreeFile over outFile
+     * @throws IOException if the output or temporary files can't be written
+     */
+    public static BTreeFile build(TransactionId tid, int tableid, int keyField, File outFile,
+            double fillFactor, int memPages)
+            throws IOException, DbException, TransactionAbortedException {
+        if (fillFactor < 0.5 || fillFactor > 1)
+            throw new IllegalArgumentException("fill factor must be between 0.5 and 1");
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        BTreeFile bf = new BTreeFile(outFile, keyField, td);
+
+        DbIterator sorted = new OrderBy(new int[] { keyField }, new boolean[] { true },
+                new SeqScan(tid, tableid), memPages);
+        BTreeFileEncoder enc = new BTreeFileEncoder(bf, fillFactor);
+        BTreePageId root = null;
+        try {
+            sorted.open();
+            root = enc.writeLevel(new OperatorInput(sorted), BTreePageId.LEAF);
+            while (root == null && enc.levelPages > 0) {
+                SpillFile level = enc.entries;
+                DbFileIterator it = level.iterator();
+                it.open();
+                try {
+                    root = enc.writeLevel(new FileInput(it), BTreePageId.INTERNAL);
+                } finally {
+                    it.close();
+                    level.delete();
+                }
+            }
+        } finally {
+            sorted.close();
+            enc.close();
+        }
+        if (enc.entries != null)
+            enc.entries.delete();
+
+        // write the root pointer over the placeholder at the start of the file
+        BTreeRootPtrPage rootPtr = new BTreeRootPtrPage(BTreeRootPtrPage.getId(bf.getId()),
+                new byte[BufferPool.getPageSize()]);
+        rootPtr.setRootId(root);
+        RandomAccessFile raf = new RandomAccessFile(outFile, "rw");
+        try {
+            raf.write(rootPtr.getPageData());
+        } finally {
+            raf.close();
+        }
+        return bf;
+    }
+
+    /** A source of sorted tuples, or of (key, page number) entries. */
+    private interface Input {
+        boolean hasNext() throws DbException, TransactionAbortedException;
+        Tuple next() throws DbException, TransactionAbortedException;
+    }
+
+    private static class OperatorInput implements Input {
+        private final DbIterator it;
+        OperatorInput(DbIterator it) { this.it = it; }
+        public boolean hasNext() throws DbException, TransactionAbortedException { return it.hasNext(); }
+        public Tuple next() throws DbException, TransactionAbortedException { return it.next(); }
+    }
+
+    private static class FileInput implements Input {
+        private final DbFileIterator it;
+        FileInput(DbFileIterator it) { this.it = it; }
+        public boolean hasNext() throws DbException, TransactionAbortedException { return it.hasNext(); }
+        public Tuple next() throws DbException, TransactionAbortedException { return it.next(); }
+    }
+
+    private final BTreeFile bf;
+    private final double fillFactor;
+    private final TupleDesc entryDesc;
+    private final DataOutputStream out;
+    private int nextPage;
+
+    /**
+     * The entries for the level above the one last written, the number of
+     * pages and the category of that level.
+     */
+    private SpillFile entries;
+    private int levelPages;
+    private int belowCategory;
+
+    private BTreeFileEncoder(BTreeFile bf, double fillFactor) throws IOException {
+        this.bf = bf;
+        this.fillFactor = fillFactor;
+        this.entryDesc = new TupleDesc(new Type[] {
+                bf.getTupleDesc().getFieldType(bf.keyField()), Type.INT_TYPE });
+        this.out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(bf.getFile()), BufferPool.getPageSize() * 16));
+        // page 0 is the root pointer, written once the root is known
+        out.write(new byte[BufferPool.getPageSize()]);
+        nextPage = 1;
+    }
+
+    private void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Writes one level of the tree from its sorted input: tuples for the
+     * leaf level, or the entries of the level below for an internal level.
+     * The entries for the level above are left in {@link #entries}.
+     *
+     * @return the id of the only page of the level, which is the root, or
+     *         null if the level has several pages (or none, if the table is
+     *         empty)
+     */
+    private BTreePageId writeLevel(Input in, int category)
+            throws IOException, DbException, TransactionAbortedException {
+        int max, min, perPage;
+        if (category == BTreePageId.LEAF) {
+            max = BTreeLeafPage.getMaxTuples(bf.getTupleDesc());
+            min = max / 2;
+            perPage = Math.max(1, (int) (fillFactor * max));
+        } else {
+            // an internal page holds one more child than keys
+            int maxKeys = BTreeInternalPage.getMaxKeys(entryDesc.getFieldType(0));
+            max = maxKeys + 1;
+            min = maxKeys / 2 + 1;
+            perPage = Math.max(2, (int) (fillFactor * maxKeys) + 1);
+        }
+        entries = new SpillFile(entryDesc);
+        levelPages = 0;
+        int firstPage = nextPage;
+
+        // one full page is held back, so that the last two can be balanced
+        ArrayList<Tuple> prev = null;
+        ArrayList<Tuple> cur = new ArrayList<Tuple>(perPage);
+        while (in.hasNext()) {
+            Tuple t = in.next();
+            if (cur.size() == perPage) {
+                if (prev != null)
+                    writePage(prev, category, firstPage, true);
+                prev = cur;
+                cur = new ArrayList<Tuple>(perPage);
+            }
+            cur.add(t);
+        }
+        if (prev != null && cur.size() < min) {
+            if (prev.size() + cur.size() <= max) {
+                prev.addAll(cur);
+                cur.clear();
+            } else {
+                int move = (prev.size() - cur.size()) / 2;
+                List<Tuple> tail = prev.subList(prev.size() - move, prev.size());
+                cur.addAll(0, tail);
+                tail.clear();
+            }
+        }
+        if (prev != null)
+            writePage(prev, category, firstPage, !cur.isEmpty());
+        if (!cur.isEmpty())
+            writePage(cur, category, firstPage, false);
+        belowCategory = category;
+
+        return levelPages == 1 ? new BTreePageId(bf.getId(), firstPage, category) : null;
+    }
+
+    /**
+     * Writes the next page of a level and adds its entry to the level above.
+     *
+     * @param firstPage the page number of the first page of this level
+     * @param more true if another page of this level follows this one
+     */
+    private void writePage(ArrayList<Tuple> items, int category, int firstPage, boolean more)
+            throws IOException, DbException {
+        BTreePageId pid = new BTreePageId(bf.getId(), nextPage, category);
+        byte[] empty = BTreeLeafPage.createEmptyPageData();
+        BTreePage page;
+        Field firstKey;
+        if (category == BTreePageId.LEAF) {
+            BTreeLeafPage leaf = new BTreeLeafPage(pid, empty, bf.getTupleDesc(), bf.keyField());
+            for (Tuple t : items)
+                leaf.insertTuple(t);
+            if (pid.pageNumber() > firstPage)
+                leaf.setLeftSiblingId(new BTreePageId(bf.getId(), nextPage - 1, category));
+            if (more)
+                leaf.setRightSiblingId(new BTreePageId(bf.getId(), nextPage + 1, category));
+            firstKey = items.get(0).getField(bf.keyField());
+            page = leaf;
+        } else {
+            BTreeInternalPage internal = new BTreeInternalPage(pid, empty, bf.getTupleDesc(),
+                    bf.keyField());
+            internal.setOnlyChild(childId(items.get(0)));
+            for (int i = 1; i < items.size(); i++)
+                internal.append(items.get(i).getField(0), childId(items.get(i)));
+            firstKey = items.get(0).getField(0);
+            page = internal;
+        }
+        out.write(page.getPageData());
+
+        Tuple entry = new Tuple(entryDesc);
+        entry.setField(0, firstKey);
+        entry.setField(1, new IntField(nextPage));
+        entries.add(entry);
+        nextPage++;
+        levelPages++;
+    }
+
+    private BTreePageId childId(Tuple entry) {
+        return new BTreePageId(bf.getId(), ((IntField) entry.getField(1)).getValue(), belowCategory);
+    }
+}
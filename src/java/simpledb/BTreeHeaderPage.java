@@ -0,0 +1,155 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * BTreeHeaderPages track which pages of a BTreeFile are in use, so that
+ * pages freed by deletes are reused before the file grows. The header pages
+ * form a linked list starting at the root pointer page, and the kth header
+ * page of the list has one bit for each of the getNumSlots() pages starting
+ * at page k * getNumSlots(); a set bit means the page is in use. A new
+ * header page starts with every bit set, since pages are only marked free
+ * once they are released.
+ * <p>
+ * The format of a header page is the page numbers of the previous and the
+ * next header page (0 if there is none), followed by the bitmap.
+ *
+ * @see BTreeFile
+ */
+public class BTreeHeaderPage implements Page {
+
+    /** Bytes of page header: previous and next page. */
+    static final int HEADER_SIZE = 8;
+
+    private final BTreePageId pid;
+    private int prev;
+    private int next;
+    private final byte[] bitmap;
+
+    private volatile TransactionId dirtier;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a BTreeHeaderPage from a set of bytes of data read from disk.
+     */
+    public BTreeHeaderPage(BTreePageId id, byte[] data) throws IOException {
+        this.pid = id;
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        prev = dis.readInt();
+        next = dis.readInt();
+        bitmap = new byte[BufferPool.getPageSize() - HEADER_SIZE];
+        dis.readFully(bitmap);
+        dis.close();
+        setBeforeImage();
+    }
+
+    /** @return the number of pages a header page tracks */
+    public static int getNumSlots() {
+        return (BufferPool.getPageSize() - HEADER_SIZE) * 8;
+    }
+
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    /** Marks every page this header page tracks as in use. */
+    public void init() {
+        java.util.Arrays.fill(bitmap, (byte) 0xff);
+    }
+
+    /** @return the id of the previous header page, or null if this is the first */
+    public BTreePageId getPrevPageId() {
+        return prev == 0 ? null : new BTreePageId(pid.getTableId(), prev, BTreePageId.HEADER);
+    }
+
+    /** @return the id of the next header page, or null if this is the last */
+    public BTreePageId getNextPageId() {
+        return next == 0 ? null : new BTreePageId(pid.getTableId(), next, BTreePageId.HEADER);
+    }
+
+    public void setPrevPageId(BTreePageId id) {
+        prev = id == null ? 0 : id.pageNumber();
+    }
+
+    public void setNextPageId(BTreePageId id) {
+        next = id == null ? 0 : id.pageNumber();
+    }
+
+    /** @return true if the ith page tracked by this header page is in use */
+    public boolean isSlotUsed(int i) {
+        return (bitmap[i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    /** Marks the ith page tracked by this header page as in use or free. */
+    public void markSlotUsed(int i, boolean value) {
+        byte mask = (byte) (1 << (i % 8));
+        if (value)
+            bitmap[i / 8] |= mask;
+        else
+            bitmap[i / 8] &= ~mask;
+    }
+
+    /** @return the index of the first free page tracked by this page, or -1 */
+    public int getEmptySlot() {
+        for (int b = 0; b < bitmap.length; b++) {
+            if (bitmap[b] != (byte) 0xff) {
+                for (int i = b * 8; i < b * 8 + 8; i++) {
+                    if (!isSlotUsed(i))
+                        return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(prev);
+            dos.writeInt(next);
+            dos.write(bitmap);
+            return BTreePage.finish(baos, dos);
+        } catch (IOException e) {
+            // writing to a byte array does not fail
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Return a view of this page before it was modified -- used by recovery */
+    public BTreeHeaderPage getBeforeImage() {
+        try {
+            byte[] oldDataRef;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new BTreeHeaderPage(pid, oldDataRef);
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData().clone();
+        }
+    }
+}
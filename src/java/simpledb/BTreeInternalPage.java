@@ -0,0 +1,261 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Each instance of BTreeInternalPage stores data for one internal page of a
+ * BTreeFile: n keys and the n + 1 children between and around them. Every
+ * key in child i is less than or equal to key i, and every key in child
+ * i + 1 is greater than or equal to it. All children of a page are of the
+ * same category, either internal pages or leaf pages.
+ * <p>
+ * The format of an internal page is the category of its children, the
+ * number of keys n, and then the page number of child 0 followed by n
+ * pairs of key i and the page number of child i + 1, packed at the start
+ * of the page.
+ *
+ * @see BTreeFile
+ * @see BufferPool
+ */
+public class BTreeInternalPage extends BTreePage {
+
+    /** Bytes of page header: child category, key count and child 0. */
+    static final int HEADER_SIZE = 12;
+
+    private int childCategory;
+    private final Field[] keys;
+    private final int[] children;
+    private int numKeys;
+
+    /**
+     * Create a BTreeInternalPage from a set of bytes of data read from disk.
+     *
+     * @param id the id of this page
+     * @param data the page's bytes
+     * @param td the schema of the tuples of the file
+     * @param keyField the index of the field the file is sorted on
+     */
+    public BTreeInternalPage(BTreePageId id, byte[] data, TupleDesc td, int keyField)
+            throws IOException {
+        super(id, td, keyField);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        childCategory = dis.readInt();
+        numKeys = dis.readInt();
+        int max = getMaxKeys(keyType());
+        if (numKeys < 0 || numKeys > max)
+            throw new IOException("corrupt internal page " + id + ": " + numKeys + " keys");
+        keys = new Field[max];
+        children = new int[max + 1];
+        children[0] = dis.readInt();
+        for (int i = 0; i < numKeys; i++) {
+            keys[i] = readField(dis, keyType());
+            children[i + 1] = dis.readInt();
+        }
+        dis.close();
+        setBeforeImage();
+    }
+
+    /** @return the number of keys an internal page with keys of type t holds */
+    public static int getMaxKeys(Type t) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / (t.getLen() + 4);
+    }
+
+    /** @return the number of keys this page holds when full */
+    public int getMaxKeys() {
+        return keys.length;
+    }
+
+    /** @return the number of keys on this page; it has one more child */
+    public int getNumKeys() {
+        return numKeys;
+    }
+
+    /** @return the number of keys that can still be added to this page */
+    public int getNumEmptySlots() {
+        return keys.length - numKeys;
+    }
+
+    /** @return the ith key of this page */
+    public Field getKey(int i) {
+        if (i < 0 || i >= numKeys)
+            throw new NoSuchElementException("no key " + i + " on page " + pid);
+        return keys[i];
+    }
+
+    /** Replaces the ith key of this page. */
+    public void setKey(int i, Field key) {
+        getKey(i);
+        keys[i] = key;
+    }
+
+    /** @return the id of the ith child of this page, for i from 0 to getNumKeys() */
+    public BTreePageId getChildId(int i) {
+        if (i < 0 || i > numKeys || children[i] == 0)
+            throw new NoSuchElementException("no child " + i + " on page " + pid);
+        return new BTreePageId(pid.getTableId(), children[i], childCategory);
+    }
+
+    /** @return the index of the child with page number pgNo, or -1 if there is none */
+    public int childIndex(int pgNo) {
+        for (int i = 0; i <= numKeys; i++) {
+            if (children[i] == pgNo)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index of the leftmost child that may hold key: the first
+     *         child whose key is not less than key, or the last child; 0 if
+     *         key is null
+     */
+    public int findChild(Field key) {
+        if (key == null)
+            return 0;
+        int lo = 0, hi = numKeys;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (TupleComparator.compareFields(keys[mid], key) < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * @return the index of the rightmost child that may hold key: the first
+     *         child whose key is greater than key, or the last child
+     */
+    public int findLastChild(Field key) {
+        int lo = 0, hi = numKeys;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (TupleComparator.compareFields(keys[mid], key) <= 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Makes the specified page the only child of this empty page, and sets
+     * the category of this page's children to its category.
+     */
+    public void setOnlyChild(BTreePageId child) {
+        if (numKeys != 0)
+            throw new IllegalStateException("page " + pid + " already has keys");
+        checkCategory(child, true);
+        children[0] = child.pageNumber();
+    }
+
+    private void checkCategory(BTreePageId child, boolean set) {
+        if (child.pgcateg() != BTreePageId.INTERNAL && child.pgcateg() != BTreePageId.LEAF)
+            throw new IllegalArgumentException("a child must be an internal or leaf page");
+        if (set)
+            childCategory = child.pgcateg();
+        else if (child.pgcateg() != childCategory)
+            throw new IllegalArgumentException("child " + child + " has the wrong category");
+    }
+
+    /**
+     * Inserts key and the child to its right immediately after the specified
+     * existing child.
+     *
+     * @throws DbException if the page is full or left is not a child of it
+     */
+    public void insertEntry(BTreePageId left, Field key, BTreePageId right) throws DbException {
+        checkCategory(right, false);
+        int j = childIndex(left.pageNumber());
+        if (j < 0)
+            throw new DbException(left + " is not a child of " + pid);
+        if (numKeys == keys.length)
+            throw new DbException("page is full");
+        System.arraycopy(keys, j, keys, j + 1, numKeys - j);
+        System.arraycopy(children, j + 1, children, j + 2, numKeys - j);
+        keys[j] = key;
+        children[j + 1] = right.pageNumber();
+        numKeys++;
+    }
+
+    /**
+     * Adds child and the key to its right before the first child.
+     *
+     * @throws DbException if the page is full
+     */
+    public void insertFirst(BTreePageId child, Field key) throws DbException {
+        checkCategory(child, numKeys == 0 && children[0] == 0);
+        if (numKeys == keys.length)
+            throw new DbException("page is full");
+        System.arraycopy(keys, 0, keys, 1, numKeys);
+        System.arraycopy(children, 0, children, 1, numKeys + 1);
+        keys[0] = key;
+        children[0] = child.pageNumber();
+        numKeys++;
+    }
+
+    /**
+     * Adds key and the child to its right after the last child.
+     *
+     * @throws DbException if the page is full
+     */
+    public void append(Field key, BTreePageId child) throws DbException {
+        checkCategory(child, false);
+        if (numKeys == keys.length)
+            throw new DbException("page is full");
+        keys[numKeys] = key;
+        children[++numKeys] = child.pageNumber();
+    }
+
+    /** Removes the ith key and the child to its right. */
+    public void deleteKeyAndRightChild(int i) {
+        getKey(i);
+        System.arraycopy(keys, i + 1, keys, i, numKeys - i - 1);
+        System.arraycopy(children, i + 2, children, i + 1, numKeys - i - 1);
+        keys[--numKeys] = null;
+        children[numKeys + 1] = 0;
+    }
+
+    /** Removes the ith key and the child to its left. */
+    public void deleteKeyAndLeftChild(int i) {
+        getKey(i);
+        System.arraycopy(keys, i + 1, keys, i, numKeys - i - 1);
+        System.arraycopy(children, i + 1, children, i, numKeys - i);
+        keys[--numKeys] = null;
+        children[numKeys + 1] = 0;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, which
+     * can be passed to the constructor to produce an identical page.
+     */
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(childCategory);
+            dos.writeInt(numKeys);
+            dos.writeInt(children[0]);
+            for (int i = 0; i < numKeys; i++) {
+                keys[i].serialize(dos);
+                dos.writeInt(children[i + 1]);
+            }
+            return finish(baos, dos);
+        } catch (IOException e) {
+            // writing to a byte array does not fail
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Return a view of this page before it was modified -- used by recovery */
+    public BTreeInternalPage getBeforeImage() {
+        try {
+            return new BTreeInternalPage(pid, beforeImageData(), td, keyField);
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Each instance of BTreeLeafPage stores data for one leaf page of a
+ * BTreeFile: the tuples themselves, in order of their key field.
+ * <p>
+ * The format of a leaf page is the page number of its left sibling and of
+ * its right sibling (0 if there is none), the number of tuples on the page,
+ * and then that many tuples, packed at the start of the page in key order,
+ * followed by empty slots. A tuple's RecordId names its slot,
+ * so tuples already on the page get new RecordIds when a tuple is inserted
+ * or deleted before them; those Tuple objects are updated in place.
+ *
+ * @see BTreeFile
+ * @see BufferPool
+ */
+public class BTreeLeafPage extends BTreePage {
+
+    /** Bytes of page header: left and right sibling and tuple count. */
+    static final int HEADER_SIZE = 12;
+
+    private int leftSibling;
+    private int rightSibling;
+    private final Tuple[] tuples;
+    private int numTuples;
+
+    /**
+     * Create a BTreeLeafPage from a set of bytes of data read from disk.
+     *
+     * @param id the id of this page
+     * @param data the page's bytes
+     * @param td the schema of the tuples of the file
+     * @param keyField the index of the field the file is sorted on
+     */
+    public BTreeLeafPage(BTreePageId id, byte[] data, TupleDesc td, int keyField)
+            throws IOException {
+        super(id, td, keyField);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        leftSibling = dis.readInt();
+        rightSibling = dis.readInt();
+        numTuples = dis.readInt();
+        tuples = new Tuple[getMaxTuples(td)];
+        if (numTuples < 0 || numTuples > tuples.length)
+            throw new IOException("corrupt leaf page " + id + ": " + numTuples + " tuples");
+        for (int i = 0; i < numTuples; i++) {
+            Tuple t = new Tuple(td);
+            for (int j = 0; j < td.numFields(); j++)
+                t.setField(j, readField(dis, td.getFieldType(j)));
+            t.setRecordId(new RecordId(pid, i));
+            tuples[i] = t;
+        }
+        dis.close();
+        setBeforeImage();
+    }
+
+    /** @return the number of tuples a leaf page of the specified schema holds */
+    public static int getMaxTuples(TupleDesc td) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / td.getSize();
+    }
+
+    /** @return the number of tuples this page holds when full */
+    public int getMaxTuples() {
+        return tuples.length;
+    }
+
+    /** @return the number of tuples on this page */
+    public int getNumTuples() {
+        return numTuples;
+    }
+
+    /** @return the number of empty slots on this page */
+    public int getNumEmptySlots() {
+        return tuples.length - numTuples;
+    }
+
+    /** @return the ith tuple of this page in key order */
+    public Tuple getTuple(int i) {
+        if (i < 0 || i >= numTuples)
+            throw new NoSuchElementException("no tuple " + i + " on page " + pid);
+        return tuples[i];
+    }
+
+    /** @return the key of the ith tuple of this page */
+    public Field getKey(int i) {
+        return getTuple(i).getField(keyField);
+    }
+
+    /** @return the id of the left sibling of this page, or null if there is none */
+    public BTreePageId getLeftSiblingId() {
+        return siblingId(leftSibling);
+    }
+
+    /** @return the id of the right sibling of this page, or null if there is none */
+    public BTreePageId getRightSiblingId() {
+        return siblingId(rightSibling);
+    }
+
+    private BTreePageId siblingId(int pgNo) {
+        return pgNo == 0 ? null : new BTreePageId(pid.getTableId(), pgNo, BTreePageId.LEAF);
+    }
+
+    /** Sets the left sibling of this page; null if there is none. */
+    public void setLeftSiblingId(BTreePageId id) {
+        leftSibling = id == null ? 0 : id.pageNumber();
+    }
+
+    /** Sets the right sibling of this page; null if there is none. */
+    public void setRightSiblingId(BTreePageId id) {
+        rightSibling = id == null ? 0 : id.pageNumber();
+    }
+
+    /**
+     * @return the index of the first tuple whose key is not less than key,
+     *         or getNumTuples() if there is none
+     */
+    public int lowerBound(Field key) {
+        int lo = 0, hi = numTuples;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (TupleComparator.compareFields(getKey(mid), key) < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Adds the specified tuple to the page after any tuples with the same
+     * key; the tuple is updated to reflect that it is now stored on this
+     * page.
+     *
+     * @throws DbException if the page is full or tupledesc is mismatch.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tupledesc mismatch");
+        if (numTuples == tuples.length)
+            throw new DbException("page is full");
+        Field key = t.getField(keyField);
+        int lo = 0, hi = numTuples;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (TupleComparator.compareFields(getKey(mid), key) <= 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        System.arraycopy(tuples, lo, tuples, lo + 1, numTuples - lo);
+        tuples[lo] = t;
+        numTuples++;
+        renumber(lo);
+    }
+
+    /**
+     * Delete the specified tuple from the page; the tuple is updated to
+     * reflect that it is no longer stored on any page.
+     *
+     * @throws DbException if this tuple is not on this page
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("tuple is not on this page");
+        int slot = rid.tupleno();
+        if (slot < 0 || slot >= numTuples)
+            throw new DbException("tuple slot is already empty");
+        Tuple removed = tuples[slot];
+        System.arraycopy(tuples, slot + 1, tuples, slot, numTuples - slot - 1);
+        tuples[--numTuples] = null;
+        renumber(slot);
+        removed.setRecordId(null);
+        t.setRecordId(null);
+    }
+
+    /** Points the RecordIds of the tuples from slot from onwards at their slots. */
+    private void renumber(int from) {
+        for (int i = from; i < numTuples; i++)
+            tuples[i].setRecordId(new RecordId(pid, i));
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, which
+     * can be passed to the constructor to produce an identical page.
+     */
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(leftSibling);
+            dos.writeInt(rightSibling);
+            dos.writeInt(numTuples);
+            for (int i = 0; i < numTuples; i++) {
+                for (int j = 0; j < td.numFields(); j++)
+                    tuples[i].getField(j).serialize(dos);
+            }
+            return finish(baos, dos);
+        } catch (IOException e) {
+            // writing to a byte array does not fail
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Return a view of this page before it was modified -- used by recovery */
+    public BTreeLeafPage getBeforeImage() {
+        try {
+            return new BTreeLeafPage(pid, beforeImageData(), td, keyField);
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return an iterator over the tuples of this page in key order (calling
+     *         remove on this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        List<Tuple> copy = new ArrayList<Tuple>(Arrays.asList(tuples).subList(0, numTuples));
+        return Collections.unmodifiableList(copy).iterator();
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty page
+     * of a BTreeFile; it parses as a leaf page without tuples or siblings,
+     * an internal page without children, or a header page.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+}
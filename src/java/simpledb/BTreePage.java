@@ -0,0 +1,92 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * The state shared by the internal and leaf pages of a BTreeFile: the
+ * page's id, the schema and key field of the file, and the dirty flag and
+ * before image every Page keeps. Pages do not point to their parents;
+ * BTreeFile keeps track of the path from the root as it descends the tree,
+ * so that splitting or merging a page never has to update its children.
+ *
+ * @see BTreeFile
+ */
+public abstract class BTreePage implements Page {
+
+    final BTreePageId pid;
+    final TupleDesc td;
+    final int keyField;
+
+    private volatile TransactionId dirtier;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    BTreePage(BTreePageId id, TupleDesc td, int keyField) {
+        this.pid = id;
+        this.td = td;
+        this.keyField = keyField;
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    /** @return the type of the key field of this page's file */
+    Type keyType() {
+        return td.getFieldType(keyField);
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData().clone();
+        }
+    }
+
+    /** @return the bytes of this page before it was modified */
+    byte[] beforeImageData() {
+        synchronized (oldDataLock) {
+            return oldData;
+        }
+    }
+
+    /** Pads the data written so far to a whole page and returns it. */
+    static byte[] finish(ByteArrayOutputStream baos, DataOutputStream dos) throws IOException {
+        int pad = BufferPool.getPageSize() - baos.size();
+        dos.write(new byte[pad]);
+        dos.flush();
+        return baos.toByteArray();
+    }
+
+    /** Writes len bytes of zeroes, for an empty slot. */
+    static void writeZeroes(DataOutputStream dos, int len) throws IOException {
+        dos.write(new byte[len]);
+    }
+
+    /** Reads a field of type t, converting parse errors to IOExceptions. */
+    static Field readField(DataInputStream dis, Type t) throws IOException {
+        try {
+            return t.parse(dis);
+        } catch (java.text.ParseException e) {
+            throw new IOException("parsing error: " + e.getMessage());
+        }
+    }
+}
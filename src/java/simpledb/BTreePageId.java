@@ -0,0 +1,86 @@
+package simpledb;
+
+/**
+ * Unique identifier for the pages of a BTreeFile: its root pointer page,
+ * internal pages, leaf pages and header pages. The category of a page is
+ * part of its id, so that BTreeFile knows how to parse the page when it is
+ * read.
+ */
+public class BTreePageId implements PageId {
+
+    public final static int ROOT_PTR = 0;
+    public final static int INTERNAL = 1;
+    public final static int LEAF = 2;
+    public final static int HEADER = 3;
+
+    private final int tableId;
+    private final int pgNo;
+    private final int pgcateg;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific table.
+     *
+     * @param tableId The table that is being referenced
+     * @param pgNo The page number in that table.
+     * @param pgcateg The category of the page: ROOT_PTR, INTERNAL, LEAF or
+     *            HEADER
+     */
+    public BTreePageId(int tableId, int pgNo, int pgcateg) {
+        if (pgcateg < ROOT_PTR || pgcateg > HEADER)
+            throw new IllegalArgumentException("invalid page category " + pgcateg);
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+        this.pgcateg = pgcateg;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the page number in the table getTableId() associated with
+     *   this PageId
+     */
+    public int pageNumber() {
+        return pgNo;
+    }
+
+    /** @return the category of this page */
+    public int pgcateg() {
+        return pgcateg;
+    }
+
+    public int hashCode() {
+        return (tableId * 31 + pgNo) * 4 + pgcateg;
+    }
+
+    /**
+     * Compares one PageId to another.
+     *
+     * @return true if o is a BTreePageId with the same table, page number
+     *   and category
+     */
+    public boolean equals(Object o) {
+        if (!(o instanceof BTreePageId))
+            return false;
+        BTreePageId other = (BTreePageId) o;
+        return tableId == other.tableId && pgNo == other.pgNo && pgcateg == other.pgcateg;
+    }
+
+    public String toString() {
+        String[] names = { "ROOT_PTR", "INTERNAL", "LEAF", "HEADER" };
+        return "(" + tableId + ", " + pgNo + ", " + names[pgcateg] + ")";
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.  Size of returned array must contain
+     *  number of integers that corresponds to number of args to one of the
+     *  constructors.
+     */
+    public int[] serialize() {
+        return new int[] { tableId, pgNo, pgcateg };
+    }
+}
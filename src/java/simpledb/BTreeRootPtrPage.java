@@ -0,0 +1,123 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * BTreeRootPtrPage is page 0 of every BTreeFile. It records the page
+ * number and category of the root of the tree, and the page number of the
+ * first header page, which tracks the pages of the file that are free. A
+ * page number of 0 means the tree is empty, or has no header pages.
+ * <p>
+ * The format of the page is the root page number, the root category and
+ * the first header page number, each an int, followed by padding.
+ *
+ * @see BTreeFile
+ */
+public class BTreeRootPtrPage implements Page {
+
+    private final BTreePageId pid;
+    private int root;
+    private int rootCategory;
+    private int header;
+
+    private volatile TransactionId dirtier;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a BTreeRootPtrPage from a set of bytes of data read from disk.
+     */
+    public BTreeRootPtrPage(BTreePageId id, byte[] data) throws IOException {
+        this.pid = id;
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        root = dis.readInt();
+        rootCategory = dis.readInt();
+        header = dis.readInt();
+        dis.close();
+        setBeforeImage();
+    }
+
+    /** @return the id of the root pointer page of the specified table */
+    public static BTreePageId getId(int tableid) {
+        return new BTreePageId(tableid, 0, BTreePageId.ROOT_PTR);
+    }
+
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    /** @return the id of the root of the tree, or null if the tree is empty */
+    public BTreePageId getRootId() {
+        return root == 0 ? null : new BTreePageId(pid.getTableId(), root, rootCategory);
+    }
+
+    /** Sets the root of the tree; null if the tree becomes empty. */
+    public void setRootId(BTreePageId id) {
+        if (id != null && id.pgcateg() != BTreePageId.INTERNAL && id.pgcateg() != BTreePageId.LEAF)
+            throw new IllegalArgumentException("the root must be an internal or leaf page");
+        root = id == null ? 0 : id.pageNumber();
+        rootCategory = id == null ? 0 : id.pgcateg();
+    }
+
+    /** @return the id of the first header page, or null if there is none */
+    public BTreePageId getHeaderId() {
+        return header == 0 ? null : new BTreePageId(pid.getTableId(), header, BTreePageId.HEADER);
+    }
+
+    /** Sets the first header page; null if there is none. */
+    public void setHeaderId(BTreePageId id) {
+        if (id != null && id.pgcateg() != BTreePageId.HEADER)
+            throw new IllegalArgumentException("not a header page: " + id);
+        header = id == null ? 0 : id.pageNumber();
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(root);
+            dos.writeInt(rootCategory);
+            dos.writeInt(header);
+            return BTreePage.finish(baos, dos);
+        } catch (IOException e) {
+            // writing to a byte array does not fail
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Return a view of this page before it was modified -- used by recovery */
+    public BTreeRootPtrPage getBeforeImage() {
+        try {
+            byte[] oldDataRef;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new BTreeRootPtrPage(pid, oldDataRef);
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData().clone();
+        }
+    }
+}
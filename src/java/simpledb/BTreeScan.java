@@ -0,0 +1,93 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BTreeScan is an index scan access method: it reads the tuples of a table
+ * stored in a {@link BTreeFile} whose keys satisfy a set of predicates, in
+ * key order, reading only the leaves that may hold them. Each tuple carries
+ * the RecordId of its slot in the file, so callers that only need to locate
+ * rows can use {@link Tuple#getRecordId} and ignore the fields.
+ */
+public class BTreeScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final String alias;
+    private final IndexPredicate[] preds;
+    private transient DbFileIterator it;
+
+    /**
+     * Creates an index scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan; it must be stored in a BTreeFile
+     * @param tableAlias
+     *            the alias of this table (needed by the parser)
+     * @param preds
+     *            predicates on the key field the returned tuples satisfy;
+     *            none for a scan of the whole table in key order
+     * @see BTreeFile#indexIterator
+     */
+    public BTreeScan(TransactionId tid, int tableid, String tableAlias, IndexPredicate... preds) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof BTreeFile))
+            throw new IllegalArgumentException("index scans require a BTreeFile");
+        this.tid = tid;
+        this.tableid = tableid;
+        this.alias = tableAlias;
+        this.preds = preds.clone();
+    }
+
+    /**
+     * @return the actual name of the table in the catalog of the database
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    /**
+     * @return Return the alias of the table this operator scans.
+     */
+    public String getAlias() {
+        return alias;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        it = ((BTreeFile) Database.getCatalog().getDatabaseFile(tableid)).indexIterator(tid, preds);
+        it.open();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return Database.getCatalog().getTupleDesc(tableid);
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (it == null)
+            throw new IllegalStateException("BTreeScan not yet open");
+        return it.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (it == null)
+            throw new IllegalStateException("BTreeScan not yet open");
+        return it.next();
+    }
+
+    public void close() {
+        if (it != null)
+            it.close();
+        it = null;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException, TransactionAbortedException {
+        if (it == null)
+            throw new IllegalStateException("BTreeScan not yet open");
+        it.rewind();
+    }
+}
@@ -0,0 +1,190 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BitmapIndex indexes one column of a HeapFile with a {@link RoaringBitmap}
+ * per distinct value, holding the positions of the tuples with that value.
+ * The position of the tuple in slot s of page p is p * n + s, where n is
+ * the number of slots on a page of the file, so the positions of a page
+ * are contiguous and bitmaps of tuples that are close in the file compress
+ * well.
+ * <p>
+ * It is meant for columns with few distinct values. A predicate on the
+ * column is answered with the union of the bitmaps of the values that
+ * satisfy it, and predicates on several indexed columns are combined with
+ * {@link RoaringBitmap#and}, {@link RoaringBitmap#or} and
+ * {@link RoaringBitmap#andNot} before any page of the file is read; a
+ * {@link BitmapScan} then reads just the tuples in the result.
+ * <p>
+ * An index is built by scanning the file with {@link #build}, can be kept
+ * up to date with {@link #insert} and {@link #delete}, and can be saved to
+ * and loaded from a file of its own with {@link #writeTo} and
+ * {@link #readFrom}.
+ */
+public class BitmapIndex {
+
+    private final int tableid;
+    private final int field;
+    private final int slotsPerPage;
+    private final HashMap<Field, RoaringBitmap> bitmaps = new HashMap<Field, RoaringBitmap>();
+
+    private BitmapIndex(int tableid, int field, int slotsPerPage) {
+        this.tableid = tableid;
+        this.field = field;
+        this.slotsPerPage = slotsPerPage;
+    }
+
+    private static HeapFile heapFile(int tableid) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof HeapFile))
+            throw new IllegalArgumentException("bitmap indexes require a HeapFile");
+        return (HeapFile) f;
+    }
+
+    /**
+     * Builds an index of the specified field of a table by scanning it.
+     *
+     * @param tid the transaction the scan is running as a part of
+     * @param tableid the table to index; it must be stored in a HeapFile
+     * @param field the field to index
+     */
+    public static BitmapIndex build(TransactionId tid, int tableid, int field)
+            throws DbException, TransactionAbortedException {
+        HeapFile hf = heapFile(tableid);
+        if (field < 0 || field >= hf.getTupleDesc().numFields())
+            throw new IllegalArgumentException("invalid field " + field);
+        BitmapIndex index = new BitmapIndex(tableid, field, hf.tuplesPerPage());
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            index.insert(it.next());
+        it.close();
+        return index;
+    }
+
+    /** @return the table this index is on */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /** @return the field this index is on */
+    public int getField() {
+        return field;
+    }
+
+    /** @return the number of distinct values in the index */
+    public int getNumValues() {
+        return bitmaps.size();
+    }
+
+    /** @return the total size of the bitmaps of the index, in bytes */
+    public int getSizeInBytes() {
+        int n = 0;
+        for (RoaringBitmap b : bitmaps.values())
+            n += b.getSizeInBytes();
+        return n;
+    }
+
+    /** @return the position of the tuple with the specified RecordId */
+    public int position(RecordId rid) {
+        return rid.getPageId().pageNumber() * slotsPerPage + rid.tupleno();
+    }
+
+    /** @return the RecordId of the tuple at the specified position */
+    public RecordId recordId(int position) {
+        return new RecordId(new HeapPageId(tableid, position / slotsPerPage),
+                position % slotsPerPage);
+    }
+
+    /** Adds a tuple that has been inserted into the table to the index. */
+    public void insert(Tuple t) {
+        Field v = t.getField(field);
+        RoaringBitmap b = bitmaps.get(v);
+        if (b == null) {
+            b = new RoaringBitmap();
+            bitmaps.put(v, b);
+        }
+        b.add(position(t.getRecordId()));
+    }
+
+    /**
+     * Removes a tuple from the index, before it is deleted from the table
+     * (while it still has its RecordId).
+     */
+    public void delete(Tuple t) {
+        Field v = t.getField(field);
+        RoaringBitmap b = bitmaps.get(v);
+        if (b == null)
+            return;
+        b.remove(position(t.getRecordId()));
+        if (b.isEmpty())
+            bitmaps.remove(v);
+    }
+
+    /**
+     * Returns the positions of the tuples whose field satisfies the
+     * predicate "field op value". The result is a new bitmap, which the
+     * caller may modify.
+     */
+    public RoaringBitmap lookup(Predicate.Op op, Field value) {
+        if (op == Predicate.Op.EQUALS) {
+            RoaringBitmap b = bitmaps.get(value);
+            return b == null ? new RoaringBitmap() : b.copy();
+        }
+        RoaringBitmap r = new RoaringBitmap();
+        for (Map.Entry<Field, RoaringBitmap> e : bitmaps.entrySet()) {
+            if (e.getKey().compare(op, value))
+                r = r.or(e.getValue());
+        }
+        return r;
+    }
+
+    /**
+     * Writes this index to a file: the field, the number of slots per page,
+     * and then each distinct value followed by its bitmap.
+     */
+    public void writeTo(File f) throws IOException {
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+        try {
+            dos.writeInt(field);
+            dos.writeInt(slotsPerPage);
+            dos.writeInt(bitmaps.size());
+            for (Map.Entry<Field, RoaringBitmap> e : bitmaps.entrySet()) {
+                e.getKey().serialize(dos);
+                e.getValue().serialize(dos);
+            }
+        } finally {
+            dos.close();
+        }
+    }
+
+    /**
+     * Reads an index of the specified table written by {@link #writeTo}.
+     *
+     * @throws IOException if the file cannot be read or was written for a
+     *             different page size
+     */
+    public static BitmapIndex readFrom(File f, int tableid) throws IOException {
+        HeapFile hf = heapFile(tableid);
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        try {
+            int field = dis.readInt();
+            int slotsPerPage = dis.readInt();
+            if (field < 0 || field >= hf.getTupleDesc().numFields()
+                    || slotsPerPage != hf.tuplesPerPage())
+                throw new IOException("bitmap index " + f + " does not match table " + tableid);
+            BitmapIndex index = new BitmapIndex(tableid, field, slotsPerPage);
+            Type t = hf.getTupleDesc().getFieldType(field);
+            int n = dis.readInt();
+            for (int i = 0; i < n; i++) {
+                Field v = BTreePage.readField(dis, t);
+                index.bitmaps.put(v, RoaringBitmap.deserialize(dis));
+            }
+            return index;
+        } finally {
+            dis.close();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BitmapScan is an access method that reads the tuples of a HeapFile at the
+ * positions in a bitmap, typically computed from one or more
+ * {@link BitmapIndex}es. Positions are visited in increasing order, so
+ * each page holding a position is read once, and pages without positions
+ * are not read at all. Positions whose slot has been emptied since the
+ * bitmap was computed are skipped.
+ */
+public class BitmapScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final String alias;
+    private final RoaringBitmap positions;
+    private final int slotsPerPage;
+
+    private transient RoaringBitmap.IntIterator it;
+    private transient HeapPage page;
+    private transient Tuple next;
+    private transient int pagesRead;
+
+    /**
+     * Creates a scan of the tuples at the specified positions of a table as
+     * a part of the specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to read; it must be stored in a HeapFile
+     * @param tableAlias
+     *            the alias of this table (needed by the parser)
+     * @param positions
+     *            the positions of the tuples to read, as defined by
+     *            {@link BitmapIndex#position}
+     */
+    public BitmapScan(TransactionId tid, int tableid, String tableAlias, RoaringBitmap positions) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof HeapFile))
+            throw new IllegalArgumentException("bitmap scans require a HeapFile");
+        this.tid = tid;
+        this.tableid = tableid;
+        this.alias = tableAlias;
+        this.positions = positions;
+        this.slotsPerPage = ((HeapFile) f).tuplesPerPage();
+    }
+
+    /**
+     * @return the actual name of the table in the catalog of the database
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    /**
+     * @return Return the alias of the table this operator scans.
+     */
+    public String getAlias() {
+        return alias;
+    }
+
+    /** @return the number of pages read since the scan was last opened */
+    public int getPagesRead() {
+        return pagesRead;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        it = positions.iterator();
+        page = null;
+        next = null;
+        pagesRead = 0;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return Database.getCatalog().getTupleDesc(tableid);
+    }
+
+    private Tuple fetch() throws DbException, TransactionAbortedException {
+        int numPages = ((HeapFile) Database.getCatalog().getDatabaseFile(tableid)).numPages();
+        while (it.hasNext()) {
+            int pos = it.next();
+            int pgNo = pos / slotsPerPage;
+            if (pgNo >= numPages)
+                return null;
+            if (page == null || page.getId().pageNumber() != pgNo) {
+                page = (HeapPage) Database.getBufferPool().getPage(tid,
+                        new HeapPageId(tableid, pgNo), Permissions.READ_ONLY);
+                pagesRead++;
+            }
+            Tuple t = page.getTuple(pos % slotsPerPage);
+            if (t != null)
+                return t;
+        }
+        return null;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (it == null)
+            throw new IllegalStateException("BitmapScan not yet open");
+        if (next == null)
+            next = fetch();
+        return next != null;
+    }
+
+    public Tuple next() throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple t = next;
+        next = null;
+        return t;
+    }
+
+    public void close() {
+        it = null;
+        page = null;
+        next = null;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException, TransactionAbortedException {
+        if (it == null)
+            throw new IllegalStateException("BitmapScan not yet open");
+        open();
+    }
+}
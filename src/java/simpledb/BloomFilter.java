@@ -0,0 +1,118 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * A Bloom filter of Fields: a set that answers whether it might contain a
+ * value, with false positives but no false negatives. A value sets k bits
+ * of an array of m bits, chosen by double hashing its hashCode.
+ */
+public class BloomFilter {
+
+    private final long[] words;
+    private final int numBits;
+    private final int numHashes;
+
+    /**
+     * Creates an empty filter.
+     *
+     * @param numWords the size of the bit array, in 64-bit words
+     * @param numHashes the number of bits each value sets
+     */
+    public BloomFilter(int numWords, int numHashes) {
+        if (numWords < 1 || numHashes < 1)
+            throw new IllegalArgumentException("invalid filter size");
+        words = new long[numWords];
+        numBits = numWords * 64;
+        this.numHashes = numHashes;
+    }
+
+    /**
+     * Creates an empty filter sized for the expected number of values, so
+     * that it has the requested false positive rate once they are added.
+     */
+    public static BloomFilter create(int expectedValues, double falsePositiveRate) {
+        int n = Math.max(1, expectedValues);
+        double bits = -n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        int numWords = Math.max(1, (int) Math.ceil(bits / 64));
+        int numHashes = Math.max(1, (int) Math.round((double) numWords * 64 / n * Math.log(2)));
+        return new BloomFilter(numWords, numHashes);
+    }
+
+    /** @return the size of the bit array, in 64-bit words */
+    public int getNumWords() {
+        return words.length;
+    }
+
+    /** @return the number of bits each value sets */
+    public int getNumHashes() {
+        return numHashes;
+    }
+
+    private static long mix(Field v) {
+        long h = v.hashCode() * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 29;
+        h *= 0xBF58476D1CE4E5B9L;
+        return h ^ (h >>> 32);
+    }
+
+    /** Adds a value to the filter. */
+    public void add(Field v) {
+        long h = mix(v);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        for (int i = 0; i < numHashes; i++) {
+            int bit = ((h1 + i * h2) & 0x7fffffff) % numBits;
+            words[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /** @return false if the value was certainly never added */
+    public boolean mightContain(Field v) {
+        long h = mix(v);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        for (int i = 0; i < numHashes; i++) {
+            int bit = ((h1 + i * h2) & 0x7fffffff) % numBits;
+            if ((words[bit >>> 6] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /** Adds every value of another filter of the same size to this one. */
+    public void or(BloomFilter other) {
+        if (other.words.length != words.length || other.numHashes != numHashes)
+            throw new IllegalArgumentException("filters differ in size");
+        for (int i = 0; i < words.length; i++)
+            words[i] |= other.words[i];
+    }
+
+    /** @return the fraction of the bits that are set */
+    public double getFillRatio() {
+        int set = 0;
+        for (long w : words)
+            set += Long.bitCount(w);
+        return (double) set / numBits;
+    }
+
+    /**
+     * @return the probability that mightContain returns true for a value
+     *         that was never added, estimated from the bits that are set
+     */
+    public double getFalsePositiveRate() {
+        return Math.pow(getFillRatio(), numHashes);
+    }
+
+    /** Writes the bit array; the size is not written. */
+    public void serialize(DataOutput out) throws IOException {
+        for (long w : words)
+            out.writeLong(w);
+    }
+
+    /** Reads a bit array written by {@link #serialize} into this filter. */
+    public void deserialize(DataInput in) throws IOException {
+        for (int i = 0; i < words.length; i++)
+            words[i] = in.readLong();
+    }
+}
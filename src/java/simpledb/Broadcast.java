@@ -0,0 +1,29 @@
+package simpledb;
+
+/**
+ * Broadcast runs its children in parallel and sends every tuple to every
+ * output, e.g. to give each parallel probe pipeline of a join the whole of a
+ * small build input.
+ *
+ * @see Exchange
+ */
+public class Broadcast extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor.
+     *
+     * @param children
+     *            the pipelines to run in parallel, one thread each
+     * @param numOutputs
+     *            the number of outputs
+     */
+    public Broadcast(DbIterator[] children, int numOutputs) {
+        super(children, numOutputs);
+    }
+
+    protected int route(Tuple t) {
+        return ALL;
+    }
+}
@@ -1,7 +1,11 @@
 package simpledb;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -27,7 +31,15 @@ public class BufferPool {
     public static final int DEFAULT_PAGES = 50;
 
     private int max_pages;
-    private HashMap<PageId, Page> buff_pool;
+    // access-ordered, so iteration starts at the least recently used page
+    private LinkedHashMap<PageId, Page> buff_pool;
+    private final LockManager lock_manager = new LockManager();
+    private final VersionStore versions = new VersionStore();
+    private final OptimisticValidator validator = new OptimisticValidator();
+    private volatile boolean optimistic;
+    // the log each transaction a checkpoint wrote pages of before it
+    // completed logged those writes to; guarded by this
+    private final HashMap<TransactionId, LogFile> stolen = new HashMap<TransactionId, LogFile>();
     /**
      * Creates a BufferPool that caches up to numPages pages.
      *
@@ -35,9 +47,14 @@ public class BufferPool {
      */
     public BufferPool(int numPages) {
         max_pages = numPages;
-        buff_pool = new HashMap<PageId, Page>();
+        buff_pool = new LinkedHashMap<PageId, Page>(16, 0.75f, true);
     }
-    
+
+    /** @return the maximum number of pages this buffer pool caches */
+    public int getNumPages() {
+        return max_pages;
+    }
+
     public static int getPageSize() {
       return pageSize;
     }
@@ -65,18 +82,135 @@ public class BufferPool {
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
 
-        if (buff_pool.containsKey(pid))
-            return buff_pool.get(pid);
-        else {
-            if (buff_pool.size() >= max_pages)
-                throw new DbException("Out of space");
+        long start = versions.getStart(tid);
+        if (start >= 0)
+            return getSnapshotPage(pid, perm, start);
+        if (tid.isReadOnly() && perm != Permissions.READ_ONLY)
+            throw new DbException("transaction " + tid.getId() + " is read-only");
+        if (optimistic)
+            return getOptimisticPage(tid, pid, perm);
+        // taken before the pool's monitor, since it may block
+        lock_manager.acquire(tid, pid, perm);
+        return fetchPage(pid);
+    }
 
-            Page p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+    /** Returns the cached page with the specified id, reading it in if needed. */
+    private Page fetchPage(PageId pid) throws DbException {
+        synchronized (this) {
+            Page p = buff_pool.get(pid);
+            if (p != null)
+                return p;
+        }
+
+        // read outside the lock so that scans running on other threads are
+        // not serialized behind this one's I/O
+        Page p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+        synchronized (this) {
+            Page cached = buff_pool.get(pid);
+            if (cached != null)
+                return cached;
+            if (buff_pool.size() >= max_pages)
+                evictPage();
             buff_pool.put(pid, p);
             return p;
         }
     }
 
+    /**
+     * Returns the version of a page a snapshot that started at the specified
+     * time sees, without locking it. The page returned is a copy, which
+     * writers never change, and is not cached.
+     */
+    private Page getSnapshotPage(PageId pid, Permissions perm, long start)
+        throws DbException {
+        if (perm != Permissions.READ_ONLY)
+            throw new DbException("snapshot transactions are read-only");
+        synchronized (this) {
+            Page v = versions.lookup(pid, start);
+            if (v != null)
+                return v;
+            // the before image of a cached page is its newest committed version
+            Page p = buff_pool.get(pid);
+            if (p != null)
+                return p.getBeforeImage();
+        }
+        Page p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+        synchronized (this) {
+            // a writer may have committed a newer version while we read
+            Page v = versions.lookup(pid, start);
+            return v != null ? v : p;
+        }
+    }
+
+    /**
+     * Returns a page to a transaction running under optimistic concurrency
+     * control, without locking it. A transaction keeps seeing the version
+     * of a page it first read. Pages fetched READ_WRITE are private copies,
+     * which only replace the cached pages if the transaction commits; the
+     * cached pages are never changed in place.
+     */
+    private Page getOptimisticPage(TransactionId tid, PageId pid, Permissions perm)
+        throws DbException {
+        Page p = validator.access(tid, pid);
+        if (p == null)
+            p = validator.read(tid, fetchPage(pid));
+        if (perm == Permissions.READ_ONLY || validator.isWritten(tid, pid))
+            return p;
+        return validator.addToWorkspace(tid, p.getBeforeImage());
+    }
+
+    /**
+     * Switches between pessimistic locking, the default, and optimistic
+     * concurrency control. Under optimistic concurrency control, pages are
+     * never locked: each transaction records the pages it reads, writes to
+     * private copies of pages, and is validated when it commits, aborting
+     * if a transaction that committed meanwhile wrote a page it read. This
+     * suits workloads where transactions rarely touch the same pages.
+     * <p>
+     * Must only be called while no transaction is running.
+     */
+    public void setOptimistic(boolean optimistic) {
+        this.optimistic = optimistic;
+    }
+
+    /** @return true if transactions run under optimistic concurrency control */
+    public boolean isOptimistic() {
+        return optimistic;
+    }
+
+    /**
+     * @return true if the transaction may read versions of pages older than
+     *         the ones cached or on disk: a snapshot transaction, or any
+     *         transaction under optimistic concurrency control
+     */
+    public boolean readsOldVersions(TransactionId tid) {
+        return optimistic || versions.isSnapshot(tid);
+    }
+
+    /** @return the validator of transactions under optimistic concurrency control */
+    public OptimisticValidator getValidator() {
+        return validator;
+    }
+
+    /**
+     * Starts a snapshot transaction: a read-only transaction that sees the
+     * database as it was when it started, never blocks or is blocked by
+     * writers, and takes no locks. Its pages come from the VersionStore
+     * until transactionComplete ends it.
+     *
+     * @param tid a transaction that has not read or written anything yet
+     */
+    public void beginSnapshot(TransactionId tid) {
+        if (!lock_manager.getLockedPages(tid).isEmpty())
+            throw new IllegalStateException("transaction " + tid.getId() + " already holds locks");
+        versions.begin(tid);
+    }
+
+    /** @return the store of the page versions snapshot transactions read */
+    public VersionStore getVersionStore() {
+        return versions;
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -87,8 +221,10 @@ public class BufferPool {
      * @param pid the ID of the page to unlock
      */
     public  void releasePage(TransactionId tid, PageId pid) {
-        // some code goes here
-        // not necessary for lab1|lab2
+        if (optimistic)
+            validator.release(tid, pid);
+        else
+            lock_manager.release(tid, pid);
     }
 
     /**
@@ -96,16 +232,58 @@ public class BufferPool {
      *
      * @param tid the ID of the transaction requesting the unlock
      */
-    public void transactionComplete(TransactionId tid) throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2
+    public void transactionComplete(TransactionId tid)
+        throws IOException, TransactionAbortedException {
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
-        // some code goes here
-        // not necessary for lab1|lab2
-        return false;
+        if (optimistic)
+            return validator.holds(tid, p);
+        return lock_manager.holdsLock(tid, p);
+    }
+
+    /**
+     * Locks a whole table for a transaction: shared for READ_ONLY, exclusive
+     * for READ_WRITE. Pages of the table are then fetched without locking
+     * them one by one. May block if the lock cannot be acquired.
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param tableId the table to lock
+     * @param perm the requested permissions on the table
+     */
+    public void lockTable(TransactionId tid, int tableId, Permissions perm)
+        throws TransactionAbortedException {
+        if (tid.isReadOnly() && perm != Permissions.READ_ONLY)
+            throw new IllegalStateException("transaction " + tid.getId() + " is read-only");
+        if (!versions.isSnapshot(tid) && !optimistic)
+            lock_manager.acquireTable(tid, tableId, perm);
+    }
+
+    /**
+     * Locks a single tuple for a transaction, with intention locks on its
+     * page and table. May block if the lock cannot be acquired.
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param rid the tuple to lock
+     * @param perm the requested permissions on the tuple
+     */
+    public void lockTuple(TransactionId tid, RecordId rid, Permissions perm)
+        throws TransactionAbortedException {
+        if (versions.isSnapshot(tid))
+            return;
+        if (tid.isReadOnly() && perm != Permissions.READ_ONLY)
+            throw new IllegalStateException("transaction " + tid.getId() + " is read-only");
+        if (optimistic)
+            validator.access(tid, rid.getPageId());
+        else
+            lock_manager.acquireTuple(tid, rid, perm);
+    }
+
+    /** @return the lock manager granting the locks on the pages of this pool */
+    public LockManager getLockManager() {
+        return lock_manager;
     }
 
     /**
@@ -114,11 +292,119 @@ public class BufferPool {
      *
      * @param tid the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
+     * @throws TransactionAbortedException if the transaction runs under
+     *         optimistic concurrency control and fails validation; it is
+     *         then aborted
      */
     public void transactionComplete(TransactionId tid, boolean commit)
-        throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2
+        throws IOException, TransactionAbortedException {
+        if (versions.isSnapshot(tid)) {
+            versions.end(tid);
+            return;
+        }
+        if (optimistic) {
+            completeOptimistic(tid, commit);
+            return;
+        }
+        if (tid.isReadOnly()) {
+            // nothing to flush or discard
+            lock_manager.releaseAll(tid);
+            return;
+        }
+        try {
+            // FORCE on commit; on abort, the pages on disk are still the ones
+            // from before the transaction, unless a checkpoint wrote some of
+            // them, in which case the log undoes that. The log is forced
+            // without holding the pool, as in writeDirtyPage.
+            LogFile log;
+            long lsn = -1;
+            synchronized (this) {
+                log = stolen.get(tid);
+                if (log != null && commit) {
+                    // recovery redoes or undoes all of the transaction's
+                    // pages, so each must be logged before it is written;
+                    // they stay dirty, and locked, until then
+                    for (Page p : dirtiedBy(tid))
+                        log.logWrite(tid, p.getBeforeImage(), p);
+                    lsn = log.getCurrentLsn();
+                } else {
+                    complete(tid, commit);
+                    if (log != null)
+                        lsn = log.appendAbort(tid);
+                }
+            }
+            if (log == null)
+                return;
+            log.force(lsn);
+            if (commit) {
+                complete(tid, true);
+                log.logCommit(tid, false);
+            }
+        } finally {
+            lock_manager.releaseAll(tid);
+        }
+    }
+
+    /** @return the pages of the pool a transaction has dirtied */
+    private synchronized ArrayList<Page> dirtiedBy(TransactionId tid) {
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        for (Page p : buff_pool.values()) {
+            TransactionId dirtier = p.isDirty();
+            if (dirtier != null && dirtier.equals(tid))
+                dirtied.add(p);
+        }
+        return dirtied;
+    }
+
+    /**
+     * Writes the pages a transaction dirtied to disk if it commits, or
+     * drops them if it aborts, and forgets any checkpoint wrote them.
+     */
+    private synchronized void complete(TransactionId tid, boolean commit) throws IOException {
+        ArrayList<Page> dirtied = dirtiedBy(tid);
+        stolen.remove(tid);
+        if (commit) {
+            // keep the versions snapshots see before replacing them
+            versions.commit(dirtied);
+            for (Page p : dirtied) {
+                flushPage(p.getId());
+                p.setBeforeImage();
+            }
+        } else {
+            for (Page p : dirtied)
+                buff_pool.remove(p.getId());
+        }
+    }
+
+    /**
+     * Validates and installs, or discards, the private pages of a
+     * transaction running under optimistic concurrency control.
+     */
+    private void completeOptimistic(TransactionId tid, boolean commit)
+        throws IOException, TransactionAbortedException {
+        if (!commit) {
+            validator.abort(tid);
+            return;
+        }
+        // the validator's monitor is always taken before the pool's
+        synchronized (validator) {
+            Collection<Page> written = validator.validate(tid);
+            synchronized (this) {
+                // each before image is the newest committed version, or
+                // validation would have failed
+                versions.commit(written);
+                for (Page p : written) {
+                    p.markDirty(false, null);
+                    Database.getCatalog().getDatabaseFile(p.getId().getTableId()).writePage(p);
+                    p.setBeforeImage();
+                    // the page is on disk now, so it need only be cached if
+                    // there is room
+                    if (buff_pool.containsKey(p.getId()) || buff_pool.size() < max_pages)
+                        buff_pool.put(p.getId(), p);
+                }
+            }
+            validator.committed(tid);
+        }
     }
 
     /**
@@ -137,8 +423,11 @@ public class BufferPool {
      */
     public void insertTuple(TransactionId tid, int tableId, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
-        // some code goes here
-        // not necessary for lab1
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        cacheDirtied(tid, f.insertTuple(tid, t));
+        TableStats stats = Database.getCatalog().getTableStats(tableId);
+        if (stats != null)
+            stats.addTuple(t);
     }
 
     /**
@@ -155,8 +444,34 @@ public class BufferPool {
      */
     public  void deleteTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
-        // some code goes here
-        // not necessary for lab1
+        RecordId rid = t.getRecordId();
+        if (rid == null)
+            throw new DbException("tuple is not stored in any table");
+        int tableId = rid.getPageId().getTableId();
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        cacheDirtied(tid, f.deleteTuple(tid, t));
+        TableStats stats = Database.getCatalog().getTableStats(tableId);
+        if (stats != null)
+            stats.removeTuple(t);
+    }
+
+    /**
+     * Marks pages modified by a DbFile as dirtied by the specified
+     * transaction, and makes them the cached versions of those pages.
+     */
+    private synchronized void cacheDirtied(TransactionId tid, ArrayList<Page> pages)
+        throws DbException {
+        for (Page p : pages) {
+            p.markDirty(true, tid);
+            if (optimistic) {
+                // stays private until the transaction commits
+                validator.addToWorkspace(tid, p);
+                continue;
+            }
+            if (!buff_pool.containsKey(p.getId()) && buff_pool.size() >= max_pages)
+                evictPage();
+            buff_pool.put(p.getId(), p);
+        }
     }
 
     /**
@@ -165,9 +480,56 @@ public class BufferPool {
      *     break simpledb if running in NO STEAL mode.
      */
     public synchronized void flushAllPages() throws IOException {
-        // some code goes here
-        // not necessary for lab1
+        for (PageId pid : new ArrayList<PageId>(buff_pool.keySet()))
+            flushPage(pid);
+    }
 
+    /** @return the ids of the pages in the buffer pool that are dirty */
+    public synchronized ArrayList<PageId> getDirtyPages() {
+        ArrayList<PageId> dirty = new ArrayList<PageId>();
+        for (Page p : buff_pool.values()) {
+            if (p.isDirty() != null)
+                dirty.add(p.getId());
+        }
+        return dirty;
+    }
+
+    /**
+     * Writes a page to disk if it is dirty, for a checkpoint. Its
+     * transaction has not committed, so the update is logged and the log
+     * forced first, and the transaction's commit or abort is then logged
+     * too: an abort, or recovery if it never completes, undoes the write.
+     * The page stays dirty: it is still discarded if the transaction
+     * aborts, and never evicted.
+     *
+     * @param log the log the checkpoint is written to
+     */
+    public void writeDirtyPage(PageId pid, LogFile log) throws IOException {
+        TransactionId tid;
+        Page image;
+        long lsn;
+        synchronized (this) {
+            Page p = buff_pool.get(pid);
+            if (p == null || p.isDirty() == null)
+                return;
+            tid = p.isDirty();
+            // a copy, since the transaction may go on changing the page
+            Page before = p.getBeforeImage();
+            image = PageDelta.diff(before, p).apply(before, true);
+            // so that the file keeps its metadata covering the before image
+            image.markDirty(true, tid);
+            lsn = log.logSteal(tid, before, image);
+            stolen.put(tid, log);
+        }
+        // forced without holding the pool
+        log.force(lsn);
+        synchronized (this) {
+            // skipped if the transaction completed meanwhile: its commit
+            // wrote the page, or its abort undid the logged update
+            Page p = buff_pool.get(pid);
+            if (p != null && tid.equals(p.isDirty()))
+                Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(image);
+        }
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -176,8 +538,7 @@ public class BufferPool {
         cache.
     */
     public synchronized void discardPage(PageId pid) {
-        // some code goes here
-        // only necessary for lab5
+        buff_pool.remove(pid);
     }
 
     /**
@@ -185,15 +546,28 @@ public class BufferPool {
      * @param pid an ID indicating the page to flush
      */
     private synchronized  void flushPage(PageId pid) throws IOException {
-        // some code goes here
-        // not necessary for lab1
+        Page p = buff_pool.get(pid);
+        if (p == null || p.isDirty() == null)
+            return;
+        // clean while written, so that the file takes it as committed
+        TransactionId dirtier = p.isDirty();
+        p.markDirty(false, null);
+        try {
+            Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(p);
+        } catch (IOException e) {
+            p.markDirty(true, dirtier);
+            throw e;
+        }
     }
 
     /** Write all pages of the specified transaction to disk.
      */
     public synchronized  void flushPages(TransactionId tid) throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2
+        for (PageId pid : new ArrayList<PageId>(buff_pool.keySet())) {
+            TransactionId dirtier = buff_pool.get(pid).isDirty();
+            if (dirtier != null && dirtier.equals(tid))
+                flushPage(pid);
+        }
     }
 
     /**
@@ -201,8 +575,15 @@ public class BufferPool {
      * Flushes the page to disk to ensure dirty pages are updated on disk.
      */
     private synchronized  void evictPage() throws DbException {
-        // some code goes here
-        // not necessary for lab1
+        // NO STEAL: only clean pages may leave the pool, least recently used first
+        Iterator<Page> it = buff_pool.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().isDirty() == null) {
+                it.remove();
+                return;
+            }
+        }
+        throw new DbException("all pages in the buffer pool are dirty");
     }
 
 }
\ No newline at end of file
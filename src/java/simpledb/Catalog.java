@@ -23,6 +23,7 @@ public class Catalog {
     	private String name;
     	private String primaryKey;
     	private DbFile file;
+    	private volatile TableStats stats;
     	
     	public CatalogItem(String s, String k, DbFile f){
     		name = s;
@@ -40,6 +41,14 @@ public class Catalog {
     	public String getPrimaryKey(){
     		return primaryKey;
     	}
+
+    	public TableStats getStats(){
+    		return stats;
+    	}
+
+    	public void setStats(TableStats s){
+    		stats = s;
+    	}
     } 
 	
     /**
@@ -147,6 +156,31 @@ public class Catalog {
     		return i.getPrimaryKey();
     }
 
+    /**
+     * Returns the statistics of the specified table, or null if it has not
+     * been analyzed.
+     * @see TableStats#analyze
+     */
+    public TableStats getTableStats(int tableid) {
+    	CatalogItem i = id_to_file_map.get(tableid);
+    	if (i == null)
+    		throw new NoSuchElementException();
+    	else
+    		return i.getStats();
+    }
+
+    /**
+     * Stores the statistics of the specified table, replacing any earlier
+     * ones; null removes them.
+     */
+    public void setTableStats(int tableid, TableStats stats) {
+    	CatalogItem i = id_to_file_map.get(tableid);
+    	if (i == null)
+    		throw new NoSuchElementException();
+    	else
+    		i.setStats(stats);
+    }
+
     public Iterator<Integer> tableIdIterator() {
     	return id_list.iterator();
     }
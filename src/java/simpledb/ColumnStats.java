@@ -0,0 +1,281 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Statistics about one column of a table, kept by {@link TableStats}.
+ * <p>
+ * While a table is analyzed, a ColumnStats accumulates the column's minimum
+ * and maximum, its number of non-null values, a HyperLogLog sketch of its
+ * distinct values and a fixed-size uniform reservoir sample of its values.
+ * Partial statistics from different threads are combined with
+ * {@link #merge}, and {@link #finish} then derives the most common values
+ * and, for INT_TYPE columns, an equi-depth histogram from the sample.
+ * Not thread-safe.
+ */
+class ColumnStats {
+
+    /** The number of values kept in the reservoir sample. */
+    static final int SAMPLE_SIZE = 10000;
+
+    /** The maximum number of buckets of a histogram. */
+    static final int HISTOGRAM_BUCKETS = 100;
+
+    /** The maximum number of most common values kept. */
+    static final int MCV_COUNT = 10;
+
+    /** The selectivity guessed for range predicates on string columns. */
+    static final double DEFAULT_RANGE_SELECTIVITY = 1.0 / 3;
+
+    private final Type type;
+    private Field min;
+    private Field max;
+    private long nonNull;
+    private final HyperLogLog sketch = new HyperLogLog();
+    private long distinct;
+    private long sketchEstimate;
+
+    // reservoir sample, used only until finish()
+    private Field[] sample = new Field[SAMPLE_SIZE];
+    private int sampleSize;
+    private long seen;
+    private final Random random;
+
+    private IntHistogram histogram;
+    private LinkedHashMap<Field, Long> mcvs = new LinkedHashMap<Field, Long>();
+
+    ColumnStats(Type type, Random random) {
+        this.type = type;
+        this.random = random;
+    }
+
+    /** Adds a value seen while analyzing the table. */
+    void add(Field f) {
+        if (f == null)
+            return;
+        widen(f);
+        nonNull++;
+        sketch.add(f);
+        seen++;
+        if (sampleSize < SAMPLE_SIZE) {
+            sample[sampleSize++] = f;
+        } else {
+            long r = (long) (random.nextDouble() * seen);
+            if (r < SAMPLE_SIZE)
+                sample[(int) r] = f;
+        }
+    }
+
+    private void widen(Field f) {
+        if (min == null || TupleComparator.compareFields(f, min) < 0)
+            min = f;
+        if (max == null || TupleComparator.compareFields(f, max) > 0)
+            max = f;
+    }
+
+    /**
+     * Merges the statistics of another part of the same column into this
+     * one. The merged sample takes values from each side in proportion to
+     * the number of values each has seen.
+     */
+    void merge(ColumnStats other) {
+        if (other.min != null) {
+            widen(other.min);
+            widen(other.max);
+        }
+        nonNull += other.nonNull;
+        sketch.merge(other.sketch);
+
+        Field[] a = shuffled(sample, sampleSize);
+        Field[] b = shuffled(other.sample, other.sampleSize);
+        int n = Math.min(SAMPLE_SIZE, a.length + b.length);
+        Field[] merged = new Field[SAMPLE_SIZE];
+        int ia = 0, ib = 0;
+        for (int k = 0; k < n; k++) {
+            boolean fromA;
+            if (ia == a.length)
+                fromA = false;
+            else if (ib == b.length)
+                fromA = true;
+            else
+                fromA = random.nextDouble() * (seen + other.seen) < seen;
+            merged[k] = fromA ? a[ia++] : b[ib++];
+        }
+        sample = merged;
+        sampleSize = n;
+        seen += other.seen;
+    }
+
+    private Field[] shuffled(Field[] values, int n) {
+        Field[] copy = Arrays.copyOf(values, n);
+        Collections.shuffle(Arrays.asList(copy), random);
+        return copy;
+    }
+
+    /**
+     * Derives the final statistics once every value has been added.
+     *
+     * @param scale the factor from the rows analyzed to the rows in the
+     *            table; 1 unless the table was sampled
+     */
+    void finish(double scale) {
+        nonNull = Math.round(nonNull * scale);
+
+        sketchEstimate = sketch.estimate();
+        HashMap<Field, Integer> freq = new HashMap<Field, Integer>();
+        for (int i = 0; i < sampleSize; i++) {
+            Integer c = freq.get(sample[i]);
+            freq.put(sample[i], c == null ? 1 : c + 1);
+        }
+
+        distinct = sketchEstimate;
+        if (scale > 1 && sampleSize > 0) {
+            // Haas and Stokes' Duj1 estimator over the sample: values seen
+            // only once suggest many more values that were not seen at all
+            int once = 0;
+            for (int c : freq.values()) {
+                if (c == 1)
+                    once++;
+            }
+            double n = sampleSize;
+            double d = n * freq.size() / (n - once + once * n / Math.max(nonNull, 1));
+            distinct = Math.max(distinct, Math.round(d));
+        }
+        distinct = Math.max(Math.min(distinct, nonNull), nonNull > 0 ? 1 : 0);
+
+        // most common values: the values occurring more than once in the sample
+        ArrayList<Map.Entry<Field, Integer>> entries =
+                new ArrayList<Map.Entry<Field, Integer>>(freq.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<Field, Integer>>() {
+            public int compare(Map.Entry<Field, Integer> e1, Map.Entry<Field, Integer> e2) {
+                return e2.getValue() - e1.getValue();
+            }
+        });
+        mcvs.clear();
+        for (Map.Entry<Field, Integer> e : entries) {
+            if (mcvs.size() == MCV_COUNT || e.getValue() < 2)
+                break;
+            mcvs.put(e.getKey(), Math.round((double) e.getValue() * nonNull / sampleSize));
+        }
+
+        if (type == Type.INT_TYPE) {
+            int[] values = new int[sampleSize];
+            for (int i = 0; i < sampleSize; i++)
+                values[i] = ((IntField) sample[i]).getValue();
+            Arrays.sort(values);
+            histogram = IntHistogram.fromSortedSample(values, sampleSize,
+                    HISTOGRAM_BUCKETS, nonNull);
+        }
+        sample = null;
+    }
+
+    /** Records a value inserted after the table was analyzed. */
+    void insert(Field f) {
+        if (f == null)
+            return;
+        widen(f);
+        nonNull++;
+        // the sketch cannot tell whether f is new, so the distinct count
+        // grows with the sketch's estimate
+        if (sketch.add(f)) {
+            long e = sketch.estimate();
+            distinct += Math.max(0, e - sketchEstimate);
+            sketchEstimate = Math.max(e, sketchEstimate);
+        }
+        Long c = mcvs.get(f);
+        if (c != null)
+            mcvs.put(f, c + 1);
+        if (histogram != null)
+            histogram.add(((IntField) f).getValue());
+    }
+
+    /**
+     * Records a value deleted after the table was analyzed. The minimum,
+     * maximum and distinct count are left as they are until the next
+     * ANALYZE.
+     */
+    void delete(Field f) {
+        if (f == null)
+            return;
+        nonNull = Math.max(0, nonNull - 1);
+        Long c = mcvs.get(f);
+        if (c != null && c > 0)
+            mcvs.put(f, c - 1);
+        if (histogram != null)
+            histogram.remove(((IntField) f).getValue());
+    }
+
+    Type getType() {
+        return type;
+    }
+
+    Field getMin() {
+        return min;
+    }
+
+    Field getMax() {
+        return max;
+    }
+
+    long getNonNullCount() {
+        return nonNull;
+    }
+
+    long getDistinctCount() {
+        return distinct;
+    }
+
+    IntHistogram getHistogram() {
+        return histogram;
+    }
+
+    Map<Field, Long> getMostCommonValues() {
+        return new LinkedHashMap<Field, Long>(mcvs);
+    }
+
+    /**
+     * Estimates the fraction of the column's non-null values satisfying
+     * "value op v". Equality uses the most common values when v is one of
+     * them, and otherwise spreads the remaining rows evenly over the
+     * remaining distinct values; ranges use the histogram.
+     */
+    double estimateSelectivity(Predicate.Op op, Field v) {
+        if (nonNull == 0)
+            return 0;
+        switch (op) {
+        case EQUALS:
+            return equalsSelectivity(v);
+        case NOT_EQUALS:
+            return 1 - equalsSelectivity(v);
+        case LIKE:
+            if (type == Type.INT_TYPE)
+                return equalsSelectivity(v);
+            return DEFAULT_RANGE_SELECTIVITY;
+        default:
+            break;
+        }
+        if (histogram != null)
+            return histogram.estimateSelectivity(op, ((IntField) v).getValue());
+        // outside [min, max] the predicate holds for every value or for none
+        if (TupleComparator.compareFields(v, min) < 0)
+            return min.compare(op, v) ? 1.0 : 0.0;
+        if (TupleComparator.compareFields(v, max) > 0)
+            return max.compare(op, v) ? 1.0 : 0.0;
+        return DEFAULT_RANGE_SELECTIVITY;
+    }
+
+    private double equalsSelectivity(Field v) {
+        if (TupleComparator.compareFields(v, min) < 0 || TupleComparator.compareFields(v, max) > 0)
+            return 0;
+        Long c = mcvs.get(v);
+        if (c != null)
+            return Math.min(1.0, (double) c / nonNull);
+        if (histogram != null)
+            return histogram.estimateSelectivity(Predicate.Op.EQUALS, ((IntField) v).getValue());
+        long mcvRows = 0;
+        for (long n : mcvs.values())
+            mcvRows += n;
+        long others = Math.max(1, distinct - mcvs.size());
+        return Math.max(0, Math.min(1.0, (double) (nonNull - mcvRows) / others / nonNull));
+    }
+}
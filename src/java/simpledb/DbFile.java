@@ -2,6 +2,9 @@
 package simpledb;
 
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import java.io.*;
 
 /**
@@ -68,6 +71,54 @@ public interface DbFile {
      */
     public DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns a Spliterator over all the tuples stored in this DbFile, read
+     * through the BufferPool as part of the specified transaction. Errors
+     * reading a page are rethrown as RuntimeExceptions wrapping the
+     * DbException or TransactionAbortedException.
+     * <p>
+     * The default implementation wraps {@link #iterator} and cannot be
+     * split; files that can be scanned in parallel should override it.
+     */
+    default Spliterator<Tuple> spliterator(final TransactionId tid) {
+        final DbFileIterator it = iterator(tid);
+        return new Spliterators.AbstractSpliterator<Tuple>(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+            private boolean opened = false;
+
+            public boolean tryAdvance(Consumer<? super Tuple> action) {
+                try {
+                    if (!opened) {
+                        it.open();
+                        opened = true;
+                    }
+                    if (!it.hasNext()) {
+                        it.close();
+                        return false;
+                    }
+                    action.accept(it.next());
+                    return true;
+                } catch (DbException e) {
+                    throw new RuntimeException(e);
+                } catch (TransactionAbortedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns a Stream over all the tuples stored in this DbFile.
+     *
+     * @param tid the transaction the scan is running as a part of
+     * @param parallel true for a parallel stream, which splits the file
+     *            among the threads of the common ForkJoinPool
+     * @see #spliterator
+     */
+    default Stream<Tuple> stream(TransactionId tid, boolean parallel) {
+        return StreamSupport.stream(spliterator(tid), parallel);
+    }
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDatabaseFile} and
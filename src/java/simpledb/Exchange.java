@@ -0,0 +1,338 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Exchange is the base of the Volcano-style parallelism operators. It runs
+ * each of its children on a thread of a shared worker pool, routes every
+ * tuple a child produces to one or all of its outputs, and passes the tuples
+ * to the outputs in batches through bounded lock-free queues.
+ * <p>
+ * Each output is a {@link DbIterator} returned by {@link #getOutput}, so an
+ * exchange can be placed anywhere in a plan: the children are the
+ * per-thread pipelines below it (e.g. Filter over a page range of a
+ * SeqScan), and each output can feed a different pipeline above it.
+ * The children start running when the first output is opened, and are
+ * stopped once every output has been closed. Every output must be consumed
+ * (or closed) for the children to finish, since a child blocks while the
+ * queue of an output is full.
+ * <p>
+ * Subclasses decide where tuples go by implementing {@link #route}:
+ * {@link Gather} sends all tuples to its only output, {@link Repartition}
+ * hashes a field, and {@link Broadcast} copies every tuple to every output.
+ */
+public abstract class Exchange implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of tuples passed between threads at a time. */
+    public static final int BATCH_SIZE = 256;
+
+    /** The number of batches each output queue holds. */
+    public static final int QUEUE_BATCHES = 16;
+
+    /** Returned by {@link #route} to send a tuple to every output. */
+    protected static final int ALL = -1;
+
+    // marks the end of one child's tuples in an output queue
+    private static final Tuple[] END = new Tuple[0];
+
+    private static final ExecutorService workers = Executors.newCachedThreadPool(
+            new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "exchange-worker-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    /**
+     * @return the number of children an exchange should usually be given to
+     *         use every core of this machine
+     */
+    public static int defaultParallelism() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    private DbIterator[] children;
+    private final Output[] outputs;
+    private transient Run run;
+
+    /**
+     * Constructor.
+     *
+     * @param children
+     *            the pipelines to run in parallel; they must all produce
+     *            tuples of the same TupleDesc
+     * @param numOutputs
+     *            the number of outputs
+     */
+    protected Exchange(DbIterator[] children, int numOutputs) {
+        if (numOutputs < 1)
+            throw new IllegalArgumentException("an exchange needs at least one output");
+        setChildren(children);
+        outputs = new Output[numOutputs];
+        for (int i = 0; i < numOutputs; i++)
+            outputs[i] = new Output(i);
+    }
+
+    /**
+     * Chooses the output the specified tuple is sent to. This is called
+     * concurrently from the threads running the children, so it must not
+     * modify any state.
+     *
+     * @return the index of an output, or ALL to send the tuple to every output
+     */
+    protected abstract int route(Tuple t);
+
+    /** @return the number of outputs of this exchange */
+    public int numOutputs() {
+        return outputs.length;
+    }
+
+    /** @return the i-th output of this exchange */
+    public DbIterator getOutput(int i) {
+        return outputs[i];
+    }
+
+    public TupleDesc getTupleDesc() {
+        return children[0].getTupleDesc();
+    }
+
+    public DbIterator[] getChildren() {
+        return children.clone();
+    }
+
+    public synchronized void setChildren(DbIterator[] children) {
+        if (children.length == 0)
+            throw new IllegalArgumentException("an exchange needs at least one child");
+        for (int i = 1; i < children.length; i++) {
+            if (!children[i].getTupleDesc().equals(children[0].getTupleDesc()))
+                throw new IllegalArgumentException("children of an exchange must have the same TupleDesc");
+        }
+        if (run != null)
+            throw new IllegalStateException("cannot change the children of a running exchange");
+        this.children = children.clone();
+    }
+
+    /** Starts the children if this is the first output to be opened. */
+    private synchronized Run open(int output) throws DbException {
+        if (run == null) {
+            run = new Run();
+            run.start();
+        } else if (run.closed[output]) {
+            throw new DbException("output " + output + " of the exchange has already been consumed");
+        }
+        return run;
+    }
+
+    /** Stops the children once every output has been closed. */
+    private synchronized void close(int output) {
+        if (run == null || run.closed[output])
+            return;
+        run.closed[output] = true;
+        for (boolean c : run.closed) {
+            if (!c)
+                return;
+        }
+        run.stop();
+        run = null;
+    }
+
+    /**
+     * The state of one execution of the children: the output queues and the
+     * tasks running the children.
+     */
+    private class Run {
+        final TupleBatchQueue[] queues;
+        final boolean[] closed;
+        final List<Future<?>> tasks = new ArrayList<Future<?>>();
+        volatile boolean cancelled;
+        volatile Throwable failure;
+
+        Run() {
+            queues = new TupleBatchQueue[outputs.length];
+            for (int i = 0; i < queues.length; i++)
+                queues[i] = new TupleBatchQueue(QUEUE_BATCHES);
+            closed = new boolean[outputs.length];
+        }
+
+        void start() {
+            for (final DbIterator child : children) {
+                tasks.add(workers.submit(new Runnable() {
+                    public void run() {
+                        produce(child);
+                    }
+                }));
+            }
+        }
+
+        /** Cancels the children and waits for them to finish. */
+        void stop() {
+            cancelled = true;
+            for (Future<?> f : tasks) {
+                while (true) {
+                    try {
+                        f.get();
+                        break;
+                    } catch (InterruptedException e) {
+                        // keep waiting: the child still uses shared state
+                    } catch (ExecutionException e) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        /** Runs one child to completion, batching its tuples to the outputs. */
+        void produce(DbIterator child) {
+            Tuple[][] pending = new Tuple[queues.length][BATCH_SIZE];
+            int[] fill = new int[queues.length];
+            try {
+                child.open();
+                while (!cancelled && child.hasNext()) {
+                    Tuple t = child.next();
+                    int o = route(t);
+                    for (int i = o == ALL ? 0 : o; i < (o == ALL ? queues.length : o + 1); i++) {
+                        pending[i][fill[i]++] = t;
+                        if (fill[i] == BATCH_SIZE) {
+                            put(i, pending[i]);
+                            pending[i] = new Tuple[BATCH_SIZE];
+                            fill[i] = 0;
+                        }
+                    }
+                }
+                for (int i = 0; i < queues.length; i++) {
+                    if (fill[i] > 0)
+                        put(i, Arrays.copyOf(pending[i], fill[i]));
+                }
+            } catch (Throwable e) {
+                failure = e;
+                cancelled = true;
+            } finally {
+                child.close();
+                for (int i = 0; i < queues.length; i++)
+                    put(i, END);
+            }
+        }
+
+        /** Waits for room in the specified output queue, unless cancelled. */
+        private void put(int output, Tuple[] batch) {
+            for (int attempt = 0; !queues[output].offer(batch); attempt++) {
+                if (cancelled)
+                    return;
+                TupleBatchQueue.backoff(attempt);
+            }
+        }
+
+        /**
+         * Waits for the next batch of the specified output.
+         *
+         * @return the batch, END, or null if the exchange has been cancelled
+         */
+        Tuple[] take(int output) throws DbException {
+            for (int attempt = 0;; attempt++) {
+                Tuple[] batch = queues[output].poll();
+                if (batch != null)
+                    return batch;
+                checkFailure();
+                if (cancelled)
+                    return null;
+                TupleBatchQueue.backoff(attempt);
+            }
+        }
+
+        void checkFailure() throws DbException {
+            Throwable e = failure;
+            if (e == null)
+                return;
+            if (e instanceof DbException)
+                throw (DbException) e;
+            DbException d = new DbException("exchange child failed: " + e);
+            d.initCause(e);
+            throw d;
+        }
+    }
+
+    /**
+     * One output of the exchange; it returns the tuples routed to it by all
+     * children, in no particular order.
+     */
+    private class Output extends Operator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int index;
+        private transient Run current;
+        private transient Tuple[] batch;
+        private transient int pos;
+        private transient int ended;
+
+        Output(int index) {
+            this.index = index;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return Exchange.this.getTupleDesc();
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            current = Exchange.this.open(index);
+            batch = null;
+            pos = 0;
+            ended = 0;
+            super.open();
+        }
+
+        public void close() {
+            super.close();
+            if (current != null)
+                Exchange.this.close(index);
+            current = null;
+            batch = null;
+        }
+
+        /**
+         * Rewinding reruns the children, which is only possible when this is
+         * the only output of the exchange.
+         */
+        public void rewind() throws DbException, TransactionAbortedException {
+            if (outputs.length != 1)
+                throw new DbException("cannot rewind one output of a multi-output exchange");
+            close();
+            open();
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            while (batch == null || pos == batch.length) {
+                if (ended == children.length)
+                    return null;
+                batch = current.take(index);
+                pos = 0;
+                if (batch == null)
+                    return null;
+                if (batch == END) {
+                    current.checkFailure();
+                    ended++;
+                    batch = null;
+                }
+            }
+            return batch[pos++];
+        }
+
+        @Override
+        public DbIterator[] getChildren() {
+            return Exchange.this.getChildren();
+        }
+
+        @Override
+        public void setChildren(DbIterator[] children) {
+            Exchange.this.setChildren(children);
+        }
+    }
+}
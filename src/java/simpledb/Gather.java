@@ -0,0 +1,74 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Gather runs its children in parallel on the exchange worker pool and
+ * returns the union of their tuples, in no particular order. It is the top
+ * of a parallel plan fragment: e.g. a Gather over Filters over the page
+ * ranges returned by {@link SeqScan#split} scans and filters one table on
+ * several cores.
+ *
+ * @see Exchange
+ */
+public class Gather extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private Exchange exchange;
+    private DbIterator output;
+
+    /**
+     * Constructor.
+     *
+     * @param children
+     *            the pipelines to run in parallel, one thread each; they must
+     *            all produce tuples of the same TupleDesc
+     */
+    public Gather(DbIterator[] children) {
+        setChildren(children);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return exchange.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        output.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        output.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        clearNext();
+        output.rewind();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (output.hasNext())
+            return output.next();
+        return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return exchange.getChildren();
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        exchange = new Exchange(children, 1) {
+            private static final long serialVersionUID = 1L;
+
+            protected int route(Tuple t) {
+                return 0;
+            }
+        };
+        output = exchange.getOutput(0);
+    }
+}
@@ -0,0 +1,318 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * HashAggregator computes an aggregate over groups of tuples using an
+ * open-addressing hash table specialized for its group key type.
+ * <p>
+ * INT_TYPE group keys are stored in a primitive int array; STRING_TYPE keys
+ * in an array of Fields. Each group is identified by a dense index into
+ * primitive accumulator arrays (long sums, int counts, int minimums and
+ * maximums), and only the arrays the aggregate function needs are allocated,
+ * so merging a tuple into an existing group allocates nothing.
+ * <p>
+ * The aggregator holds at most maxGroups groups; a tuple of any further
+ * group is rejected (see {@link #mergeTupleIntoGroup}) so that the caller can
+ * spill it.
+ */
+public class HashAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int EMPTY = -1;
+
+    private final int gbfield;
+    private final Type gbfieldtype;
+    private final int afield;
+    private final Op what;
+    private final int maxGroups;
+
+    // hash table: slot -> group index
+    private int[] slots;
+    private int mask;
+
+    // group index -> key and accumulators
+    private int[] intKeys;
+    private Field[] fieldKeys;
+    private long[] sums;
+    private int[] counts;
+    private int[] mins;
+    private int[] maxs;
+    private int numGroups;
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfield
+     *            the 0-based index of the group-by field in the tuple, or
+     *            NO_GROUPING if there is no grouping
+     * @param gbfieldtype
+     *            the type of the group by field (e.g., Type.INT_TYPE), or null
+     *            if there is no grouping
+     * @param afield
+     *            the 0-based index of the aggregate field in the tuple
+     * @param what
+     *            the aggregation operator; only COUNT is supported over
+     *            STRING_TYPE aggregate fields
+     * @param maxGroups
+     *            the maximum number of groups this aggregator will hold
+     */
+    public HashAggregator(int gbfield, Type gbfieldtype, int afield, Op what,
+            int maxGroups) {
+        this.gbfield = gbfield;
+        this.gbfieldtype = gbfield == NO_GROUPING ? null : gbfieldtype;
+        this.afield = afield;
+        this.what = what;
+        this.maxGroups = gbfield == NO_GROUPING ? 1 : Math.max(maxGroups, 1);
+
+        int initial = Math.min(this.maxGroups, 64);
+        int capacity = 16;
+        while (capacity < initial * 2)
+            capacity <<= 1;
+        slots = new int[capacity];
+        Arrays.fill(slots, EMPTY);
+        mask = capacity - 1;
+        allocateGroups(initial);
+    }
+
+    private void allocateGroups(int n) {
+        if (gbfieldtype == Type.INT_TYPE)
+            intKeys = intKeys == null ? new int[n] : Arrays.copyOf(intKeys, n);
+        else if (gbfieldtype != null)
+            fieldKeys = fieldKeys == null ? new Field[n] : Arrays.copyOf(fieldKeys, n);
+        if (what == Op.SUM || what == Op.AVG)
+            sums = sums == null ? new long[n] : Arrays.copyOf(sums, n);
+        if (what == Op.COUNT || what == Op.AVG)
+            counts = counts == null ? new int[n] : Arrays.copyOf(counts, n);
+        if (what == Op.MIN)
+            mins = mins == null ? new int[n] : Arrays.copyOf(mins, n);
+        if (what == Op.MAX)
+            maxs = maxs == null ? new int[n] : Arrays.copyOf(maxs, n);
+    }
+
+    private int groupCapacity() {
+        if (intKeys != null)
+            return intKeys.length;
+        if (fieldKeys != null)
+            return fieldKeys.length;
+        return 1;
+    }
+
+    /**
+     * @return the number of bytes of accumulator state kept per group; used
+     *         to size maxGroups from a memory budget.
+     */
+    public static int bytesPerGroup(Type gbfieldtype, Op what) {
+        int keyBytes = gbfieldtype == null ? 0 : gbfieldtype.getLen();
+        // hash slots (two per group) + accumulators
+        return keyBytes + 8 + (what == Op.AVG ? 12 : (what == Op.SUM ? 8 : 4));
+    }
+
+    public int numGroups() {
+        return numGroups;
+    }
+
+    /** @return true if no more groups fit in this aggregator */
+    public boolean isFull() {
+        return numGroups >= maxGroups;
+    }
+
+    /** Removes all groups from this aggregator. */
+    public void clear() {
+        Arrays.fill(slots, EMPTY);
+        if (fieldKeys != null)
+            Arrays.fill(fieldKeys, null);
+        numGroups = 0;
+    }
+
+    /**
+     * Merge a new tuple into the aggregate, grouping as indicated in the
+     * constructor
+     *
+     * @param tup
+     *            the Tuple containing an aggregate field and a group-by field
+     * @return false if the tuple starts a new group and the aggregator
+     *         already holds maxGroups groups
+     */
+    public boolean mergeTupleIntoGroup(Tuple tup) {
+        int group;
+        if (gbfieldtype == null) {
+            group = findOrAddGroup(null, 0);
+        } else {
+            Field key = tup.getField(gbfield);
+            group = findOrAddGroup(key, intKeys != null ? ((IntField) key).getValue() : 0);
+        }
+        if (group == EMPTY)
+            return false;
+
+        int v = 0;
+        if (what != Op.COUNT)
+            v = ((IntField) tup.getField(afield)).getValue();
+        switch (what) {
+        case COUNT:
+            counts[group]++;
+            break;
+        case SUM:
+            sums[group] += v;
+            break;
+        case AVG:
+            sums[group] += v;
+            counts[group]++;
+            break;
+        case MIN:
+            mins[group] = Math.min(mins[group], v);
+            break;
+        case MAX:
+            maxs[group] = Math.max(maxs[group], v);
+            break;
+        }
+        return true;
+    }
+
+    /** Resets the accumulators of a newly added group. */
+    private void initGroup(int g) {
+        if (sums != null)
+            sums[g] = 0;
+        if (counts != null)
+            counts[g] = 0;
+        if (mins != null)
+            mins[g] = Integer.MAX_VALUE;
+        if (maxs != null)
+            maxs[g] = Integer.MIN_VALUE;
+    }
+
+    /**
+     * Merges the groups of another aggregator computing the same aggregate
+     * over the same group type into this one, combining the accumulators of
+     * groups found in both. Used to combine partial aggregates computed on
+     * different threads.
+     *
+     * @return false if a new group did not fit; the groups of other before
+     *         it have been merged
+     */
+    public boolean merge(HashAggregator other) {
+        if (other.what != what || other.gbfieldtype != gbfieldtype)
+            throw new IllegalArgumentException("cannot merge a different aggregate");
+        for (int og = 0; og < other.numGroups; og++) {
+            int g = findOrAddGroup(other.fieldKeys != null ? other.fieldKeys[og] : null,
+                    other.intKeys != null ? other.intKeys[og] : 0);
+            if (g == EMPTY)
+                return false;
+            if (sums != null)
+                sums[g] += other.sums[og];
+            if (counts != null)
+                counts[g] += other.counts[og];
+            if (mins != null)
+                mins[g] = Math.min(mins[g], other.mins[og]);
+            if (maxs != null)
+                maxs[g] = Math.max(maxs[g], other.maxs[og]);
+        }
+        return true;
+    }
+
+    /**
+     * @param key the group key; only used for STRING_TYPE groups
+     * @param intKey the group key of INT_TYPE groups
+     * @return the index of the group with the specified key, adding the group
+     *         if there is room, or EMPTY if it is new and there is no room
+     */
+    private int findOrAddGroup(Field key, int intKey) {
+        if (gbfieldtype == null) {
+            if (numGroups == 0) {
+                numGroups = 1;
+                initGroup(0);
+            }
+            return 0;
+        }
+
+        int h = intKeys != null ? intKey : key.hashCode();
+        int slot = TupleHashTable.mix(h, 0) & mask;
+        while (slots[slot] != EMPTY) {
+            int g = slots[slot];
+            if (intKeys != null ? intKeys[g] == intKey : fieldKeys[g].equals(key))
+                return g;
+            slot = (slot + 1) & mask;
+        }
+
+        if (numGroups >= maxGroups)
+            return EMPTY;
+        if (numGroups == groupCapacity())
+            allocateGroups(Math.min(maxGroups, numGroups * 2));
+        int g = numGroups++;
+        if (intKeys != null)
+            intKeys[g] = intKey;
+        else
+            fieldKeys[g] = key;
+        slots[slot] = g;
+        initGroup(g);
+        if (numGroups * 2 > slots.length)
+            rehash();
+        return g;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        Arrays.fill(slots, EMPTY);
+        mask = slots.length - 1;
+        for (int g = 0; g < numGroups; g++) {
+            int h = intKeys != null ? intKeys[g] : fieldKeys[g].hashCode();
+            int slot = TupleHashTable.mix(h, 0) & mask;
+            while (slots[slot] != EMPTY)
+                slot = (slot + 1) & mask;
+            slots[slot] = g;
+        }
+    }
+
+    /** @return the schema of the tuples produced by {@link #iterator} */
+    public TupleDesc getResultTupleDesc() {
+        if (gbfieldtype == null)
+            return new TupleDesc(new Type[] { Type.INT_TYPE });
+        return new TupleDesc(new Type[] { gbfieldtype, Type.INT_TYPE });
+    }
+
+    /** @return the aggregate value of the specified group */
+    private int aggregateValue(int g) {
+        switch (what) {
+        case COUNT:
+            return counts[g];
+        case SUM:
+            return (int) sums[g];
+        case AVG:
+            return (int) (sums[g] / counts[g]);
+        case MIN:
+            return mins[g];
+        case MAX:
+            return maxs[g];
+        }
+        throw new IllegalStateException("impossible to reach here");
+    }
+
+    /** @return the result tuple of the specified group */
+    Tuple resultTuple(int g, TupleDesc td) {
+        Tuple t = new Tuple(td);
+        if (gbfieldtype == null) {
+            t.setField(0, new IntField(aggregateValue(g)));
+        } else {
+            t.setField(0, intKeys != null ? new IntField(intKeys[g]) : fieldKeys[g]);
+            t.setField(1, new IntField(aggregateValue(g)));
+        }
+        return t;
+    }
+
+    /**
+     * Create a DbIterator over group aggregate results.
+     *
+     * @return a DbIterator whose tuples are the pair (groupVal, aggregateVal)
+     *         if using group, or a single (aggregateVal) if no grouping. The
+     *         aggregateVal is determined by the type of aggregate specified in
+     *         the constructor.
+     */
+    public DbIterator iterator() {
+        TupleDesc td = getResultTupleDesc();
+        ArrayList<Tuple> results = new ArrayList<Tuple>(numGroups);
+        for (int g = 0; g < numGroups; g++)
+            results.add(resultTuple(g, td));
+        return new TupleIterator(td, results);
+    }
+}
@@ -0,0 +1,198 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Each instance of HashBucketPage stores the tuples of one bucket of a
+ * HashFile, or of one overflow page chained to a bucket. A bucket of local
+ * depth d holds the tuples whose key hashes end in the same d low bits.
+ * <p>
+ * The format of a bucket page is its local depth, the page number of the
+ * next page of its overflow chain (0 if there is none), a bitmap of used
+ * slots, and the fixed-size tuple slots, as on a HeapPage. Tuples keep
+ * their slot, and so their RecordId, until they are deleted or their bucket
+ * is split.
+ *
+ * @see HashFile
+ */
+public class HashBucketPage extends HashPage {
+
+    /** Bytes of page header before the bitmap: local depth and next page. */
+    static final int HEADER_SIZE = 8;
+
+    private final TupleDesc td;
+    private int localDepth;
+    private int next;
+    private final Tuple[] tuples;
+    private int numTuples;
+
+    /**
+     * Create a HashBucketPage from a set of bytes of data read from disk.
+     *
+     * @param id the id of this page
+     * @param data the page's bytes
+     * @param td the schema of the tuples of the file
+     */
+    public HashBucketPage(HashPageId id, byte[] data, TupleDesc td) throws IOException {
+        super(id);
+        this.td = td;
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        localDepth = dis.readInt();
+        next = dis.readInt();
+        tuples = new Tuple[getNumSlots(td)];
+        byte[] bitmap = new byte[bitmapSize(tuples.length)];
+        dis.readFully(bitmap);
+        for (int i = 0; i < tuples.length; i++) {
+            if ((bitmap[i / 8] & (1 << (i % 8))) == 0) {
+                dis.skipBytes(td.getSize());
+                continue;
+            }
+            Tuple t = new Tuple(td);
+            for (int j = 0; j < td.numFields(); j++)
+                t.setField(j, BTreePage.readField(dis, td.getFieldType(j)));
+            t.setRecordId(new RecordId(pid, i));
+            tuples[i] = t;
+            numTuples++;
+        }
+        dis.close();
+        setBeforeImage();
+    }
+
+    /** @return the number of tuple slots on a bucket page of the specified schema */
+    public static int getNumSlots(TupleDesc td) {
+        return ((BufferPool.getPageSize() - HEADER_SIZE) * 8) / (td.getSize() * 8 + 1);
+    }
+
+    private static int bitmapSize(int slots) {
+        return (slots + 7) / 8;
+    }
+
+    /** @return the number of low hash bits all keys in this bucket share */
+    public int getLocalDepth() {
+        return localDepth;
+    }
+
+    public void setLocalDepth(int depth) {
+        localDepth = depth;
+    }
+
+    /** @return the id of the next page of the overflow chain, or null if there is none */
+    public HashPageId getNextId() {
+        return next == 0 ? null : new HashPageId(pid.getTableId(), next, HashPageId.BUCKET);
+    }
+
+    /** Sets the next page of the overflow chain; null if there is none. */
+    public void setNextId(HashPageId id) {
+        next = id == null ? 0 : id.pageNumber();
+    }
+
+    /** @return the number of tuples on this page */
+    public int getNumTuples() {
+        return numTuples;
+    }
+
+    /** @return the number of empty slots on this page */
+    public int getNumEmptySlots() {
+        return tuples.length - numTuples;
+    }
+
+    /**
+     * Adds the specified tuple to the first empty slot of the page; the
+     * tuple is updated to reflect that it is now stored on this page.
+     *
+     * @throws DbException if the page is full or tupledesc is mismatch.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tupledesc mismatch");
+        for (int i = 0; i < tuples.length; i++) {
+            if (tuples[i] == null) {
+                tuples[i] = t;
+                t.setRecordId(new RecordId(pid, i));
+                numTuples++;
+                return;
+            }
+        }
+        throw new DbException("page is full");
+    }
+
+    /**
+     * Delete the specified tuple from the page; the tuple is updated to
+     * reflect that it is no longer stored on any page.
+     *
+     * @throws DbException if this tuple is not on this page
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("tuple is not on this page");
+        int i = rid.tupleno();
+        if (i < 0 || i >= tuples.length || tuples[i] == null)
+            throw new DbException("tuple slot is already empty");
+        tuples[i].setRecordId(null);
+        t.setRecordId(null);
+        tuples[i] = null;
+        numTuples--;
+    }
+
+    /**
+     * Removes every tuple from this page, for redistribution when its
+     * bucket is split.
+     *
+     * @return the tuples that were on the page
+     */
+    public ArrayList<Tuple> removeAll() {
+        ArrayList<Tuple> all = new ArrayList<Tuple>(numTuples);
+        for (int i = 0; i < tuples.length; i++) {
+            if (tuples[i] != null) {
+                all.add(tuples[i]);
+                tuples[i] = null;
+            }
+        }
+        numTuples = 0;
+        return all;
+    }
+
+    void write(DataOutputStream dos) throws IOException {
+        dos.writeInt(localDepth);
+        dos.writeInt(next);
+        byte[] bitmap = new byte[bitmapSize(tuples.length)];
+        for (int i = 0; i < tuples.length; i++) {
+            if (tuples[i] != null)
+                bitmap[i / 8] |= (byte) (1 << (i % 8));
+        }
+        dos.write(bitmap);
+        for (int i = 0; i < tuples.length; i++) {
+            if (tuples[i] == null) {
+                BTreePage.writeZeroes(dos, td.getSize());
+                continue;
+            }
+            for (int j = 0; j < td.numFields(); j++)
+                tuples[i].getField(j).serialize(dos);
+        }
+    }
+
+    /** Return a view of this page before it was modified -- used by recovery */
+    public HashBucketPage getBeforeImage() {
+        try {
+            return new HashBucketPage(pid, beforeImageData(), td);
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return an iterator over the tuples of this page (calling remove on
+     *         this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        ArrayList<Tuple> copy = new ArrayList<Tuple>(numTuples);
+        for (Tuple t : tuples) {
+            if (t != null)
+                copy.add(t);
+        }
+        return Collections.unmodifiableList(copy).iterator();
+    }
+}
@@ -0,0 +1,62 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * Each HashDirectoryPage holds a run of consecutive entries of the
+ * directory of a HashFile; entry i is the page number of the bucket that
+ * holds the keys whose hash ends in the low bits i. The format of a
+ * directory page is simply its entries.
+ *
+ * @see HashFile
+ * @see HashMetaPage
+ */
+public class HashDirectoryPage extends HashPage {
+
+    private final int[] entries;
+
+    /**
+     * Create a HashDirectoryPage from a set of bytes of data read from disk.
+     */
+    public HashDirectoryPage(HashPageId id, byte[] data) throws IOException {
+        super(id);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        entries = new int[getNumEntries()];
+        for (int i = 0; i < entries.length; i++)
+            entries[i] = dis.readInt();
+        dis.close();
+        setBeforeImage();
+    }
+
+    /** @return the number of directory entries on one page */
+    public static int getNumEntries() {
+        return BufferPool.getPageSize() / 4;
+    }
+
+    /** @return the id of the bucket of the ith entry of this page */
+    public HashPageId getBucketId(int i) {
+        if (entries[i] == 0)
+            throw new java.util.NoSuchElementException("entry " + i + " of " + pid + " is unset");
+        return new HashPageId(pid.getTableId(), entries[i], HashPageId.BUCKET);
+    }
+
+    /** Points the ith entry of this page at the specified bucket. */
+    public void setBucketId(int i, HashPageId bucket) {
+        entries[i] = bucket.pageNumber();
+    }
+
+    void write(DataOutputStream dos) throws IOException {
+        for (int e : entries)
+            dos.writeInt(e);
+    }
+
+    /** Return a view of this page before it was modified -- used by recovery */
+    public HashDirectoryPage getBeforeImage() {
+        try {
+            return new HashDirectoryPage(pid, beforeImageData());
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,501 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * The HashEquiJoin operator implements an equality join using a hash table
+ * built over an input that fits in memory.
+ * <p>
+ * The operator is given a memory budget, expressed in pages of tuples as laid
+ * out on a HeapPage. The left input is read first; if it fits within the
+ * budget, it is loaded into an in-memory {@link TupleHashTable} and the
+ * right input is streamed past it. Otherwise the left input is split into
+ * partitions on the join key and written to {@link SpillFile}s, and the
+ * right input is tried the same way, so only one input is held in memory at
+ * a time. When neither input fits, both are partitioned (grace hash join),
+ * and each pair of partitions is joined by building on its smaller side,
+ * partitioning again with a fresh hash function if that is still too
+ * large. Partitions that will not shrink (heavily skewed keys) are joined
+ * in budget-sized chunks of the build side, rescanning the probe side for
+ * each chunk, so heap usage stays bounded regardless of the input sizes.
+ */
+public class HashEquiJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of partitions each input is split into per partitioning pass. */
+    public static final int NUM_PARTITIONS = 16;
+
+    /** Partitioning passes after which a partition is joined in chunks instead. */
+    static final int MAX_PARTITION_DEPTH = 3;
+
+    private final JoinPredicate p;
+    private DbIterator child1, child2;
+    private TupleDesc td;
+    private final int memPages;
+
+    private transient LinkedList<PartitionPair> pendingPairs;
+    private transient ArrayList<SpillFile> spills;
+    private transient JoinTask current;
+    private transient int partitionPasses;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on, using the default memory budget of
+     * {@link BufferPool#DEFAULT_PAGES} pages.
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator must
+     *            be Predicate.Op.EQUALS
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * Constructor. Accepts two children to join, the predicate to join them
+     * on, and the number of pages of tuples the build side may hold in memory.
+     *
+     * @param memPages
+     *            the memory budget of the build side, in pages
+     * @throws IllegalArgumentException if the predicate is not an equality
+     *            predicate or memPages is not positive
+     */
+    public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            int memPages) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("HashEquiJoin requires an EQUALS predicate");
+        if (memPages < 1)
+            throw new IllegalArgumentException("memory budget must be at least one page");
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.memPages = memPages;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the field name of join field1. Should be quantified by alias
+     *         or table name.
+     * */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    /**
+     * @return the field name of join field2. Should be quantified by alias
+     *         or table name.
+     * */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(p.getField2());
+    }
+
+    /**
+     * @return the number of partitioning passes (over either input) made
+     *         since the operator was last opened; zero if the join ran
+     *         entirely in memory.
+     */
+    public int getPartitionPasses() {
+        return partitionPasses;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        super.open();
+        start();
+    }
+
+    public void close() {
+        super.close();
+        cleanup();
+        child1.close();
+        child2.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        clearNext();
+        cleanup();
+        child1.rewind();
+        child2.rewind();
+        start();
+    }
+
+    /** @return the number of tuples of the given schema the budget allows */
+    private int budget(TupleDesc desc) {
+        return memPages * SpillFile.tuplesPerPage(desc);
+    }
+
+    /**
+     * Reads the left child until it is exhausted within its budget (it
+     * becomes the in-memory build side) or overflows it. An overflowing left
+     * child is partitioned to disk before the right child is read the same
+     * way, so only one input is ever buffered: if the right child fits, it is
+     * built on and the left partitions are probed in turn; otherwise it is
+     * partitioned too (grace hash join).
+     */
+    private void start() throws DbException, TransactionAbortedException {
+        pendingPairs = new LinkedList<PartitionPair>();
+        spills = new ArrayList<SpillFile>();
+        current = null;
+        partitionPasses = 0;
+
+        ArrayList<Tuple> left = buffer(child1);
+        if (!child1.hasNext()) {
+            current = new JoinTask(new ChildIterator(left, null),
+                    new ChildIterator(new ArrayList<Tuple>(), child2), true, left.size());
+            return;
+        }
+        SpillFile[] leftParts = partition(new ChildIterator(left, child1),
+                child1.getTupleDesc(), p.getField1(), 0);
+
+        ArrayList<Tuple> right = buffer(child2);
+        if (!child2.hasNext()) {
+            current = new JoinTask(new ChildIterator(right, null),
+                    new PartitionsIterator(leftParts), false, right.size());
+            return;
+        }
+        SpillFile[] rightParts = partition(new ChildIterator(right, child2),
+                child2.getTupleDesc(), p.getField2(), 0);
+        for (int i = 0; i < NUM_PARTITIONS; i++)
+            pendingPairs.add(new PartitionPair(leftParts[i], rightParts[i], 0));
+    }
+
+    /**
+     * Reads a child into memory until it is exhausted or its budget is full;
+     * it fits in memory if it has no tuples left afterwards.
+     */
+    private ArrayList<Tuple> buffer(DbIterator child)
+            throws DbException, TransactionAbortedException {
+        int budget = budget(child.getTupleDesc());
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        while (tuples.size() < budget && child.hasNext())
+            tuples.add(child.next());
+        return tuples;
+    }
+
+    /**
+     * Splits the tuples of the specified iterator into NUM_PARTITIONS spill
+     * files on the hash of the join field; the depth selects the hash function.
+     */
+    private SpillFile[] partition(DbFileIterator in, TupleDesc desc, int field,
+            int depth) throws DbException, TransactionAbortedException {
+        partitionPasses++;
+        SpillFile[] parts = new SpillFile[NUM_PARTITIONS];
+        try {
+            for (int i = 0; i < NUM_PARTITIONS; i++) {
+                parts[i] = new SpillFile(desc);
+                spills.add(parts[i]);
+            }
+            while (in.hasNext()) {
+                Tuple t = in.next();
+                int h = TupleHashTable.mix(TupleHashTable.hash(t.getField(field)), depth + 1);
+                parts[(h >>> 1) % NUM_PARTITIONS].add(t);
+            }
+            for (SpillFile part : parts)
+                part.finish();
+        } catch (IOException e) {
+            throw new DbException("could not spill join partition: " + e.getMessage());
+        }
+        in.close();
+        return parts;
+    }
+
+    /**
+     * Picks the next pair of partitions to join and sets up a task for it,
+     * partitioning the pair again first if its smaller side is over budget.
+     *
+     * @return false if there are no partitions left
+     */
+    private boolean nextTask() throws DbException, TransactionAbortedException {
+        while (!pendingPairs.isEmpty()) {
+            PartitionPair pair = pendingPairs.removeFirst();
+            if (pair.left.numTuples() == 0 || pair.right.numTuples() == 0) {
+                pair.delete();
+                continue;
+            }
+
+            boolean buildLeft = pair.left.numTuples() <= pair.right.numTuples();
+            SpillFile build = buildLeft ? pair.left : pair.right;
+            SpillFile probe = buildLeft ? pair.right : pair.left;
+            int buildBudget = budget(build.getTupleDesc());
+
+            if (build.numTuples() > buildBudget && pair.depth + 1 < MAX_PARTITION_DEPTH) {
+                int depth = pair.depth + 1;
+                try {
+                    SpillFile[] leftParts = partition(open(pair.left.iterator()),
+                            child1.getTupleDesc(), p.getField1(), depth);
+                    SpillFile[] rightParts = partition(open(pair.right.iterator()),
+                            child2.getTupleDesc(), p.getField2(), depth);
+                    for (int i = NUM_PARTITIONS - 1; i >= 0; i--)
+                        pendingPairs.addFirst(new PartitionPair(leftParts[i], rightParts[i], depth));
+                } catch (IOException e) {
+                    throw new DbException("could not read join partition: " + e.getMessage());
+                }
+                pair.delete();
+                continue;
+            }
+
+            try {
+                // if the build side is still over budget, JoinTask joins it in chunks
+                current = new JoinTask(open(build.iterator()), open(probe.iterator()),
+                        buildLeft, Math.min(build.numTuples(), buildBudget));
+            } catch (IOException e) {
+                throw new DbException("could not read join partition: " + e.getMessage());
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static DbFileIterator open(DbFileIterator it)
+            throws DbException, TransactionAbortedException {
+        it.open();
+        return it;
+    }
+
+    private void cleanup() {
+        current = null;
+        if (pendingPairs != null)
+            pendingPairs.clear();
+        if (spills != null) {
+            for (SpillFile f : spills)
+                f.delete();
+            spills.clear();
+        }
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. Logically, this is the next tuple in r1 cross r2 that
+     * satisfies the join predicate.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (current == null && !nextTask())
+                return null;
+            Tuple t = current.fetchNext();
+            if (t != null)
+                return t;
+            current = null;
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+        td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /** A pair of spilled partitions that still has to be joined. */
+    private static class PartitionPair {
+        final SpillFile left, right;
+        final int depth;
+
+        PartitionPair(SpillFile left, SpillFile right, int depth) {
+            this.left = left;
+            this.right = right;
+            this.depth = depth;
+        }
+
+        void delete() {
+            left.delete();
+            right.delete();
+        }
+    }
+
+    /**
+     * Joins one build input with one probe input. The build input is loaded
+     * into a hash table in chunks of at most chunkSize tuples; the probe input
+     * is scanned once per chunk (so it is only rewound when the build input
+     * did not fit in a single chunk).
+     */
+    private class JoinTask {
+        private final DbFileIterator build, probe;
+        private final boolean buildIsLeft;
+        private final int buildField, probeField;
+        private final int chunkSize;
+        private final TupleHashTable table;
+
+        private Tuple probeTuple;
+        private int entry = -1;
+        private boolean loaded = false;
+
+        JoinTask(DbFileIterator build, DbFileIterator probe, boolean buildIsLeft,
+                int chunkSize) {
+            this.build = build;
+            this.probe = probe;
+            this.buildIsLeft = buildIsLeft;
+            this.buildField = buildIsLeft ? p.getField1() : p.getField2();
+            this.probeField = buildIsLeft ? p.getField2() : p.getField1();
+            this.chunkSize = Math.max(chunkSize, 1);
+            this.table = new TupleHashTable(this.chunkSize);
+        }
+
+        /** Loads the next chunk of the build input. @return false if none is left */
+        private boolean loadChunk() throws DbException, TransactionAbortedException {
+            table.clear();
+            while (table.size() < chunkSize && build.hasNext()) {
+                Tuple t = build.next();
+                table.add(TupleHashTable.hash(t.getField(buildField)), t);
+            }
+            return table.size() > 0;
+        }
+
+        Tuple fetchNext() throws DbException, TransactionAbortedException {
+            if (!loaded) {
+                loaded = true;
+                if (!loadChunk()) {
+                    finish();
+                    return null;
+                }
+            }
+            while (true) {
+                while (entry != -1) {
+                    Tuple b = table.get(entry);
+                    entry = table.next(entry);
+                    if (buildIsLeft ? p.filter(b, probeTuple) : p.filter(probeTuple, b))
+                        return buildIsLeft ? merge(b, probeTuple) : merge(probeTuple, b);
+                }
+                if (probe.hasNext()) {
+                    probeTuple = probe.next();
+                    entry = table.first(TupleHashTable.hash(probeTuple.getField(probeField)));
+                    continue;
+                }
+                if (!build.hasNext() || !loadChunk()) {
+                    finish();
+                    return null;
+                }
+                probe.rewind();
+            }
+        }
+
+        private void finish() {
+            table.clear();
+            build.close();
+            probe.close();
+        }
+    }
+
+    private Tuple merge(Tuple left, Tuple right) {
+        Tuple t = new Tuple(td);
+        int n1 = left.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++)
+            t.setField(i, left.getField(i));
+        for (int i = 0; i < right.getTupleDesc().numFields(); i++)
+            t.setField(n1 + i, right.getField(i));
+        return t;
+    }
+
+    /**
+     * Presents the tuples of a set of spill files, one after another, as a
+     * DbFileIterator. Not rewindable.
+     */
+    private static class PartitionsIterator implements DbFileIterator {
+        private final SpillFile[] parts;
+        private int next = 0;
+        private DbFileIterator it;
+
+        PartitionsIterator(SpillFile[] parts) {
+            this.parts = parts;
+        }
+
+        public void open() {
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            while (it == null || !it.hasNext()) {
+                if (it != null)
+                    it.close();
+                it = null;
+                if (next == parts.length)
+                    return false;
+                try {
+                    it = HashEquiJoin.open(parts[next++].iterator());
+                } catch (IOException e) {
+                    throw new DbException("could not read join partition: " + e.getMessage());
+                }
+            }
+            return true;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return it.next();
+        }
+
+        public void rewind() throws DbException {
+            throw new DbException("cannot rewind a join input that is being streamed");
+        }
+
+        public void close() {
+            if (it != null)
+                it.close();
+            it = null;
+            next = parts.length;
+        }
+    }
+
+    /**
+     * Presents tuples already buffered from a child, followed by the rest of
+     * that child (if any), as a DbFileIterator. Not rewindable.
+     */
+    private static class ChildIterator implements DbFileIterator {
+        private final ArrayList<Tuple> buffered;
+        private final DbIterator rest;
+        private int pos = 0;
+
+        ChildIterator(ArrayList<Tuple> buffered, DbIterator rest) {
+            this.buffered = buffered;
+            this.rest = rest;
+        }
+
+        public void open() {
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            return pos < buffered.size() || (rest != null && rest.hasNext());
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (pos < buffered.size()) {
+                Tuple t = buffered.get(pos);
+                buffered.set(pos++, null);
+                return t;
+            }
+            if (rest == null)
+                throw new NoSuchElementException();
+            return rest.next();
+        }
+
+        public void rewind() throws DbException {
+            throw new DbException("cannot rewind a join input that is being streamed");
+        }
+
+        public void close() {
+            buffered.clear();
+            pos = 0;
+        }
+    }
+}
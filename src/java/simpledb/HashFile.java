@@ -0,0 +1,459 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashFile is an implementation of a DbFile that stores tuples in the
+ * buckets of an extendible hash table on an integer key field, for
+ * equality lookups that read one bucket.
+ * <p>
+ * Page 0 of the file is a {@link HashMetaPage} recording the global depth
+ * d of the directory and the pages it is stored on. Directory entry i
+ * points to the bucket holding the keys whose hash ends in the d bits i;
+ * a bucket of local depth l &lt; d is shared by the 2^(d - l) entries that
+ * agree on the last l bits. A lookup therefore reads the meta page, one
+ * {@link HashDirectoryPage} and the bucket, all through the BufferPool.
+ * <p>
+ * When a bucket fills up it is split in two on the next bit of the hash,
+ * and only the directory entries pointing at it are updated; the
+ * directory doubles when a bucket whose local depth equals the global depth
+ * splits. Keys that hash alike cannot be separated by splitting, so a full
+ * bucket holding only those gets an overflow page chained to it instead.
+ * Buckets are never merged; the free slots of a bucket are reused by later
+ * inserts.
+ * <p>
+ * Updates to one file must not run concurrently; only the allocation of
+ * new pages is synchronized.
+ *
+ * @see HashBucketPage
+ */
+public class HashFile implements IndexFile {
+
+    private final File f;
+    private final TupleDesc td;
+    private final int tableid;
+    private final int keyField;
+
+    /**
+     * Constructs a hash file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this hash
+     *            file; it may be empty or not exist yet
+     * @param key the field the tuples are hashed on; it must be an integer
+     * @param td the schema of the tuples
+     */
+    public HashFile(File f, int key, TupleDesc td) {
+        if (key < 0 || key >= td.numFields() || td.getFieldType(key) != Type.INT_TYPE)
+            throw new IllegalArgumentException("key field " + key + " is not an integer field");
+        this.f = f;
+        this.tableid = f.getAbsoluteFile().hashCode();
+        this.keyField = key;
+        this.td = td;
+    }
+
+    /**
+     * Returns the File backing this HashFile on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this HashFile, the hash code of the
+     * absolute path of its file.
+     */
+    public int getId() {
+        return tableid;
+    }
+
+    // see IndexFile.java for javadocs
+    public int keyField() {
+        return keyField;
+    }
+
+    /**
+     * Returns the TupleDesc of the table stored in this DbFile.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Returns the number of pages in this HashFile, including the meta page.
+     */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.getPageSize());
+    }
+
+    /**
+     * Returns the hash of an integer key. The bits of the key are mixed so
+     * that the low bits used by the directory depend on all of them.
+     */
+    static int hash(Field key) {
+        int h = ((IntField) key).getValue() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /** @return the deepest the directory may grow, as limited by the meta page */
+    static int maxDepth() {
+        long entries = (long) HashMetaPage.getMaxDirectoryPages() * HashDirectoryPage.getNumEntries();
+        return Math.min(30, 63 - Long.numberOfLeadingZeros(entries));
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        HashPageId id = (HashPageId) pid;
+        int pageSize = BufferPool.getPageSize();
+        byte[] data = new byte[pageSize];
+        long offset = (long) id.pageNumber() * pageSize;
+        // the meta page of a new file reads as an empty table
+        if (id.pageNumber() != 0 && offset >= f.length())
+            throw new IllegalArgumentException("page " + pid + " is not in the file");
+        try {
+            if (offset < f.length()) {
+                RandomAccessFile raf = new RandomAccessFile(f, "r");
+                try {
+                    raf.seek(offset);
+                    raf.readFully(data);
+                } finally {
+                    raf.close();
+                }
+            }
+            switch (id.pgcateg()) {
+            case HashPageId.META:
+                return new HashMetaPage(id, data);
+            case HashPageId.DIRECTORY:
+                return new HashDirectoryPage(id, data);
+            default:
+                return new HashBucketPage(id, data, td);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("could not read page " + pid + ": " + e.getMessage());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            raf.seek((long) page.getId().pageNumber() * BufferPool.getPageSize());
+            raf.write(page.getPageData());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Reads a page through the BufferPool, or from dirtypages if this
+     * operation has already modified it. Pages read for writing are added to
+     * dirtypages and marked dirty right away, so that the BufferPool cannot
+     * evict them before the operation returns them.
+     */
+    private Page getPage(TransactionId tid, HashMap<PageId, Page> dirtypages, HashPageId pid,
+            Permissions perm) throws DbException, TransactionAbortedException {
+        Page p = dirtypages.get(pid);
+        if (p != null)
+            return p;
+        p = Database.getBufferPool().getPage(tid, pid, perm);
+        if (perm == Permissions.READ_WRITE) {
+            p.markDirty(true, tid);
+            dirtypages.put(pid, p);
+        }
+        return p;
+    }
+
+    private HashMetaPage getMetaPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            Permissions perm) throws DbException, TransactionAbortedException {
+        return (HashMetaPage) getPage(tid, dirtypages, HashMetaPage.getId(tableid), perm);
+    }
+
+    /** @return the directory page holding entry i, read with the specified permissions */
+    private HashDirectoryPage getDirectoryPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            HashMetaPage meta, int i, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (HashDirectoryPage) getPage(tid, dirtypages,
+                meta.getDirectoryPageId(i / HashDirectoryPage.getNumEntries()), perm);
+    }
+
+    /** @return the id of the bucket directory entry i points to */
+    private HashPageId getBucketId(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            HashMetaPage meta, int i) throws DbException, TransactionAbortedException {
+        return getDirectoryPage(tid, dirtypages, meta, i, Permissions.READ_ONLY)
+                .getBucketId(i % HashDirectoryPage.getNumEntries());
+    }
+
+    private void setBucketId(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            HashMetaPage meta, int i, HashPageId bucket)
+            throws DbException, TransactionAbortedException {
+        getDirectoryPage(tid, dirtypages, meta, i, Permissions.READ_WRITE)
+                .setBucketId(i % HashDirectoryPage.getNumEntries(), bucket);
+    }
+
+    /** @return the id of the bucket that holds the keys with hash h */
+    private HashPageId findBucket(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            HashMetaPage meta, int h) throws DbException, TransactionAbortedException {
+        return getBucketId(tid, dirtypages, meta, h & ((1 << meta.getGlobalDepth()) - 1));
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tupledesc mismatch");
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        HashMetaPage meta = getMetaPage(tid, dirtypages, Permissions.READ_ONLY);
+        if (meta.getNumDirectoryPages() == 0) {
+            meta = getMetaPage(tid, dirtypages, Permissions.READ_WRITE);
+            HashPage dir = getEmptyPage(tid, dirtypages, HashPageId.DIRECTORY);
+            meta.addDirectoryPage(dir.getId());
+            setBucketId(tid, dirtypages, meta, 0, getEmptyPage(tid, dirtypages, HashPageId.BUCKET).getId());
+        }
+
+        int h = hash(t.getField(keyField));
+        while (true) {
+            HashPageId bucketId = findBucket(tid, dirtypages, meta, h);
+            ArrayList<HashBucketPage> chain = new ArrayList<HashBucketPage>();
+            for (HashPageId id = bucketId; id != null; ) {
+                HashBucketPage p = (HashBucketPage) getPage(tid, dirtypages, id, Permissions.READ_ONLY);
+                if (p.getNumEmptySlots() > 0) {
+                    p = (HashBucketPage) getPage(tid, dirtypages, id, Permissions.READ_WRITE);
+                    p.insertTuple(t);
+                    return new ArrayList<Page>(dirtypages.values());
+                }
+                chain.add(p);
+                id = p.getNextId();
+            }
+
+            HashBucketPage last = chain.get(chain.size() - 1);
+            if (chain.get(0).getLocalDepth() < maxDepth() && hashesDiffer(chain, h)) {
+                splitBucket(tid, dirtypages, chain, h);
+            } else {
+                HashBucketPage overflow = (HashBucketPage) getEmptyPage(tid, dirtypages,
+                        HashPageId.BUCKET);
+                overflow.setLocalDepth(last.getLocalDepth());
+                last = (HashBucketPage) getPage(tid, dirtypages, last.getId(), Permissions.READ_WRITE);
+                last.setNextId(overflow.getId());
+                overflow.insertTuple(t);
+                return new ArrayList<Page>(dirtypages.values());
+            }
+        }
+    }
+
+    /** @return true if some tuple in the chain has a key whose hash is not h */
+    private boolean hashesDiffer(ArrayList<HashBucketPage> chain, int h) {
+        for (HashBucketPage p : chain) {
+            Iterator<Tuple> it = p.iterator();
+            while (it.hasNext()) {
+                if (hash(it.next().getField(keyField)) != h)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Splits the bucket whose overflow chain is specified on the next bit of
+     * the hash, doubling the directory first if the bucket's local depth is
+     * the global depth. The tuples whose hash has that bit set move to a new
+     * bucket, and the directory entries for them are pointed at it. The
+     * pages of the old chain are reused for both halves.
+     *
+     * @param h the hash of a key in the bucket
+     */
+    private void splitBucket(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            ArrayList<HashBucketPage> chain, int h)
+            throws DbException, IOException, TransactionAbortedException {
+        int depth = chain.get(0).getLocalDepth();
+        HashMetaPage meta = getMetaPage(tid, dirtypages, Permissions.READ_ONLY);
+        if (depth == meta.getGlobalDepth())
+            doubleDirectory(tid, dirtypages);
+
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        LinkedList<HashBucketPage> spare = new LinkedList<HashBucketPage>();
+        for (HashBucketPage p : chain) {
+            p = (HashBucketPage) getPage(tid, dirtypages, p.getId(), Permissions.READ_WRITE);
+            tuples.addAll(p.removeAll());
+            p.setNextId(null);
+            p.setLocalDepth(depth + 1);
+            spare.add(p);
+        }
+        HashBucketPage[] tails = { spare.removeFirst(), null };
+        HashBucketPage high = (HashBucketPage) getEmptyPage(tid, dirtypages, HashPageId.BUCKET);
+        high.setLocalDepth(depth + 1);
+        tails[1] = high;
+        for (Tuple t : tuples) {
+            int side = (hash(t.getField(keyField)) >>> depth) & 1;
+            if (tails[side].getNumEmptySlots() == 0) {
+                HashBucketPage next = spare.isEmpty()
+                        ? (HashBucketPage) getEmptyPage(tid, dirtypages, HashPageId.BUCKET)
+                        : spare.removeFirst();
+                next.setLocalDepth(depth + 1);
+                tails[side].setNextId(next.getId());
+                tails[side] = next;
+            }
+            tails[side].insertTuple(t);
+        }
+        // pages left over stay at the end of the low chain for later inserts
+        for (HashBucketPage p : spare) {
+            tails[0].setNextId(p.getId());
+            tails[0] = p;
+        }
+
+        int low = h & ((1 << depth) - 1);
+        for (int i = low | (1 << depth); i < (1 << meta.getGlobalDepth()); i += 1 << (depth + 1))
+            setBucketId(tid, dirtypages, meta, i, high.getId());
+    }
+
+    /**
+     * Doubles the directory: entry i + 2^d becomes a copy of entry i, adding
+     * directory pages as needed.
+     */
+    private void doubleDirectory(TransactionId tid, HashMap<PageId, Page> dirtypages)
+            throws DbException, IOException, TransactionAbortedException {
+        HashMetaPage meta = getMetaPage(tid, dirtypages, Permissions.READ_WRITE);
+        int n = 1 << meta.getGlobalDepth();
+        while ((long) meta.getNumDirectoryPages() * HashDirectoryPage.getNumEntries() < 2L * n)
+            meta.addDirectoryPage(getEmptyPage(tid, dirtypages, HashPageId.DIRECTORY).getId());
+        for (int i = 0; i < n; i++)
+            setBucketId(tid, dirtypages, meta, n + i, getBucketId(tid, dirtypages, meta, i));
+        meta.setGlobalDepth(meta.getGlobalDepth() + 1);
+    }
+
+    /** Returns a new empty page of the specified category, appended to the file. */
+    private HashPage getEmptyPage(TransactionId tid, HashMap<PageId, Page> dirtypages, int pgcateg)
+            throws DbException, IOException, TransactionAbortedException {
+        return (HashPage) getPage(tid, dirtypages, new HashPageId(tableid, appendPage(), pgcateg),
+                Permissions.READ_WRITE);
+    }
+
+    /** Extends the file by one empty page and returns its number. */
+    private synchronized int appendPage() throws IOException {
+        int pgNo = Math.max(1, numPages());
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            raf.seek((long) pgNo * BufferPool.getPageSize());
+            raf.write(new byte[BufferPool.getPageSize()]);
+        } finally {
+            raf.close();
+        }
+        return pgNo;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !(rid.getPageId() instanceof HashPageId)
+                || rid.getPageId().getTableId() != tableid
+                || ((HashPageId) rid.getPageId()).pgcateg() != HashPageId.BUCKET)
+            throw new DbException("tuple is not a member of this file");
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        HashBucketPage p = (HashBucketPage) getPage(tid, dirtypages, (HashPageId) rid.getPageId(),
+                Permissions.READ_WRITE);
+        p.deleteTuple(t);
+        return new ArrayList<Page>(dirtypages.values());
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new HashFileIterator(tid, null);
+    }
+
+    // see IndexFile.java for javadocs
+    public DbFileIterator lookup(TransactionId tid, Field key) {
+        if (!(key instanceof IntField))
+            throw new IllegalArgumentException("hash files are keyed on integers");
+        return new HashFileIterator(tid, key);
+    }
+
+    /**
+     * Iterates over the tuples of every bucket, or of the one bucket that
+     * may hold a key, following overflow chains. Each page's tuples are
+     * copied when it is read, so pages are not pinned between calls.
+     */
+    private class HashFileIterator implements DbFileIterator {
+        private final TransactionId tid;
+        private final Field key;
+        private boolean open;
+        private LinkedList<HashPageId> buckets;
+        private Iterator<Tuple> tuples;
+        private HashPageId nextPage;
+        private Tuple next;
+
+        HashFileIterator(TransactionId tid, Field key) {
+            this.tid = tid;
+            this.key = key;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            open = true;
+            next = null;
+            tuples = null;
+            nextPage = null;
+            buckets = new LinkedList<HashPageId>();
+            HashMap<PageId, Page> none = new HashMap<PageId, Page>();
+            HashMetaPage meta = getMetaPage(tid, none, Permissions.READ_ONLY);
+            if (meta.getNumDirectoryPages() == 0)
+                return;
+            if (key != null) {
+                buckets.add(findBucket(tid, none, meta, hash(key)));
+                return;
+            }
+            HashSet<HashPageId> seen = new HashSet<HashPageId>();
+            for (int i = 0; i < 1 << meta.getGlobalDepth(); i++) {
+                HashPageId id = getBucketId(tid, none, meta, i);
+                if (seen.add(id))
+                    buckets.add(id);
+            }
+        }
+
+        private Tuple fetch() throws DbException, TransactionAbortedException {
+            while (true) {
+                while (tuples != null && tuples.hasNext()) {
+                    Tuple t = tuples.next();
+                    if (key == null || key.equals(t.getField(keyField)))
+                        return t;
+                }
+                if (nextPage == null) {
+                    if (buckets.isEmpty())
+                        return null;
+                    nextPage = buckets.removeFirst();
+                }
+                HashBucketPage p = (HashBucketPage) Database.getBufferPool().getPage(tid, nextPage,
+                        Permissions.READ_ONLY);
+                tuples = p.iterator();
+                nextPage = p.getNextId();
+            }
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (!open)
+                return false;
+            if (next == null)
+                next = fetch();
+            return next != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            open = false;
+            buckets = null;
+            tuples = null;
+            next = null;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * HashMetaPage is page 0 of a HashFile. It records the global depth d of
+ * the file's directory, which has 2^d entries, and the page numbers of the
+ * directory pages holding those entries in order.
+ * <p>
+ * The format of the meta page is the global depth, the number of directory
+ * pages, and then their page numbers. A file without directory pages has
+ * not been initialized yet and holds no tuples.
+ *
+ * @see HashFile
+ * @see HashDirectoryPage
+ */
+public class HashMetaPage extends HashPage {
+
+    /** Bytes of page header: global depth and directory page count. */
+    static final int HEADER_SIZE = 8;
+
+    private int globalDepth;
+    private int numDirPages;
+    private final int[] dirPages;
+
+    /**
+     * Create a HashMetaPage from a set of bytes of data read from disk.
+     */
+    public HashMetaPage(HashPageId id, byte[] data) throws IOException {
+        super(id);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        globalDepth = dis.readInt();
+        numDirPages = dis.readInt();
+        dirPages = new int[getMaxDirectoryPages()];
+        if (numDirPages < 0 || numDirPages > dirPages.length)
+            throw new IOException("corrupt meta page " + id + ": " + numDirPages + " directory pages");
+        for (int i = 0; i < numDirPages; i++)
+            dirPages[i] = dis.readInt();
+        dis.close();
+        setBeforeImage();
+    }
+
+    /** @return the id of the meta page of the specified table */
+    public static HashPageId getId(int tableid) {
+        return new HashPageId(tableid, 0, HashPageId.META);
+    }
+
+    /** @return the number of directory pages the meta page can record */
+    public static int getMaxDirectoryPages() {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / 4;
+    }
+
+    /** @return the number of low bits of a hash that index the directory */
+    public int getGlobalDepth() {
+        return globalDepth;
+    }
+
+    public void setGlobalDepth(int depth) {
+        globalDepth = depth;
+    }
+
+    /** @return the number of directory pages of the file */
+    public int getNumDirectoryPages() {
+        return numDirPages;
+    }
+
+    /** @return the id of the ith directory page */
+    public HashPageId getDirectoryPageId(int i) {
+        if (i < 0 || i >= numDirPages)
+            throw new java.util.NoSuchElementException("no directory page " + i);
+        return new HashPageId(pid.getTableId(), dirPages[i], HashPageId.DIRECTORY);
+    }
+
+    /**
+     * Adds a directory page after the last one.
+     *
+     * @throws DbException if the meta page has no room for another
+     */
+    public void addDirectoryPage(HashPageId id) throws DbException {
+        if (numDirPages == dirPages.length)
+            throw new DbException("directory is full");
+        dirPages[numDirPages++] = id.pageNumber();
+    }
+
+    void write(DataOutputStream dos) throws IOException {
+        dos.writeInt(globalDepth);
+        dos.writeInt(numDirPages);
+        for (int i = 0; i < numDirPages; i++)
+            dos.writeInt(dirPages[i]);
+    }
+
+    /** Return a view of this page before it was modified -- used by recovery */
+    public HashMetaPage getBeforeImage() {
+        try {
+            return new HashMetaPage(pid, beforeImageData());
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * The state shared by the pages of a HashFile: the page's id and the dirty
+ * flag and before image every Page keeps.
+ *
+ * @see HashFile
+ */
+public abstract class HashPage implements Page {
+
+    final HashPageId pid;
+
+    private volatile TransactionId dirtier;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    HashPage(HashPageId id) {
+        this.pid = id;
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HashPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData().clone();
+        }
+    }
+
+    /** @return the bytes of this page before it was modified */
+    byte[] beforeImageData() {
+        synchronized (oldDataLock) {
+            return oldData;
+        }
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, which
+     * can be passed to the constructor to produce an identical page.
+     */
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            write(dos);
+            return BTreePage.finish(baos, dos);
+        } catch (IOException e) {
+            // writing to a byte array does not fail
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Writes the contents of this page; getPageData pads them to a page. */
+    abstract void write(DataOutputStream dos) throws IOException;
+}
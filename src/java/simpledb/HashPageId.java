@@ -0,0 +1,83 @@
+package simpledb;
+
+/**
+ * Unique identifier for the pages of a HashFile: its meta page, directory
+ * pages and bucket pages. The category of a page is part of its id, so that
+ * HashFile knows how to parse the page when it is read.
+ */
+public class HashPageId implements PageId {
+
+    public final static int META = 0;
+    public final static int DIRECTORY = 1;
+    public final static int BUCKET = 2;
+
+    private final int tableId;
+    private final int pgNo;
+    private final int pgcateg;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific table.
+     *
+     * @param tableId The table that is being referenced
+     * @param pgNo The page number in that table.
+     * @param pgcateg The category of the page: META, DIRECTORY or BUCKET
+     */
+    public HashPageId(int tableId, int pgNo, int pgcateg) {
+        if (pgcateg < META || pgcateg > BUCKET)
+            throw new IllegalArgumentException("invalid page category " + pgcateg);
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+        this.pgcateg = pgcateg;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the page number in the table getTableId() associated with
+     *   this PageId
+     */
+    public int pageNumber() {
+        return pgNo;
+    }
+
+    /** @return the category of this page */
+    public int pgcateg() {
+        return pgcateg;
+    }
+
+    public int hashCode() {
+        return (tableId * 31 + pgNo) * 3 + pgcateg;
+    }
+
+    /**
+     * Compares one PageId to another.
+     *
+     * @return true if o is a HashPageId with the same table, page number
+     *   and category
+     */
+    public boolean equals(Object o) {
+        if (!(o instanceof HashPageId))
+            return false;
+        HashPageId other = (HashPageId) o;
+        return tableId == other.tableId && pgNo == other.pgNo && pgcateg == other.pgcateg;
+    }
+
+    public String toString() {
+        String[] names = { "META", "DIRECTORY", "BUCKET" };
+        return "(" + tableId + ", " + pgNo + ", " + names[pgcateg] + ")";
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.  Size of returned array must contain
+     *  number of integers that corresponds to number of args to one of the
+     *  constructors.
+     */
+    public int[] serialize() {
+        return new int[] { tableId, pgNo, pgcateg };
+    }
+}
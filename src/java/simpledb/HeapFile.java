@@ -26,12 +26,16 @@ public class HeapFile implements DbFile {
     private int fid;
     private File file;
     private TupleDesc tuple_desc;
+    private ZoneMap zone_map;
+    private PageBloomFilters bloom_filters;
 
     public HeapFile(File f, TupleDesc td) {
         // some code goes here
         file = f;
         fid = f.getAbsoluteFile().hashCode();
         tuple_desc = td;
+        zone_map = ZoneMap.load(this);
+        bloom_filters = PageBloomFilters.load(this);
     }
 
     /**
@@ -67,7 +71,7 @@ public class HeapFile implements DbFile {
 
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
-        int pgsize = Database.getBufferPool().PAGE_SIZE;
+        int pgsize = BufferPool.getPageSize();
         byte[] bytes = new byte[pgsize];
         try {
             RandomAccessFile RAMfile = new RandomAccessFile(file.getAbsolutePath(), "r");
@@ -89,8 +93,63 @@ public class HeapFile implements DbFile {
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
-        // some code goes here
-        // not necessary for lab1
+        RandomAccessFile RAMfile = new RandomAccessFile(file.getAbsolutePath(), "rw");
+        try {
+            RAMfile.seek((long) page.getId().pageNumber() * BufferPool.getPageSize());
+            RAMfile.write(page.getPageData());
+        } finally {
+            RAMfile.close();
+        }
+        ZoneMap zm = zone_map;
+        if (zm != null)
+            zm.update((HeapPage) page);
+        PageBloomFilters bf = bloom_filters;
+        if (bf != null)
+            bf.update((HeapPage) page, numPages());
+    }
+
+    /**
+     * Returns the zone map of this file, or null if it has none; a zone map
+     * is loaded from its sidecar file when the HeapFile is constructed, or
+     * built by {@link #buildZoneMap}.
+     */
+    public ZoneMap getZoneMap() {
+        return zone_map;
+    }
+
+    /**
+     * Builds the zone map of this file by scanning it, replacing the sidecar
+     * file, and keeps it up to date from then on.
+     *
+     * @param tid the transaction the scan is running as a part of
+     */
+    public ZoneMap buildZoneMap(TransactionId tid)
+            throws DbException, TransactionAbortedException, IOException {
+        zone_map = ZoneMap.build(tid, this);
+        return zone_map;
+    }
+
+    /**
+     * Returns the Bloom filters of this file, or null if it has none; they
+     * are loaded from their sidecar file when the HeapFile is constructed,
+     * or built by {@link #buildBloomFilters}.
+     */
+    public PageBloomFilters getBloomFilters() {
+        return bloom_filters;
+    }
+
+    /**
+     * Builds Bloom filters of the specified fields of this file by scanning
+     * it, replacing the sidecar file, and keeps them up to date from then on.
+     *
+     * @param tid the transaction the scan is running as a part of
+     * @param fields the fields to keep filters of
+     * @param pagesPerBlock the number of pages each filter covers
+     */
+    public PageBloomFilters buildBloomFilters(TransactionId tid, int[] fields, int pagesPerBlock)
+            throws DbException, TransactionAbortedException, IOException {
+        bloom_filters = PageBloomFilters.build(tid, this, fields, pagesPerBlock);
+        return bloom_filters;
     }
 
     /**
@@ -98,23 +157,73 @@ public class HeapFile implements DbFile {
      */
     public int numPages() {
         // TODO: need cast? or diff way to find byte count
-        return (int) Math.ceil(file.length()/Database.getBufferPool().PAGE_SIZE);
+        return (int) Math.ceil(file.length()/BufferPool.getPageSize());
+    }
+
+    /**
+     * Returns the number of tuple slots on each page of this HeapFile.
+     */
+    public int tuplesPerPage() {
+        return (BufferPool.getPageSize() * 8) / (tuple_desc.getSize() * 8 + 1);
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
-        // some code goes here
-        return null;
-        // not necessary for lab1
+        ArrayList<Page> modified = new ArrayList<Page>();
+        // appends usually find room on the last page, so search backwards
+        BufferPool pool = Database.getBufferPool();
+        for (int i = numPages() - 1; i >= 0; i--) {
+            HeapPageId id = new HeapPageId(getId(), i);
+            boolean locked = pool.holdsLock(tid, id);
+            HeapPage p = (HeapPage) pool.getPage(tid, id, Permissions.READ_ONLY);
+            if (p.getNumEmptySlots() > 0) {
+                p = (HeapPage) pool.getPage(tid, id, Permissions.READ_WRITE);
+                p.insertTuple(t);
+                noteInsert(i, t);
+                modified.add(p);
+                return modified;
+            }
+            // only the header of a full page was looked at, so other
+            // transactions may as well write it
+            if (!locked)
+                pool.releasePage(tid, id);
+        }
+
+        // every page is full: append an empty one and insert into it
+        HeapPageId id;
+        synchronized (this) {
+            id = new HeapPageId(getId(), numPages());
+            writePage(new HeapPage(id, HeapPage.createEmptyPageData()));
+        }
+        HeapPage p = (HeapPage) pool.getPage(tid, id, Permissions.READ_WRITE);
+        p.insertTuple(t);
+        noteInsert(id.pageNumber(), t);
+        modified.add(p);
+        return modified;
+    }
+
+    /** Adds a tuple inserted into a page to the metadata kept for the page. */
+    private void noteInsert(int pgNo, Tuple t) {
+        ZoneMap zm = zone_map;
+        if (zm != null)
+            zm.widen(pgNo, t);
+        PageBloomFilters bf = bloom_filters;
+        if (bf != null)
+            bf.add(pgNo, t);
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
-        // some code goes here
-        return null;
-        // not necessary for lab1
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId())
+            throw new DbException("tuple is not a member of this file");
+        HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_WRITE);
+        p.deleteTuple(t);
+        ArrayList<Page> modified = new ArrayList<Page>();
+        modified.add(p);
+        return modified;
     }
 
     private class HeapFileIterator implements DbFileIterator {
@@ -123,16 +232,39 @@ public class HeapFile implements DbFile {
         private TransactionId iter_tid;
         Iterator<Tuple> tuple_iterator;
         private final int INVALID = Integer.MAX_VALUE;
+        private int first_page;
+        private int last_page;
+        private PagePruner pruner;
+        private boolean prune;
 
         public HeapFileIterator(HeapFile heapFile, TransactionId tid) {
+            this(heapFile, tid, 0, Integer.MAX_VALUE, null);
+        }
+
+        public HeapFileIterator(HeapFile heapFile, TransactionId tid, int fromPage, int toPage,
+                PagePruner pruner) {
             iter_heap = heapFile;
             iter_tid = tid;
+            first_page = fromPage;
+            last_page = toPage;
+            this.pruner = pruner;
             curr_page_num = INVALID;
             //tuple_iterator = null;
         }
 
+        /** @return one past the last page this iterator reads */
+        private int endPage() {
+            return Math.min(last_page, iter_heap.numPages());
+        }
+
         public void open() throws DbException, TransactionAbortedException {
-            curr_page_num = -1;
+            // a scan of every page takes one table lock instead of a lock per page
+            if (first_page == 0 && last_page == Integer.MAX_VALUE && pruner == null)
+                Database.getBufferPool().lockTable(iter_tid, iter_heap.getId(), Permissions.READ_ONLY);
+            // the metadata describes the newest version of each page, so it
+            // cannot rule out the older versions some transactions read
+            prune = pruner != null && !Database.getBufferPool().readsOldVersions(iter_tid);
+            curr_page_num = first_page - 1;
             tuple_iterator = null;
         }
 
@@ -145,7 +277,11 @@ public class HeapFile implements DbFile {
                 return true;
             else {
                 curr_page_num++;
-                while (curr_page_num < iter_heap.numPages()) {
+                while (curr_page_num < endPage()) {
+                    if (prune && !pruner.mayMatch(curr_page_num)) {
+                        curr_page_num++;
+                        continue;
+                    }
                     try {
                         HeapPageId id = new HeapPageId(iter_heap.getId(), curr_page_num);
                         HeapPage p = (HeapPage) Database.getBufferPool().getPage(iter_tid, id, Permissions.READ_ONLY);
@@ -174,7 +310,11 @@ public class HeapFile implements DbFile {
                 return tuple_iterator.next();
             else {
                 curr_page_num++;
-                while (curr_page_num < iter_heap.numPages()) {
+                while (curr_page_num < endPage()) {
+                    if (prune && !pruner.mayMatch(curr_page_num)) {
+                        curr_page_num++;
+                        continue;
+                    }
                     try {
                         HeapPageId id = new HeapPageId(iter_heap.getId(), curr_page_num);
                         HeapPage p = (HeapPage) Database.getBufferPool().getPage(iter_tid, id, Permissions.READ_ONLY);
@@ -231,4 +371,67 @@ public class HeapFile implements DbFile {
         return new HeapFileIterator(this, tid);
     }
 
+    /**
+     * Returns an iterator over the tuples on pages fromPage (inclusive)
+     * through toPage (exclusive) of this file. Iterators over disjoint page
+     * ranges can be run by different threads to scan one file in parallel.
+     *
+     * @param tid the transaction the scan is running as a part of
+     * @param fromPage the first page to read
+     * @param toPage one past the last page to read; clipped to numPages()
+     */
+    public DbFileIterator iterator(TransactionId tid, int fromPage, int toPage) {
+        if (fromPage < 0 || toPage < fromPage)
+            throw new IllegalArgumentException("invalid page range [" + fromPage + ", " + toPage + ")");
+        return new HeapFileIterator(this, tid, fromPage, toPage, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that skips the pages
+     * the pruner rules out, without reading them. Every page is read by a
+     * transaction that may see old versions of pages, as the metadata
+     * pruners consult describes the newest ones.
+     *
+     * @param tid the transaction the scan is running as a part of
+     * @param pruner the pruner to consult before reading each page
+     */
+    public DbFileIterator iterator(TransactionId tid, PagePruner pruner) {
+        return new HeapFileIterator(this, tid, 0, Integer.MAX_VALUE, pruner);
+    }
+
+    /**
+     * Returns a PagePruner that skips the pages of this file on which no
+     * tuple can satisfy every one of the predicates, according to the
+     * metadata kept for the file, or null if there is none.
+     */
+    public PagePruner pruner(Predicate... preds) {
+        ZoneMap zm = zone_map;
+        PageBloomFilters bf = bloom_filters;
+        if (zm == null)
+            return bf == null ? null : bf.pruner(preds);
+        if (bf == null)
+            return zm.pruner(preds);
+        final PagePruner first = zm.pruner(preds);
+        final PagePruner second = bf.pruner(preds);
+        return new PagePruner() {
+            public boolean mayMatch(int pgNo) {
+                return first.mayMatch(pgNo) && second.mayMatch(pgNo);
+            }
+        };
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that skips the pages
+     * on which no tuple can satisfy every one of the predicates. The tuples
+     * returned are not filtered, so some may not satisfy them.
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate[] preds) {
+        return iterator(tid, pruner(preds));
+    }
+
+    // see DbFile.java for javadocs
+    public Spliterator<Tuple> spliterator(TransactionId tid) {
+        return new HeapFileSpliterator(this, tid, 0, numPages());
+    }
+
 }
@@ -0,0 +1,118 @@
+package simpledb;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * A Spliterator over the tuples on a range of pages of a HeapFile. Splitting
+ * hands the first half of the remaining pages to a new spliterator, so a
+ * parallel stream over a table divides it into contiguous page ranges.
+ * <p>
+ * Pages are read through the BufferPool as part of the specified
+ * transaction. Size estimates are the tuples left on the page in progress
+ * plus the number of remaining pages times the tuples per page: the slot
+ * count of a page until a page has been read, and the average number of
+ * tuples on the pages read so far after that (which a split passes on to
+ * both halves).
+ */
+class HeapFileSpliterator implements Spliterator<Tuple> {
+
+    private final HeapFile file;
+    private final TransactionId tid;
+    private int nextPage;
+    private final int endPage;
+
+    private Iterator<Tuple> current;
+    private int currentLeft;
+
+    // pages read and tuples seen on them, for the size estimate
+    private long pagesRead;
+    private long tuplesRead;
+
+    /**
+     * @param file the file to scan
+     * @param tid the transaction the scan is running as a part of
+     * @param fromPage the first page to read
+     * @param toPage one past the last page to read
+     */
+    public HeapFileSpliterator(HeapFile file, TransactionId tid, int fromPage, int toPage) {
+        this.file = file;
+        this.tid = tid;
+        this.nextPage = fromPage;
+        this.endPage = toPage;
+    }
+
+    /** @return the iterator of the next page, or null if none is left */
+    private Iterator<Tuple> readNextPage() {
+        if (nextPage >= endPage)
+            return null;
+        HeapPageId pid = new HeapPageId(file.getId(), nextPage++);
+        HeapPage p;
+        try {
+            p = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        } catch (DbException e) {
+            throw new RuntimeException(e);
+        } catch (TransactionAbortedException e) {
+            throw new RuntimeException(e);
+        }
+        currentLeft = file.tuplesPerPage() - p.getNumEmptySlots();
+        pagesRead++;
+        tuplesRead += currentLeft;
+        return p.iterator();
+    }
+
+    public boolean tryAdvance(Consumer<? super Tuple> action) {
+        while (current == null || !current.hasNext()) {
+            current = readNextPage();
+            if (current == null)
+                return false;
+        }
+        currentLeft--;
+        action.accept(current.next());
+        return true;
+    }
+
+    public void forEachRemaining(Consumer<? super Tuple> action) {
+        if (current == null)
+            current = readNextPage();
+        while (current != null) {
+            while (current.hasNext())
+                action.accept(current.next());
+            current = readNextPage();
+        }
+        currentLeft = 0;
+    }
+
+    /**
+     * Splits off the first half of the pages not yet finished, or returns
+     * null if fewer than two are left. The spliterator returned covers a
+     * prefix of this one's tuples, as ORDERED requires, so it also takes over
+     * the rest of a page in progress.
+     */
+    public Spliterator<Tuple> trySplit() {
+        int remaining = endPage - nextPage;
+        if (remaining < 2)
+            return null;
+        int mid = nextPage + remaining / 2;
+        HeapFileSpliterator prefix = new HeapFileSpliterator(file, tid, nextPage, mid);
+        prefix.current = current;
+        prefix.currentLeft = currentLeft;
+        prefix.pagesRead = pagesRead;
+        prefix.tuplesRead = tuplesRead;
+        current = null;
+        currentLeft = 0;
+        nextPage = mid;
+        return prefix;
+    }
+
+    public long estimateSize() {
+        long pages = endPage - nextPage;
+        if (pagesRead == 0)
+            return pages * file.tuplesPerPage() + currentLeft;
+        return (pages * tuplesRead + pagesRead / 2) / pagesRead + currentLeft;
+    }
+
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+}
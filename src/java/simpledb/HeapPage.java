@@ -19,6 +19,8 @@ public class HeapPage implements Page {
     final Tuple tuples[];
     final int numSlots;
 
+    private volatile TransactionId dirtier;
+
     byte[] oldData;
     private final Byte oldDataLock=new Byte((byte)0);
 
@@ -239,8 +241,17 @@ public class HeapPage implements Page {
      * @param t The tuple to delete
      */
     public void deleteTuple(Tuple t) throws DbException {
-        // some code goes here
-        // not necessary for lab1
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("tuple is not on this page");
+        int slot = rid.tupleno();
+        if (!isSlotUsed(slot))
+            throw new DbException("tuple slot is already empty");
+        markSlotUsed(slot, false);
+        // t may belong to another copy of this page, which must not change
+        if (tuples[slot] == t)
+            t.setRecordId(null);
+        tuples[slot] = null;
     }
 
     /**
@@ -251,8 +262,17 @@ public class HeapPage implements Page {
      * @param t The tuple to add.
      */
     public void insertTuple(Tuple t) throws DbException {
-        // some code goes here
-        // not necessary for lab1
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tupledesc mismatch");
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                markSlotUsed(i, true);
+                t.setRecordId(new RecordId(pid, i));
+                tuples[i] = t;
+                return;
+            }
+        }
+        throw new DbException("page is full");
     }
 
     /**
@@ -260,17 +280,14 @@ public class HeapPage implements Page {
      * that did the dirtying
      */
     public void markDirty(boolean dirty, TransactionId tid) {
-        // some code goes here
-    // not necessary for lab1
+        dirtier = dirty ? tid : null;
     }
 
     /**
      * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
      */
     public TransactionId isDirty() {
-        // some code goes here
-    // Not necessary for lab1
-        return null;      
+        return dirtier;
     }
 
     /**
@@ -302,8 +319,18 @@ public class HeapPage implements Page {
      * Abstraction to fill or clear a slot on this page.
      */
     private void markSlotUsed(int i, boolean value) {
-        // some code goes here
-        // not necessary for lab1
+        byte mask = (byte)(0x1 << (i%8));
+        if (value)
+            header[i/8] |= mask;
+        else
+            header[i/8] &= ~mask;
+    }
+
+    /**
+     * @return the tuple in slot i of this page, or null if the slot is empty
+     */
+    public Tuple getTuple(int i) {
+        return isSlotUsed(i) ? tuples[i] : null;
     }
 
     /**
@@ -49,11 +49,11 @@ public class HeapPageId implements PageId {
      *   ids are the same)
      */
     public boolean equals(Object o) {
-        return (o!= null && hashCode() == o.hashCode());
-        //if (o != null && o instanceof HeapPageId)
-        //  return (tableID == ((HeapPageId) o).getTableId() &&
-        //      pageNum == ((HeapPageId) o).pageNumber());
-        //return false;
+        // other kinds of PageId may share a BufferPool with this one
+        if (o != null && o instanceof HeapPageId)
+            return (tableID == ((HeapPageId) o).getTableId() &&
+                pageNum == ((HeapPageId) o).pageNumber());
+        return false;
     }
 
     /**
@@ -0,0 +1,123 @@
+package simpledb;
+
+/**
+ * HyperLogLog estimates the number of distinct values in a stream using a
+ * fixed number of small registers, independent of the number of values.
+ * With 2^p registers the standard error is about 1.04 / sqrt(2^p), e.g. 1.6%
+ * for the default p = 12, which takes 4KB.
+ * <p>
+ * Sketches built over different parts of a table (e.g. by different
+ * threads) can be merged into a sketch of the whole table. Values cannot be
+ * removed from a sketch. Not thread-safe.
+ */
+public class HyperLogLog {
+
+    /** The default number of register index bits. */
+    public static final int DEFAULT_P = 12;
+
+    private final int p;
+    private final byte[] registers;
+
+    public HyperLogLog() {
+        this(DEFAULT_P);
+    }
+
+    /**
+     * @param p the number of register index bits, between 4 and 16
+     */
+    public HyperLogLog(int p) {
+        if (p < 4 || p > 16)
+            throw new IllegalArgumentException("p must be between 4 and 16");
+        this.p = p;
+        this.registers = new byte[1 << p];
+    }
+
+    /**
+     * Adds a field value to the sketch.
+     *
+     * @return true if the sketch changed, i.e. its estimate may have grown
+     */
+    public boolean add(Field f) {
+        return addHash(hash64(f));
+    }
+
+    /**
+     * Adds a value, given as a well-mixed 64-bit hash, to the sketch.
+     *
+     * @return true if the sketch changed
+     */
+    public boolean addHash(long hash) {
+        int index = (int) (hash >>> (64 - p));
+        // the guard bit bounds the rank when the remaining bits are all 0
+        long rest = (hash << p) | (1L << (p - 1));
+        int rank = Long.numberOfLeadingZeros(rest) + 1;
+        if (rank <= registers[index])
+            return false;
+        registers[index] = (byte) rank;
+        return true;
+    }
+
+    /**
+     * Merges another sketch with the same p into this one; afterwards this
+     * sketch estimates the distinct values added to either.
+     */
+    public void merge(HyperLogLog other) {
+        if (other.p != p)
+            throw new IllegalArgumentException("cannot merge sketches of different sizes");
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i])
+                registers[i] = other.registers[i];
+        }
+    }
+
+    /** @return the estimated number of distinct values added */
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0)
+                zeros++;
+        }
+        double alpha;
+        if (m == 16)
+            alpha = 0.673;
+        else if (m == 32)
+            alpha = 0.697;
+        else if (m == 64)
+            alpha = 0.709;
+        else
+            alpha = 0.7213 / (1 + 1.079 / m);
+        double e = alpha * m * m / sum;
+        // small cardinalities: linear counting over the empty registers
+        if (e <= 2.5 * m && zeros > 0)
+            e = m * Math.log((double) m / zeros);
+        return Math.round(e);
+    }
+
+    /**
+     * @return a 64-bit hash of the specified field; equal fields have equal
+     *         hashes
+     */
+    public static long hash64(Field f) {
+        long h;
+        if (f instanceof IntField) {
+            h = ((IntField) f).getValue();
+        } else {
+            // FNV-1a over the characters
+            String s = ((StringField) f).getValue();
+            h = 0xcbf29ce484222325L;
+            for (int i = 0; i < s.length(); i++) {
+                h ^= s.charAt(i);
+                h *= 0x100000001b3L;
+            }
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,21 @@
+package simpledb;
+
+/**
+ * The interface for DbFiles that store their tuples organized by a key
+ * field, so that the tuples with a given key can be found without reading
+ * the whole file. Operators such as {@link IndexLookup} and
+ * {@link IndexJoin} work with any IndexFile.
+ */
+public interface IndexFile extends DbFile {
+
+    /** @return the index of the field the file is organized by */
+    public int keyField();
+
+    /**
+     * Returns an iterator over the tuples whose key field equals key.
+     *
+     * @param tid the transaction the lookup is running as a part of
+     * @param key the key to look up; it must have the type of the key field
+     */
+    public DbFileIterator lookup(TransactionId tid, Field key);
+}
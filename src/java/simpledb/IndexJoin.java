@@ -0,0 +1,144 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexJoin implements an equality join with an index nested loops join:
+ * for each tuple of its outer child, it looks up the tuples of the inner
+ * table whose key equals the outer tuple's join field in the inner table's
+ * {@link IndexFile}, so the inner table is never scanned. Output tuples are
+ * the outer tuple followed by the inner tuple, as with {@link Join}.
+ */
+public class IndexJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private DbIterator outer;
+    private final int outerField;
+    private final int tableid;
+    private final String alias;
+    private TupleDesc td;
+
+    private transient Tuple current;
+    private transient DbFileIterator matches;
+    private transient int lookups;
+
+    /**
+     * Constructor.
+     *
+     * @param tid
+     *            The transaction the lookups are running as a part of.
+     * @param outer
+     *            Iterator for the left(outer) relation to join
+     * @param outerField
+     *            the field of the outer tuples to look up
+     * @param tableid
+     *            the right(inner) table; it must be stored in an IndexFile
+     *            keyed on a field of the same type as outerField
+     * @param tableAlias
+     *            the alias of the inner table
+     */
+    public IndexJoin(TransactionId tid, DbIterator outer, int outerField, int tableid,
+            String tableAlias) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof IndexFile))
+            throw new IllegalArgumentException("index joins require an IndexFile");
+        if (outer.getTupleDesc().getFieldType(outerField)
+                != f.getTupleDesc().getFieldType(((IndexFile) f).keyField()))
+            throw new IllegalArgumentException("join field does not match the type of the key field");
+        this.tid = tid;
+        this.outer = outer;
+        this.outerField = outerField;
+        this.tableid = tableid;
+        this.alias = tableAlias;
+        this.td = TupleDesc.merge(outer.getTupleDesc(), f.getTupleDesc());
+    }
+
+    /** @return the alias of the inner table */
+    public String getAlias() {
+        return alias;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of index lookups made since the operator was last
+     *         opened or rewound
+     */
+    public int getLookups() {
+        return lookups;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        outer.open();
+        super.open();
+        lookups = 0;
+    }
+
+    public void close() {
+        super.close();
+        closeMatches();
+        current = null;
+        outer.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        clearNext();
+        closeMatches();
+        current = null;
+        lookups = 0;
+        outer.rewind();
+    }
+
+    private void closeMatches() {
+        if (matches != null)
+            matches.close();
+        matches = null;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. The matches of each outer tuple are returned before the
+     * next outer tuple is read.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (matches != null && matches.hasNext())
+                return merge(current, matches.next());
+            closeMatches();
+            if (!outer.hasNext())
+                return null;
+            current = outer.next();
+            IndexFile f = (IndexFile) Database.getCatalog().getDatabaseFile(tableid);
+            matches = f.lookup(tid, current.getField(outerField));
+            matches.open();
+            lookups++;
+        }
+    }
+
+    private Tuple merge(Tuple left, Tuple right) {
+        Tuple t = new Tuple(td);
+        int n1 = left.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++)
+            t.setField(i, left.getField(i));
+        for (int i = 0; i < right.getTupleDesc().numFields(); i++)
+            t.setField(n1 + i, right.getField(i));
+        return t;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { outer };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        outer = children[0];
+        td = TupleDesc.merge(outer.getTupleDesc(),
+                Database.getCatalog().getTupleDesc(tableid));
+    }
+}
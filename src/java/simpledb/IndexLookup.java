@@ -0,0 +1,96 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexLookup is an access method that reads the tuples of a table with a
+ * given key, using the table's {@link IndexFile} to find them instead of
+ * scanning the table.
+ */
+public class IndexLookup implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final String alias;
+    private final Field key;
+    private transient DbFileIterator it;
+
+    /**
+     * Creates a lookup of a key in the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid
+     *            The transaction this lookup is running as a part of.
+     * @param tableid
+     *            the table to read; it must be stored in an IndexFile
+     * @param tableAlias
+     *            the alias of this table (needed by the parser)
+     * @param key
+     *            the value of the key field of the tuples to return
+     */
+    public IndexLookup(TransactionId tid, int tableid, String tableAlias, Field key) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof IndexFile))
+            throw new IllegalArgumentException("index lookups require an IndexFile");
+        if (key.getType() != f.getTupleDesc().getFieldType(((IndexFile) f).keyField()))
+            throw new IllegalArgumentException("key does not match the type of the key field");
+        this.tid = tid;
+        this.tableid = tableid;
+        this.alias = tableAlias;
+        this.key = key;
+    }
+
+    /**
+     * @return the actual name of the table in the catalog of the database
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    /**
+     * @return Return the alias of the table this operator reads.
+     */
+    public String getAlias() {
+        return alias;
+    }
+
+    /** @return the key this operator looks up */
+    public Field getKey() {
+        return key;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        it = ((IndexFile) Database.getCatalog().getDatabaseFile(tableid)).lookup(tid, key);
+        it.open();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return Database.getCatalog().getTupleDesc(tableid);
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (it == null)
+            throw new IllegalStateException("IndexLookup not yet open");
+        return it.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (it == null)
+            throw new IllegalStateException("IndexLookup not yet open");
+        return it.next();
+    }
+
+    public void close() {
+        if (it != null)
+            it.close();
+        it = null;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException, TransactionAbortedException {
+        if (it == null)
+            throw new IllegalStateException("IndexLookup not yet open");
+        it.rewind();
+    }
+}
@@ -0,0 +1,56 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * IndexPredicate compares the key field of an index with a constant, as in
+ * "key op constant". Indexes use it to find the range of keys to read.
+ */
+public class IndexPredicate implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate.Op op;
+    private final Field fieldvalue;
+
+    /**
+     * Constructor.
+     *
+     * @param op the operation to apply; LIKE is not supported
+     * @param fvalue the constant the key is compared with
+     */
+    public IndexPredicate(Predicate.Op op, Field fvalue) {
+        if (op == Predicate.Op.LIKE)
+            throw new IllegalArgumentException("LIKE is not supported by indexes");
+        this.op = op;
+        this.fieldvalue = fvalue;
+    }
+
+    public Field getField() {
+        return fieldvalue;
+    }
+
+    public Predicate.Op getOp() {
+        return op;
+    }
+
+    /** @return true if key satisfies this predicate */
+    public boolean matches(Field key) {
+        return key.compare(op, fieldvalue);
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof IndexPredicate))
+            return false;
+        IndexPredicate other = (IndexPredicate) o;
+        return op == other.op && fieldvalue.equals(other.fieldvalue);
+    }
+
+    public int hashCode() {
+        return op.hashCode() * 31 + fieldvalue.hashCode();
+    }
+
+    public String toString() {
+        return "key " + op + " " + fieldvalue;
+    }
+}
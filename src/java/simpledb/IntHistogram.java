@@ -0,0 +1,222 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * An equi-depth histogram over a single integer column. Each bucket covers
+ * a range of values [low, high] and holds about the same number of rows, so
+ * skewed distributions get narrow buckets where values are dense. Ranges of
+ * different buckets never overlap: all occurrences of a value fall into one
+ * bucket, however frequent it is. Values are assumed to be spread uniformly
+ * within a bucket.
+ * <p>
+ * Histograms are built from a sorted sample of the column and can then be
+ * kept up to date as single values are added or removed. A value added
+ * outside every bucket's range gets a bucket of its own, up to twice the
+ * buckets the histogram was built with; after that the nearest bucket is
+ * widened to include it. Not thread-safe.
+ */
+public class IntHistogram {
+
+    private int[] lows;
+    private int[] highs;
+    private long[] counts;
+    private int n;
+    private final int maxBuckets;
+    private long total;
+
+    private IntHistogram(int[] lows, int[] highs, long[] counts, long total, int maxBuckets) {
+        this.lows = lows;
+        this.highs = highs;
+        this.counts = counts;
+        this.n = counts.length;
+        this.total = total;
+        this.maxBuckets = maxBuckets;
+    }
+
+    /**
+     * Builds a histogram from a sample of a column.
+     *
+     * @param sorted the sampled values, in ascending order
+     * @param n the number of values of sorted to use
+     * @param buckets the maximum number of buckets
+     * @param rows the number of rows in the column; bucket counts are scaled
+     *            from the sample to this total
+     */
+    public static IntHistogram fromSortedSample(int[] sorted, int n, int buckets, long rows) {
+        ArrayList<int[]> ranges = new ArrayList<int[]>();
+        int start = 0;
+        for (int b = 0; b < buckets && start < n; b++) {
+            int end = Math.max(start + 1, (int) ((long) n * (b + 1) / buckets));
+            // keep every occurrence of the last value in this bucket
+            while (end < n && sorted[end] == sorted[end - 1])
+                end++;
+            ranges.add(new int[] { start, end });
+            start = end;
+        }
+        if (start < n)
+            ranges.get(ranges.size() - 1)[1] = n;
+
+        int k = ranges.size();
+        int[] lows = new int[k];
+        int[] highs = new int[k];
+        long[] counts = new long[k];
+        long assigned = 0;
+        for (int i = 0; i < k; i++) {
+            int[] r = ranges.get(i);
+            lows[i] = sorted[r[0]];
+            highs[i] = sorted[r[1] - 1];
+            counts[i] = Math.round((double) (r[1] - r[0]) * rows / n);
+            assigned += counts[i];
+        }
+        // rounding may leave a few rows over or under the total
+        if (k > 0)
+            counts[k - 1] = Math.max(0, counts[k - 1] + rows - assigned);
+        return new IntHistogram(lows, highs, counts, k > 0 ? rows : 0, Math.max(16, 2 * buckets));
+    }
+
+    /** @return the number of buckets */
+    public int numBuckets() {
+        return n;
+    }
+
+    /** @return the number of rows the histogram describes */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * @return the index of the bucket whose range contains v or, if v falls
+     *         between or outside the buckets, the bucket below it (the first
+     *         bucket for values below all of them); -1 if there are none
+     */
+    private int bucketFor(int v) {
+        int lo = 0, hi = n - 1, found = 0;
+        if (hi < 0)
+            return -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (lows[mid] <= v) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Records one more row with value v, adding or widening a bucket if no
+     * bucket covers v.
+     */
+    public void add(int v) {
+        total++;
+        int b = bucketFor(v);
+        if (b >= 0 && v >= lows[b] && v <= highs[b]) {
+            counts[b]++;
+            return;
+        }
+        if (n < maxBuckets) {
+            insertBucket(b < 0 || v < lows[b] ? Math.max(b, 0) : b + 1, v);
+            return;
+        }
+        if (v < lows[b])
+            lows[b] = v;
+        if (v > highs[b])
+            highs[b] = v;
+        counts[b]++;
+    }
+
+    /** Inserts a bucket holding one row of value v at position i. */
+    private void insertBucket(int i, int v) {
+        if (n == counts.length) {
+            int size = Math.max(4, n * 2);
+            lows = Arrays.copyOf(lows, size);
+            highs = Arrays.copyOf(highs, size);
+            counts = Arrays.copyOf(counts, size);
+        }
+        System.arraycopy(lows, i, lows, i + 1, n - i);
+        System.arraycopy(highs, i, highs, i + 1, n - i);
+        System.arraycopy(counts, i, counts, i + 1, n - i);
+        lows[i] = v;
+        highs[i] = v;
+        counts[i] = 1;
+        n++;
+    }
+
+    /** Records the removal of a row with value v. */
+    public void remove(int v) {
+        int b = bucketFor(v);
+        if (b < 0 || v < lows[b] || v > highs[b] || counts[b] == 0)
+            return;
+        counts[b]--;
+        total--;
+    }
+
+    /** @return the estimated number of rows with values less than v */
+    private double rowsBelow(int v) {
+        double rows = 0;
+        for (int i = 0; i < n && lows[i] < v; i++) {
+            if (highs[i] < v) {
+                rows += counts[i];
+            } else {
+                double width = (double) highs[i] - lows[i] + 1;
+                rows += counts[i] * ((double) v - lows[i]) / width;
+            }
+        }
+        return rows;
+    }
+
+    /** @return the estimated number of rows with value v */
+    private double rowsEqual(int v) {
+        int b = bucketFor(v);
+        if (b < 0 || v < lows[b] || v > highs[b])
+            return 0;
+        return counts[b] / ((double) highs[b] - lows[b] + 1);
+    }
+
+    /**
+     * Estimates the fraction of rows whose value satisfies "value op v".
+     * LIKE is treated as EQUALS.
+     *
+     * @return the estimated selectivity, between 0 and 1
+     */
+    public double estimateSelectivity(Predicate.Op op, int v) {
+        if (total <= 0)
+            return 0;
+        double rows;
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            rows = rowsEqual(v);
+            break;
+        case NOT_EQUALS:
+            rows = total - rowsEqual(v);
+            break;
+        case LESS_THAN:
+            rows = rowsBelow(v);
+            break;
+        case LESS_THAN_OR_EQ:
+            rows = rowsBelow(v) + rowsEqual(v);
+            break;
+        case GREATER_THAN:
+            rows = total - rowsBelow(v) - rowsEqual(v);
+            break;
+        case GREATER_THAN_OR_EQ:
+            rows = total - rowsBelow(v);
+            break;
+        default:
+            throw new IllegalArgumentException("unsupported operator " + op);
+        }
+        return Math.max(0, Math.min(1, rows / total));
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++)
+            sb.append("[").append(lows[i]).append(", ").append(highs[i]).append("]: ")
+                    .append(counts[i]).append("\n");
+        return sb.toString();
+    }
+}
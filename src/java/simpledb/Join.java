@@ -0,0 +1,173 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The Join operator implements the relational join operation with a block
+ * nested loops join: it reads a block of tuples from its left (outer) child
+ * into memory, scans the whole right (inner) child once for that block, and
+ * repeats with the next block, rewinding the inner child each time. Any
+ * {@link JoinPredicate} operator is supported; a null predicate joins every
+ * pair of tuples (a cross product).
+ * <p>
+ * The block size is a memory budget expressed in pages of outer tuples as
+ * laid out on a HeapPage, so the inner child is scanned once per that many
+ * pages of the outer child.
+ */
+public class Join extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate p;
+    private DbIterator child1, child2;
+    private TupleDesc td;
+    private final int memPages;
+
+    private transient ArrayList<Tuple> block;
+    private transient Tuple inner;
+    private transient int blockPos;
+    private transient boolean done;
+    private transient int innerScans;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on, using blocks of {@link BufferPool#DEFAULT_PAGES} pages.
+     *
+     * @param p
+     *            The predicate to use to join the children, or null for a
+     *            cross product
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public Join(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * Constructor. Accepts two children to join, the predicate to join them
+     * on, and the number of pages of outer tuples held in memory per block.
+     *
+     * @param memPages
+     *            the memory budget of a block of outer tuples, in pages
+     * @throws IllegalArgumentException if memPages is not positive
+     */
+    public Join(JoinPredicate p, DbIterator child1, DbIterator child2, int memPages) {
+        if (memPages < 1)
+            throw new IllegalArgumentException("memory budget must be at least one page");
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.memPages = memPages;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /** @return the join predicate, or null if this is a cross product */
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of times the inner child has been scanned since the
+     *         operator was last opened or rewound
+     */
+    public int getInnerScans() {
+        return innerScans;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        super.open();
+        start();
+    }
+
+    public void close() {
+        super.close();
+        block = null;
+        inner = null;
+        child1.close();
+        child2.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        clearNext();
+        child1.rewind();
+        child2.rewind();
+        start();
+    }
+
+    private void start() throws DbException, TransactionAbortedException {
+        block = new ArrayList<Tuple>();
+        inner = null;
+        innerScans = 0;
+        done = !loadBlock();
+        if (!done)
+            innerScans++;
+    }
+
+    /** Reads the next block of outer tuples; returns false if there are none. */
+    private boolean loadBlock() throws DbException, TransactionAbortedException {
+        block.clear();
+        int budget = memPages * SpillFile.tuplesPerPage(child1.getTupleDesc());
+        while (block.size() < budget && child1.hasNext())
+            block.add(child1.next());
+        return !block.isEmpty();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. For each inner tuple, the matching outer tuples of the
+     * current block are returned in the order they were read.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (!done) {
+            if (inner != null) {
+                while (blockPos < block.size()) {
+                    Tuple outer = block.get(blockPos++);
+                    if (p == null || p.filter(outer, inner))
+                        return merge(outer, inner);
+                }
+                inner = null;
+            }
+            if (child2.hasNext()) {
+                inner = child2.next();
+                blockPos = 0;
+            } else if (loadBlock()) {
+                child2.rewind();
+                innerScans++;
+            } else {
+                done = true;
+            }
+        }
+        return null;
+    }
+
+    private Tuple merge(Tuple left, Tuple right) {
+        Tuple t = new Tuple(td);
+        int n1 = left.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++)
+            t.setField(i, left.getField(i));
+        for (int i = 0; i < right.getTupleDesc().numFields(); i++)
+            t.setField(n1 + i, right.getField(i));
+        return t;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+        td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+}
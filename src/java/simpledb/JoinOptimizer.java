@@ -0,0 +1,480 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * JoinOptimizer chooses the order in which the tables of a query are joined,
+ * and the join algorithm used at each step, and builds the corresponding
+ * tree of operators.
+ * <p>
+ * A query is described by the base tables it reads (each under its own
+ * alias), filters comparing a field of one table with a constant, and join
+ * predicates comparing fields of two tables. Filters are pushed down onto
+ * the scans of their tables. Join orders are enumerated with Selinger-style
+ * dynamic programming over the subsets of the tables, keeping the cheapest
+ * left-deep plan for every subset; a table is only joined to a plan without
+ * a predicate connecting them (a cross product) when the subset cannot be
+ * joined otherwise.
+ * <p>
+ * Cardinalities come from the {@link TableStats} stored in the Catalog; a
+ * table that has not been analyzed is analyzed from a sample of at most
+ * {@link #STATS_SAMPLE_PAGES} pages the first time it is optimized. Costs
+ * count pages read, at {@link TableStats#IOCOSTPERPAGE} each, plus one unit
+ * per tuple processed. Each join may hold as many pages of tuples in memory
+ * as the BufferPool caches: equality joins use a {@link HashEquiJoin}, which
+ * has to partition both inputs to disk when neither fits, and other joins a
+ * block nested loops {@link Join}, which rescans its inner table once per
+ * block of outer tuples, from the BufferPool if the table fits in it.
+ * <p>
+ * The columns of the plan's output are those of its tables in join order;
+ * use {@link #getOutputField} to find a field in them.
+ */
+public class JoinOptimizer {
+
+    /** The maximum number of tables in a query. */
+    public static final int MAX_TABLES = 16;
+
+    /** The number of pages read to analyze a table that has no statistics. */
+    public static final int STATS_SAMPLE_PAGES = 64;
+
+    /** The selectivity assumed for join predicates other than equality. */
+    static final double RANGE_JOIN_SELECTIVITY = ColumnStats.DEFAULT_RANGE_SELECTIVITY;
+
+    private final TransactionId tid;
+    private final ArrayList<String> aliases = new ArrayList<String>();
+    private final ArrayList<Integer> tableIds = new ArrayList<Integer>();
+    private final ArrayList<ArrayList<Predicate>> filters = new ArrayList<ArrayList<Predicate>>();
+    private final ArrayList<JoinCondition> joins = new ArrayList<JoinCondition>();
+
+    private Plan best;
+
+    /**
+     * Creates an optimizer for a query run as a part of the specified
+     * transaction.
+     */
+    public JoinOptimizer(TransactionId tid) {
+        this.tid = tid;
+    }
+
+    /**
+     * Adds a table from the Catalog to the query.
+     *
+     * @param tableName the name of the table in the Catalog
+     * @param alias the name the table is referred to by in the query; must
+     *            be unique within the query
+     * @throws NoSuchElementException if there is no such table
+     */
+    public void addTable(String tableName, String alias) {
+        addTable(Database.getCatalog().getTableId(tableName), alias);
+    }
+
+    /**
+     * Adds a table from the Catalog to the query.
+     *
+     * @see #addTable(String, String)
+     */
+    public void addTable(int tableid, String alias) {
+        if (aliases.contains(alias))
+            throw new IllegalArgumentException("duplicate alias " + alias);
+        if (aliases.size() == MAX_TABLES)
+            throw new IllegalArgumentException("a query may join at most " + MAX_TABLES + " tables");
+        Database.getCatalog().getDatabaseFile(tableid);
+        aliases.add(alias);
+        tableIds.add(tableid);
+        filters.add(new ArrayList<Predicate>());
+        best = null;
+    }
+
+    /**
+     * Adds the filter "alias.field op constant" to the query.
+     *
+     * @throws NoSuchElementException if there is no such table or field
+     */
+    public void addFilter(String alias, String field, Predicate.Op op, Field constant) {
+        int t = table(alias);
+        filters.get(t).add(new Predicate(field(t, field), op, constant));
+        best = null;
+    }
+
+    /**
+     * Adds the join predicate "alias1.field1 op alias2.field2" to the query.
+     *
+     * @throws NoSuchElementException if there is no such table or field
+     * @throws IllegalArgumentException if both fields belong to the same
+     *             table, or op is LIKE
+     */
+    public void addJoin(String alias1, String field1, Predicate.Op op, String alias2,
+            String field2) {
+        int t1 = table(alias1), t2 = table(alias2);
+        if (t1 == t2)
+            throw new IllegalArgumentException("a join predicate must compare two tables");
+        if (op == Predicate.Op.LIKE)
+            throw new IllegalArgumentException("LIKE is not supported in join predicates");
+        joins.add(new JoinCondition(t1, field(t1, field1), op, t2, field(t2, field2)));
+        best = null;
+    }
+
+    private int table(String alias) {
+        int t = aliases.indexOf(alias);
+        if (t < 0)
+            throw new NoSuchElementException("no table with alias " + alias);
+        return t;
+    }
+
+    private int field(int table, String name) {
+        return Database.getCatalog().getTupleDesc(tableIds.get(table)).fieldNameToIndex(name);
+    }
+
+    /**
+     * Finds the cheapest plan for the query and builds its operators.
+     *
+     * @return the root of the plan
+     * @throws IllegalStateException if no table has been added
+     */
+    public DbIterator optimize() throws DbException, TransactionAbortedException {
+        int n = aliases.size();
+        if (n == 0)
+            throw new IllegalStateException("the query has no tables");
+        int memPages = Database.getBufferPool().getNumPages();
+
+        Plan[] plans = new Plan[1 << n];
+        for (int t = 0; t < n; t++)
+            plans[1 << t] = scanPlan(t);
+        for (int mask = 1; mask < plans.length; mask++) {
+            if (Integer.bitCount(mask) < 2)
+                continue;
+            plans[mask] = bestJoin(plans, mask, memPages, false);
+            if (plans[mask] == null)
+                plans[mask] = bestJoin(plans, mask, memPages, true);
+        }
+        best = plans[plans.length - 1];
+        return build(best, memPages);
+    }
+
+    /**
+     * @return the cheapest left-deep plan joining one table of mask to the
+     *         best plan for the others, or null if crossProducts is false and
+     *         no table is connected to the others by a join predicate
+     */
+    private Plan bestJoin(Plan[] plans, int mask, int memPages, boolean crossProducts) {
+        Plan result = null;
+        for (int t = 0; t < aliases.size(); t++) {
+            if ((mask & (1 << t)) == 0)
+                continue;
+            Plan left = plans[mask & ~(1 << t)];
+            ArrayList<JoinCondition> conds = new ArrayList<JoinCondition>();
+            for (JoinCondition c : joins) {
+                if (c.t2 == t && (left.mask & (1 << c.t1)) != 0)
+                    conds.add(c);
+                else if (c.t1 == t && (left.mask & (1 << c.t2)) != 0)
+                    conds.add(c.reversed());
+            }
+            if (conds.isEmpty() && !crossProducts)
+                continue;
+            for (boolean hash : new boolean[] { true, false }) {
+                Plan p = joinPlan(left, plans[1 << t], conds, hash, memPages);
+                if (p != null && (result == null || p.cost < result.cost))
+                    result = p;
+            }
+        }
+        return result;
+    }
+
+    /** @return the statistics of table t, analyzing a sample if there are none */
+    private TableStats stats(int t) throws DbException, TransactionAbortedException {
+        int tableid = tableIds.get(t);
+        TableStats stats = Database.getCatalog().getTableStats(tableid);
+        if (stats == null) {
+            DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+            double fraction = 1.0;
+            if (f instanceof HeapFile && ((HeapFile) f).numPages() > STATS_SAMPLE_PAGES)
+                fraction = (double) STATS_SAMPLE_PAGES / ((HeapFile) f).numPages();
+            stats = TableStats.analyzeSample(tableid, tid, fraction, tableid);
+        }
+        return stats;
+    }
+
+    private Plan scanPlan(int t) throws DbException, TransactionAbortedException {
+        TableStats stats = stats(t);
+        double selectivity = 1.0;
+        for (Predicate f : filters.get(t))
+            selectivity *= stats.estimateSelectivity(f.getField(), f.getOp(), f.getOperand());
+        Plan p = new Plan();
+        p.mask = 1 << t;
+        p.table = t;
+        p.stats = stats;
+        p.offsets = new int[aliases.size()];
+        Arrays.fill(p.offsets, -1);
+        p.offsets[t] = 0;
+        p.td = Database.getCatalog().getTupleDesc(tableIds.get(t));
+        p.card = Math.max(stats.totalTuples() * selectivity, stats.totalTuples() > 0 ? 1 : 0);
+        p.cost = stats.estimateScanCost() + stats.totalTuples();
+        p.pages = stats.numPages();
+        return p;
+    }
+
+    /**
+     * @return the plan joining the base table of right to left on conds, or
+     *         null if hash is true and none of conds is an equality
+     */
+    private Plan joinPlan(Plan left, Plan right, ArrayList<JoinCondition> conds, boolean hash,
+            int memPages) {
+        JoinCondition primary = null;
+        for (JoinCondition c : conds) {
+            if (c.op == Predicate.Op.EQUALS) {
+                primary = c;
+                break;
+            }
+        }
+        if (hash && primary == null)
+            return null;
+        if (primary == null && !conds.isEmpty())
+            primary = conds.get(0);
+
+        Plan p = new Plan();
+        p.mask = left.mask | right.mask;
+        p.left = left;
+        p.right = right;
+        p.table = right.table;
+        p.stats = right.stats;
+        p.hash = hash;
+        p.primary = primary;
+        p.residual = new ArrayList<JoinCondition>(conds);
+        p.residual.remove(primary);
+        p.offsets = Arrays.copyOf(left.offsets, left.offsets.length);
+        p.offsets[right.table] = left.td.numFields();
+        p.td = TupleDesc.merge(left.td, right.td);
+
+        double card = left.card * right.card;
+        for (JoinCondition c : conds)
+            card *= selectivity(c, left, right);
+        p.card = card;
+
+        double leftPages = pages(left.card, left.td);
+        double rightPages = pages(right.card, right.td);
+        double cost = left.cost + right.cost;
+        if (hash) {
+            cost += left.card + right.card;
+            if (Math.min(leftPages, rightPages) > memPages)
+                cost += 2 * (leftPages + rightPages) * TableStats.IOCOSTPERPAGE;
+        } else {
+            // the inner table is rescanned once per block of outer tuples
+            double rescans = Math.max(0, Math.ceil(leftPages / memPages) - 1);
+            double rescanCost = right.stats.totalTuples();
+            if (right.pages > memPages)
+                rescanCost += right.stats.estimateScanCost();
+            cost += rescans * rescanCost + left.card * right.stats.totalTuples();
+        }
+        p.cost = cost + card;
+        return p;
+    }
+
+    /** @return the number of pages card tuples of td take up */
+    private static double pages(double card, TupleDesc td) {
+        return Math.ceil(card / SpillFile.tuplesPerPage(td));
+    }
+
+    /**
+     * Estimates the fraction of pairs of tuples of left and right satisfying
+     * c, whose second field belongs to the table of right. Equality assumes
+     * every value of the side with fewer distinct values finds a match.
+     */
+    private double selectivity(JoinCondition c, Plan left, Plan right) {
+        if (c.op != Predicate.Op.EQUALS && c.op != Predicate.Op.NOT_EQUALS)
+            return RANGE_JOIN_SELECTIVITY;
+        TableStats leftStats = tableStats(left, c.t1);
+        double d1 = Math.min(leftStats.getDistinctCount(c.f1), left.card);
+        double d2 = Math.min(right.stats.getDistinctCount(c.f2), right.card);
+        double eq = 1.0 / Math.max(1, Math.max(d1, d2));
+        return c.op == Predicate.Op.EQUALS ? eq : 1 - eq;
+    }
+
+    private static TableStats tableStats(Plan p, int table) {
+        while (p.table != table)
+            p = p.left;
+        return p.stats;
+    }
+
+    private DbIterator build(Plan p, int memPages) {
+        if (p.left == null) {
+            DbIterator it = new SeqScan(tid, tableIds.get(p.table), aliases.get(p.table));
+            for (Predicate f : filters.get(p.table)) {
+                Filter filter = new Filter(f, it);
+                filter.setEstimatedCardinality(estimate(p.card));
+                it = filter;
+            }
+            return it;
+        }
+        DbIterator left = build(p.left, memPages);
+        DbIterator right = build(p.right, memPages);
+        Operator join;
+        JoinPredicate jp = p.primary == null ? null : new JoinPredicate(
+                p.left.offsets[p.primary.t1] + p.primary.f1, p.primary.op, p.primary.f2);
+        if (p.hash)
+            join = new HashEquiJoin(jp, left, right, memPages);
+        else
+            join = new Join(jp, left, right, memPages);
+        join.setEstimatedCardinality(estimate(p.card));
+        if (p.residual.isEmpty())
+            return join;
+        ArrayList<JoinPredicate> residual = new ArrayList<JoinPredicate>();
+        for (JoinCondition c : p.residual)
+            residual.add(new JoinPredicate(p.offsets[c.t1] + c.f1, c.op, p.offsets[c.t2] + c.f2));
+        return new FieldFilter(residual, join);
+    }
+
+    private static int estimate(double card) {
+        return (int) Math.min(Integer.MAX_VALUE, Math.round(card));
+    }
+
+    /** @return the estimated cost of the plan chosen by the last optimize() */
+    public double getPlanCost() {
+        checkOptimized();
+        return best.cost;
+    }
+
+    /** @return the estimated number of tuples the plan chosen by the last optimize() returns */
+    public double getPlanCardinality() {
+        checkOptimized();
+        return best.card;
+    }
+
+    /** @return the aliases of the tables in the order the last optimize() joins them */
+    public List<String> getJoinOrder() {
+        checkOptimized();
+        LinkedList<String> order = new LinkedList<String>();
+        for (Plan p = best; p != null; p = p.left)
+            order.addFirst(aliases.get(p.table));
+        return order;
+    }
+
+    /**
+     * @return the index of alias.field in the tuples returned by the plan
+     *         built by the last optimize()
+     */
+    public int getOutputField(String alias, String field) {
+        checkOptimized();
+        int t = table(alias);
+        return best.offsets[t] + field(t, field);
+    }
+
+    private void checkOptimized() {
+        if (best == null)
+            throw new IllegalStateException("the query has not been optimized");
+    }
+
+    /** A join predicate "t1.f1 op t2.f2" between tables t1 and t2 of the query. */
+    private static class JoinCondition {
+        final int t1, f1, t2, f2;
+        final Predicate.Op op;
+
+        JoinCondition(int t1, int f1, Predicate.Op op, int t2, int f2) {
+            this.t1 = t1;
+            this.f1 = f1;
+            this.op = op;
+            this.t2 = t2;
+            this.f2 = f2;
+        }
+
+        /** @return the same condition with its two sides swapped */
+        JoinCondition reversed() {
+            Predicate.Op flipped;
+            switch (op) {
+            case LESS_THAN:
+                flipped = Predicate.Op.GREATER_THAN;
+                break;
+            case LESS_THAN_OR_EQ:
+                flipped = Predicate.Op.GREATER_THAN_OR_EQ;
+                break;
+            case GREATER_THAN:
+                flipped = Predicate.Op.LESS_THAN;
+                break;
+            case GREATER_THAN_OR_EQ:
+                flipped = Predicate.Op.LESS_THAN_OR_EQ;
+                break;
+            default:
+                flipped = op;
+            }
+            return new JoinCondition(t2, f2, flipped, t1, f1);
+        }
+    }
+
+    /**
+     * A left-deep plan: a scan of one table if left is null, and otherwise
+     * left joined to right, a scan of one more table.
+     */
+    private static class Plan {
+        int mask;
+        Plan left, right;
+        // the table scanned, or joined to left
+        int table;
+        TableStats stats;
+        boolean hash;
+        JoinCondition primary;
+        ArrayList<JoinCondition> residual;
+        int[] offsets;
+        TupleDesc td;
+        double card;
+        double cost;
+        // pages of the table, for scans
+        int pages;
+    }
+
+    /**
+     * Applies join predicates between two fields of the same tuple, for the
+     * predicates of a join beyond the one its operator evaluates.
+     */
+    private static class FieldFilter extends Operator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ArrayList<JoinPredicate> predicates;
+        private DbIterator child;
+
+        FieldFilter(ArrayList<JoinPredicate> predicates, DbIterator child) {
+            this.predicates = predicates;
+            this.child = child;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return child.getTupleDesc();
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+            super.open();
+        }
+
+        public void close() {
+            super.close();
+            child.close();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            clearNext();
+            child.rewind();
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            while (child.hasNext()) {
+                Tuple t = child.next();
+                boolean pass = true;
+                for (JoinPredicate p : predicates)
+                    pass &= p.filter(t, t);
+                if (pass)
+                    return t;
+            }
+            return null;
+        }
+
+        @Override
+        public DbIterator[] getChildren() {
+            return new DbIterator[] { child };
+        }
+
+        @Override
+        public void setChildren(DbIterator[] children) {
+            child = children[0];
+        }
+    }
+}
@@ -0,0 +1,465 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * LockManager grants transactions locks for strict two-phase locking in
+ * the BufferPool, on a hierarchy of three granularities: tables (by id),
+ * pages (by PageId) and tuples (by RecordId). Reading or writing a page or
+ * a tuple takes a shared (S) or exclusive (X) lock on it, after an
+ * intention lock (IS or IX) on each of its ancestors; a lock on a table or
+ * page covers everything below it, so a transaction holding S on a table
+ * reads its pages without further locking. A transaction asking for a
+ * lock it already holds in another mode gets the least mode covering both,
+ * such as SIX for a table it both scans and updates.
+ * <p>
+ * A transaction that holds more than the escalation threshold of page and
+ * tuple locks in one table has them replaced by a single S or X lock on
+ * the table, so that a long scan does not flood the lock table.
+ * <p>
+ * The lock table is split into NUM_PARTITIONS partitions, each with its
+ * own monitor, so that transactions locking different objects do not
+ * contend. A transaction that cannot get a lock waits on the monitor of
+ * the lock's partition, after recording the transactions it waits for in a
+ * wait-for graph. If that closes a cycle, the youngest transaction in the
+ * cycle (the one with the largest id) is aborted: its acquire throws
+ * TransactionAbortedException, and its locks are released when the
+ * BufferPool completes it.
+ */
+public class LockManager {
+
+    /** The lock modes, from weakest to strongest */
+    public enum Mode {
+        IS, IX, S, SIX, X;
+
+        // COMPATIBLE[held][requested]
+        private static final boolean[][] COMPATIBLE = {
+            { true, true, true, true, false },
+            { true, true, false, false, false },
+            { true, false, true, false, false },
+            { true, false, false, false, false },
+            { false, false, false, false, false },
+        };
+
+        private static final Mode[][] LUB = {
+            { IS, IX, S, SIX, X },
+            { IX, IX, SIX, SIX, X },
+            { S, SIX, S, SIX, X },
+            { SIX, SIX, SIX, SIX, X },
+            { X, X, X, X, X },
+        };
+
+        /** @return true if another transaction may hold m while this is held */
+        public boolean compatible(Mode m) {
+            return COMPATIBLE[ordinal()][m.ordinal()];
+        }
+
+        /** @return the weakest mode that grants both this mode and m */
+        public Mode lub(Mode m) {
+            return LUB[ordinal()][m.ordinal()];
+        }
+
+        /** @return true if holding this mode grants m */
+        public boolean covers(Mode m) {
+            return lub(m) == this;
+        }
+    }
+
+    /** The number of partitions of the lock table */
+    public static final int NUM_PARTITIONS = 64;
+
+    /** The default number of page and tuple locks in a table past which they are escalated */
+    public static final int DEFAULT_ESCALATION_THRESHOLD = 1000;
+
+    /** How long a waiting transaction sleeps before checking whether it was aborted */
+    private static final long WAIT_MILLIS = 10;
+
+    /** The holders of the lock on one object */
+    private static class Lock {
+        final HashMap<TransactionId, Mode> holders = new HashMap<TransactionId, Mode>();
+
+        /** @return the mode tid now holds the lock in, or null if it must wait */
+        Mode grant(TransactionId tid, Mode m) {
+            Mode cur = holders.get(tid);
+            Mode want = cur == null ? m : cur.lub(m);
+            if (want == cur)
+                return cur;
+            if (!blockers(tid, want).isEmpty())
+                return null;
+            holders.put(tid, want);
+            return want;
+        }
+
+        /** @return the other holders whose modes conflict with m */
+        Set<TransactionId> blockers(TransactionId tid, Mode m) {
+            HashSet<TransactionId> blockers = new HashSet<TransactionId>();
+            for (Map.Entry<TransactionId, Mode> e : holders.entrySet()) {
+                if (!e.getKey().equals(tid) && !e.getValue().compatible(m))
+                    blockers.add(e.getKey());
+            }
+            return blockers;
+        }
+    }
+
+    private static class Partition {
+        final HashMap<Object, Lock> locks = new HashMap<Object, Lock>();
+    }
+
+    /** The locks of one transaction, so it can check them without a partition's monitor */
+    private static class Held {
+        final HashMap<Object, Mode> modes = new HashMap<Object, Mode>();
+        /** The number of page and tuple locks in each table */
+        final HashMap<Integer, Integer> fineLocks = new HashMap<Integer, Integer>();
+    }
+
+    private final Partition[] partitions = new Partition[NUM_PARTITIONS];
+    private final ConcurrentHashMap<TransactionId, Held> held =
+            new ConcurrentHashMap<TransactionId, Held>();
+    /** The wait-for graph; guarded by its own monitor */
+    private final HashMap<TransactionId, Set<TransactionId>> waitsFor =
+            new HashMap<TransactionId, Set<TransactionId>>();
+    /** Waiting transactions chosen to break a deadlock; guarded by waitsFor */
+    private final HashSet<TransactionId> victims = new HashSet<TransactionId>();
+    private volatile int escalationThreshold = DEFAULT_ESCALATION_THRESHOLD;
+
+    public LockManager() {
+        for (int i = 0; i < NUM_PARTITIONS; i++)
+            partitions[i] = new Partition();
+    }
+
+    /** @return the number of page and tuple locks in a table past which they are escalated */
+    public int getEscalationThreshold() {
+        return escalationThreshold;
+    }
+
+    /** Sets the number of page and tuple locks in a table past which they are escalated. */
+    public void setEscalationThreshold(int threshold) {
+        if (threshold < 1)
+            throw new IllegalArgumentException("invalid escalation threshold " + threshold);
+        escalationThreshold = threshold;
+    }
+
+    private Partition partition(Object res) {
+        int h = res.hashCode() * 0x9E3779B9;
+        return partitions[(h ^ (h >>> 16)) & (NUM_PARTITIONS - 1)];
+    }
+
+    private static Integer tableOf(Object res) {
+        if (res instanceof PageId)
+            return ((PageId) res).getTableId();
+        if (res instanceof RecordId)
+            return ((RecordId) res).getPageId().getTableId();
+        return null;
+    }
+
+    private Held held(TransactionId tid) {
+        Held h = held.get(tid);
+        if (h == null) {
+            h = new Held();
+            Held raced = held.putIfAbsent(tid, h);
+            if (raced != null)
+                h = raced;
+        }
+        return h;
+    }
+
+    /** @return the mode tid holds the lock on res in, or null */
+    private Mode mode(TransactionId tid, Object res) {
+        Held h = held.get(tid);
+        if (h == null)
+            return null;
+        synchronized (h) {
+            return h.modes.get(res);
+        }
+    }
+
+    private boolean covered(TransactionId tid, Object res, Mode m) {
+        Mode cur = mode(tid, res);
+        return cur != null && cur.covers(m);
+    }
+
+    /**
+     * Acquires a lock on a table, blocking until it is granted: S for
+     * READ_ONLY, X for READ_WRITE.
+     *
+     * @throws TransactionAbortedException if the transaction was chosen to
+     *             break a deadlock
+     */
+    public void acquireTable(TransactionId tid, int tableid, Permissions perm)
+            throws TransactionAbortedException {
+        lock(tid, Integer.valueOf(tableid), perm == Permissions.READ_WRITE ? Mode.X : Mode.S);
+    }
+
+    /**
+     * Acquires a lock on a page, blocking until it is granted: S for
+     * READ_ONLY, X for READ_WRITE, after IS or IX on its table. Nothing is
+     * acquired if a lock on the table already covers the page.
+     *
+     * @throws TransactionAbortedException if the transaction was chosen to
+     *             break a deadlock
+     */
+    public void acquire(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
+        boolean x = perm == Permissions.READ_WRITE;
+        Mode m = x ? Mode.X : Mode.S;
+        Integer table = pid.getTableId();
+        if (covered(tid, table, m) || covered(tid, pid, m))
+            return;
+        lock(tid, table, x ? Mode.IX : Mode.IS);
+        lockFine(tid, table, pid, m);
+    }
+
+    /**
+     * Acquires a lock on a tuple, blocking until it is granted: S for
+     * READ_ONLY, X for READ_WRITE, after IS or IX on its page and table.
+     * Nothing is acquired if a lock on the page or table already covers
+     * the tuple.
+     *
+     * @throws TransactionAbortedException if the transaction was chosen to
+     *             break a deadlock
+     */
+    public void acquireTuple(TransactionId tid, RecordId rid, Permissions perm)
+            throws TransactionAbortedException {
+        boolean x = perm == Permissions.READ_WRITE;
+        Mode m = x ? Mode.X : Mode.S;
+        PageId pid = rid.getPageId();
+        Integer table = pid.getTableId();
+        if (covered(tid, table, m) || covered(tid, pid, m) || covered(tid, rid, m))
+            return;
+        lock(tid, table, x ? Mode.IX : Mode.IS);
+        lock(tid, pid, x ? Mode.IX : Mode.IS);
+        lockFine(tid, table, rid, m);
+    }
+
+    /** Locks a page or tuple, and escalates if there are now too many such locks. */
+    private void lockFine(TransactionId tid, Integer table, Object res, Mode m)
+            throws TransactionAbortedException {
+        if (!lock(tid, res, m))
+            return;
+        Held h = held(tid);
+        int n;
+        synchronized (h) {
+            n = h.fineLocks.get(table);
+        }
+        if (n > escalationThreshold)
+            escalate(tid, table);
+    }
+
+    /**
+     * Replaces the page and tuple locks tid holds in a table with a lock on
+     * the table: X if it has written to the table, S otherwise.
+     */
+    private void escalate(TransactionId tid, Integer table) throws TransactionAbortedException {
+        Mode cur = mode(tid, table);
+        boolean writer = cur == Mode.IX || cur == Mode.SIX;
+        lock(tid, table, writer ? Mode.X : Mode.S);
+        Held h = held(tid);
+        ArrayList<Object> fine = new ArrayList<Object>();
+        synchronized (h) {
+            for (Object res : h.modes.keySet()) {
+                if (table.equals(tableOf(res)))
+                    fine.add(res);
+            }
+        }
+        for (Object res : fine)
+            unlock(tid, res);
+    }
+
+    /**
+     * Acquires a lock on an object in a mode, or the least mode covering it
+     * and the mode already held, blocking until it is granted.
+     *
+     * @return true if tid did not hold a lock on the object before
+     */
+    private boolean lock(TransactionId tid, Object res, Mode m) throws TransactionAbortedException {
+        Partition part = partition(res);
+        synchronized (part) {
+            while (true) {
+                Lock lock = part.locks.get(res);
+                if (lock == null) {
+                    lock = new Lock();
+                    part.locks.put(res, lock);
+                }
+                Mode granted = lock.grant(tid, m);
+                if (granted != null) {
+                    stopWaiting(tid);
+                    Held h = held(tid);
+                    synchronized (h) {
+                        if (h.modes.put(res, granted) != null)
+                            return false;
+                        Integer table = tableOf(res);
+                        if (table != null) {
+                            Integer count = h.fineLocks.get(table);
+                            h.fineLocks.put(table, count == null ? 1 : count + 1);
+                        }
+                        return true;
+                    }
+                }
+                Mode cur = lock.holders.get(tid);
+                if (waitFor(tid, lock.blockers(tid, cur == null ? m : cur.lub(m)))) {
+                    if (lock.holders.isEmpty())
+                        part.locks.remove(res);
+                    throw new TransactionAbortedException();
+                }
+                try {
+                    part.wait(WAIT_MILLIS);
+                } catch (InterruptedException e) {
+                    stopWaiting(tid);
+                    throw new TransactionAbortedException();
+                }
+            }
+        }
+    }
+
+    /**
+     * Records that tid waits for the blockers, and looks for a deadlock.
+     *
+     * @return true if tid must abort, because it was chosen to break a
+     *         deadlock; it then no longer waits
+     */
+    private boolean waitFor(TransactionId tid, Set<TransactionId> blockers) {
+        synchronized (waitsFor) {
+            if (victims.remove(tid)) {
+                waitsFor.remove(tid);
+                return true;
+            }
+            waitsFor.put(tid, blockers);
+            List<TransactionId> cycle = findCycle(tid);
+            if (cycle == null)
+                return false;
+            TransactionId youngest = tid;
+            for (TransactionId t : cycle) {
+                if (t.getId() > youngest.getId())
+                    youngest = t;
+            }
+            if (youngest.equals(tid)) {
+                waitsFor.remove(tid);
+                return true;
+            }
+            // it notices when it next wakes up
+            victims.add(youngest);
+            return false;
+        }
+    }
+
+    /** @return the transactions on a cycle of the wait-for graph through tid, or null */
+    private List<TransactionId> findCycle(TransactionId tid) {
+        ArrayList<TransactionId> path = new ArrayList<TransactionId>();
+        if (findCycle(tid, tid, path, new HashSet<TransactionId>()))
+            return path;
+        return null;
+    }
+
+    private boolean findCycle(TransactionId from, TransactionId target,
+            ArrayList<TransactionId> path, HashSet<TransactionId> visited) {
+        Set<TransactionId> next = waitsFor.get(from);
+        if (next == null)
+            return false;
+        path.add(from);
+        for (TransactionId t : next) {
+            if (t.equals(target))
+                return true;
+            if (visited.add(t) && findCycle(t, target, path, visited))
+                return true;
+        }
+        path.remove(path.size() - 1);
+        return false;
+    }
+
+    private void stopWaiting(TransactionId tid) {
+        synchronized (waitsFor) {
+            waitsFor.remove(tid);
+            victims.remove(tid);
+        }
+    }
+
+    /** Releases tid's lock on an object in the lock table, and forgets it. */
+    private void unlock(TransactionId tid, Object res) {
+        Held h = held.get(tid);
+        if (h != null) {
+            synchronized (h) {
+                Integer table = tableOf(res);
+                if (h.modes.remove(res) != null && table != null)
+                    h.fineLocks.put(table, h.fineLocks.get(table) - 1);
+            }
+        }
+        Partition part = partition(res);
+        synchronized (part) {
+            Lock lock = part.locks.get(res);
+            if (lock == null || lock.holders.remove(tid) == null)
+                return;
+            if (lock.holders.isEmpty())
+                part.locks.remove(res);
+            part.notifyAll();
+        }
+    }
+
+    /** Releases the lock a transaction holds on a page, if any. */
+    public void release(TransactionId tid, PageId pid) {
+        unlock(tid, pid);
+    }
+
+    /** Releases every lock a transaction holds. */
+    public void releaseAll(TransactionId tid) {
+        Held h = held.remove(tid);
+        if (h != null) {
+            ArrayList<Object> all;
+            synchronized (h) {
+                all = new ArrayList<Object>(h.modes.keySet());
+            }
+            for (Object res : all) {
+                Partition part = partition(res);
+                synchronized (part) {
+                    Lock lock = part.locks.get(res);
+                    if (lock != null && lock.holders.remove(tid) != null) {
+                        if (lock.holders.isEmpty())
+                            part.locks.remove(res);
+                        part.notifyAll();
+                    }
+                }
+            }
+        }
+        stopWaiting(tid);
+    }
+
+    /** @return true if the transaction holds a lock on the page, or one covering it */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        return covered(tid, pid, Mode.S) || covered(tid, pid.getTableId(), Mode.S);
+    }
+
+    /** @return true if the transaction may write the page under the locks it holds */
+    public boolean holdsExclusive(TransactionId tid, PageId pid) {
+        return covered(tid, pid, Mode.X) || covered(tid, pid.getTableId(), Mode.X);
+    }
+
+    /** @return the mode the transaction holds the lock on a table in, or null */
+    public Mode getTableMode(TransactionId tid, int tableid) {
+        return mode(tid, Integer.valueOf(tableid));
+    }
+
+    /** @return the mode the transaction holds the lock on a page in, or null */
+    public Mode getPageMode(TransactionId tid, PageId pid) {
+        return mode(tid, pid);
+    }
+
+    /** @return the mode the transaction holds the lock on a tuple in, or null */
+    public Mode getTupleMode(TransactionId tid, RecordId rid) {
+        return mode(tid, rid);
+    }
+
+    /** @return the pages the transaction holds locks on */
+    public Set<PageId> getLockedPages(TransactionId tid) {
+        HashSet<PageId> pages = new HashSet<PageId>();
+        Held h = held.get(tid);
+        if (h != null) {
+            synchronized (h) {
+                for (Object res : h.modes.keySet()) {
+                    if (res instanceof PageId)
+                        pages.add((PageId) res);
+                }
+            }
+        }
+        return pages;
+    }
+}
@@ -2,6 +2,8 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 import java.lang.reflect.*;
 
@@ -51,24 +53,74 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are seven record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT, DELTA, and END_CHECKPOINT
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
 <li>UPDATE RECORDS consist of two entries, a before image and an
 after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
-methods.  See LogFile.print() for an example.
+methods.  See LogFile.print() for an example.  logWrite no longer
+writes them, but they are still read back.
+
+<li>DELTA RECORDS are what logWrite writes for an update: only the
+byte ranges of the page that changed, with their before and after
+contents, keyed by the id of the page.  See PageDelta.write() for the
+format.
 
 <li> CHECKPOINT records consist of active transactions at the time
 the checkpoint was taken and their first log record on disk.  The format
 of the record is an integer count of the number of transactions, as well
 as a long integer transaction id and a long integer first record offset
-for each active transaction.
+for each active transaction.  A CHECKPOINT record begins a
+checkpoint, and the active transactions are those at that point.
+
+<li> END_CHECKPOINT records end a checkpoint, once every page that was
+dirty when it began is on disk.  They consist of a long integer offset
+of the CHECKPOINT record that began it.  The offset at the start of the
+file only ever points to the CHECKPOINT record of a checkpoint that has
+ended.
 
 </ul>
 
+<u> Log buffer: </u>
+<p>
+
+Records are serialized into an in-memory log buffer, and appended to
+the file in large sequential writes when the buffer fills up or the log
+is forced.  A record's log sequence number (LSN) is the number of bytes
+logged up to its end; it keeps growing when the log is truncated.
+force(lsn) only writes and forces the log if the records up to that LSN
+are not on disk yet, so appending a record costs no I/O of its own.
+Anything that reads the log file must flush the buffer first.
+<p>
+
+<u> Group commit: </u>
+<p>
+
+A committing transaction appends its COMMIT record and then waits until
+the log is forced past it.  Committers that arrive while the log is
+being forced wait for the next force rather than issuing one each: the
+first of them becomes the leader of the next group and forces the log
+once for all of them, after an optional batching delay (see
+setGroupCommitDelay) that lets more committers join the group.  The
+log buffer is written to the file under the log's monitor, but the
+file is forced without it, so appending never waits for a force;
+forceLock keeps logTruncate from replacing the file mid-force.
+<p>
+
+<u> Asynchronous commit: </u>
+<p>
+
+A transaction may instead commit asynchronously (see setAsyncCommit
+and logCommit(tid, async)): logCommit then returns as soon as its COMMIT
+record is in the log buffer, and a background WAL writer thread forces
+the log once the oldest such record has waited the commit interval, or
+once enough of the log is waiting.  A crash may lose the transactions
+committed in that window; recovery then treats them as never committed.
+The log must still be forced up to a page's last update before the page
+itself is written.
 */
 
 public class LogFile {
@@ -82,17 +134,60 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int DELTA_RECORD = 6;
+    static final int END_CHECKPOINT_RECORD = 7;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
 
+    /** The size of the log buffer, in bytes */
+    static final int LOG_BUFFER_SIZE = 1 << 20;
+    /** The default longest time, in milliseconds, an asynchronous commit waits to reach disk */
+    public static final long DEFAULT_ASYNC_COMMIT_INTERVAL = 100;
+    /** The default number of pages a checkpoint writes per second */
+    public static final int DEFAULT_CHECKPOINT_RATE = 1000;
+
     long currentOffset = -1;//protected by this
 //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
 
     HashMap<Long,Long> tidToFirstLogRecord = new HashMap<Long,Long>();
 
+    // records not yet written to the file; protected by this
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(LOG_BUFFER_SIZE);
+    private final DataOutputStream out = new DataOutputStream(new BufferOutput());
+    long bufferStart = -1; // the offset of the buffer's contents in the file; protected by this
+    long lsnBase = 0; // the LSN of the start of the file; protected by this
+
+    // the state of group commit; protected by flushLock, which may be
+    // taken while holding this, but not the other way round
+    private final Object flushLock = new Object();
+    private long forcedLsn = 0;
+    private boolean forcing = false;
+    private long numForces = 0;
+    private volatile long groupCommitDelayMicros = 0;
+
+    // held while the log file is forced, without this, and taken before
+    // this by anything that replaces or closes the file
+    final Object forceLock = new Object();
+
+    // asynchronous commit; the state of the WAL writer is protected by
+    // flushLock too
+    private volatile boolean asyncCommit = false;
+    private volatile long asyncCommitInterval = DEFAULT_ASYNC_COMMIT_INTERVAL;
+    private volatile long asyncCommitBytes = LOG_BUFFER_SIZE / 2;
+    private long unforcedLsn = 0; // the end of the last asynchronous commit record
+    private long unforcedSince = 0; // when the oldest one not on disk was appended, or 0
+    private long maxUnforcedNanos = 0;
+    private Thread walWriter;
+    private boolean walWriterStopped = false;
+
+    // taken by a checkpoint for its whole length, before this or the
+    // BufferPool, so that checkpoints run one at a time
+    private final Object checkpointLock = new Object();
+    private volatile int checkpointRate = DEFAULT_CHECKPOINT_RATE;
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -130,11 +225,54 @@ public class LogFile {
             raf.seek(0);
             raf.setLength(0);
             raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            bufferStart = raf.length();
+            currentOffset = bufferStart;
+        }
+    }
+
+    /** Writes into the log buffer, appending it to the file whenever it
+        fills up. */
+    private class BufferOutput extends OutputStream {
+        public void write(int b) throws IOException {
+            if (!buffer.hasRemaining())
+                flushBuffer();
+            buffer.put((byte) b);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (!buffer.hasRemaining())
+                    flushBuffer();
+                int n = Math.min(len, buffer.remaining());
+                buffer.put(b, off, n);
+                off += n;
+                len -= n;
+            }
         }
     }
 
+    /** @return the file offset the next record will be written at */
+    private long position() {
+        return bufferStart + buffer.position();
+    }
+
+    /** Appends the contents of the log buffer to the file, in one
+        sequential write. */
+    synchronized void flushBuffer() throws IOException {
+        if (buffer.position() == 0)
+            return;
+        buffer.flip();
+        FileChannel ch = raf.getChannel();
+        while (buffer.hasRemaining())
+            bufferStart += ch.write(buffer, bufferStart);
+        buffer.clear();
+    }
+
+    /** @return the LSN of the end of the last record appended */
+    public synchronized long getCurrentLsn() {
+        return lsnBase + Math.max(currentOffset, 0);
+    }
+
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
@@ -144,9 +282,23 @@ public class LogFile {
         @param tid The aborting transaction.
     */
     public void logAbort(TransactionId tid) throws IOException {
+        // a read-only transaction has nothing to roll back, and no records
+        if (tid.isReadOnly())
+            return;
+        // forced without holding the log, so that appends go on meanwhile
+        force(appendAbort(tid));
+    }
+
+    /** Roll back the specified transaction and write its ABORT record,
+        without forcing the log, so that a caller holding the BufferPool
+        can force it after releasing the pool.
+        @return the LSN the log must be forced to for the abort to be durable
+    */
+    long appendAbort(TransactionId tid) throws IOException {
         // must have buffer pool lock before proceeding, since this
         // calls rollback
 
+        long lsn;
         synchronized (Database.getBufferPool()) {
 
             synchronized(this) {
@@ -158,36 +310,246 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                force();
+                out.writeInt(ABORT_RECORD);
+                out.writeLong(tid.getId());
+                out.writeLong(currentOffset);
+                currentOffset = position();
                 tidToFirstLogRecord.remove(tid.getId());
+                lsn = getCurrentLsn();
             }
         }
+        return lsn;
     }
 
     /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+        and force the log to disk.  Returns once the record is on disk,
+        which may be done by a force on behalf of a group of concurrent
+        committers, or, if asynchronous commit is on, as soon as it is
+        buffered.
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
+    public void logCommit(TransactionId tid) throws IOException {
+        logCommit(tid, asyncCommit);
+    }
+
+    /** Write a commit record to disk for the specified tid.
+
+        @param tid The committing transaction.
+        @param async If true, return once the record is buffered, and
+        leave forcing it to the WAL writer; otherwise return once it is
+        on disk.
+    */
+    public void logCommit(TransactionId tid, boolean async) throws IOException {
+        // nothing a read-only transaction did needs to be made durable, so
+        // it need not wait for other committers either
+        if (tid.isReadOnly())
+            return;
+        long lsn;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            out.writeInt(COMMIT_RECORD);
+            out.writeLong(tid.getId());
+            out.writeLong(currentOffset);
+            currentOffset = position();
+            tidToFirstLogRecord.remove(tid.getId());
+            lsn = getCurrentLsn();
+        }
+        if (!async) {
+            force(lsn);
+            return;
+        }
+        synchronized (flushLock) {
+            if (forcedLsn >= lsn)
+                return;
+            // with no commit waiting, the WAL writer waits until notified
+            boolean first = unforcedSince == 0;
+            if (first)
+                unforcedSince = System.nanoTime();
+            unforcedLsn = Math.max(unforcedLsn, lsn);
+            if (walWriter == null && !walWriterStopped) {
+                walWriter = new Thread("WAL writer") {
+                    public void run() {
+                        writeBehind();
+                    }
+                };
+                walWriter.setDaemon(true);
+                walWriter.start();
+            }
+            if (first || unforcedLsn - forcedLsn >= asyncCommitBytes)
+                flushLock.notifyAll();
+        }
+    }
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    /** The body of the WAL writer thread: forces the log whenever the
+        oldest asynchronous commit not on disk has waited the commit
+        interval, or enough of the log is waiting, until shutdown. */
+    private void writeBehind() {
+        while (true) {
+            long lsn;
+            synchronized (flushLock) {
+                while (true) {
+                    if (walWriterStopped)
+                        return;
+                    long wait = 0;
+                    if (unforcedSince != 0) {
+                        if (unforcedLsn - forcedLsn >= asyncCommitBytes)
+                            break;
+                        long waited = (System.nanoTime() - unforcedSince) / 1000000;
+                        wait = asyncCommitInterval - waited;
+                        if (wait <= 0)
+                            break;
+                    }
+                    try {
+                        flushLock.wait(wait);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                lsn = unforcedLsn;
+            }
+            try {
+                force(lsn);
+            } catch (IOException e) {
+                // the commits stay waiting, and are retried in an interval
+                e.printStackTrace();
+                synchronized (flushLock) {
+                    try {
+                        flushLock.wait(asyncCommitInterval);
+                    } catch (InterruptedException e2) {
+                        return;
+                    }
+                }
+            }
+        }
     }
 
-    /** Write an UPDATE record to disk for the specified tid and page
-        (with provided         before and after images.)
+    /** Sets whether transactions commit asynchronously by default. */
+    public void setAsyncCommit(boolean async) {
+        asyncCommit = async;
+    }
+
+    /** @return true if transactions commit asynchronously by default */
+    public boolean isAsyncCommit() {
+        return asyncCommit;
+    }
+
+    /** Sets the longest time, in milliseconds, an asynchronously
+        committed transaction waits for the WAL writer to force it to
+        disk; this bounds the commits a crash may lose.
+    */
+    public void setAsyncCommitInterval(long millis) {
+        if (millis <= 0)
+            throw new IllegalArgumentException("asynchronous commit interval must be positive");
+        asyncCommitInterval = millis;
+    }
+
+    /** @return the longest time, in milliseconds, an asynchronous commit
+        waits to reach disk */
+    public long getAsyncCommitInterval() {
+        return asyncCommitInterval;
+    }
+
+    /** Sets how many bytes of log, up to the last asynchronous commit,
+        may wait to be forced before the WAL writer forces them without
+        waiting for the commit interval.
+    */
+    public void setAsyncCommitBytes(long bytes) {
+        if (bytes <= 0)
+            throw new IllegalArgumentException("asynchronous commit size threshold must be positive");
+        asyncCommitBytes = bytes;
+    }
+
+    /** @return how long, in milliseconds, the oldest asynchronously
+        committed transaction not yet on disk has waited, or 0 if there
+        is none */
+    public long getUnflushedCommitAge() {
+        synchronized (flushLock) {
+            if (unforcedSince == 0)
+                return 0;
+            return (System.nanoTime() - unforcedSince) / 1000000;
+        }
+    }
+
+    /** @return the longest time, in milliseconds, an asynchronously
+        committed transaction has waited to reach disk */
+    public long getMaxUnflushedCommitAge() {
+        synchronized (flushLock) {
+            return maxUnforcedNanos / 1000000;
+        }
+    }
+
+    /** Force the log to disk up to the specified LSN, unless it already
+        is.  Concurrent callers are grouped: if the log is being forced,
+        they wait for that force, and the first of them then forces the
+        log for the others.
+
+        @param lsn The LSN of the end of the last record that must be on disk
+    */
+    public void force(long lsn) throws IOException {
+        synchronized (flushLock) {
+            while (forcedLsn < lsn && forcing) {
+                try {
+                    flushLock.wait();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("interrupted waiting for the log to be forced");
+                }
+            }
+            if (forcedLsn >= lsn)
+                return;
+            forcing = true;
+        }
+        try {
+            // let more committers append their records before the force
+            long delay = groupCommitDelayMicros;
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay / 1000, (int) (delay % 1000) * 1000);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("interrupted waiting for committers");
+                }
+            }
+            force();
+        } finally {
+            synchronized (flushLock) {
+                forcing = false;
+                flushLock.notifyAll();
+            }
+        }
+    }
+
+    /** Sets how long, in microseconds, the leader of a group of
+        committers waits for more committers to join the group before
+        forcing the log.  Longer delays mean fewer forces under
+        concurrent commits, at the cost of commit latency.  The default
+        is 0: a group is only made of the committers that arrive while
+        the previous group's force is in progress.
+    */
+    public void setGroupCommitDelay(long micros) {
+        if (micros < 0)
+            throw new IllegalArgumentException("negative group commit delay");
+        groupCommitDelayMicros = micros;
+    }
+
+    /** @return how long, in microseconds, the leader of a group of
+        committers waits before forcing the log */
+    public long getGroupCommitDelay() {
+        return groupCommitDelayMicros;
+    }
+
+    /** @return the number of times the log has been forced to disk */
+    public long getNumForces() {
+        synchronized (flushLock) {
+            return numForces;
+        }
+    }
+
+    /** Write a DELTA record to disk for the specified tid and page,
+        holding the bytes that differ between the provided before and
+        after images.
         @param tid The transaction performing the write
         @param before The before image of the page
         @param after The after image of the page
@@ -197,28 +559,26 @@ public class LogFile {
     public  synchronized void logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
         preAppend();
-        /* update record conists of
+        Debug.log("WRITE, offset = " + position());
+        /* delta record consists of
 
            record type
            transaction id
-           before page data (see writePageData)
-           after page data
+           page id and changed ranges (see PageDelta.write)
            start offset
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
+        out.writeInt(DELTA_RECORD);
+        out.writeLong(tid.getId());
 
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        PageDelta.diff(before, after).write(out);
+        out.writeLong(currentOffset);
+        currentOffset = position();
 
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
+    void writePageData(DataOutput raf, Page p) throws IOException{
         PageId pid = p.getId();
         int pageInfo[] = pid.serialize();
 
@@ -295,72 +655,180 @@ public class LogFile {
 
     }
 
+    /** Write a DELTA record for an update a checkpoint is about to
+        write to disk before its transaction commits, and a BEGIN record
+        first if the transaction has none, so that rollback and recovery
+        can undo the write.
+        @return the LSN the log must be forced to before the page is written
+    */
+    synchronized long logSteal(TransactionId tid, Page before, Page after)
+        throws IOException {
+        if (!tidToFirstLogRecord.containsKey(tid.getId()))
+            logXactionBegin(tid);
+        logWrite(tid, before, after);
+        return getCurrentLsn();
+    }
+
     /** Write a BEGIN record for the specified transaction
         @param tid The transaction that is beginning
 
     */
     public synchronized  void logXactionBegin(TransactionId tid)
         throws IOException {
+        if (tid.isReadOnly())
+            return;
         Debug.log("BEGIN");
         if(tidToFirstLogRecord.get(tid.getId()) != null){
             System.err.printf("logXactionBegin: already began this tid\n");
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
+        out.writeInt(BEGIN_RECORD);
+        out.writeLong(tid.getId());
+        out.writeLong(currentOffset);
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        currentOffset = position();
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
+    /** Checkpoint the log, without stopping transactions: write a
+        CHECKPOINT record with the active transactions, write the pages
+        that are dirty at that point to disk, at most checkpointRate a
+        second, and write an END_CHECKPOINT record.  Neither the log nor
+        the BufferPool is locked while the pages are written, except for
+        the write of each page.  These are pages of active transactions,
+        so the BufferPool logs each update before the page is written
+        (see logSteal), and rolls it back through the log if the
+        transaction aborts.
+    */
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
+        synchronized (checkpointLock) {
+            long startCpOffset = logCheckpointBegin();
+
+            // anything dirty since the CHECKPOINT record was logged after
+            // it; anything clean since is on disk
+            BufferPool pool = Database.getBufferPool();
+            List<PageId> dirty = pool.getDirtyPages();
+            long start = System.nanoTime();
+            for (int i = 0; i < dirty.size(); i++) {
+                int rate = checkpointRate;
+                if (rate > 0) {
+                    long due = start + i * 1000000000L / rate;
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        try {
+                            Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                        } catch (InterruptedException e) {
+                            throw new InterruptedIOException("checkpoint interrupted");
+                        }
+                    }
+                }
+                // logs the update first, so that it can be undone
+                pool.writeDirtyPage(dirty.get(i), this);
+            }
+
+            long endLsn;
             synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
                 preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
-                }
+                out.writeInt(END_CHECKPOINT_RECORD);
+                out.writeLong(-1); //no tid
+                out.writeLong(startCpOffset);
+                out.writeLong(currentOffset);
+                currentOffset = position();
+                endLsn = getCurrentLsn();
+            }
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+            //once the checkpoint has ended, make sure the CP location
+            // at the beginning of the log file is updated
+            force(endLsn);
+            synchronized (forceLock) {
+                synchronized (this) {
+                    raf.seek(0);
+                    raf.writeLong(startCpOffset);
+                }
             }
+
+            logTruncate();
         }
+    }
+
+    /** Writes a checkpoint in a new background thread.
+        @return the thread, which ends with the checkpoint
+    */
+    public Thread logCheckpointInBackground() {
+        Thread t = new Thread("checkpoint") {
+            public void run() {
+                try {
+                    logCheckpoint();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    /** Sets how many pages a second a checkpoint writes at most, or 0
+        for no limit. */
+    public void setCheckpointRate(int pagesPerSecond) {
+        if (pagesPerSecond < 0)
+            throw new IllegalArgumentException("negative checkpoint rate");
+        checkpointRate = pagesPerSecond;
+    }
+
+    /** @return how many pages a second a checkpoint writes at most, or 0
+        for no limit */
+    public int getCheckpointRate() {
+        return checkpointRate;
+    }
 
-        logTruncate();
+    /** Writes the CHECKPOINT record that begins a checkpoint, listing the
+        active transactions.
+        @return the offset of the record
+    */
+    private synchronized long logCheckpointBegin() throws IOException {
+        //Debug.log("CHECKPOINT, offset = " + position());
+        preAppend();
+        long startCpOffset;
+        Set<Long> keys = tidToFirstLogRecord.keySet();
+        Iterator<Long> els = keys.iterator();
+        startCpOffset = position();
+        out.writeInt(CHECKPOINT_RECORD);
+        out.writeLong(-1); //no tid , but leave space for convenience
+
+        //write list of outstanding transactions
+        out.writeInt(keys.size());
+        while (els.hasNext()) {
+            Long key = els.next();
+            Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
+            out.writeLong(key);
+            //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
+            out.writeLong(tidToFirstLogRecord.get(key));
+        }
+        out.writeLong(currentOffset);
+        currentOffset = position();
+        //Debug.log("CP OFFSET = " + currentOffset);
+        return startCpOffset;
     }
 
     /** Truncate any unneeded portion of the log to reduce its space
         consumption */
-    public synchronized void logTruncate() throws IOException {
+    public void logTruncate() throws IOException {
+        // the log file is replaced, so it must not be being forced
+        synchronized (forceLock) {
+            synchronized (this) {
+                truncate();
+            }
+        }
+    }
+
+    private void truncate() throws IOException {
         preAppend();
+        flushBuffer();
+        long endLsn = getCurrentLsn();
         raf.seek(0);
         long cpLoc = raf.readLong();
 
@@ -416,6 +884,9 @@ public class LogFile {
                     writePageData(logNew, before);
                     writePageData(logNew, after);
                     break;
+                case DELTA_RECORD:
+                    PageDelta.read(raf).write(logNew);
+                    break;
                 case CHECKPOINT_RECORD:
                     int numXactions = raf.readInt();
                     logNew.writeInt(numXactions);
@@ -426,6 +897,9 @@ public class LogFile {
                         logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
                     }
                     break;
+                case END_CHECKPOINT_RECORD:
+                    logNew.writeLong((raf.readLong() - minLogRecord) + LONG_SIZE);
+                    break;
                 case BEGIN_RECORD:
                     tidToFirstLogRecord.put(record_tid,newStart);
                     break;
@@ -446,10 +920,12 @@ public class LogFile {
         logFile.delete();
         newFile.renameTo(logFile);
         raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
         newFile.delete();
 
-        currentOffset = raf.getFilePointer();
+        bufferStart = raf.length();
+        currentOffset = bufferStart;
+        // LSNs go on from where they were
+        lsnBase = endLsn - currentOffset;
         //print();
     }
 
@@ -466,8 +942,111 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized(this) {
                 preAppend();
-                // some code goes here
+                Long first = tidToFirstLogRecord.get(tid.getId());
+                if (first == null)
+                    throw new NoSuchElementException("transaction " + tid.getId() + " is not live");
+                ArrayList<LoggedUpdate> updates = new ArrayList<LoggedUpdate>();
+                readUpdates(first, updates, new HashSet<Long>(), new HashSet<Long>());
+                LinkedHashMap<PageId, Page> pages = new LinkedHashMap<PageId, Page>();
+                for (int i = updates.size() - 1; i >= 0; i--) {
+                    LoggedUpdate u = updates.get(i);
+                    if (u.tid == tid.getId())
+                        pages.put(u.getPageId(), u.undo(current(pages, u.getPageId())));
+                }
+                install(pages);
+            }
+        }
+    }
+
+    /** An update read back from the log: a delta, or full page images */
+    private static class LoggedUpdate {
+        final long tid;
+        final PageDelta delta;
+        final Page before, after;
+
+        LoggedUpdate(long tid, PageDelta delta, Page before, Page after) {
+            this.tid = tid;
+            this.delta = delta;
+            this.before = before;
+            this.after = after;
+        }
+
+        PageId getPageId() {
+            return delta != null ? delta.getPageId() : after.getId();
+        }
+
+        Page undo(Page current) throws IOException {
+            return delta != null ? delta.apply(current, false) : before;
+        }
+
+        /**
+         * Redoes the update if the page is still as the update found it.
+         * Commits force their pages before their COMMIT records, so a
+         * page that changed since holds later updates, of this or other
+         * transactions, that the redo would overwrite.
+         */
+        Page redo(Page current) throws IOException {
+            if (delta != null)
+                return delta.appliesTo(current.getPageData(), true) ? delta.apply(current, true) : current;
+            return Arrays.equals(before.getPageData(), current.getPageData()) ? after : current;
+        }
+    }
+
+    /** Reads the records from the specified offset to the end of the
+        log, collecting the updates in log order, and the ids of the
+        transactions that committed and aborted.
+    */
+    private void readUpdates(long from, List<LoggedUpdate> updates,
+                             Set<Long> committed, Set<Long> aborted)
+        throws IOException {
+        flushBuffer();
+        long end = bufferStart;
+        raf.seek(from);
+        while (raf.getFilePointer() < end) {
+            int type = raf.readInt();
+            long tid = raf.readLong();
+            switch (type) {
+            case UPDATE_RECORD:
+                Page before = readPageData(raf);
+                Page after = readPageData(raf);
+                updates.add(new LoggedUpdate(tid, null, before, after));
+                break;
+            case DELTA_RECORD:
+                updates.add(new LoggedUpdate(tid, PageDelta.read(raf), null, null));
+                break;
+            case CHECKPOINT_RECORD:
+                int numXactions = raf.readInt();
+                raf.seek(raf.getFilePointer() + numXactions * 2 * LONG_SIZE);
+                break;
+            case END_CHECKPOINT_RECORD:
+                raf.readLong();
+                break;
+            case COMMIT_RECORD:
+                committed.add(tid);
+                break;
+            case ABORT_RECORD:
+                aborted.add(tid);
+                break;
             }
+            raf.readLong();
+        }
+    }
+
+    /** @return the page with the specified id as recovery has left it
+        so far, or as it is on disk */
+    private Page current(Map<PageId, Page> pages, PageId pid) {
+        Page p = pages.get(pid);
+        if (p != null)
+            return p;
+        return Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+    }
+
+    /** Writes pages restored from the log to disk, and drops any cached
+        copies of them. */
+    private void install(Map<PageId, Page> pages) throws IOException {
+        for (Page p : pages.values()) {
+            Database.getCatalog().getDatabaseFile(p.getId().getTableId()).writePage(p);
+            Database.getBufferPool().discardPage(p.getId());
         }
     }
 
@@ -475,10 +1054,19 @@ public class LogFile {
         is necessary so that start up can happen quickly (without
         extensive recovery.)
     */
-    public synchronized void shutdown() {
+    public void shutdown() {
+        // the checkpoint forces whatever the WAL writer has not
+        synchronized (flushLock) {
+            walWriterStopped = true;
+            flushLock.notifyAll();
+        }
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            synchronized (forceLock) {
+                synchronized (this) {
+                    raf.close();
+                }
+            }
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -493,7 +1081,37 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
-                // some code goes here
+                if (raf.length() < LONG_SIZE) {
+                    raf.setLength(0);
+                    raf.writeLong(NO_CHECKPOINT_ID);
+                }
+                // new records go after the ones kept
+                bufferStart = raf.length();
+                currentOffset = bufferStart;
+
+                // the log only keeps the records of transactions that were
+                // active at the last checkpoint or began since, so all of
+                // it is read: the updates of committed transactions are
+                // redone in log order where their pages are still as they
+                // found them (see LoggedUpdate.redo), then those of transactions that
+                // neither committed nor aborted are undone in reverse
+                // (aborted ones were rolled back before their ABORT record)
+                ArrayList<LoggedUpdate> updates = new ArrayList<LoggedUpdate>();
+                HashSet<Long> committed = new HashSet<Long>();
+                HashSet<Long> aborted = new HashSet<Long>();
+                readUpdates(LONG_SIZE, updates, committed, aborted);
+                LinkedHashMap<PageId, Page> pages = new LinkedHashMap<PageId, Page>();
+                for (LoggedUpdate u : updates) {
+                    if (committed.contains(u.tid))
+                        pages.put(u.getPageId(), u.redo(current(pages, u.getPageId())));
+                }
+                for (int i = updates.size() - 1; i >= 0; i--) {
+                    LoggedUpdate u = updates.get(i);
+                    if (!committed.contains(u.tid) && !aborted.contains(u.tid))
+                        pages.put(u.getPageId(), u.undo(current(pages, u.getPageId())));
+                }
+                install(pages);
+                tidToFirstLogRecord.clear();
             }
          }
     }
@@ -503,8 +1121,32 @@ public class LogFile {
         // some code goes here
     }
 
-    public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+    /** Force the log to disk.  The log buffer is written to the file
+        while holding the log's monitor, but the file is forced while
+        holding only forceLock, so that records go on being appended
+        meanwhile.  Must not be called while holding the monitor.
+    */
+    public void force() throws IOException {
+        long lsn;
+        synchronized (forceLock) {
+            FileChannel ch;
+            synchronized (this) {
+                flushBuffer();
+                ch = raf.getChannel();
+                // every record appended so far is on disk after the force
+                lsn = getCurrentLsn();
+            }
+            ch.force(true);
+        }
+        synchronized (flushLock) {
+            forcedLsn = Math.max(forcedLsn, lsn);
+            numForces++;
+            if (unforcedSince != 0 && forcedLsn >= unforcedLsn) {
+                maxUnforcedNanos = Math.max(maxUnforcedNanos, System.nanoTime() - unforcedSince);
+                unforcedSince = 0;
+            }
+            flushLock.notifyAll();
+        }
     }
 
 }
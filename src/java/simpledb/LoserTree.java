@@ -0,0 +1,104 @@
+package simpledb;
+
+import java.util.Comparator;
+import java.util.NoSuchElementException;
+
+/**
+ * LoserTree merges k sorted tuple streams into one sorted stream.
+ * <p>
+ * A tournament tree holds, at each internal node, the source that lost the
+ * comparison played there; the overall winner sits at the root. Replacing the
+ * winner with the next tuple from its source only replays the log2(k) games
+ * on the path from that source's leaf to the root, one comparison per level.
+ * Ties are broken in favour of the lower-numbered source, so the merge is
+ * stable when runs are numbered in input order.
+ */
+class LoserTree implements DbFileIterator {
+
+    private final DbFileIterator[] sources;
+    private final Comparator<Tuple> comparator;
+    private final int k;
+    private final Tuple[] heads;
+    private final int[] tree;
+    private boolean opened = false;
+
+    /**
+     * @param sources the sorted streams to merge; they are opened by
+     *            {@link #open} and closed by {@link #close}
+     * @param comparator the order all of the sources are sorted in
+     */
+    public LoserTree(DbFileIterator[] sources, Comparator<Tuple> comparator) {
+        this.sources = sources;
+        this.comparator = comparator;
+        this.k = sources.length;
+        this.heads = new Tuple[k];
+        this.tree = new int[Math.max(k, 1)];
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        for (int i = 0; i < k; i++) {
+            sources[i].open();
+            heads[i] = sources[i].hasNext() ? sources[i].next() : null;
+        }
+        // index k stands for a virtual source smaller than everything, so
+        // that every real source plays its way up from its leaf
+        for (int i = 0; i < tree.length; i++)
+            tree[i] = k;
+        for (int i = k - 1; i >= 0; i--)
+            adjust(i);
+        opened = true;
+    }
+
+    /** @return true if source a wins against source b */
+    private boolean beats(int a, int b) {
+        if (a == k)
+            return true;
+        if (b == k)
+            return false;
+        if (heads[a] == null)
+            return false;
+        if (heads[b] == null)
+            return true;
+        int c = comparator.compare(heads[a], heads[b]);
+        return c < 0 || (c == 0 && a < b);
+    }
+
+    /** Replays the games from the leaf of source s up to the root. */
+    private void adjust(int s) {
+        for (int t = (s + k) >> 1; t > 0; t >>= 1) {
+            if (beats(tree[t], s)) {
+                int winner = tree[t];
+                tree[t] = s;
+                s = winner;
+            }
+        }
+        tree[0] = s;
+    }
+
+    public boolean hasNext() {
+        return opened && k > 0 && heads[tree[0]] != null;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        int w = tree[0];
+        Tuple result = heads[w];
+        heads[w] = sources[w].hasNext() ? sources[w].next() : null;
+        adjust(w);
+        return result;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        for (int i = 0; i < k; i++) {
+            sources[i].close();
+            heads[i] = null;
+        }
+        opened = false;
+    }
+}
@@ -0,0 +1,216 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MorselScheduler runs push-based pipelines over a HeapFile on a fixed set
+ * of worker threads. The file is cut into morsels, small ranges of
+ * consecutive pages, and every worker pushes the tuples of one morsel at a
+ * time through its own copy of the pipeline.
+ * <p>
+ * Each worker starts with a contiguous share of the morsels in its own
+ * deque and takes them from the front. A worker whose deque is empty steals
+ * from the back of another worker's deque, so workers that drew full pages
+ * or slow I/O do not hold up the others: all workers finish within about
+ * one morsel of each other.
+ * <p>
+ * A pipeline must not start another run on the same scheduler, since the
+ * workers of the inner run could never be scheduled.
+ */
+public class MorselScheduler {
+
+    /** The default number of pages per morsel. */
+    public static final int DEFAULT_MORSEL_PAGES = 4;
+
+    private final int numWorkers;
+    private final int morselPages;
+    private final ExecutorService workers;
+
+    private volatile int morselsRun;
+    private volatile int morselsStolen;
+
+    /**
+     * Creates a scheduler with one worker per core and morsels of
+     * DEFAULT_MORSEL_PAGES pages.
+     */
+    public MorselScheduler() {
+        this(Exchange.defaultParallelism(), DEFAULT_MORSEL_PAGES);
+    }
+
+    /**
+     * @param numWorkers the number of worker threads
+     * @param morselPages the number of pages per morsel
+     */
+    public MorselScheduler(int numWorkers, int morselPages) {
+        if (numWorkers < 1 || morselPages < 1)
+            throw new IllegalArgumentException("need at least one worker and one page per morsel");
+        this.numWorkers = numWorkers;
+        this.morselPages = morselPages;
+        this.workers = Executors.newFixedThreadPool(numWorkers, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "morsel-worker-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    public int numWorkers() {
+        return numWorkers;
+    }
+
+    public int getMorselPages() {
+        return morselPages;
+    }
+
+    /** @return the number of morsels processed by the last run */
+    public int getMorselsRun() {
+        return morselsRun;
+    }
+
+    /** @return the number of morsels of the last run that were stolen */
+    public int getMorselsStolen() {
+        return morselsStolen;
+    }
+
+    /** Stops the worker threads; the scheduler cannot be used afterwards. */
+    public void shutdown() {
+        workers.shutdown();
+    }
+
+    /**
+     * Pushes every tuple of the specified file through the pipeline, and
+     * returns once every worker has finished its copy of it.
+     *
+     * @param f the file to scan
+     * @param tid the transaction the scan is running as a part of
+     * @param pipeline creates the pipeline of each worker; called on this
+     *            thread, once per worker, before any tuple is pushed
+     * @throws DbException if a stage fails on any worker
+     */
+    public void run(HeapFile f, TransactionId tid, PushStage.Factory pipeline)
+            throws DbException, TransactionAbortedException {
+        int pages = f.numPages();
+        int numMorsels = (pages + morselPages - 1) / morselPages;
+
+        ArrayList<ConcurrentLinkedDeque<Integer>> deques =
+                new ArrayList<ConcurrentLinkedDeque<Integer>>(numWorkers);
+        for (int w = 0; w < numWorkers; w++) {
+            ConcurrentLinkedDeque<Integer> d = new ConcurrentLinkedDeque<Integer>();
+            int from = (int) ((long) numMorsels * w / numWorkers);
+            int to = (int) ((long) numMorsels * (w + 1) / numWorkers);
+            for (int m = from; m < to; m++)
+                d.addLast(m * morselPages);
+            deques.add(d);
+        }
+
+        AtomicInteger run = new AtomicInteger();
+        AtomicInteger stolen = new AtomicInteger();
+        AtomicBoolean failed = new AtomicBoolean();
+        List<Future<Void>> tasks = new ArrayList<Future<Void>>(numWorkers);
+        for (int w = 0; w < numWorkers; w++) {
+            Worker worker = new Worker(w, f, tid, pipeline.create(w), pages, deques,
+                    run, stolen, failed);
+            tasks.add(workers.submit(worker));
+        }
+
+        Throwable failure = null;
+        for (Future<Void> task : tasks) {
+            try {
+                task.get();
+            } catch (ExecutionException e) {
+                if (failure == null)
+                    failure = e.getCause();
+            } catch (InterruptedException e) {
+                if (failure == null)
+                    failure = e;
+                failed.set(true);
+            }
+        }
+        morselsRun = run.get();
+        morselsStolen = stolen.get();
+
+        if (failure instanceof DbException)
+            throw (DbException) failure;
+        if (failure instanceof TransactionAbortedException)
+            throw (TransactionAbortedException) failure;
+        if (failure != null) {
+            DbException d = new DbException("morsel worker failed: " + failure);
+            d.initCause(failure);
+            throw d;
+        }
+    }
+
+    /**
+     * One worker of a run: processes its own morsels front to back, then
+     * steals from the back of the other workers' deques.
+     */
+    private class Worker implements Callable<Void> {
+        private final int index;
+        private final HeapFile f;
+        private final TransactionId tid;
+        private final PushStage head;
+        private final int pages;
+        private final ArrayList<ConcurrentLinkedDeque<Integer>> deques;
+        private final AtomicInteger run;
+        private final AtomicInteger stolen;
+        private final AtomicBoolean failed;
+
+        Worker(int index, HeapFile f, TransactionId tid, PushStage head, int pages,
+                ArrayList<ConcurrentLinkedDeque<Integer>> deques, AtomicInteger run,
+                AtomicInteger stolen, AtomicBoolean failed) {
+            this.index = index;
+            this.f = f;
+            this.tid = tid;
+            this.head = head;
+            this.pages = pages;
+            this.deques = deques;
+            this.run = run;
+            this.stolen = stolen;
+            this.failed = failed;
+        }
+
+        /** @return the first page of the next morsel, or null if none is left */
+        private Integer nextMorsel() {
+            Integer m = deques.get(index).pollFirst();
+            if (m != null)
+                return m;
+            for (int k = 1; k < numWorkers; k++) {
+                m = deques.get((index + k) % numWorkers).pollLast();
+                if (m != null) {
+                    stolen.incrementAndGet();
+                    return m;
+                }
+            }
+            return null;
+        }
+
+        public Void call() throws Exception {
+            try {
+                Integer m;
+                while (!failed.get() && (m = nextMorsel()) != null) {
+                    int end = Math.min(m + morselPages, pages);
+                    for (int p = m; p < end; p++) {
+                        HeapPageId pid = new HeapPageId(f.getId(), p);
+                        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid,
+                                Permissions.READ_ONLY);
+                        Iterator<Tuple> it = page.iterator();
+                        while (it.hasNext())
+                            head.push(it.next());
+                    }
+                    run.incrementAndGet();
+                }
+                head.finish();
+                return null;
+            } catch (Exception e) {
+                failed.set(true);
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * OptimisticValidator implements the bookkeeping of optimistic concurrency
+ * control for the BufferPool. A transaction takes no locks: the pages it
+ * reads are recorded in its read set, along with the versions it saw, so
+ * that it keeps seeing them. The pages it writes are private copies of
+ * those versions, kept in its workspace, which also forms its write set.
+ * <p>
+ * At commit, the transaction is validated backwards: it fails if a
+ * transaction that committed after it started wrote a page it read. A
+ * transaction that passes installs its workspace in the BufferPool and is
+ * given the next commit number, all while holding this object's monitor,
+ * so that validation and installation happen one transaction at a time.
+ * <p>
+ * The write sets of committed transactions are kept until every active
+ * transaction started after them.
+ */
+public class OptimisticValidator {
+
+    /** The state of an active transaction; guarded by itself */
+    private static class Txn {
+        final long start;
+        /** The version of each page read, or null if only its id was noted */
+        final HashMap<PageId, Page> reads = new HashMap<PageId, Page>();
+        final LinkedHashMap<PageId, Page> workspace = new LinkedHashMap<PageId, Page>();
+
+        Txn(long start) {
+            this.start = start;
+        }
+    }
+
+    /** The write set of a committed transaction */
+    private static class Committed {
+        final long number;
+        final Set<PageId> writes;
+
+        Committed(long number, Set<PageId> writes) {
+            this.number = number;
+            this.writes = writes;
+        }
+    }
+
+    /** The number of the last transaction to commit; incremented after it is installed */
+    private final AtomicLong committed = new AtomicLong();
+    private final ConcurrentHashMap<TransactionId, Txn> active = new ConcurrentHashMap<TransactionId, Txn>();
+    /** Guarded by this object's monitor */
+    private final ArrayList<Committed> history = new ArrayList<Committed>();
+    private final AtomicLong numAborts = new AtomicLong();
+
+    private Txn txn(TransactionId tid) {
+        Txn t = active.get(tid);
+        if (t == null) {
+            t = new Txn(committed.get());
+            Txn raced = active.putIfAbsent(tid, t);
+            if (raced != null)
+                t = raced;
+        }
+        return t;
+    }
+
+    /**
+     * Records that a transaction reads a page.
+     *
+     * @return the transaction's private copy of the page, or else the
+     *         version of it the transaction read before, or null if there
+     *         is neither
+     */
+    public Page access(TransactionId tid, PageId pid) {
+        Txn t = txn(tid);
+        synchronized (t) {
+            Page own = t.workspace.get(pid);
+            if (own != null)
+                return own;
+            if (!t.reads.containsKey(pid))
+                t.reads.put(pid, null);
+            return t.reads.get(pid);
+        }
+    }
+
+    /**
+     * Records the committed version of a page a transaction reads, unless
+     * it read another version before.
+     *
+     * @return the version of the page the transaction sees
+     */
+    public Page read(TransactionId tid, Page committed) {
+        Page p = access(tid, committed.getId());
+        if (p != null)
+            return p;
+        Txn t = txn(tid);
+        synchronized (t) {
+            t.reads.put(committed.getId(), committed);
+            return committed;
+        }
+    }
+
+    /** @return true if the transaction has a private copy of the page */
+    public boolean isWritten(TransactionId tid, PageId pid) {
+        Txn t = active.get(tid);
+        if (t == null)
+            return false;
+        synchronized (t) {
+            return t.workspace.containsKey(pid);
+        }
+    }
+
+    /**
+     * Adds a private copy of a page to a transaction's workspace, unless it
+     * already has one.
+     *
+     * @return the copy in the workspace
+     */
+    public Page addToWorkspace(TransactionId tid, Page copy) {
+        Txn t = txn(tid);
+        synchronized (t) {
+            if (!t.reads.containsKey(copy.getId()))
+                t.reads.put(copy.getId(), null);
+            Page p = t.workspace.get(copy.getId());
+            if (p != null)
+                return p;
+            t.workspace.put(copy.getId(), copy);
+            return copy;
+        }
+    }
+
+    /** Forgets that a transaction read a page it has not written. */
+    public void release(TransactionId tid, PageId pid) {
+        Txn t = active.get(tid);
+        if (t == null)
+            return;
+        synchronized (t) {
+            if (!t.workspace.containsKey(pid))
+                t.reads.remove(pid);
+        }
+    }
+
+    /** @return true if the transaction has read or written the page */
+    public boolean holds(TransactionId tid, PageId pid) {
+        Txn t = active.get(tid);
+        if (t == null)
+            return false;
+        synchronized (t) {
+            return t.reads.containsKey(pid);
+        }
+    }
+
+    /** @return the pages the transaction has read or written */
+    public Set<PageId> getReadSet(TransactionId tid) {
+        Txn t = active.get(tid);
+        if (t == null)
+            return new HashSet<PageId>();
+        synchronized (t) {
+            return new HashSet<PageId>(t.reads.keySet());
+        }
+    }
+
+    /**
+     * Validates a transaction against the transactions that committed
+     * since it started. The caller must hold this object's monitor until
+     * it calls {@link #committed}, and install the workspace in between.
+     *
+     * @return the workspace of the transaction, which it may now install
+     * @throws TransactionAbortedException if it conflicts with a committed
+     *             transaction; it is then forgotten
+     */
+    public Collection<Page> validate(TransactionId tid) throws TransactionAbortedException {
+        Txn t = active.get(tid);
+        if (t == null)
+            return new ArrayList<Page>();
+        synchronized (t) {
+            for (int i = history.size() - 1; i >= 0 && history.get(i).number > t.start; i--) {
+                for (PageId pid : history.get(i).writes) {
+                    if (t.reads.containsKey(pid)) {
+                        abort(tid);
+                        throw new TransactionAbortedException();
+                    }
+                }
+            }
+            return new ArrayList<Page>(t.workspace.values());
+        }
+    }
+
+    /**
+     * Records the commit of a validated transaction whose workspace has
+     * been installed, and forgets it.
+     */
+    public synchronized void committed(TransactionId tid) {
+        Txn t = active.remove(tid);
+        if (t != null && !t.workspace.isEmpty()) {
+            long number = committed.get() + 1;
+            history.add(new Committed(number, new HashSet<PageId>(t.workspace.keySet())));
+            committed.set(number);
+        }
+        trimHistory();
+    }
+
+    /** Forgets a transaction, discarding its workspace. */
+    public synchronized void abort(TransactionId tid) {
+        if (active.remove(tid) != null)
+            numAborts.incrementAndGet();
+        trimHistory();
+    }
+
+    /** Drops the write sets every active transaction started after. */
+    private void trimHistory() {
+        long oldest = committed.get();
+        for (Txn t : active.values())
+            oldest = Math.min(oldest, t.start);
+        int dead = 0;
+        while (dead < history.size() && history.get(dead).number <= oldest)
+            dead++;
+        history.subList(0, dead).clear();
+    }
+
+    /** @return the number of transactions that have aborted */
+    public long getNumAborts() {
+        return numAborts.get();
+    }
+
+    /** @return the number of write sets kept for validation */
+    public synchronized int getHistorySize() {
+        return history.size();
+    }
+}
@@ -0,0 +1,313 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * OrderBy is an operator that implements a relational ORDER BY on one or more
+ * fields.
+ * <p>
+ * The operator is given a memory budget in pages of tuples. Input that fits
+ * within the budget is sorted in memory. Larger input is cut into
+ * budget-sized runs that are sorted and written to {@link SpillFile}s (in the
+ * HeapPage binary format); the runs are then merged with a {@link LoserTree},
+ * at most one run per page of budget at a time, and the final merge pass is
+ * streamed to the caller as it is pulled.
+ * <p>
+ * The operator watches for input that is already in order: a run that
+ * arrives sorted is not sorted again, and if the whole input arrives sorted
+ * the runs are simply read back one after another instead of being merged.
+ */
+public class OrderBy extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator child;
+    private final TupleDesc td;
+    private final TupleComparator comparator;
+    private final int memPages;
+
+    private transient ArrayList<Tuple> memTuples;
+    private transient ArrayList<SpillFile> spills;
+    private transient int numRuns;
+    private transient DbFileIterator output;
+    private transient int memPos;
+    private transient boolean inputSorted;
+
+    /**
+     * Creates a new OrderBy node over the tuples from the iterator, using
+     * the default memory budget of {@link BufferPool#DEFAULT_PAGES} pages.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     */
+    public OrderBy(int orderbyField, boolean asc, DbIterator child) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, child,
+                BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * Creates a new OrderBy node over the tuples from the iterator, sorting
+     * on several fields.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            for each field, true if its sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param memPages
+     *            the number of pages of tuples the sort may hold in memory
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, DbIterator child,
+            int memPages) {
+        if (memPages < 2)
+            throw new IllegalArgumentException("an external sort needs at least two pages");
+        this.child = child;
+        this.td = child.getTupleDesc();
+        this.comparator = new TupleComparator(orderbyFields, asc);
+        this.memPages = memPages;
+    }
+
+    public boolean isASC() {
+        return comparator.getAscending()[0];
+    }
+
+    public int getOrderByField() {
+        return comparator.getFields()[0];
+    }
+
+    public String getOrderFieldName() {
+        return td.getFieldName(getOrderByField());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the comparator this operator sorts with */
+    public TupleComparator getComparator() {
+        return comparator;
+    }
+
+    /**
+     * @return the number of sorted runs written to disk since the operator
+     *         was last opened; zero if the input was sorted in memory.
+     */
+    public int getNumRuns() {
+        return numRuns;
+    }
+
+    /** @return true if the input was found to be in order already */
+    public boolean isInputSorted() {
+        return inputSorted;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        super.open();
+        sort();
+    }
+
+    public void close() {
+        super.close();
+        cleanup();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        clearNext();
+        if (output != null)
+            output.rewind();
+        memPos = 0;
+    }
+
+    /**
+     * Reads the child into memory, spilling a sorted run every time the
+     * budget fills up, and prepares the output stream.
+     */
+    private void sort() throws DbException, TransactionAbortedException {
+        cleanup();
+        spills = new ArrayList<SpillFile>();
+        ArrayList<SpillFile> runs = new ArrayList<SpillFile>();
+        int budget = memPages * SpillFile.tuplesPerPage(td);
+        ArrayList<Tuple> buffer = new ArrayList<Tuple>();
+        boolean bufferSorted = true;
+        inputSorted = true;
+        Tuple last = null;
+
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (last != null && comparator.compare(last, t) > 0) {
+                bufferSorted = false;
+                inputSorted = false;
+            }
+            buffer.add(t);
+            last = t;
+            if (buffer.size() == budget) {
+                runs.add(writeRun(buffer, bufferSorted));
+                buffer = new ArrayList<Tuple>();
+                bufferSorted = true;
+            }
+        }
+
+        if (runs.isEmpty()) {
+            if (!bufferSorted)
+                Collections.sort(buffer, comparator);
+            memTuples = buffer;
+            memPos = 0;
+            return;
+        }
+        if (!buffer.isEmpty())
+            runs.add(writeRun(buffer, bufferSorted));
+        numRuns = runs.size();
+
+        try {
+            if (inputSorted) {
+                output = new ConcatIterator(iterators(runs));
+            } else {
+                // keep one page of budget for the merged output
+                int fanIn = Math.max(2, memPages - 1);
+                ArrayList<SpillFile> level = runs;
+                while (level.size() > fanIn)
+                    level = mergePass(level, fanIn);
+                output = new LoserTree(iterators(level), comparator);
+            }
+            output.open();
+        } catch (IOException e) {
+            throw new DbException("could not read sorted run: " + e.getMessage());
+        }
+    }
+
+    private SpillFile writeRun(ArrayList<Tuple> buffer, boolean sorted)
+            throws DbException {
+        if (!sorted)
+            Collections.sort(buffer, comparator);
+        try {
+            SpillFile run = new SpillFile(td);
+            spills.add(run);
+            for (Tuple t : buffer)
+                run.add(t);
+            run.finish();
+            return run;
+        } catch (IOException e) {
+            throw new DbException("could not write sorted run: " + e.getMessage());
+        }
+    }
+
+    /** Merges groups of fanIn runs into longer runs. */
+    private ArrayList<SpillFile> mergePass(ArrayList<SpillFile> level, int fanIn)
+            throws DbException, TransactionAbortedException, IOException {
+        ArrayList<SpillFile> merged = new ArrayList<SpillFile>();
+        for (int i = 0; i < level.size(); i += fanIn) {
+            List<SpillFile> group = level.subList(i, Math.min(i + fanIn, level.size()));
+            LoserTree tree = new LoserTree(iterators(group), comparator);
+            SpillFile out = new SpillFile(td);
+            spills.add(out);
+            tree.open();
+            while (tree.hasNext())
+                out.add(tree.next());
+            tree.close();
+            out.finish();
+            merged.add(out);
+        }
+        for (SpillFile f : level)
+            f.delete();
+        return merged;
+    }
+
+    private static DbFileIterator[] iterators(List<SpillFile> files) throws IOException {
+        DbFileIterator[] its = new DbFileIterator[files.size()];
+        for (int i = 0; i < its.length; i++)
+            its[i] = files.get(i).iterator();
+        return its;
+    }
+
+    private void cleanup() {
+        if (output != null)
+            output.close();
+        output = null;
+        memTuples = null;
+        numRuns = 0;
+        if (spills != null) {
+            for (SpillFile f : spills)
+                f.delete();
+            spills = null;
+        }
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns tuples from the child operator
+     * in order
+     *
+     * @return The next tuple in the ordering, or null if there are no more
+     *         tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (memTuples != null)
+            return memPos < memTuples.size() ? memTuples.get(memPos++) : null;
+        if (output != null && output.hasNext())
+            return output.next();
+        return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+
+    /** Reads a list of runs back one after another. */
+    private static class ConcatIterator implements DbFileIterator {
+        private final DbFileIterator[] parts;
+        private int cur;
+
+        ConcatIterator(DbFileIterator[] parts) {
+            this.parts = parts;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            cur = 0;
+            if (parts.length > 0)
+                parts[0].open();
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            while (cur < parts.length) {
+                if (parts[cur].hasNext())
+                    return true;
+                parts[cur].close();
+                if (++cur < parts.length)
+                    parts[cur].open();
+            }
+            return false;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return parts[cur].next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            for (DbFileIterator part : parts)
+                part.close();
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * PageBloomFilters holds a {@link BloomFilter} of the values of each of
+ * some columns of a HeapFile, for each block of a fixed number of pages. A
+ * scan with an equality predicate on one of the columns skips every block
+ * whose filter does not contain the value, which on a table not ordered by
+ * the column is most of them, where a {@link ZoneMap} would skip none.
+ * <p>
+ * Filters are sized from the number of tuples a block holds, for a false
+ * positive rate of DEFAULT_FALSE_POSITIVE_RATE when the blocks are full;
+ * {@link #getFalsePositiveRate} estimates the rate actually reached.
+ * <p>
+ * Like a zone map, the filters are kept in a sidecar file next to the
+ * HeapFile, with a fixed-size record per block after a header, and the
+ * sidecar is only loaded if it is at least as new as the HeapFile.
+ * Inserted tuples are added to the filter of their block in memory, and
+ * the block's record is written whenever the HeapFile writes one of its
+ * pages. Values are never removed, so deleted tuples only add false
+ * positives. A block without a record, because its pages were added while
+ * the filters were not loaded, is never skipped.
+ */
+public class PageBloomFilters {
+
+    /** The false positive rate filters are sized for */
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+    private final File file;
+    private final TupleDesc td;
+    private final int[] fields;
+    private final int pagesPerBlock;
+    private final int numWords;
+    private final int numHashes;
+    private final int headerSize;
+    private final int recordSize;
+    /** The filters of each block, one per indexed field, or null if unknown */
+    private final ArrayList<BloomFilter[]> blocks = new ArrayList<BloomFilter[]>();
+
+    private PageBloomFilters(File file, TupleDesc td, int[] fields, int pagesPerBlock,
+            int numWords, int numHashes) {
+        this.file = file;
+        this.td = td;
+        this.fields = fields;
+        this.pagesPerBlock = pagesPerBlock;
+        this.numWords = numWords;
+        this.numHashes = numHashes;
+        headerSize = 4 * (4 + fields.length);
+        recordSize = 1 + fields.length * numWords * 8;
+    }
+
+    /** @return the sidecar file holding the Bloom filters of a HeapFile */
+    public static File sidecar(HeapFile f) {
+        return new File(f.getFile().getPath() + ".bf");
+    }
+
+    private BloomFilter[] newBlock() {
+        BloomFilter[] b = new BloomFilter[fields.length];
+        for (int i = 0; i < fields.length; i++)
+            b[i] = new BloomFilter(numWords, numHashes);
+        return b;
+    }
+
+    private void add(BloomFilter[] b, Tuple t) {
+        for (int i = 0; i < fields.length; i++)
+            b[i].add(t.getField(fields[i]));
+    }
+
+    private void add(BloomFilter[] b, HeapPage p) {
+        Iterator<Tuple> it = p.iterator();
+        while (it.hasNext())
+            add(b, it.next());
+    }
+
+    /**
+     * Builds Bloom filters of some fields of a HeapFile by scanning it, and
+     * writes them to the sidecar. As for {@link ZoneMap#build}, a dirty
+     * page also contributes the values of its before image.
+     *
+     * @param fields the fields to keep filters of
+     * @param pagesPerBlock the number of pages each filter covers
+     */
+    static PageBloomFilters build(TransactionId tid, HeapFile f, int[] fields, int pagesPerBlock)
+            throws DbException, TransactionAbortedException, IOException {
+        if (fields.length == 0 || pagesPerBlock < 1)
+            throw new IllegalArgumentException("no fields or invalid block size");
+        for (int field : fields) {
+            if (field < 0 || field >= f.getTupleDesc().numFields())
+                throw new IllegalArgumentException("invalid field " + field);
+        }
+        BloomFilter proto = BloomFilter.create(f.tuplesPerPage() * pagesPerBlock,
+                DEFAULT_FALSE_POSITIVE_RATE);
+        PageBloomFilters bf = new PageBloomFilters(sidecar(f), f.getTupleDesc(), fields.clone(),
+                pagesPerBlock, proto.getNumWords(), proto.getNumHashes());
+        int n = f.numPages();
+        for (int i = 0; i < n; i++) {
+            if (i % pagesPerBlock == 0)
+                bf.blocks.add(bf.newBlock());
+            BloomFilter[] b = bf.blocks.get(i / pagesPerBlock);
+            HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+            bf.add(b, p);
+            if (p.isDirty() != null)
+                bf.add(b, p.getBeforeImage());
+        }
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(bf.file)));
+        try {
+            dos.writeInt(pagesPerBlock);
+            dos.writeInt(bf.numWords);
+            dos.writeInt(bf.numHashes);
+            dos.writeInt(fields.length);
+            for (int field : fields)
+                dos.writeInt(field);
+            for (BloomFilter[] b : bf.blocks)
+                bf.writeBlock(dos, b);
+        } finally {
+            dos.close();
+        }
+        return bf;
+    }
+
+    /**
+     * Loads the Bloom filters of a HeapFile from its sidecar.
+     *
+     * @return the filters, or null if there is no sidecar, it cannot be
+     *         read, it does not match the file, or it is older than the file
+     */
+    static PageBloomFilters load(HeapFile f) {
+        File sc = sidecar(f);
+        if (!sc.exists() || sc.lastModified() < f.getFile().lastModified())
+            return null;
+        try {
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(sc)));
+            try {
+                int pagesPerBlock = dis.readInt();
+                int numWords = dis.readInt();
+                int numHashes = dis.readInt();
+                int[] fields = new int[dis.readInt()];
+                if (pagesPerBlock < 1 || numWords < 1 || numHashes < 1 || fields.length < 1)
+                    return null;
+                for (int i = 0; i < fields.length; i++) {
+                    fields[i] = dis.readInt();
+                    if (fields[i] < 0 || fields[i] >= f.getTupleDesc().numFields())
+                        return null;
+                }
+                PageBloomFilters bf = new PageBloomFilters(sc, f.getTupleDesc(), fields,
+                        pagesPerBlock, numWords, numHashes);
+                long n = (sc.length() - bf.headerSize) / bf.recordSize;
+                for (long i = 0; i < n; i++)
+                    bf.blocks.add(bf.readBlock(dis));
+                return bf;
+            } finally {
+                dis.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void writeBlock(DataOutputStream dos, BloomFilter[] b) throws IOException {
+        if (b == null) {
+            dos.write(new byte[recordSize]);
+            return;
+        }
+        dos.writeByte(1);
+        for (BloomFilter filter : b)
+            filter.serialize(dos);
+    }
+
+    private BloomFilter[] readBlock(DataInputStream dis) throws IOException {
+        boolean known = dis.readByte() != 0;
+        BloomFilter[] b = newBlock();
+        for (BloomFilter filter : b)
+            filter.deserialize(dis);
+        return known ? b : null;
+    }
+
+    /**
+     * Adds the tuples of a page the HeapFile writes to the filters of its
+     * block, and writes the block to the sidecar. A block without filters
+     * only gets them when its first page is appended to the file, since
+     * the values on its other pages are not known.
+     *
+     * @param numPages the number of pages of the file after the write
+     */
+    synchronized void update(HeapPage p, int numPages) throws IOException {
+        int pgNo = p.getId().pageNumber();
+        int block = pgNo / pagesPerBlock;
+        while (blocks.size() <= block)
+            blocks.add(null);
+        BloomFilter[] b = blocks.get(block);
+        if (b == null) {
+            if (pgNo % pagesPerBlock != 0 || pgNo != numPages - 1)
+                return;
+            b = newBlock();
+            blocks.set(block, b);
+        }
+        add(b, p);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(recordSize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        writeBlock(dos, b);
+        dos.flush();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(headerSize + (long) block * recordSize);
+            raf.write(baos.toByteArray());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /** Adds a tuple inserted into a page to the filters of its block. */
+    synchronized void add(int pgNo, Tuple t) {
+        int block = pgNo / pagesPerBlock;
+        if (block < blocks.size() && blocks.get(block) != null)
+            add(blocks.get(block), t);
+    }
+
+    /** @return the sidecar file these filters are kept in */
+    public File getFile() {
+        return file;
+    }
+
+    /** @return the fields these filters are kept for */
+    public int[] getFields() {
+        return fields.clone();
+    }
+
+    /** @return the number of pages each filter covers */
+    public int getPagesPerBlock() {
+        return pagesPerBlock;
+    }
+
+    /** @return the size of each filter, in bytes */
+    public int getFilterSize() {
+        return numWords * 8;
+    }
+
+    private int indexOf(int field) {
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] == field)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the false positive rate of the filters of a field, averaged
+     * over the blocks and estimated from the bits that are set: the
+     * fraction of the blocks without a value that a scan for it still reads.
+     */
+    public synchronized double getFalsePositiveRate(int field) {
+        int i = indexOf(field);
+        if (i < 0)
+            throw new IllegalArgumentException("no filter on field " + field);
+        double sum = 0;
+        int n = 0;
+        for (BloomFilter[] b : blocks) {
+            if (b != null) {
+                sum += b[i].getFalsePositiveRate();
+                n++;
+            }
+        }
+        return n == 0 ? 0 : sum / n;
+    }
+
+    /**
+     * @return false if no tuple on the specified page can satisfy every one
+     *         of the equality predicates on fields with filters; other
+     *         predicates are ignored
+     */
+    public synchronized boolean mayMatch(int pgNo, Predicate... preds) {
+        int block = pgNo / pagesPerBlock;
+        if (block >= blocks.size() || blocks.get(block) == null)
+            return true;
+        BloomFilter[] b = blocks.get(block);
+        for (Predicate p : preds) {
+            int i = indexOf(p.getField());
+            // an operand of another type hashes differently, yet may be equal
+            if (i >= 0 && p.getOp() == Predicate.Op.EQUALS
+                    && p.getOperand().getType() == td.getFieldType(p.getField())
+                    && !b[i].mightContain(p.getOperand()))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return a PagePruner that skips the pages of blocks whose filters rule
+     *         out one of the equality predicates
+     */
+    public PagePruner pruner(final Predicate... preds) {
+        return new PagePruner() {
+            public boolean mayMatch(int pgNo) {
+                return PageBloomFilters.this.mayMatch(pgNo, preds);
+            }
+        };
+    }
+}
@@ -0,0 +1,194 @@
+package simpledb;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.ArrayList;
+
+/**
+ * PageDelta is the change an update made to a page, as logged by
+ * LogFile: the byte ranges of the page's data that differ between its
+ * before and after images, with their old and new contents. For a page
+ * of slotted tuples, these are the slots written and the header bytes
+ * holding their bits, rather than two images of the whole page.
+ * <p>
+ * Ranges fewer than MERGE_GAP bytes apart are merged, since each range
+ * costs two integers in the log. A range may so cover bytes the update
+ * left unchanged, such as the bits of other slots in a header byte, and
+ * applying the delta sets them back to the values they had then: a
+ * delta only applies to the page as the update found or left it, which
+ * {@link #appliesTo} checks.
+ */
+public class PageDelta {
+
+    /** Ranges of changed bytes closer than this are logged as one */
+    static final int MERGE_GAP = 8;
+
+    private final PageId pid;
+    private final int[] offsets;
+    private final byte[][] before;
+    private final byte[][] after;
+
+    private PageDelta(PageId pid, int[] offsets, byte[][] before, byte[][] after) {
+        this.pid = pid;
+        this.offsets = offsets;
+        this.before = before;
+        this.after = after;
+    }
+
+    /**
+     * Computes the delta between two images of a page.
+     *
+     * @throws IllegalArgumentException if they are not images of the same page
+     */
+    public static PageDelta diff(Page beforePage, Page afterPage) {
+        if (!beforePage.getId().equals(afterPage.getId()))
+            throw new IllegalArgumentException("images of different pages");
+        byte[] b = beforePage.getPageData(), a = afterPage.getPageData();
+        if (b.length != a.length)
+            throw new IllegalArgumentException("page images differ in size");
+        ArrayList<int[]> ranges = new ArrayList<int[]>();
+        int i = 0;
+        while (i < b.length) {
+            if (b[i] == a[i]) {
+                i++;
+                continue;
+            }
+            int start = i, end = i + 1;
+            for (i = end; i < b.length && i - end < MERGE_GAP; i++) {
+                if (b[i] != a[i])
+                    end = i + 1;
+            }
+            ranges.add(new int[] { start, end });
+        }
+        int[] offsets = new int[ranges.size()];
+        byte[][] before = new byte[ranges.size()][], after = new byte[ranges.size()][];
+        for (int r = 0; r < offsets.length; r++) {
+            int start = ranges.get(r)[0], end = ranges.get(r)[1];
+            offsets[r] = start;
+            before[r] = new byte[end - start];
+            after[r] = new byte[end - start];
+            System.arraycopy(b, start, before[r], 0, end - start);
+            System.arraycopy(a, start, after[r], 0, end - start);
+        }
+        return new PageDelta(beforePage.getId(), offsets, before, after);
+    }
+
+    /** @return the page this delta changes */
+    public PageId getPageId() {
+        return pid;
+    }
+
+    /** @return the number of ranges of changed bytes */
+    public int getNumRanges() {
+        return offsets.length;
+    }
+
+    /** @return the number of bytes in the changed ranges */
+    public int getNumBytes() {
+        int n = 0;
+        for (byte[] r : after)
+            n += r.length;
+        return n;
+    }
+
+    /**
+     * Checks whether the changed ranges of the data of a page hold the
+     * images this delta replaces, so that applying it changes nothing else.
+     *
+     * @param redo true to check for the before images, false for the
+     *            after images
+     */
+    public boolean appliesTo(byte[] data, boolean redo) {
+        byte[][] images = redo ? before : after;
+        for (int r = 0; r < offsets.length; r++) {
+            for (int i = 0; i < images[r].length; i++) {
+                if (data[offsets[r] + i] != images[r][i])
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Applies this delta to the data of a page.
+     *
+     * @param redo true to set the changed ranges to their after images,
+     *            false to set them to their before images
+     * @return a changed copy of the data
+     */
+    public byte[] apply(byte[] data, boolean redo) {
+        byte[] out = data.clone();
+        byte[][] images = redo ? after : before;
+        for (int r = 0; r < offsets.length; r++)
+            System.arraycopy(images[r], 0, out, offsets[r], images[r].length);
+        return out;
+    }
+
+    /**
+     * Applies this delta to a page, like {@link #apply(byte[], boolean)}.
+     * The page's class must have a constructor taking its id and data,
+     * as for the full page images LogFile reads.
+     *
+     * @return a new page with the changed data
+     */
+    public Page apply(Page page, boolean redo) throws IOException {
+        byte[] data = apply(page.getPageData(), redo);
+        for (Constructor<?> c : page.getClass().getDeclaredConstructors()) {
+            Class<?>[] params = c.getParameterTypes();
+            if (params.length == 2 && params[0].isInstance(pid) && params[1] == byte[].class) {
+                try {
+                    return (Page) c.newInstance(pid, data);
+                } catch (InstantiationException e) {
+                    throw new IOException(e.toString());
+                } catch (IllegalAccessException e) {
+                    throw new IOException(e.toString());
+                } catch (InvocationTargetException e) {
+                    throw new IOException(e.getCause().toString());
+                }
+            }
+        }
+        throw new IOException("cannot rebuild a page of class " + page.getClass().getName());
+    }
+
+    /** Writes this delta, as read back by {@link #read}. */
+    public void write(DataOutput out) throws IOException {
+        int[] pageInfo = pid.serialize();
+        out.writeUTF(pid.getClass().getName());
+        out.writeInt(pageInfo.length);
+        for (int v : pageInfo)
+            out.writeInt(v);
+        out.writeInt(offsets.length);
+        for (int r = 0; r < offsets.length; r++) {
+            out.writeInt(offsets[r]);
+            out.writeInt(after[r].length);
+            out.write(before[r]);
+            out.write(after[r]);
+        }
+    }
+
+    /** Reads a delta written by {@link #write}. */
+    public static PageDelta read(DataInput in) throws IOException {
+        String idClassName = in.readUTF();
+        Object[] idArgs = new Object[in.readInt()];
+        for (int i = 0; i < idArgs.length; i++)
+            idArgs[i] = Integer.valueOf(in.readInt());
+        PageId pid;
+        try {
+            pid = (PageId) Class.forName(idClassName).getDeclaredConstructors()[0].newInstance(idArgs);
+        } catch (Exception e) {
+            throw new IOException("cannot rebuild page id of class " + idClassName + ": " + e);
+        }
+        int n = in.readInt();
+        int[] offsets = new int[n];
+        byte[][] before = new byte[n][], after = new byte[n][];
+        for (int r = 0; r < n; r++) {
+            offsets[r] = in.readInt();
+            int len = in.readInt();
+            before[r] = new byte[len];
+            after[r] = new byte[len];
+            in.readFully(before[r]);
+            in.readFully(after[r]);
+        }
+        return new PageDelta(pid, offsets, before, after);
+    }
+}
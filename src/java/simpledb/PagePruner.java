@@ -0,0 +1,18 @@
+package simpledb;
+
+/**
+ * A PagePruner tells a scan of a HeapFile which pages cannot hold a tuple
+ * it wants, so that the scan can skip them without asking the BufferPool
+ * for them. It may answer true for a page without any wanted tuple, but
+ * never false for a page with one.
+ *
+ * @see HeapFile#iterator(TransactionId, PagePruner)
+ */
+public interface PagePruner {
+
+    /**
+     * @param pgNo the number of a page of the file being scanned
+     * @return false if no tuple on the page can be wanted by the scan
+     */
+    boolean mayMatch(int pgNo);
+}
@@ -0,0 +1,210 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * PushPipeline describes a push-based pipeline over one HeapFile: a scan,
+ * followed by filter and projection stages, ending in a sink that collects,
+ * counts or aggregates the tuples. A terminal method runs the pipeline on a
+ * {@link MorselScheduler}, which gives every worker its own copy of the
+ * stages and sink, and then merges the per-worker sinks into the result.
+ * <p>
+ * Unlike an operator tree, no stage returns tuples to its caller: a tuple
+ * read from a page is pushed through the stages to the sink in a single
+ * call chain, and each worker's sink state is private to it until the end.
+ * Aggregates are held in memory; use the {@link Aggregate} operator for
+ * grouped aggregates that may not fit.
+ */
+public class PushPipeline {
+
+    private final HeapFile file;
+    private final TransactionId tid;
+    private final ArrayList<Step> steps = new ArrayList<Step>();
+    private TupleDesc td;
+
+    /**
+     * Creates a pipeline that scans the specified file.
+     *
+     * @param file the file to scan
+     * @param tid the transaction the pipeline runs as a part of
+     */
+    public PushPipeline(HeapFile file, TransactionId tid) {
+        this.file = file;
+        this.tid = tid;
+        this.td = file.getTupleDesc();
+    }
+
+    /** @return the TupleDesc of the tuples reaching the sink */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Adds a stage that drops the tuples not satisfying the predicate.
+     *
+     * @return this pipeline
+     */
+    public PushPipeline filter(final Predicate p) {
+        steps.add(new Step() {
+            PushStage create(final PushStage next) {
+                return new PushStage() {
+                    public void push(Tuple t) throws DbException, TransactionAbortedException {
+                        if (p.filter(t))
+                            next.push(t);
+                    }
+
+                    public void finish() throws DbException, TransactionAbortedException {
+                        next.finish();
+                    }
+                };
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Adds a stage that keeps only the specified fields of each tuple, in the
+     * order given.
+     *
+     * @return this pipeline
+     */
+    public PushPipeline project(int[] fields) {
+        final int[] keep = fields.clone();
+        Type[] types = new Type[keep.length];
+        String[] names = new String[keep.length];
+        for (int i = 0; i < keep.length; i++) {
+            types[i] = td.getFieldType(keep[i]);
+            names[i] = td.getFieldName(keep[i]);
+        }
+        final TupleDesc out = new TupleDesc(types, names);
+        td = out;
+        steps.add(new Step() {
+            PushStage create(final PushStage next) {
+                return new PushStage() {
+                    public void push(Tuple t) throws DbException, TransactionAbortedException {
+                        Tuple p = new Tuple(out);
+                        for (int i = 0; i < keep.length; i++)
+                            p.setField(i, t.getField(keep[i]));
+                        next.push(p);
+                    }
+
+                    public void finish() throws DbException, TransactionAbortedException {
+                        next.finish();
+                    }
+                };
+            }
+        });
+        return this;
+    }
+
+    /** Runs the pipeline with the sinks created by the specified factory. */
+    private void run(MorselScheduler scheduler, final PushStage.Factory sinks)
+            throws DbException, TransactionAbortedException {
+        scheduler.run(file, tid, new PushStage.Factory() {
+            public PushStage create(int worker) {
+                PushStage stage = sinks.create(worker);
+                for (int i = steps.size() - 1; i >= 0; i--)
+                    stage = steps.get(i).create(stage);
+                return stage;
+            }
+        });
+    }
+
+    /**
+     * Runs the pipeline and returns the tuples reaching the sink, in no
+     * particular order.
+     */
+    public List<Tuple> collect(MorselScheduler scheduler)
+            throws DbException, TransactionAbortedException {
+        final ArrayList<ArrayList<Tuple>> partials = new ArrayList<ArrayList<Tuple>>();
+        for (int w = 0; w < scheduler.numWorkers(); w++)
+            partials.add(new ArrayList<Tuple>());
+        run(scheduler, new PushStage.Factory() {
+            public PushStage create(int worker) {
+                final ArrayList<Tuple> out = partials.get(worker);
+                return new PushStage() {
+                    public void push(Tuple t) {
+                        out.add(t);
+                    }
+
+                    public void finish() {
+                    }
+                };
+            }
+        });
+        ArrayList<Tuple> result = new ArrayList<Tuple>();
+        for (ArrayList<Tuple> p : partials)
+            result.addAll(p);
+        return result;
+    }
+
+    /**
+     * Runs the pipeline and returns the number of tuples reaching the sink.
+     */
+    public long count(MorselScheduler scheduler)
+            throws DbException, TransactionAbortedException {
+        final long[] counts = new long[scheduler.numWorkers()];
+        run(scheduler, new PushStage.Factory() {
+            public PushStage create(final int worker) {
+                return new PushStage() {
+                    private long n;
+
+                    public void push(Tuple t) {
+                        n++;
+                    }
+
+                    public void finish() {
+                        counts[worker] = n;
+                    }
+                };
+            }
+        });
+        long total = 0;
+        for (long c : counts)
+            total += c;
+        return total;
+    }
+
+    /**
+     * Runs the pipeline into an aggregate: every worker aggregates its
+     * tuples into its own HashAggregator, and the partial aggregates are
+     * merged once all workers are done.
+     *
+     * @param afield the field to aggregate over
+     * @param gfield the field to group by, or Aggregator.NO_GROUPING
+     * @param aop the aggregation operator; only COUNT is supported over
+     *            STRING_TYPE fields
+     * @return an iterator over the (group, aggregate) or (aggregate) tuples
+     */
+    public DbIterator aggregate(MorselScheduler scheduler, final int afield, final int gfield,
+            final Aggregator.Op aop) throws DbException, TransactionAbortedException {
+        if (aop != Aggregator.Op.COUNT && td.getFieldType(afield) != Type.INT_TYPE)
+            throw new IllegalArgumentException("only COUNT is supported over string fields");
+        final Type gtype = gfield == Aggregator.NO_GROUPING ? null : td.getFieldType(gfield);
+        final HashAggregator[] partials = new HashAggregator[scheduler.numWorkers()];
+        for (int w = 0; w < partials.length; w++)
+            partials[w] = new HashAggregator(gfield, gtype, afield, aop, Integer.MAX_VALUE);
+        run(scheduler, new PushStage.Factory() {
+            public PushStage create(int worker) {
+                final HashAggregator agg = partials[worker];
+                return new PushStage() {
+                    public void push(Tuple t) {
+                        agg.mergeTupleIntoGroup(t);
+                    }
+
+                    public void finish() {
+                    }
+                };
+            }
+        });
+        for (int w = 1; w < partials.length; w++)
+            partials[0].merge(partials[w]);
+        return partials[0].iterator();
+    }
+
+    /** A stage of the pipeline, instantiated once per worker. */
+    private static abstract class Step {
+        /** @return a new instance of this stage that pushes into next */
+        abstract PushStage create(PushStage next);
+    }
+}
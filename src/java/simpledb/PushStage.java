@@ -0,0 +1,33 @@
+package simpledb;
+
+/**
+ * A stage of a push-based pipeline run by a {@link MorselScheduler}. Tuples
+ * are pushed into the first stage of a pipeline, which pushes the tuples it
+ * produces into the next one, down to a sink that keeps the results.
+ * <p>
+ * Each worker thread runs its own copy of the pipeline, so a stage is only
+ * ever called from one thread and needs no synchronization.
+ */
+public interface PushStage {
+
+    /**
+     * Processes one input tuple.
+     */
+    public void push(Tuple t) throws DbException, TransactionAbortedException;
+
+    /**
+     * Called once after the worker has pushed its last tuple.
+     */
+    public void finish() throws DbException, TransactionAbortedException;
+
+    /**
+     * Creates the copy of a pipeline that one worker runs.
+     */
+    public interface Factory {
+        /**
+         * @param worker the index of the worker the pipeline is for
+         * @return the first stage of the pipeline
+         */
+        public PushStage create(int worker);
+    }
+}
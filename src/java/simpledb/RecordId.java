@@ -51,9 +51,10 @@ public class RecordId implements Serializable {
      */
     @Override
     public boolean equals(Object o) {
-        return hashCode() == o.hashCode();
-        //return (pid == ((RecordId)o).getPageId() &&
-        //      tupleNum == ((RecordId)o).tupleno());
+        // hash codes collide, and RecordIds share the lock table with other keys
+        if (!(o instanceof RecordId))
+            return false;
+        return pid.equals(((RecordId) o).getPageId()) && tupleNum == ((RecordId) o).tupleno();
     }
 
     /**
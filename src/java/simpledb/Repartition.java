@@ -0,0 +1,45 @@
+package simpledb;
+
+/**
+ * Repartition runs its children in parallel and splits their tuples among
+ * its outputs by the hash of a field, so that all tuples with equal values
+ * of the field reach the same output. Each output can then be grouped or
+ * joined on that field independently of the others, e.g. by an Aggregate per
+ * output under a {@link Gather}.
+ *
+ * @see Exchange
+ */
+public class Repartition extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    // independent of the seeds hash joins and aggregates partition with, so
+    // an output's tuples still spread over their partitions
+    private static final int SEED = 16;
+
+    private final int field;
+
+    /**
+     * Constructor.
+     *
+     * @param children
+     *            the pipelines to run in parallel, one thread each
+     * @param field
+     *            the index of the field to partition on
+     * @param numOutputs
+     *            the number of outputs
+     */
+    public Repartition(DbIterator[] children, int field, int numOutputs) {
+        super(children, numOutputs);
+        this.field = field;
+    }
+
+    public int getPartitionField() {
+        return field;
+    }
+
+    protected int route(Tuple t) {
+        int h = TupleHashTable.mix(TupleHashTable.hash(t.getField(field)), SEED);
+        return (h & 0x7fffffff) % numOutputs();
+    }
+}
@@ -0,0 +1,600 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * RoaringBitmap is a compressed set of non-negative ints, in the style of
+ * Roaring bitmaps. The ints are grouped by their high 16 bits into chunks
+ * of 2^16, and each non-empty chunk stores its low 16 bits in a container
+ * chosen by its cardinality: a sorted array for at most
+ * {@link #ARRAY_MAX} values, and a plain bitmap of 2^16 bits above that.
+ * Sparse sets thus take about two bytes per value and dense sets about one
+ * bit per value.
+ * <p>
+ * The set operations {@link #and}, {@link #or} and {@link #andNot} work
+ * chunk by chunk on the containers and return new bitmaps, leaving their
+ * operands unchanged.
+ *
+ * @see BitmapIndex
+ */
+public class RoaringBitmap {
+
+    /** The largest cardinality kept in an array container. */
+    static final int ARRAY_MAX = 4096;
+
+    /** The number of 64-bit words of a bitmap container. */
+    private static final int WORDS = 1 << 10;
+
+    /** The high 16 bits of each chunk, in increasing order. */
+    private int[] keys = new int[4];
+    private Container[] containers = new Container[4];
+    private int size;
+
+    /** Creates an empty bitmap. */
+    public RoaringBitmap() {
+    }
+
+    /** @return a bitmap holding the specified values */
+    public static RoaringBitmap of(int... values) {
+        RoaringBitmap b = new RoaringBitmap();
+        for (int v : values)
+            b.add(v);
+        return b;
+    }
+
+    private int find(int key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private static void checkValue(int v) {
+        if (v < 0)
+            throw new IllegalArgumentException("negative value " + v);
+    }
+
+    /** Adds v to this set. */
+    public void add(int v) {
+        checkValue(v);
+        int i = find(v >>> 16);
+        if (i < 0) {
+            i = -i - 1;
+            insertContainer(i, v >>> 16, new ArrayContainer());
+        }
+        containers[i] = containers[i].add((char) v);
+    }
+
+    private void insertContainer(int i, int key, Container c) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(containers, i, containers, i + 1, size - i);
+        keys[i] = key;
+        containers[i] = c;
+        size++;
+    }
+
+    private void append(int key, Container c) {
+        if (c.cardinality() == 0)
+            return;
+        insertContainer(size, key, c);
+    }
+
+    /** Removes v from this set, if it is present. */
+    public void remove(int v) {
+        checkValue(v);
+        int i = find(v >>> 16);
+        if (i < 0)
+            return;
+        containers[i] = containers[i].remove((char) v);
+        if (containers[i].cardinality() == 0) {
+            System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+            System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+            containers[--size] = null;
+        }
+    }
+
+    /** @return true if v is in this set */
+    public boolean contains(int v) {
+        if (v < 0)
+            return false;
+        int i = find(v >>> 16);
+        return i >= 0 && containers[i].contains((char) v);
+    }
+
+    /** @return the number of values in this set */
+    public int getCardinality() {
+        int n = 0;
+        for (int i = 0; i < size; i++)
+            n += containers[i].cardinality();
+        return n;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** @return the number of bytes the containers of this set occupy */
+    public int getSizeInBytes() {
+        int n = 0;
+        for (int i = 0; i < size; i++)
+            n += 4 + containers[i].sizeInBytes();
+        return n;
+    }
+
+    /** @return a new bitmap holding the same values as this one */
+    public RoaringBitmap copy() {
+        RoaringBitmap r = new RoaringBitmap();
+        for (int i = 0; i < size; i++)
+            r.append(keys[i], containers[i].copy());
+        return r;
+    }
+
+    /** @return a new bitmap holding the values in both this set and other */
+    public RoaringBitmap and(RoaringBitmap other) {
+        RoaringBitmap r = new RoaringBitmap();
+        int i = 0, j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                r.append(keys[i], containers[i].and(other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return r;
+    }
+
+    /** @return a new bitmap holding the values in this set or in other */
+    public RoaringBitmap or(RoaringBitmap other) {
+        RoaringBitmap r = new RoaringBitmap();
+        int i = 0, j = 0;
+        while (i < size || j < other.size) {
+            if (j == other.size || (i < size && keys[i] < other.keys[j])) {
+                r.append(keys[i], containers[i].copy());
+                i++;
+            } else if (i == size || keys[i] > other.keys[j]) {
+                r.append(other.keys[j], other.containers[j].copy());
+                j++;
+            } else {
+                r.append(keys[i], containers[i].or(other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return r;
+    }
+
+    /** @return a new bitmap holding the values in this set but not in other */
+    public RoaringBitmap andNot(RoaringBitmap other) {
+        RoaringBitmap r = new RoaringBitmap();
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            while (j < other.size && other.keys[j] < keys[i])
+                j++;
+            if (j < other.size && other.keys[j] == keys[i])
+                r.append(keys[i], containers[i].andNot(other.containers[j]));
+            else
+                r.append(keys[i], containers[i].copy());
+        }
+        return r;
+    }
+
+    /** An iterator over ints that does not box them. */
+    public interface IntIterator {
+        boolean hasNext();
+
+        /** @throws NoSuchElementException if there are no more values */
+        int next();
+    }
+
+    /** @return an iterator over the values of this set in increasing order */
+    public IntIterator iterator() {
+        return new IntIterator() {
+            private int i = 0;
+            private int pos = 0;
+            private int next = advance();
+
+            /** @return the next value at or after container i, position pos, or -1 */
+            private int advance() {
+                while (i < size) {
+                    int low = containers[i].nextValue(pos);
+                    if (low >= 0) {
+                        pos = low + 1;
+                        return (keys[i] << 16) | low;
+                    }
+                    i++;
+                    pos = 0;
+                }
+                return -1;
+            }
+
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            public int next() {
+                if (next < 0)
+                    throw new NoSuchElementException();
+                int v = next;
+                next = advance();
+                return v;
+            }
+        };
+    }
+
+    /** @return the values of this set in increasing order */
+    public int[] toArray() {
+        int[] a = new int[getCardinality()];
+        IntIterator it = iterator();
+        for (int k = 0; it.hasNext(); k++)
+            a[k] = it.next();
+        return a;
+    }
+
+    /**
+     * Writes this set to dos: the number of containers, then for each its
+     * key, kind and contents.
+     */
+    public void serialize(DataOutputStream dos) throws IOException {
+        dos.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            dos.writeInt(keys[i]);
+            containers[i].serialize(dos);
+        }
+    }
+
+    /** Reads a set written by {@link #serialize}. */
+    public static RoaringBitmap deserialize(DataInputStream dis) throws IOException {
+        RoaringBitmap b = new RoaringBitmap();
+        int n = dis.readInt();
+        for (int i = 0; i < n; i++) {
+            int key = dis.readInt();
+            Container c = dis.readBoolean() ? BitmapContainer.read(dis) : ArrayContainer.read(dis);
+            b.append(key, c);
+        }
+        return b;
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof RoaringBitmap))
+            return false;
+        RoaringBitmap other = (RoaringBitmap) o;
+        if (size != other.size)
+            return false;
+        for (int i = 0; i < size; i++) {
+            if (keys[i] != other.keys[i] || !containers[i].sameValues(other.containers[i]))
+                return false;
+        }
+        return true;
+    }
+
+    public int hashCode() {
+        int h = 0;
+        IntIterator it = iterator();
+        while (it.hasNext())
+            h = h * 31 + it.next();
+        return h;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        IntIterator it = iterator();
+        while (it.hasNext()) {
+            sb.append(it.next());
+            if (it.hasNext())
+                sb.append(", ");
+        }
+        return sb.append("}").toString();
+    }
+
+    /**
+     * The low 16 bits of the values of one chunk. Updates may return a
+     * different container, when the cardinality crosses ARRAY_MAX.
+     */
+    private static abstract class Container {
+        abstract int cardinality();
+        abstract boolean contains(char v);
+        abstract Container add(char v);
+        abstract Container remove(char v);
+        abstract Container copy();
+        abstract int sizeInBytes();
+
+        /** @return the smallest value not less than from, or -1 if there is none */
+        abstract int nextValue(int from);
+
+        abstract void serialize(DataOutputStream dos) throws IOException;
+
+        /** Intersects containers of which at least one is an array container. */
+        Container and(Container other) {
+            ArrayContainer small = (ArrayContainer) (this instanceof ArrayContainer ? this : other);
+            Container big = small == this ? other : this;
+            ArrayContainer r = new ArrayContainer();
+            for (int k = 0; k < small.card; k++) {
+                if (big.contains(small.values[k]))
+                    r.appendValue(small.values[k]);
+            }
+            return r;
+        }
+
+        Container or(Container other) {
+            if (this instanceof ArrayContainer && other instanceof ArrayContainer
+                    && cardinality() + other.cardinality() <= ARRAY_MAX)
+                return ((ArrayContainer) this).merge((ArrayContainer) other);
+            BitmapContainer r = toBitmap(this);
+            if (other instanceof BitmapContainer) {
+                r.orWith((BitmapContainer) other);
+            } else {
+                ArrayContainer a = (ArrayContainer) other;
+                for (int k = 0; k < a.card; k++)
+                    r.set(a.values[k]);
+            }
+            return r.normalize();
+        }
+
+        Container andNot(Container other) {
+            if (this instanceof ArrayContainer) {
+                ArrayContainer a = (ArrayContainer) this;
+                ArrayContainer r = new ArrayContainer();
+                for (int k = 0; k < a.card; k++) {
+                    if (!other.contains(a.values[k]))
+                        r.appendValue(a.values[k]);
+                }
+                return r;
+            }
+            BitmapContainer r = (BitmapContainer) copy();
+            if (other instanceof BitmapContainer) {
+                r.andNotWith((BitmapContainer) other);
+            } else {
+                ArrayContainer a = (ArrayContainer) other;
+                for (int k = 0; k < a.card; k++)
+                    r.clear(a.values[k]);
+            }
+            return r.normalize();
+        }
+
+        boolean sameValues(Container other) {
+            if (cardinality() != other.cardinality())
+                return false;
+            for (int v = nextValue(0); v >= 0; v = nextValue(v + 1)) {
+                if (!other.contains((char) v))
+                    return false;
+            }
+            return true;
+        }
+
+        private static BitmapContainer toBitmap(Container c) {
+            if (c instanceof BitmapContainer)
+                return (BitmapContainer) c.copy();
+            BitmapContainer r = new BitmapContainer();
+            ArrayContainer a = (ArrayContainer) c;
+            for (int k = 0; k < a.card; k++)
+                r.set(a.values[k]);
+            return r;
+        }
+    }
+
+    private static class ArrayContainer extends Container {
+        char[] values = new char[4];
+        int card;
+
+        int cardinality() {
+            return card;
+        }
+
+        private int search(char v) {
+            return Arrays.binarySearch(values, 0, card, v);
+        }
+
+        boolean contains(char v) {
+            return search(v) >= 0;
+        }
+
+        Container add(char v) {
+            int i = search(v);
+            if (i >= 0)
+                return this;
+            if (card == ARRAY_MAX) {
+                BitmapContainer b = Container.toBitmap(this);
+                b.set(v);
+                return b;
+            }
+            i = -i - 1;
+            if (card == values.length)
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX, card * 2));
+            System.arraycopy(values, i, values, i + 1, card - i);
+            values[i] = v;
+            card++;
+            return this;
+        }
+
+        /** Adds v, which is greater than every value in this container. */
+        void appendValue(char v) {
+            if (card == values.length)
+                values = Arrays.copyOf(values, card * 2);
+            values[card++] = v;
+        }
+
+        Container remove(char v) {
+            int i = search(v);
+            if (i >= 0) {
+                System.arraycopy(values, i + 1, values, i, card - i - 1);
+                card--;
+            }
+            return this;
+        }
+
+        ArrayContainer merge(ArrayContainer other) {
+            ArrayContainer r = new ArrayContainer();
+            r.values = new char[Math.max(4, card + other.card)];
+            int i = 0, j = 0;
+            while (i < card || j < other.card) {
+                if (j == other.card || (i < card && values[i] < other.values[j])) {
+                    r.values[r.card++] = values[i++];
+                } else if (i == card || values[i] > other.values[j]) {
+                    r.values[r.card++] = other.values[j++];
+                } else {
+                    r.values[r.card++] = values[i++];
+                    j++;
+                }
+            }
+            return r;
+        }
+
+        Container copy() {
+            ArrayContainer r = new ArrayContainer();
+            r.values = Arrays.copyOf(values, Math.max(4, card));
+            r.card = card;
+            return r;
+        }
+
+        int sizeInBytes() {
+            return 2 * card;
+        }
+
+        int nextValue(int from) {
+            int i = from > Character.MAX_VALUE ? card : search((char) from);
+            if (i < 0)
+                i = -i - 1;
+            return i < card ? values[i] : -1;
+        }
+
+        void serialize(DataOutputStream dos) throws IOException {
+            dos.writeBoolean(false);
+            dos.writeShort(card - 1);
+            for (int k = 0; k < card; k++)
+                dos.writeChar(values[k]);
+        }
+
+        static ArrayContainer read(DataInputStream dis) throws IOException {
+            ArrayContainer r = new ArrayContainer();
+            r.card = dis.readUnsignedShort() + 1;
+            r.values = new char[Math.max(4, r.card)];
+            for (int k = 0; k < r.card; k++)
+                r.values[k] = dis.readChar();
+            return r;
+        }
+    }
+
+    private static class BitmapContainer extends Container {
+        final long[] words = new long[WORDS];
+        int card;
+
+        int cardinality() {
+            return card;
+        }
+
+        boolean contains(char v) {
+            return (words[v >>> 6] & (1L << v)) != 0;
+        }
+
+        void set(char v) {
+            long before = words[v >>> 6];
+            words[v >>> 6] = before | (1L << v);
+            if (before != words[v >>> 6])
+                card++;
+        }
+
+        void clear(char v) {
+            long before = words[v >>> 6];
+            words[v >>> 6] = before & ~(1L << v);
+            if (before != words[v >>> 6])
+                card--;
+        }
+
+        Container add(char v) {
+            set(v);
+            return this;
+        }
+
+        Container remove(char v) {
+            clear(v);
+            return normalize();
+        }
+
+        BitmapContainer and(BitmapContainer other) {
+            BitmapContainer r = new BitmapContainer();
+            for (int k = 0; k < WORDS; k++) {
+                r.words[k] = words[k] & other.words[k];
+                r.card += Long.bitCount(r.words[k]);
+            }
+            return r;
+        }
+
+        Container and(Container other) {
+            return other instanceof BitmapContainer
+                    ? and((BitmapContainer) other).normalize() : super.and(other);
+        }
+
+        void orWith(BitmapContainer other) {
+            card = 0;
+            for (int k = 0; k < WORDS; k++) {
+                words[k] |= other.words[k];
+                card += Long.bitCount(words[k]);
+            }
+        }
+
+        void andNotWith(BitmapContainer other) {
+            card = 0;
+            for (int k = 0; k < WORDS; k++) {
+                words[k] &= ~other.words[k];
+                card += Long.bitCount(words[k]);
+            }
+        }
+
+        /** @return this container, or an array container if it is small enough */
+        Container normalize() {
+            if (card > ARRAY_MAX)
+                return this;
+            ArrayContainer r = new ArrayContainer();
+            r.values = new char[Math.max(4, card)];
+            for (int v = nextValue(0); v >= 0; v = nextValue(v + 1))
+                r.values[r.card++] = (char) v;
+            return r;
+        }
+
+        Container copy() {
+            BitmapContainer r = new BitmapContainer();
+            System.arraycopy(words, 0, r.words, 0, WORDS);
+            r.card = card;
+            return r;
+        }
+
+        int sizeInBytes() {
+            return 8 * WORDS;
+        }
+
+        int nextValue(int from) {
+            int k = from >>> 6;
+            if (k >= WORDS)
+                return -1;
+            long w = words[k] & (-1L << from);
+            while (true) {
+                if (w != 0)
+                    return k * 64 + Long.numberOfTrailingZeros(w);
+                if (++k == WORDS)
+                    return -1;
+                w = words[k];
+            }
+        }
+
+        void serialize(DataOutputStream dos) throws IOException {
+            dos.writeBoolean(true);
+            for (long w : words)
+                dos.writeLong(w);
+        }
+
+        static BitmapContainer read(DataInputStream dis) throws IOException {
+            BitmapContainer r = new BitmapContainer();
+            for (int k = 0; k < WORDS; k++) {
+                r.words[k] = dis.readLong();
+                r.card += Long.bitCount(r.words[k]);
+            }
+            return r;
+        }
+    }
+}
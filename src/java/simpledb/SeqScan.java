@@ -77,6 +77,63 @@ public class SeqScan implements DbIterator {
         this(tid, tableid, Database.getCatalog().getTableName(tableid));
     }
 
+    /**
+     * Creates a sequential scan over pages fromPage (inclusive) through
+     * toPage (exclusive) of the specified table, which must be a HeapFile.
+     *
+     * @see HeapFile#iterator(TransactionId, int, int)
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int fromPage, int toPage) {
+        trans_id = tid;
+        table_id = tableid;
+        alias = tableAlias;
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof HeapFile))
+            throw new IllegalArgumentException("page range scans require a HeapFile");
+        dbiter = ((HeapFile) f).iterator(tid, fromPage, toPage);
+    }
+
+    /**
+     * Creates a sequential scan of the specified table, which must be a
+     * HeapFile, that skips the pages on which no tuple can satisfy every one
+     * of the predicates. The tuples are not filtered; the scan is meant to
+     * be the child of a Filter on the same predicates.
+     *
+     * @see HeapFile#iterator(TransactionId, Predicate[])
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, Predicate[] preds) {
+        trans_id = tid;
+        table_id = tableid;
+        alias = tableAlias;
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof HeapFile))
+            throw new IllegalArgumentException("pruned scans require a HeapFile");
+        dbiter = ((HeapFile) f).iterator(tid, preds);
+    }
+
+    /**
+     * Splits a scan of the specified table into at most n scans over disjoint,
+     * contiguous page ranges of about equal size, for use as the children of
+     * an exchange operator.
+     *
+     * @param n the number of scans wanted
+     * @return the scans; fewer than n if the table has fewer than n pages
+     */
+    public static SeqScan[] split(TransactionId tid, int tableid, String tableAlias, int n) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof HeapFile))
+            throw new IllegalArgumentException("page range scans require a HeapFile");
+        int pages = ((HeapFile) f).numPages();
+        n = Math.max(1, Math.min(n, pages));
+        SeqScan[] scans = new SeqScan[n];
+        for (int i = 0; i < n; i++) {
+            int from = (int) ((long) pages * i / n);
+            int to = (int) ((long) pages * (i + 1) / n);
+            scans[i] = new SeqScan(tid, tableid, tableAlias, from, to);
+        }
+        return scans;
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         dbiter.open();
     }
@@ -67,6 +67,32 @@ public class SimpleDb {
                it.close();
             }
         }
+        else if (args[0].equals("btree")) {
+            // bulk load a B+ tree index from a heap file of integers
+            if (args.length < 5 || args.length > 6) {
+                System.err.println("Usage: btree <heap file> <columns> <key field> <index file> [fill factor]");
+                return;
+            }
+            File tableFile = new File(args[1]);
+            int columns = Integer.parseInt(args[2]);
+            int keyField = Integer.parseInt(args[3]);
+            double fillFactor = args.length == 6 ? Double.parseDouble(args[5])
+                    : BTreeFileEncoder.DEFAULT_FILL_FACTOR;
+            HeapFile table = Utility.openHeapFile(columns, tableFile);
+            TransactionId tid = new TransactionId();
+            boolean committed = false;
+            try {
+                BTreeFile index = BTreeFileEncoder.build(tid, table.getId(), keyField,
+                        new File(args[4]), fillFactor, BufferPool.DEFAULT_PAGES);
+                Database.getBufferPool().transactionComplete(tid, true);
+                committed = true;
+                System.out.println("Wrote " + index.numPages() + " pages to " + args[4]);
+            } finally {
+                // release the scan's locks and pages if the build failed
+                if (!committed)
+                    Database.getBufferPool().transactionComplete(tid, false);
+            }
+        }
         else if (args[0].equals("parser")) {
             // Strip the first argument and call the parser
             String[] newargs = new String[args.length-1];
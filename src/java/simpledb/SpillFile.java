@@ -0,0 +1,220 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * SpillFile is a temporary, append-only file of tuples used by operators
+ * whose working state outgrows their memory budget (hash join partitions,
+ * sorted runs, and so on).
+ * <p>
+ * Tuples are laid out in pages of {@link BufferPool#getPageSize()} bytes
+ * using the same binary format as {@link HeapPage}: a header bitmap marking
+ * the used slots, followed by fixed-size tuple slots and zero padding. Unlike
+ * a HeapFile, a spill file is never registered in the Catalog and is never
+ * read through the BufferPool -- it is written and read back sequentially
+ * by the operator that owns it, and deleted when that operator is done.
+ *
+ * @see HeapPage#HeapPage
+ */
+class SpillFile {
+
+    private final TupleDesc td;
+    private final File file;
+    private final int tuplesPerPage;
+    private final int headerSize;
+
+    private DataOutputStream out;
+    private final ArrayList<Tuple> pending;
+    private int numTuples;
+    private int numPages;
+
+    /**
+     * Creates a new, empty spill file for tuples of the specified schema.
+     *
+     * @param td the schema of the tuples that will be written to this file
+     * @throws IOException if the temporary file cannot be created
+     */
+    public SpillFile(TupleDesc td) throws IOException {
+        this.td = td;
+        this.tuplesPerPage = tuplesPerPage(td);
+        this.headerSize = (int) Math.ceil((double) tuplesPerPage / 8);
+        this.file = File.createTempFile("spill", ".dat");
+        this.file.deleteOnExit();
+        this.out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file), BufferPool.getPageSize() * 4));
+        this.pending = new ArrayList<Tuple>(tuplesPerPage);
+    }
+
+    /**
+     * @return the number of tuples that fit on one page for tuples of the
+     *         specified schema, as computed by HeapPage.
+     */
+    static int tuplesPerPage(TupleDesc td) {
+        return (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+    }
+
+    /** @return the schema of the tuples in this file */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of tuples appended to this file so far */
+    public int numTuples() {
+        return numTuples;
+    }
+
+    /** @return the number of pages this file occupies once finished */
+    public int numPages() {
+        return numPages + (pending.isEmpty() ? 0 : 1);
+    }
+
+    /**
+     * Appends a tuple to this file. The tuple is buffered until a full page
+     * has been collected, then written out.
+     *
+     * @throws IllegalStateException if the file has already been finished
+     */
+    public void add(Tuple t) throws IOException {
+        if (out == null)
+            throw new IllegalStateException("spill file already finished");
+        pending.add(t);
+        numTuples++;
+        if (pending.size() == tuplesPerPage)
+            writePendingPage();
+    }
+
+    /**
+     * Writes out any partially filled last page and closes the file for
+     * writing. Called automatically by {@link #iterator}.
+     */
+    public void finish() throws IOException {
+        if (out == null)
+            return;
+        if (!pending.isEmpty())
+            writePendingPage();
+        out.close();
+        out = null;
+    }
+
+    private void writePendingPage() throws IOException {
+        byte[] header = new byte[headerSize];
+        for (int i = 0; i < pending.size(); i++)
+            header[i / 8] |= (byte) (0x1 << (i % 8));
+        out.write(header);
+
+        for (Tuple t : pending) {
+            for (int j = 0; j < td.numFields(); j++)
+                t.getField(j).serialize(out);
+        }
+
+        int used = headerSize + pending.size() * td.getSize();
+        out.write(new byte[BufferPool.getPageSize() - used]);
+        pending.clear();
+        numPages++;
+    }
+
+    /** Removes the file backing this spill file from disk. */
+    public void delete() {
+        try {
+            finish();
+        } catch (IOException e) {
+            // we are throwing the contents away anyway
+        }
+        file.delete();
+    }
+
+    /**
+     * Returns an iterator that reads the tuples of this file back, page by
+     * page, in the order they were added. Finishes the file if it has not
+     * been finished yet.
+     */
+    public DbFileIterator iterator() throws IOException {
+        finish();
+        return new SpillFileIterator();
+    }
+
+    private class SpillFileIterator implements DbFileIterator {
+        private DataInputStream in;
+        private int pagesRead;
+        private final Tuple[] page = new Tuple[tuplesPerPage];
+        private int pageSize;
+        private int pos;
+
+        public void open() throws DbException {
+            close();
+            try {
+                in = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(file), BufferPool.getPageSize() * 4));
+            } catch (FileNotFoundException e) {
+                throw new DbException("spill file disappeared: " + e.getMessage());
+            }
+            pagesRead = 0;
+            pageSize = 0;
+            pos = 0;
+        }
+
+        /** Reads the next page of tuples into the page buffer. */
+        private boolean readPage() throws DbException {
+            if (pagesRead >= numPages)
+                return false;
+            try {
+                byte[] header = new byte[headerSize];
+                in.readFully(header);
+                pageSize = 0;
+                pos = 0;
+                for (int i = 0; i < tuplesPerPage; i++) {
+                    if ((header[i / 8] & (0x1 << (i % 8))) == 0) {
+                        in.skipBytes(td.getSize());
+                        continue;
+                    }
+                    Tuple t = new Tuple(td);
+                    for (int j = 0; j < td.numFields(); j++)
+                        t.setField(j, td.getFieldType(j).parse(in));
+                    page[pageSize++] = t;
+                }
+                in.skipBytes(BufferPool.getPageSize() - headerSize
+                        - tuplesPerPage * td.getSize());
+            } catch (IOException e) {
+                throw new DbException("error reading spill file: " + e.getMessage());
+            } catch (java.text.ParseException e) {
+                throw new DbException("error parsing spill file: " + e.getMessage());
+            }
+            pagesRead++;
+            return true;
+        }
+
+        public boolean hasNext() throws DbException {
+            if (in == null)
+                return false;
+            while (pos >= pageSize) {
+                if (!readPage())
+                    return false;
+            }
+            return true;
+        }
+
+        public Tuple next() throws DbException, NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = page[pos];
+            page[pos++] = null;
+            return t;
+        }
+
+        public void rewind() throws DbException {
+            open();
+        }
+
+        public void close() {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // nothing useful to do
+                }
+            }
+            in = null;
+        }
+    }
+}
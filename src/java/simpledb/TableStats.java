@@ -0,0 +1,288 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TableStats represents statistics (e.g., histograms) about base tables in a
+ * query, collected by ANALYZE and stored with the table's Catalog entry.
+ * <p>
+ * {@link #analyze} scans a HeapFile once on the worker threads of a
+ * {@link MorselScheduler}; {@link #analyzeSample} reads only a random subset
+ * of its pages and scales the counts up. For every column the statistics
+ * record the minimum and maximum, the number of non-null values, a
+ * HyperLogLog estimate of the number of distinct values and the most common
+ * values, plus an equi-depth histogram for INT_TYPE columns.
+ * <p>
+ * Once stored in the Catalog, the statistics are kept up to date by
+ * BufferPool as tuples are inserted or deleted: row counts, histograms and
+ * most common value counts follow every change, minimums, maximums and
+ * distinct counts grow with inserts, and deletes leave them as they are
+ * until the table is analyzed again.
+ *
+ * @Threadsafe
+ */
+public class TableStats {
+
+    /** The cost of reading one page from disk, in the units of the cost model. */
+    public static final int IOCOSTPERPAGE = 1000;
+
+    private final int tableid;
+    private final HeapFile file;
+    private final ColumnStats[] columns;
+    private long numTuples;
+    private final boolean sampled;
+
+    private TableStats(int tableid, HeapFile file, ColumnStats[] columns, long numTuples,
+            boolean sampled) {
+        this.tableid = tableid;
+        this.file = file;
+        this.columns = columns;
+        this.numTuples = numTuples;
+        this.sampled = sampled;
+    }
+
+    private static HeapFile heapFile(int tableid) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof HeapFile))
+            throw new IllegalArgumentException("ANALYZE requires a HeapFile");
+        return (HeapFile) f;
+    }
+
+    private static ColumnStats[] newColumns(TupleDesc td, Random random) {
+        ColumnStats[] columns = new ColumnStats[td.numFields()];
+        for (int i = 0; i < columns.length; i++)
+            columns[i] = new ColumnStats(td.getFieldType(i), random);
+        return columns;
+    }
+
+    /**
+     * Analyzes every tuple of the specified table in parallel, with one
+     * worker per core, and stores the statistics in the Catalog.
+     *
+     * @param tableid the table to analyze; it must be stored in a HeapFile
+     * @param tid the transaction to read the table as a part of
+     * @return the new statistics
+     */
+    public static TableStats analyze(int tableid, TransactionId tid)
+            throws DbException, TransactionAbortedException {
+        MorselScheduler scheduler = new MorselScheduler();
+        try {
+            return analyze(tableid, tid, scheduler);
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * Analyzes every tuple of the specified table on the workers of the
+     * specified scheduler, and stores the statistics in the Catalog.
+     *
+     * @see #analyze(int, TransactionId)
+     */
+    public static TableStats analyze(int tableid, TransactionId tid, MorselScheduler scheduler)
+            throws DbException, TransactionAbortedException {
+        HeapFile f = heapFile(tableid);
+        final TupleDesc td = f.getTupleDesc();
+        final ColumnStats[][] partials = new ColumnStats[scheduler.numWorkers()][];
+        final long[] counts = new long[scheduler.numWorkers()];
+        scheduler.run(f, tid, new PushStage.Factory() {
+            public PushStage create(final int worker) {
+                final ColumnStats[] columns = newColumns(td, new Random(worker));
+                partials[worker] = columns;
+                return new PushStage() {
+                    private long n;
+
+                    public void push(Tuple t) {
+                        for (int i = 0; i < columns.length; i++)
+                            columns[i].add(t.getField(i));
+                        n++;
+                    }
+
+                    public void finish() {
+                        counts[worker] = n;
+                    }
+                };
+            }
+        });
+
+        ColumnStats[] columns = partials[0];
+        long rows = counts[0];
+        for (int w = 1; w < partials.length; w++) {
+            for (int i = 0; i < columns.length; i++)
+                columns[i].merge(partials[w][i]);
+            rows += counts[w];
+        }
+        for (ColumnStats c : columns)
+            c.finish(1.0);
+        TableStats stats = new TableStats(tableid, f, columns, rows, false);
+        Database.getCatalog().setTableStats(tableid, stats);
+        return stats;
+    }
+
+    /**
+     * Analyzes a random sample of the pages of the specified table, scaling
+     * counts up to the whole table, and stores the statistics in the
+     * Catalog. At least one page is read.
+     *
+     * @param tableid the table to analyze; it must be stored in a HeapFile
+     * @param tid the transaction to read the table as a part of
+     * @param pageFraction the fraction of the pages to read, in (0, 1]
+     * @param seed the seed choosing the pages
+     * @return the new statistics
+     */
+    public static TableStats analyzeSample(int tableid, TransactionId tid, double pageFraction,
+            long seed) throws DbException, TransactionAbortedException {
+        if (pageFraction <= 0 || pageFraction > 1)
+            throw new IllegalArgumentException("pageFraction must be in (0, 1]");
+        HeapFile f = heapFile(tableid);
+        Random random = new Random(seed);
+        int pages = f.numPages();
+        int wanted = Math.max(1, (int) Math.round(pages * pageFraction));
+
+        // a random subset of the pages, read in file order
+        ArrayList<Integer> order = new ArrayList<Integer>();
+        for (int i = 0; i < pages; i++)
+            order.add(i);
+        Collections.shuffle(order, random);
+        ArrayList<Integer> chosen = new ArrayList<Integer>(order.subList(0, Math.min(wanted, pages)));
+        Collections.sort(chosen);
+
+        ColumnStats[] columns = newColumns(f.getTupleDesc(), random);
+        long rows = 0;
+        for (int p : chosen) {
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(tableid, p), Permissions.READ_ONLY);
+            Iterator<Tuple> it = page.iterator();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                for (int i = 0; i < columns.length; i++)
+                    columns[i].add(t.getField(i));
+                rows++;
+            }
+        }
+
+        double scale = chosen.isEmpty() ? 1.0 : (double) pages / chosen.size();
+        for (ColumnStats c : columns)
+            c.finish(scale);
+        TableStats stats = new TableStats(tableid, f, columns, Math.round(rows * scale),
+                chosen.size() < pages);
+        Database.getCatalog().setTableStats(tableid, stats);
+        return stats;
+    }
+
+    /** @return the id of the table these statistics describe */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /** @return true if these statistics were estimated from a sample of pages */
+    public boolean isSampled() {
+        return sampled;
+    }
+
+    /**
+     * Estimates the cost of sequentially scanning the file, given that the
+     * cost to read a page is IOCOSTPERPAGE. Pages already in the BufferPool
+     * are not accounted for.
+     *
+     * @return The estimated cost of scanning the table.
+     */
+    public double estimateScanCost() {
+        return (double) file.numPages() * IOCOSTPERPAGE;
+    }
+
+    /**
+     * This method returns the number of tuples in the relation, given that a
+     * predicate with selectivity selectivityFactor is applied.
+     *
+     * @param selectivityFactor
+     *            The selectivity of any predicates over the table
+     * @return The estimated cardinality of the scan with the specified
+     *         selectivityFactor
+     */
+    public synchronized long estimateTableCardinality(double selectivityFactor) {
+        return Math.round(numTuples * selectivityFactor);
+    }
+
+    /**
+     * Estimate the selectivity of predicate <tt>field op constant</tt> on the
+     * table.
+     *
+     * @param field
+     *            The field over which the predicate ranges
+     * @param op
+     *            The logical operation in the predicate
+     * @param constant
+     *            The value against which the field is compared
+     * @return The estimated selectivity (fraction of tuples that satisfy) the
+     *         predicate
+     */
+    public synchronized double estimateSelectivity(int field, Predicate.Op op, Field constant) {
+        if (numTuples == 0)
+            return 0;
+        ColumnStats c = columns[field];
+        double nonNullFraction = Math.min(1.0, (double) c.getNonNullCount() / numTuples);
+        return c.estimateSelectivity(op, constant) * nonNullFraction;
+    }
+
+    /** @return the total number of tuples in this table */
+    public synchronized long totalTuples() {
+        return numTuples;
+    }
+
+    /** @return the number of pages in this table */
+    public int numPages() {
+        return file.numPages();
+    }
+
+    /** @return the smallest value of the specified field, or null if there are no values */
+    public synchronized Field getMin(int field) {
+        return columns[field].getMin();
+    }
+
+    /** @return the largest value of the specified field, or null if there are no values */
+    public synchronized Field getMax(int field) {
+        return columns[field].getMax();
+    }
+
+    /** @return the number of non-null values of the specified field */
+    public synchronized long getNonNullCount(int field) {
+        return columns[field].getNonNullCount();
+    }
+
+    /** @return the estimated number of distinct values of the specified field */
+    public synchronized long getDistinctCount(int field) {
+        return columns[field].getDistinctCount();
+    }
+
+    /**
+     * @return the most common values of the specified field with their
+     *         estimated number of occurrences, most common first
+     */
+    public synchronized Map<Field, Long> getMostCommonValues(int field) {
+        return columns[field].getMostCommonValues();
+    }
+
+    /**
+     * @return a description of the histogram of the specified field, or null
+     *         if the field is not an INT_TYPE field
+     */
+    public synchronized String describeHistogram(int field) {
+        IntHistogram h = columns[field].getHistogram();
+        return h == null ? null : h.toString();
+    }
+
+    /** Updates the statistics for a tuple inserted into the table. */
+    public synchronized void addTuple(Tuple t) {
+        numTuples++;
+        for (int i = 0; i < columns.length; i++)
+            columns[i].insert(t.getField(i));
+    }
+
+    /** Updates the statistics for a tuple deleted from the table. */
+    public synchronized void removeTuple(Tuple t) {
+        numTuples = Math.max(0, numTuples - 1);
+        for (int i = 0; i < columns.length; i++)
+            columns[i].delete(t.getField(i));
+    }
+}
@@ -0,0 +1,240 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN implements ORDER BY ... LIMIT n over a single field: it returns the
+ * first n tuples of its child in the order a stable sort on that field would
+ * produce, without sorting (or even keeping) the rest of the input.
+ * <p>
+ * The operator keeps the best n tuples seen so far in a bounded binary heap
+ * whose root is the worst of them. Once the heap is full, the root's key is a
+ * threshold: an incoming tuple that does not beat it is rejected with a
+ * single comparison and is never copied or retained. For INT_TYPE fields the
+ * keys are held in a primitive int array alongside the heap, so the threshold
+ * check and heap maintenance compare raw int values.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator child;
+    private final int field;
+    private final boolean asc;
+    private final int limit;
+
+    // the heap: slot 0 is the root, i.e. the worst tuple kept
+    private transient Tuple[] heap;
+    private transient int[] intKeys;
+    private transient int[] seqs;
+    private transient int size;
+    private transient boolean intKeyed;
+
+    private transient Tuple[] results;
+    private transient int pos;
+    private transient int rejected;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            the tuples to choose from
+     * @param field
+     *            the field to order by
+     * @param asc
+     *            true to return the n smallest values, false for the n largest
+     * @param limit
+     *            the number of tuples to return
+     */
+    public TopN(DbIterator child, int field, boolean asc, int limit) {
+        if (limit < 0)
+            throw new IllegalArgumentException("limit must not be negative");
+        this.child = child;
+        this.field = field;
+        this.asc = asc;
+        this.limit = limit;
+    }
+
+    public int getOrderByField() {
+        return field;
+    }
+
+    public boolean isASC() {
+        return asc;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the number of input tuples rejected by the threshold check
+     *         without touching the heap since the operator was last opened
+     */
+    public int getRejectedCount() {
+        return rejected;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        super.open();
+        select();
+    }
+
+    public void close() {
+        super.close();
+        heap = null;
+        results = null;
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        clearNext();
+        pos = 0;
+    }
+
+    /**
+     * @return true if the entry (k1, s1) should come after (k2, s2) in the
+     *         output; sequence numbers break ties so the result is stable
+     */
+    private boolean after(int k1, int s1, int k2, int s2) {
+        if (k1 != k2)
+            return asc ? k1 > k2 : k1 < k2;
+        return s1 > s2;
+    }
+
+    private boolean after(Tuple t1, int s1, Tuple t2, int s2) {
+        int c = TupleComparator.compareFields(t1.getField(field), t2.getField(field));
+        if (c != 0)
+            return asc ? c > 0 : c < 0;
+        return s1 > s2;
+    }
+
+    private boolean after(int i, int j) {
+        if (intKeyed)
+            return after(intKeys[i], seqs[i], intKeys[j], seqs[j]);
+        return after(heap[i], seqs[i], heap[j], seqs[j]);
+    }
+
+    private void swap(int i, int j) {
+        Tuple t = heap[i];
+        heap[i] = heap[j];
+        heap[j] = t;
+        int s = seqs[i];
+        seqs[i] = seqs[j];
+        seqs[j] = s;
+        if (intKeyed) {
+            int k = intKeys[i];
+            intKeys[i] = intKeys[j];
+            intKeys[j] = k;
+        }
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >> 1;
+            if (!after(i, parent))
+                return;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i, int n) {
+        while (true) {
+            int worst = i;
+            int l = 2 * i + 1, r = l + 1;
+            if (l < n && after(l, worst))
+                worst = l;
+            if (r < n && after(r, worst))
+                worst = r;
+            if (worst == i)
+                return;
+            swap(i, worst);
+            i = worst;
+        }
+    }
+
+    /** Reads the whole child, keeping the best limit tuples, then orders them. */
+    private void select() throws DbException, TransactionAbortedException {
+        intKeyed = getTupleDesc().getFieldType(field) == Type.INT_TYPE;
+        int capacity = Math.min(limit, 1024);
+        heap = new Tuple[capacity];
+        seqs = new int[capacity];
+        intKeys = intKeyed ? new int[capacity] : null;
+        size = 0;
+        rejected = 0;
+
+        int seq = 0;
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            int s = seq++;
+            if (limit == 0)
+                continue;
+
+            if (size == limit) {
+                // threshold check against the worst tuple kept
+                if (intKeyed) {
+                    int k = ((IntField) t.getField(field)).getValue();
+                    if (!after(intKeys[0], seqs[0], k, s)) {
+                        rejected++;
+                        continue;
+                    }
+                    intKeys[0] = k;
+                } else if (!after(heap[0], seqs[0], t, s)) {
+                    rejected++;
+                    continue;
+                }
+                heap[0] = t;
+                seqs[0] = s;
+                siftDown(0, size);
+                continue;
+            }
+
+            if (size == heap.length) {
+                int n = Math.min(limit, size * 2);
+                heap = Arrays.copyOf(heap, n);
+                seqs = Arrays.copyOf(seqs, n);
+                if (intKeyed)
+                    intKeys = Arrays.copyOf(intKeys, n);
+            }
+            heap[size] = t;
+            seqs[size] = s;
+            if (intKeyed)
+                intKeys[size] = ((IntField) t.getField(field)).getValue();
+            siftUp(size++);
+        }
+
+        // heap sort: repeatedly move the worst remaining tuple to the back
+        for (int n = size - 1; n > 0; n--) {
+            swap(0, n);
+            siftDown(0, n);
+        }
+        results = Arrays.copyOf(heap, size);
+        heap = null;
+        intKeys = null;
+        seqs = null;
+        pos = 0;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (results == null || pos >= results.length)
+            return null;
+        return results[pos++];
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child = children[0];
+    }
+}
@@ -12,15 +12,31 @@ public class TransactionId implements Serializable {
 
     static AtomicLong counter = new AtomicLong(0);
     final long myid;
+    final boolean readOnly;
 
     public TransactionId() {
+        this(false);
+    }
+
+    /**
+     * @param readOnly true if the transaction will only read. It then
+     *            writes no log records, takes shared locks only, and
+     *            completes without looking for dirty pages.
+     */
+    public TransactionId(boolean readOnly) {
         myid = counter.getAndIncrement();
+        this.readOnly = readOnly;
     }
 
     public long getId() {
         return myid;
     }
 
+    /** @return true if the transaction was declared read-only */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
     public boolean equals(Object tid) {
         return ((TransactionId) tid).myid == myid;
     }
@@ -16,6 +16,7 @@ public class Tuple implements Serializable {
     private static final long serialVersionUID = 1L;
     private ArrayList<Field> tuple_fields;
     private TupleDesc tuple_desc;
+    private RecordId record_id;
     
     /**
      * Create a new tuple with the specified schema (type).
@@ -48,8 +49,7 @@ public class Tuple implements Serializable {
      *         be null.
      */
     public RecordId getRecordId() {
-        // some code goes here
-        return null;
+        return record_id;
     }
 
     /**
@@ -59,7 +59,7 @@ public class Tuple implements Serializable {
      *            the new RecordId for this tuple.
      */
     public void setRecordId(RecordId rid) {
-        // some code goes here
+        record_id = rid;
     }
 
     /**
@@ -0,0 +1,113 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded, lock-free, multi-producer multi-consumer queue of tuple batches,
+ * used by {@link Exchange} to hand tuples from worker threads to consumers.
+ * <p>
+ * The queue is a ring of slots, each carrying a sequence number that tells
+ * producers and consumers whose turn it is to use the slot. Claiming a slot
+ * is a single compare-and-set on the enqueue or dequeue position, so neither
+ * side ever takes a lock. {@link #offer} and {@link #poll} never block;
+ * callers that need to wait retry with {@link #backoff}.
+ */
+class TupleBatchQueue {
+
+    private final AtomicReferenceArray<Tuple[]> batches;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong enqueuePos = new AtomicLong();
+    private final AtomicLong dequeuePos = new AtomicLong();
+
+    /**
+     * @param capacity the maximum number of batches held; rounded up to a
+     *            power of two
+     */
+    public TupleBatchQueue(int capacity) {
+        int n = 2;
+        while (n < capacity)
+            n <<= 1;
+        batches = new AtomicReferenceArray<Tuple[]>(n);
+        sequences = new AtomicLongArray(n);
+        for (int i = 0; i < n; i++)
+            sequences.set(i, i);
+        mask = n - 1;
+    }
+
+    /** @return the number of batches this queue can hold */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Adds a batch to the tail of the queue.
+     *
+     * @return false if the queue is full
+     */
+    public boolean offer(Tuple[] batch) {
+        long pos = enqueuePos.get();
+        while (true) {
+            int slot = (int) (pos & mask);
+            long diff = sequences.get(slot) - pos;
+            if (diff == 0) {
+                if (enqueuePos.compareAndSet(pos, pos + 1)) {
+                    batches.set(slot, batch);
+                    // publish: the slot now belongs to the consumer of pos
+                    sequences.set(slot, pos + 1);
+                    return true;
+                }
+                pos = enqueuePos.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = enqueuePos.get();
+            }
+        }
+    }
+
+    /**
+     * Removes the batch at the head of the queue.
+     *
+     * @return the batch, or null if the queue is empty
+     */
+    public Tuple[] poll() {
+        long pos = dequeuePos.get();
+        while (true) {
+            int slot = (int) (pos & mask);
+            long diff = sequences.get(slot) - (pos + 1);
+            if (diff == 0) {
+                if (dequeuePos.compareAndSet(pos, pos + 1)) {
+                    Tuple[] batch = batches.get(slot);
+                    batches.set(slot, null);
+                    // hand the slot to the producer one lap ahead
+                    sequences.set(slot, pos + mask + 1);
+                    return batch;
+                }
+                pos = dequeuePos.get();
+            } else if (diff < 0) {
+                return null;
+            } else {
+                pos = dequeuePos.get();
+            }
+        }
+    }
+
+    /**
+     * Waits before the next attempt to offer to a full queue or poll an empty
+     * one: spins briefly, then yields, then parks for short intervals.
+     *
+     * @param attempt the number of failed attempts so far
+     */
+    public static void backoff(int attempt) {
+        if (attempt < 64)
+            return;
+        if (attempt < 128)
+            Thread.yield();
+        else
+            LockSupport.parkNanos(50000L);
+    }
+}
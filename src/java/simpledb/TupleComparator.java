@@ -0,0 +1,70 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.Comparator;
+
+/**
+ * TupleComparator orders tuples on one or more of their fields, each either
+ * ascending or descending. Earlier fields take precedence over later ones.
+ * <p>
+ * IntFields are compared on their raw int values and StringFields on their
+ * String values, without going through {@link Field#compare}.
+ */
+public class TupleComparator implements Comparator<Tuple>, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[] fields;
+    private final boolean[] asc;
+
+    /**
+     * Constructor.
+     *
+     * @param fields
+     *            the indices of the fields to order by, most significant first
+     * @param asc
+     *            for each field, true to order it ascending, false descending
+     */
+    public TupleComparator(int[] fields, boolean[] asc) {
+        if (fields.length == 0 || fields.length != asc.length)
+            throw new IllegalArgumentException("need one sort direction per sort field");
+        this.fields = fields.clone();
+        this.asc = asc.clone();
+    }
+
+    /** Creates a comparator on a single field. */
+    public TupleComparator(int field, boolean asc) {
+        this(new int[] { field }, new boolean[] { asc });
+    }
+
+    /** @return the indices of the fields this comparator orders by */
+    public int[] getFields() {
+        return fields.clone();
+    }
+
+    /** @return for each field, whether it is ordered ascending */
+    public boolean[] getAscending() {
+        return asc.clone();
+    }
+
+    /**
+     * Compares two fields of the same type in ascending order.
+     */
+    public static int compareFields(Field f1, Field f2) {
+        if (f1 instanceof IntField) {
+            int v1 = ((IntField) f1).getValue();
+            int v2 = ((IntField) f2).getValue();
+            return v1 < v2 ? -1 : (v1 == v2 ? 0 : 1);
+        }
+        return ((StringField) f1).getValue().compareTo(((StringField) f2).getValue());
+    }
+
+    public int compare(Tuple t1, Tuple t2) {
+        for (int i = 0; i < fields.length; i++) {
+            int c = compareFields(t1.getField(fields[i]), t2.getField(fields[i]));
+            if (c != 0)
+                return asc[i] ? c : -c;
+        }
+        return 0;
+    }
+}
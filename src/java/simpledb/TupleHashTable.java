@@ -0,0 +1,151 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * TupleHashTable is an open-addressing multimap from int hash codes to
+ * tuples, used as the build side of hash joins.
+ * <p>
+ * Distinct hash codes occupy slots of a linear-probing table of primitive
+ * ints; tuples sharing a hash code are chained through a parallel int array,
+ * so no per-entry objects (boxed keys, map entries, lists) are allocated.
+ * Callers hash the join field themselves (see {@link #hash(Field)}) and must
+ * re-check candidate matches, since different field values may share a hash.
+ */
+class TupleHashTable {
+
+    private static final int EMPTY = -1;
+
+    // slot -> hash code of the chain stored there, and index of its head entry
+    private int[] slotHashes;
+    private int[] slotHeads;
+    private int mask;
+    private int usedSlots;
+
+    // entry -> tuple, and index of the next entry with the same hash
+    private Tuple[] tuples;
+    private int[] next;
+    private int size;
+
+    /**
+     * Creates an empty table sized for about expectedSize tuples.
+     */
+    public TupleHashTable(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2)
+            capacity <<= 1;
+        allocateSlots(capacity);
+        tuples = new Tuple[Math.max(expectedSize, 16)];
+        next = new int[tuples.length];
+    }
+
+    private void allocateSlots(int capacity) {
+        slotHashes = new int[capacity];
+        slotHeads = new int[capacity];
+        Arrays.fill(slotHeads, EMPTY);
+        mask = capacity - 1;
+        usedSlots = 0;
+    }
+
+    /**
+     * @return the hash code used for the specified join field. IntFields hash
+     *         to their raw value and StringFields to their String hash, so
+     *         two equal fields always produce the same code.
+     */
+    public static int hash(Field f) {
+        if (f instanceof IntField)
+            return ((IntField) f).getValue();
+        return f.hashCode();
+    }
+
+    /**
+     * Scrambles a hash code so that consecutive keys spread over the table;
+     * a different seed yields an independent hash function, which is what
+     * repeated partitioning passes need.
+     */
+    public static int mix(int h, int seed) {
+        h ^= seed * 0x9E3779B9;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /** @return the number of tuples in this table */
+    public int size() {
+        return size;
+    }
+
+    /** Removes all tuples from this table, keeping its allocated capacity. */
+    public void clear() {
+        Arrays.fill(slotHeads, EMPTY);
+        Arrays.fill(tuples, 0, size, null);
+        usedSlots = 0;
+        size = 0;
+    }
+
+    /** Adds a tuple under the specified hash code. */
+    public void add(int hash, Tuple t) {
+        if (size == tuples.length) {
+            tuples = Arrays.copyOf(tuples, size * 2);
+            next = Arrays.copyOf(next, size * 2);
+        }
+        if ((usedSlots + 1) * 2 > slotHashes.length)
+            grow();
+
+        int slot = findSlot(hash);
+        if (slotHeads[slot] == EMPTY) {
+            slotHashes[slot] = hash;
+            usedSlots++;
+        }
+        tuples[size] = t;
+        next[size] = slotHeads[slot];
+        slotHeads[slot] = size;
+        size++;
+    }
+
+    /**
+     * @return the index of the first entry stored under the specified hash
+     *         code, or -1 if there is none.
+     */
+    public int first(int hash) {
+        return slotHeads[findSlot(hash)];
+    }
+
+    /**
+     * @return the index of the entry following the specified one under the
+     *         same hash code, or -1 if it is the last.
+     */
+    public int next(int entry) {
+        return next[entry];
+    }
+
+    /** @return the tuple stored in the specified entry */
+    public Tuple get(int entry) {
+        return tuples[entry];
+    }
+
+    /** Returns the slot holding the specified hash, or the empty slot where it belongs. */
+    private int findSlot(int hash) {
+        int slot = mix(hash, 0) & mask;
+        while (slotHeads[slot] != EMPTY && slotHashes[slot] != hash)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private void grow() {
+        int[] oldHashes = slotHashes;
+        int[] oldHeads = slotHeads;
+        allocateSlots(oldHashes.length * 2);
+        for (int i = 0; i < oldHashes.length; i++) {
+            if (oldHeads[i] == EMPTY)
+                continue;
+            int slot = findSlot(oldHashes[i]);
+            slotHashes[slot] = oldHashes[i];
+            slotHeads[slot] = oldHeads[i];
+            usedSlots++;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * VersionStore keeps the committed versions of pages that snapshot
+ * transactions may still need, for multi-version reads in the BufferPool.
+ * <p>
+ * A logical clock counts commits. A snapshot transaction starts at the
+ * current time, and reads every page as it was then, without taking any
+ * locks: the page's newest committed version, unless a writer has since
+ * committed a change to it. When a writer commits at time t, the before
+ * image of each page it changed (the version committed before it) is kept
+ * here, as visible to snapshots that started before t.
+ * <p>
+ * A version is dropped once every active snapshot started at or after its
+ * end time; while no snapshot is active, nothing is kept at all.
+ */
+public class VersionStore {
+
+    /** A committed version of a page, current until end */
+    private static class Version {
+        final long end;
+        final Page image;
+
+        Version(long end, Page image) {
+            this.end = end;
+            this.image = image;
+        }
+    }
+
+    private long clock;
+    // read on every getPage, so not guarded by this object's monitor
+    private final ConcurrentHashMap<TransactionId, Long> snapshots =
+            new ConcurrentHashMap<TransactionId, Long>();
+    /** The kept versions of each page, oldest first */
+    private final HashMap<PageId, ArrayList<Version>> versions = new HashMap<PageId, ArrayList<Version>>();
+    private int numVersions;
+
+    /**
+     * Starts a snapshot transaction at the current time.
+     *
+     * @return the start time of the snapshot
+     */
+    public synchronized long begin(TransactionId tid) {
+        if (snapshots.containsKey(tid))
+            throw new IllegalStateException("transaction " + tid.getId() + " already has a snapshot");
+        snapshots.put(tid, clock);
+        return clock;
+    }
+
+    /** @return true if the transaction is a snapshot transaction that has not ended */
+    public boolean isSnapshot(TransactionId tid) {
+        return snapshots.containsKey(tid);
+    }
+
+    /** @return the start time of a snapshot transaction, or -1 if it is not one */
+    public long getStart(TransactionId tid) {
+        Long start = snapshots.get(tid);
+        return start == null ? -1 : start;
+    }
+
+    /** @return the number of commits so far */
+    public synchronized long getTime() {
+        return clock;
+    }
+
+    /** @return the number of page versions kept */
+    public synchronized int getNumVersions() {
+        return numVersions;
+    }
+
+    /**
+     * Records the commit of a transaction that changed the specified pages,
+     * keeping their before images if an active snapshot may need them. The
+     * caller must keep the pages from being read by snapshots until this
+     * returns.
+     *
+     * @return the commit time
+     */
+    public synchronized long commit(Collection<Page> pages) {
+        clock++;
+        if (snapshots.isEmpty())
+            return clock;
+        for (Page p : pages) {
+            ArrayList<Version> vs = versions.get(p.getId());
+            if (vs == null) {
+                vs = new ArrayList<Version>();
+                versions.put(p.getId(), vs);
+            }
+            vs.add(new Version(clock, p.getBeforeImage()));
+            numVersions++;
+        }
+        return clock;
+    }
+
+    /**
+     * Returns the version of a page a snapshot that started at the
+     * specified time sees, if it is kept here.
+     *
+     * @return the version, or null if the snapshot sees the newest
+     *         committed version of the page
+     */
+    public synchronized Page lookup(PageId pid, long start) {
+        ArrayList<Version> vs = versions.get(pid);
+        if (vs == null)
+            return null;
+        for (Version v : vs) {
+            if (v.end > start)
+                return v.image;
+        }
+        return null;
+    }
+
+    /** Ends a snapshot transaction, and drops the versions no snapshot needs any more. */
+    public synchronized void end(TransactionId tid) {
+        if (snapshots.remove(tid) == null)
+            return;
+        long oldest = Long.MAX_VALUE;
+        for (long start : snapshots.values())
+            oldest = Math.min(oldest, start);
+        Iterator<ArrayList<Version>> it = versions.values().iterator();
+        while (it.hasNext()) {
+            ArrayList<Version> vs = it.next();
+            int dead = 0;
+            while (dead < vs.size() && vs.get(dead).end <= oldest)
+                dead++;
+            vs.subList(0, dead).clear();
+            numVersions -= dead;
+            if (vs.isEmpty())
+                it.remove();
+        }
+    }
+}
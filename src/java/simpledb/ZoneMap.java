@@ -0,0 +1,339 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * ZoneMap holds the minimum and maximum value of each column on each page
+ * of a HeapFile; for STRING_TYPE columns, of the first PREFIX_LEN
+ * characters of the values. A scan with range predicates can skip every
+ * page whose range cannot satisfy them, which is most of the pages of a
+ * table appended to in the order of the column, like a time-ordered log.
+ * <p>
+ * The zone map is kept in a sidecar file next to the HeapFile, with a
+ * fixed-size record per page. A record is rewritten from the page
+ * whenever the HeapFile writes the page, and inserted tuples widen the
+ * range of their page in memory until then; deletes leave ranges wider
+ * than they need to be, which is safe. A page without a record, because
+ * it was added while the zone map was not loaded, is never skipped.
+ * <p>
+ * The sidecar is only loaded if it is at least as new as the HeapFile, so
+ * that a file rewritten without its zone map (by HeapFileEncoder, say) is
+ * not pruned with stale ranges; {@link HeapFile#buildZoneMap} rebuilds it.
+ */
+public class ZoneMap {
+
+    /** The number of leading characters of strings kept in the zone map */
+    public static final int PREFIX_LEN = 8;
+
+    private static final byte UNKNOWN = 0;
+    private static final byte EMPTY = 1;
+    private static final byte KNOWN = 2;
+
+    private final File file;
+    private final TupleDesc td;
+    private final int recordSize;
+    /** The zone of each page, or null if it is not known */
+    private final ArrayList<Zone> zones = new ArrayList<Zone>();
+
+    /** The range of each column of one page */
+    private static class Zone {
+        boolean empty = true;
+        final int[] intMin, intMax;
+        final String[] strMin, strMax;
+
+        Zone(int numFields) {
+            intMin = new int[numFields];
+            intMax = new int[numFields];
+            strMin = new String[numFields];
+            strMax = new String[numFields];
+        }
+
+        void add(TupleDesc td, Tuple t) {
+            for (int i = 0; i < td.numFields(); i++) {
+                if (td.getFieldType(i) == Type.INT_TYPE) {
+                    int v = ((IntField) t.getField(i)).getValue();
+                    if (empty || v < intMin[i])
+                        intMin[i] = v;
+                    if (empty || v > intMax[i])
+                        intMax[i] = v;
+                } else {
+                    String v = prefix(((StringField) t.getField(i)).getValue());
+                    if (empty || v.compareTo(strMin[i]) < 0)
+                        strMin[i] = v;
+                    if (empty || v.compareTo(strMax[i]) > 0)
+                        strMax[i] = v;
+                }
+            }
+            empty = false;
+        }
+
+        void add(TupleDesc td, HeapPage p) {
+            Iterator<Tuple> it = p.iterator();
+            while (it.hasNext())
+                add(td, it.next());
+        }
+
+        void add(TupleDesc td, Zone z) {
+            if (z.empty)
+                return;
+            for (int i = 0; i < td.numFields(); i++) {
+                if (td.getFieldType(i) == Type.INT_TYPE) {
+                    if (empty || z.intMin[i] < intMin[i])
+                        intMin[i] = z.intMin[i];
+                    if (empty || z.intMax[i] > intMax[i])
+                        intMax[i] = z.intMax[i];
+                } else {
+                    if (empty || z.strMin[i].compareTo(strMin[i]) < 0)
+                        strMin[i] = z.strMin[i];
+                    if (empty || z.strMax[i].compareTo(strMax[i]) > 0)
+                        strMax[i] = z.strMax[i];
+                }
+            }
+            empty = false;
+        }
+    }
+
+    private ZoneMap(File file, TupleDesc td) {
+        this.file = file;
+        this.td = td;
+        int size = 1;
+        for (int i = 0; i < td.numFields(); i++)
+            size += td.getFieldType(i) == Type.INT_TYPE ? 8 : 2 * (1 + 2 * PREFIX_LEN);
+        recordSize = size;
+    }
+
+    private static String prefix(String s) {
+        return s.length() > PREFIX_LEN ? s.substring(0, PREFIX_LEN) : s;
+    }
+
+    /** @return the sidecar file holding the zone map of a HeapFile */
+    public static File sidecar(HeapFile f) {
+        return new File(f.getFile().getPath() + ".zm");
+    }
+
+    /**
+     * Builds the zone map of a HeapFile by scanning it, and writes it to
+     * the sidecar. A page dirtied by a transaction that has not finished
+     * gets the union of its range and the range of its before image, which
+     * is what is on disk and what the page reverts to if the transaction
+     * aborts.
+     */
+    static ZoneMap build(TransactionId tid, HeapFile f)
+            throws DbException, TransactionAbortedException, IOException {
+        ZoneMap zm = new ZoneMap(sidecar(f), f.getTupleDesc());
+        int n = f.numPages();
+        for (int i = 0; i < n; i++) {
+            HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+            Zone z = new Zone(zm.td.numFields());
+            z.add(zm.td, p);
+            if (p.isDirty() != null)
+                z.add(zm.td, p.getBeforeImage());
+            zm.zones.add(z);
+        }
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(zm.file)));
+        try {
+            for (Zone z : zm.zones)
+                zm.writeZone(dos, z);
+        } finally {
+            dos.close();
+        }
+        return zm;
+    }
+
+    /**
+     * Loads the zone map of a HeapFile from its sidecar.
+     *
+     * @return the zone map, or null if there is no sidecar, it cannot be
+     *         read, or it is older than the file
+     */
+    static ZoneMap load(HeapFile f) {
+        File sc = sidecar(f);
+        if (!sc.exists() || sc.lastModified() < f.getFile().lastModified())
+            return null;
+        ZoneMap zm = new ZoneMap(sc, f.getTupleDesc());
+        try {
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(sc)));
+            try {
+                long n = sc.length() / zm.recordSize;
+                for (long i = 0; i < n; i++)
+                    zm.zones.add(zm.readZone(dis));
+            } finally {
+                dis.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return zm;
+    }
+
+    private void writeZone(DataOutputStream dos, Zone z) throws IOException {
+        if (z == null) {
+            dos.write(new byte[recordSize]);
+            return;
+        }
+        dos.writeByte(z.empty ? EMPTY : KNOWN);
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                dos.writeInt(z.intMin[i]);
+                dos.writeInt(z.intMax[i]);
+            } else {
+                writePrefix(dos, z.empty ? "" : z.strMin[i]);
+                writePrefix(dos, z.empty ? "" : z.strMax[i]);
+            }
+        }
+    }
+
+    private static void writePrefix(DataOutputStream dos, String s) throws IOException {
+        dos.writeByte(s.length());
+        for (int i = 0; i < PREFIX_LEN; i++)
+            dos.writeChar(i < s.length() ? s.charAt(i) : 0);
+    }
+
+    private Zone readZone(DataInputStream dis) throws IOException {
+        byte state = dis.readByte();
+        Zone z = new Zone(td.numFields());
+        z.empty = state != KNOWN;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                z.intMin[i] = dis.readInt();
+                z.intMax[i] = dis.readInt();
+            } else {
+                z.strMin[i] = readPrefix(dis);
+                z.strMax[i] = readPrefix(dis);
+            }
+        }
+        return state == UNKNOWN ? null : z;
+    }
+
+    private static String readPrefix(DataInputStream dis) throws IOException {
+        int len = dis.readByte();
+        char[] chars = new char[PREFIX_LEN];
+        for (int i = 0; i < PREFIX_LEN; i++)
+            chars[i] = dis.readChar();
+        return new String(chars, 0, len);
+    }
+
+    /**
+     * Replaces the zone of a page with the range of the page as the
+     * HeapFile writes it to disk, and writes it to the sidecar. A page
+     * still dirty, written by a checkpoint before its transaction commits,
+     * only widens the zone, which still covers the committed version the
+     * page reverts to if the transaction aborts.
+     */
+    synchronized void update(HeapPage p) throws IOException {
+        Zone z = new Zone(td.numFields());
+        z.add(td, p);
+        int pgNo = p.getId().pageNumber();
+        while (zones.size() <= pgNo)
+            zones.add(null);
+        if (p.isDirty() != null) {
+            // a page without a record stays unknown, so is never skipped
+            if (zones.get(pgNo) == null)
+                return;
+            z.add(td, zones.get(pgNo));
+        }
+        zones.set(pgNo, z);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(recordSize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        writeZone(dos, z);
+        dos.flush();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            // records of pages skipped over are zeroes, i.e. UNKNOWN
+            raf.seek((long) pgNo * recordSize);
+            raf.write(baos.toByteArray());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /** Widens the zone of a page to cover a tuple inserted into it. */
+    synchronized void widen(int pgNo, Tuple t) {
+        if (pgNo < zones.size() && zones.get(pgNo) != null)
+            zones.get(pgNo).add(td, t);
+    }
+
+    /** @return the sidecar file this zone map is kept in */
+    public File getFile() {
+        return file;
+    }
+
+    /** @return the number of pages the zone map has a record for */
+    public synchronized int getNumPages() {
+        return zones.size();
+    }
+
+    /**
+     * @return false if no tuple on the specified page can satisfy every one
+     *         of the predicates
+     */
+    public synchronized boolean mayMatch(int pgNo, Predicate... preds) {
+        if (pgNo >= zones.size() || zones.get(pgNo) == null)
+            return true;
+        Zone z = zones.get(pgNo);
+        if (z.empty)
+            return false;
+        for (Predicate p : preds) {
+            if (!mayMatch(z, p))
+                return false;
+        }
+        return true;
+    }
+
+    private boolean mayMatch(Zone z, Predicate p) {
+        int f = p.getField();
+        Field v = p.getOperand();
+        int lo, hi;
+        // prefixes only bound the values loosely, so strict comparisons
+        // against them cannot rule out equal values
+        boolean exact;
+        if (td.getFieldType(f) == Type.INT_TYPE && v instanceof IntField) {
+            int x = ((IntField) v).getValue();
+            lo = Integer.compare(x, z.intMin[f]);
+            hi = Integer.compare(x, z.intMax[f]);
+            exact = true;
+        } else if (td.getFieldType(f) == Type.STRING_TYPE && v instanceof StringField) {
+            String x = prefix(((StringField) v).getValue());
+            lo = x.compareTo(z.strMin[f]);
+            hi = x.compareTo(z.strMax[f]);
+            exact = false;
+        } else {
+            return true;
+        }
+        switch (p.getOp()) {
+        case EQUALS:
+            return lo >= 0 && hi <= 0;
+        case LESS_THAN:
+            return exact ? lo > 0 : lo >= 0;
+        case LESS_THAN_OR_EQ:
+            return lo >= 0;
+        case GREATER_THAN:
+            return exact ? hi < 0 : hi <= 0;
+        case GREATER_THAN_OR_EQ:
+            return hi <= 0;
+        case NOT_EQUALS:
+            return !exact || lo != 0 || hi != 0;
+        default:
+            return true;
+        }
+    }
+
+    /**
+     * @return a PagePruner that skips the pages on which no tuple can
+     *         satisfy every one of the predicates
+     */
+    public PagePruner pruner(final Predicate... preds) {
+        for (Predicate p : preds) {
+            if (p.getField() < 0 || p.getField() >= td.numFields())
+                throw new IllegalArgumentException("invalid field " + p.getField());
+        }
+        return new PagePruner() {
+            public boolean mayMatch(int pgNo) {
+                return ZoneMap.this.mayMatch(pgNo, preds);
+            }
+        };
+    }
+}
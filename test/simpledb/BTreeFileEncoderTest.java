@@ -0,0 +1,179 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BTreeFileEncoderTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        BufferPool.setPageSize(256);
+        Database.resetBufferPool(2000);
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() {
+        BufferPool.setPageSize(BufferPool.PAGE_SIZE);
+    }
+
+    private BTreeFile build(int rows, ArrayList<ArrayList<Integer>> tuples, double fillFactor)
+            throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, rows, 1000, null, tuples);
+        File out = File.createTempFile("bulk", ".dat");
+        out.deleteOnExit();
+        // a small memory budget forces the sort to spill runs
+        BTreeFile bf = BTreeFileEncoder.build(tid, hf.getId(), 0, out, fillFactor, 3);
+        Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+        return bf;
+    }
+
+    private Page page(BTreePageId pid) throws Exception {
+        return Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+    }
+
+    /**
+     * Walks the leaves from the leftmost one by their sibling links.
+     *
+     * @return the number of tuples on each leaf
+     */
+    private ArrayList<Integer> leafSizes(BTreeFile bf) throws Exception {
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) page(BTreeRootPtrPage.getId(bf.getId()));
+        BTreePageId pid = rootPtr.getRootId();
+        while (pid.pgcateg() == BTreePageId.INTERNAL)
+            pid = ((BTreeInternalPage) page(pid)).getChildId(0);
+        ArrayList<Integer> sizes = new ArrayList<Integer>();
+        BTreePageId prev = null;
+        while (pid != null) {
+            BTreeLeafPage leaf = (BTreeLeafPage) page(pid);
+            assertEquals(prev, leaf.getLeftSiblingId());
+            sizes.add(leaf.getNumTuples());
+            prev = pid;
+            pid = leaf.getRightSiblingId();
+        }
+        return sizes;
+    }
+
+    private static ArrayList<ArrayList<Integer>> sortedCopy(List<ArrayList<Integer>> rows) {
+        ArrayList<ArrayList<Integer>> copy = new ArrayList<ArrayList<Integer>>(rows);
+        Collections.sort(copy, new Comparator<ArrayList<Integer>>() {
+            public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+                int c = a.get(0).compareTo(b.get(0));
+                return c != 0 ? c : a.get(1).compareTo(b.get(1));
+            }
+        });
+        return copy;
+    }
+
+    private ArrayList<ArrayList<Integer>> scan(BTreeFile bf) throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        DbFileIterator it = bf.iterator(tid);
+        it.open();
+        int prev = Integer.MIN_VALUE;
+        while (it.hasNext()) {
+            ArrayList<Integer> row = SystemTestUtil.tupleToList(it.next());
+            assertTrue(row.get(0) >= prev);
+            prev = row.get(0);
+            rows.add(row);
+        }
+        it.close();
+        return rows;
+    }
+
+    @Test public void buildAtFillFactor() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile bf = build(3000, tuples, 0.75);
+        assertEquals(sortedCopy(tuples), sortedCopy(scan(bf)));
+
+        int max = BTreeLeafPage.getMaxTuples(bf.getTupleDesc());
+        ArrayList<Integer> sizes = leafSizes(bf);
+        int total = 0;
+        for (int i = 0; i < sizes.size(); i++) {
+            if (i < sizes.size() - 2)
+                assertEquals((int) (0.75 * max), (int) sizes.get(i));
+            assertTrue(sizes.get(i) >= max / 2);
+            total += sizes.get(i);
+        }
+        assertEquals(3000, total);
+
+        IndexPredicate[] preds = { new IndexPredicate(Predicate.Op.GREATER_THAN, new IntField(250)),
+                new IndexPredicate(Predicate.Op.LESS_THAN_OR_EQ, new IntField(260)) };
+        int expected = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) > 250 && t.get(0) <= 260)
+                expected++;
+        }
+        DbFileIterator it = bf.indexIterator(tid, preds);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        assertEquals(expected, n);
+    }
+
+    @Test public void packedPagesAreSmaller() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile full = build(3000, tuples, 1.0);
+        BTreeFile half = build(3000, tuples, 0.5);
+        assertTrue(full.numPages() < half.numPages() * 2 / 3);
+    }
+
+    /** The built tree supports later inserts and deletes like any other. */
+    @Test public void updateAfterBuild() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile bf = build(2000, tuples, 1.0);
+        Random r = new Random(3);
+        for (int i = 0; i < 500; i++) {
+            ArrayList<Integer> row = new ArrayList<Integer>(Arrays.asList(r.nextInt(1000), -i));
+            tuples.add(row);
+            Database.getBufferPool().insertTuple(tid, bf.getId(),
+                    Utility.getHeapTuple(new int[] { row.get(0), row.get(1) }));
+        }
+        assertEquals(sortedCopy(tuples), sortedCopy(scan(bf)));
+
+        DbFileIterator it = bf.iterator(tid);
+        it.open();
+        ArrayList<Tuple> all = new ArrayList<Tuple>();
+        while (it.hasNext())
+            all.add(it.next());
+        it.close();
+        for (Tuple t : all)
+            Database.getBufferPool().deleteTuple(tid, t);
+        assertTrue(scan(bf).isEmpty());
+    }
+
+    @Test public void smallTables() throws Exception {
+        BTreeFile empty = build(0, new ArrayList<ArrayList<Integer>>(), 1.0);
+        assertEquals(1, empty.numPages());
+        assertTrue(scan(empty).isEmpty());
+        Database.getBufferPool().insertTuple(tid, empty.getId(), Utility.getHeapTuple(new int[] { 1, 2 }));
+        assertEquals(1, scan(empty).size());
+
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile one = build(5, tuples, 1.0);
+        assertEquals(2, one.numPages());
+        assertEquals(sortedCopy(tuples), sortedCopy(scan(one)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileEncoderTest.class);
+    }
+}
@@ -0,0 +1,248 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 5000;
+
+    private BTreeFile bf;
+    private TransactionId tid;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    /**
+     * Small pages give a tree several levels deep; the BufferPool is large
+     * enough to hold every page, since nothing is flushed.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        BufferPool.setPageSize(256);
+        Database.resetBufferPool(4000);
+        File f = File.createTempFile("btree", ".dat");
+        f.delete();
+        f.deleteOnExit();
+        bf = new BTreeFile(f, 0, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+
+        Random r = new Random(5);
+        tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ROWS; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>(Arrays.asList(r.nextInt(2000), i));
+            tuples.add(t);
+            Database.getBufferPool().insertTuple(tid, bf.getId(),
+                    Utility.getHeapTuple(new int[] { t.get(0), t.get(1) }));
+        }
+    }
+
+    @After public void tearDown() {
+        BufferPool.setPageSize(BufferPool.PAGE_SIZE);
+    }
+
+    private Page page(BTreePageId pid) throws Exception {
+        return Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+    }
+
+    /**
+     * Checks the structure of the tree: keys are ordered within and across
+     * pages, every page but the root is at least half full, all leaves are
+     * at the same depth and the sibling links follow key order.
+     *
+     * @return the depth of the tree
+     */
+    private int checkTree() throws Exception {
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) page(BTreeRootPtrPage.getId(bf.getId()));
+        ArrayList<BTreeLeafPage> leaves = new ArrayList<BTreeLeafPage>();
+        int depth = checkSubtree(rootPtr.getRootId(), null, null, true, leaves);
+        for (int i = 0; i < leaves.size(); i++) {
+            BTreePageId left = i == 0 ? null : leaves.get(i - 1).getId();
+            BTreePageId right = i == leaves.size() - 1 ? null : leaves.get(i + 1).getId();
+            assertEquals(left, leaves.get(i).getLeftSiblingId());
+            assertEquals(right, leaves.get(i).getRightSiblingId());
+        }
+        return depth;
+    }
+
+    private int checkSubtree(BTreePageId pid, Field low, Field high, boolean root,
+            ArrayList<BTreeLeafPage> leaves) throws Exception {
+        if (pid.pgcateg() == BTreePageId.LEAF) {
+            BTreeLeafPage leaf = (BTreeLeafPage) page(pid);
+            if (!root)
+                assertTrue(leaf.getNumTuples() >= leaf.getMaxTuples() / 2);
+            Field prev = low;
+            for (int i = 0; i < leaf.getNumTuples(); i++) {
+                Field k = leaf.getKey(i);
+                if (prev != null)
+                    assertTrue(TupleComparator.compareFields(prev, k) <= 0);
+                prev = k;
+                assertEquals(new RecordId(pid, i), leaf.getTuple(i).getRecordId());
+            }
+            if (high != null && prev != null)
+                assertTrue(TupleComparator.compareFields(prev, high) <= 0);
+            leaves.add(leaf);
+            return 1;
+        }
+        BTreeInternalPage p = (BTreeInternalPage) page(pid);
+        assertTrue(root ? p.getNumKeys() >= 1 : p.getNumKeys() >= p.getMaxKeys() / 2);
+        int depth = -1;
+        for (int i = 0; i <= p.getNumKeys(); i++) {
+            Field lo = i == 0 ? low : p.getKey(i - 1);
+            Field hi = i == p.getNumKeys() ? high : p.getKey(i);
+            int d = checkSubtree(p.getChildId(i), lo, hi, false, leaves);
+            if (depth >= 0)
+                assertEquals(depth, d);
+            depth = d;
+        }
+        return depth + 1;
+    }
+
+    private static List<ArrayList<Integer>> sorted(List<ArrayList<Integer>> rows) {
+        ArrayList<ArrayList<Integer>> copy = new ArrayList<ArrayList<Integer>>(rows);
+        Collections.sort(copy, new Comparator<ArrayList<Integer>>() {
+            public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+                int c = a.get(0).compareTo(b.get(0));
+                return c != 0 ? c : a.get(1).compareTo(b.get(1));
+            }
+        });
+        return copy;
+    }
+
+    private List<ArrayList<Integer>> readAll(DbFileIterator it) throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        int prev = Integer.MIN_VALUE;
+        while (it.hasNext()) {
+            ArrayList<Integer> row = SystemTestUtil.tupleToList(it.next());
+            assertTrue(row.get(0) >= prev);
+            prev = row.get(0);
+            rows.add(row);
+        }
+        it.close();
+        return rows;
+    }
+
+    @Test public void insertAndScan() throws Exception {
+        assertTrue(checkTree() >= 3);
+        assertEquals(sorted(tuples), sorted(readAll(bf.iterator(tid))));
+    }
+
+    @Test public void rangeIterators() throws Exception {
+        IndexPredicate[][] cases = {
+                { new IndexPredicate(Predicate.Op.EQUALS, new IntField(77)) },
+                { new IndexPredicate(Predicate.Op.LESS_THAN, new IntField(150)) },
+                { new IndexPredicate(Predicate.Op.GREATER_THAN_OR_EQ, new IntField(1900)) },
+                { new IndexPredicate(Predicate.Op.GREATER_THAN, new IntField(500)),
+                  new IndexPredicate(Predicate.Op.LESS_THAN_OR_EQ, new IntField(600)),
+                  new IndexPredicate(Predicate.Op.NOT_EQUALS, new IntField(550)) },
+                { new IndexPredicate(Predicate.Op.EQUALS, new IntField(-1)) },
+        };
+        for (IndexPredicate[] preds : cases) {
+            ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+            for (ArrayList<Integer> t : tuples) {
+                boolean match = true;
+                for (IndexPredicate p : preds)
+                    match &= p.matches(new IntField(t.get(0)));
+                if (match)
+                    expected.add(t);
+            }
+            assertEquals(Arrays.toString(preds), sorted(expected),
+                    sorted(readAll(bf.indexIterator(tid, preds))));
+        }
+    }
+
+    /**
+     * Deleting most of the tuples merges and redistributes pages, keeping
+     * the tree balanced; the freed pages are reused by later inserts.
+     */
+    @Test public void deleteWithMerges() throws Exception {
+        int depth = checkTree();
+        Random r = new Random(9);
+        Collections.shuffle(tuples, r);
+        List<ArrayList<Integer>> deleted = new ArrayList<ArrayList<Integer>>(tuples.subList(0, ROWS * 9 / 10));
+        List<ArrayList<Integer>> kept = new ArrayList<ArrayList<Integer>>(tuples.subList(ROWS * 9 / 10, ROWS));
+        for (ArrayList<Integer> row : deleted) {
+            DbFileIterator it = bf.indexIterator(tid,
+                    new IndexPredicate(Predicate.Op.EQUALS, new IntField(row.get(0))));
+            it.open();
+            Tuple victim = null;
+            while (victim == null && it.hasNext()) {
+                Tuple t = it.next();
+                if (((IntField) t.getField(1)).getValue() == row.get(1))
+                    victim = t;
+            }
+            it.close();
+            assertNotNull(victim);
+            Database.getBufferPool().deleteTuple(tid, victim);
+        }
+        assertTrue(checkTree() < depth);
+        assertEquals(sorted(kept), sorted(readAll(bf.iterator(tid))));
+
+        int pages = bf.numPages();
+        for (ArrayList<Integer> row : deleted.subList(0, ROWS / 2)) {
+            Database.getBufferPool().insertTuple(tid, bf.getId(),
+                    Utility.getHeapTuple(new int[] { row.get(0), row.get(1) }));
+        }
+        checkTree();
+        assertEquals(pages, bf.numPages());
+    }
+
+    @Test public void deleteEverything() throws Exception {
+        DbFileIterator it = bf.iterator(tid);
+        it.open();
+        ArrayList<Tuple> all = new ArrayList<Tuple>();
+        while (it.hasNext())
+            all.add(it.next());
+        it.close();
+        // the tuples are deleted by RecordId, which follows them as they move
+        for (Tuple t : all)
+            Database.getBufferPool().deleteTuple(tid, t);
+        assertEquals(1, checkTree());
+        assertTrue(readAll(bf.iterator(tid)).isEmpty());
+    }
+
+    @Test public void indexScanAndPersistence() throws Exception {
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(4000);
+        BTreeScan scan = new BTreeScan(tid, bf.getId(), "t",
+                new IndexPredicate(Predicate.Op.GREATER_THAN_OR_EQ, new IntField(1000)),
+                new IndexPredicate(Predicate.Op.LESS_THAN, new IntField(1010)));
+        int expected = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) >= 1000 && t.get(0) < 1010)
+                expected++;
+        }
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            BTreePageId pid = (BTreePageId) t.getRecordId().getPageId();
+            assertEquals(BTreePageId.LEAF, pid.pgcateg());
+            BTreeLeafPage leaf = (BTreeLeafPage) page(pid);
+            assertEquals(t.getField(1), leaf.getTuple(t.getRecordId().tupleno()).getField(1));
+            n++;
+        }
+        assertEquals(expected, n);
+        scan.rewind();
+        assertTrue(scan.hasNext());
+        scan.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
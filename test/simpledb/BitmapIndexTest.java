@@ -0,0 +1,128 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BitmapIndexTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private BitmapIndex status;
+    private BitmapIndex region;
+
+    /**
+     * A table whose first field has 5 values and whose second has 40.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        Random r = new Random(6);
+        for (int i = 0; i < 20000; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(r.nextInt(5), r.nextInt(40), i)));
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 3);
+        hf = Utility.openHeapFile(3, f);
+        status = BitmapIndex.build(tid, hf.getId(), 0);
+        region = BitmapIndex.build(tid, hf.getId(), 1);
+    }
+
+    private ArrayList<ArrayList<Integer>> where(int status, int minRegion, int maxRegion) {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) == status && t.get(1) >= minRegion && t.get(1) <= maxRegion)
+                rows.add(t);
+        }
+        return rows;
+    }
+
+    @Test public void build() throws Exception {
+        assertEquals(5, status.getNumValues());
+        assertEquals(40, region.getNumValues());
+        int n = 0;
+        for (int v = 0; v < 5; v++)
+            n += status.lookup(Predicate.Op.EQUALS, new IntField(v)).getCardinality();
+        assertEquals(tuples.size(), n);
+        assertTrue(status.lookup(Predicate.Op.EQUALS, new IntField(9)).isEmpty());
+        RecordId rid = status.recordId(status.position(new RecordId(new HeapPageId(hf.getId(), 3), 7)));
+        assertEquals(new RecordId(new HeapPageId(hf.getId(), 3), 7), rid);
+    }
+
+    /** status = 2 AND region BETWEEN 10 AND 12, answered with bitmaps. */
+    @Test public void conjunction() throws Exception {
+        RoaringBitmap regions = region.lookup(Predicate.Op.GREATER_THAN_OR_EQ, new IntField(10))
+                .and(region.lookup(Predicate.Op.LESS_THAN_OR_EQ, new IntField(12)));
+        RoaringBitmap result = status.lookup(Predicate.Op.EQUALS, new IntField(2)).and(regions);
+        BitmapScan scan = new BitmapScan(tid, hf.getId(), "t", result);
+        SystemTestUtil.matchTuples(scan, where(2, 10, 12));
+    }
+
+    /** (status = 1 OR status = 3) AND NOT region = 0 */
+    @Test public void disjunctionAndNegation() throws Exception {
+        RoaringBitmap result = status.lookup(Predicate.Op.EQUALS, new IntField(1))
+                .or(status.lookup(Predicate.Op.EQUALS, new IntField(3)))
+                .andNot(region.lookup(Predicate.Op.EQUALS, new IntField(0)));
+        ArrayList<ArrayList<Integer>> expected = where(1, 1, 39);
+        expected.addAll(where(3, 1, 39));
+        SystemTestUtil.matchTuples(new BitmapScan(tid, hf.getId(), "t", result), expected);
+    }
+
+    /** A selective bitmap reads only the pages holding its positions. */
+    @Test public void skipsPages() throws Exception {
+        RoaringBitmap result = status.lookup(Predicate.Op.EQUALS, new IntField(4))
+                .and(region.lookup(Predicate.Op.EQUALS, new IntField(17)));
+        HashSet<Integer> pages = new HashSet<Integer>();
+        RoaringBitmap.IntIterator it = result.iterator();
+        while (it.hasNext())
+            pages.add(status.recordId(it.next()).getPageId().pageNumber());
+        BitmapScan scan = new BitmapScan(tid, hf.getId(), "t", result);
+        SystemTestUtil.matchTuples(scan, where(4, 17, 17));
+        assertEquals(pages.size(), scan.getPagesRead());
+        assertTrue(scan.getPagesRead() < hf.numPages());
+    }
+
+    @Test public void maintenanceAndPersistence() throws Exception {
+        Tuple t = Utility.getHeapTuple(new int[] { 2, 11, -1 });
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        status.insert(t);
+        region.insert(t);
+        ArrayList<Integer> victim = tuples.get(0);
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        Tuple first = it.next();
+        it.close();
+        assertEquals(victim, SystemTestUtil.tupleToList(first));
+        status.delete(first);
+        region.delete(first);
+        Database.getBufferPool().deleteTuple(tid, first);
+        tuples.remove(0);
+        tuples.add(new ArrayList<Integer>(Arrays.asList(2, 11, -1)));
+
+        File saved = File.createTempFile("bitmap", ".idx");
+        saved.deleteOnExit();
+        status.writeTo(saved);
+        BitmapIndex read = BitmapIndex.readFrom(saved, hf.getId());
+        RoaringBitmap result = read.lookup(Predicate.Op.EQUALS, new IntField(2))
+                .and(region.lookup(Predicate.Op.EQUALS, new IntField(11)));
+        SystemTestUtil.matchTuples(new BitmapScan(tid, hf.getId(), "t", result), where(2, 11, 11));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BitmapIndexTest.class);
+    }
+}
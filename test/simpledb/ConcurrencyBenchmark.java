@@ -0,0 +1,93 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Compares the throughput of pessimistic page locking and optimistic
+ * concurrency control in the BufferPool as contention varies. Worker
+ * threads run transactions that each update one tuple on each of a few
+ * random pages, retrying when they abort; contention is set by how many
+ * pages of the table the transactions choose from.
+ * <p>
+ * Usage: java simpledb.ConcurrencyBenchmark [threads [seconds]]
+ */
+public class ConcurrencyBenchmark {
+
+    private static final int NUM_PAGES = 64;
+    private static final int PAGES_PER_TRANSACTION = 2;
+    private static final int[] HOT_PAGES = { NUM_PAGES, 16, 4, 1 };
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+
+        int rows = NUM_PAGES * (BufferPool.getPageSize() * 8 / (2 * Type.INT_TYPE.getLen() * 8 + 1));
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, rows, null, null);
+        System.out.println("threads=" + threads + " pages=" + hf.numPages()
+                + " pages/transaction=" + PAGES_PER_TRANSACTION);
+        // warm up the JIT before measuring
+        run(hf, false, hf.numPages(), threads, 1);
+        run(hf, true, hf.numPages(), threads, 1);
+        System.out.println("hot pages\tmode\tcommits/s\taborts/s");
+        for (int hot : HOT_PAGES) {
+            for (boolean optimistic : new boolean[] { false, true }) {
+                long[] counts = run(hf, optimistic, Math.min(hot, hf.numPages()), threads, seconds);
+                System.out.println(hot + "\t" + (optimistic ? "optimistic" : "locking") + "\t"
+                        + counts[0] / seconds + "\t" + counts[1] / seconds);
+            }
+        }
+    }
+
+    /** @return the number of transactions that committed and aborted */
+    private static long[] run(final HeapFile hf, boolean optimistic, final int hot,
+            int threads, int seconds) throws Exception {
+        final BufferPool bp = Database.resetBufferPool(NUM_PAGES * 2);
+        bp.setOptimistic(optimistic);
+        final AtomicLong commits = new AtomicLong(), aborts = new AtomicLong();
+        final long deadline = System.currentTimeMillis() + seconds * 1000L;
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final Random rand = new Random(i);
+            workers[i] = new Thread() {
+                public void run() {
+                    try {
+                        while (System.currentTimeMillis() < deadline) {
+                            TransactionId tid = new TransactionId();
+                            try {
+                                for (int j = 0; j < PAGES_PER_TRANSACTION; j++)
+                                    update(bp, tid, new HeapPageId(hf.getId(), rand.nextInt(hot)));
+                                bp.transactionComplete(tid, true);
+                                commits.incrementAndGet();
+                            } catch (TransactionAbortedException e) {
+                                bp.transactionComplete(tid, false);
+                                aborts.incrementAndGet();
+                            }
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        for (Thread w : workers)
+            w.join();
+        return new long[] { commits.get(), aborts.get() };
+    }
+
+    /** Increments the first field of the first tuple on a page. */
+    private static void update(BufferPool bp, TransactionId tid, PageId pid)
+            throws DbException, TransactionAbortedException {
+        HeapPage p = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+        Tuple t = p.iterator().next();
+        p.deleteTuple(t);
+        Tuple updated = new Tuple(t.getTupleDesc());
+        updated.setField(0, new IntField(((IntField) t.getField(0)).getValue() + 1));
+        updated.setField(1, t.getField(1));
+        p.insertTuple(updated);
+        p.markDirty(true, tid);
+    }
+}
@@ -0,0 +1,206 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ExchangeTest extends SimpleDbTestBase {
+
+    /** @return a two-column tuple list of (i, i % groups) for i in [from, to) */
+    private static DbIterator range(int from, int to, int groups) {
+        int[] data = new int[(to - from) * 2];
+        for (int i = from; i < to; i++) {
+            data[2 * (i - from)] = i;
+            data[2 * (i - from) + 1] = i % groups;
+        }
+        return TestUtil.createTupleList(2, data);
+    }
+
+    private static ArrayList<ArrayList<Integer>> rangeTuples(int from, int to, int groups) {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = from; i < to; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i % groups)));
+        return tuples;
+    }
+
+    /**
+     * Gather returns the union of its children, across several batches per
+     * child and more batches than a queue holds.
+     */
+    @Test public void gatherUnion() throws Exception {
+        final int perChild = Exchange.BATCH_SIZE * Exchange.QUEUE_BATCHES + 17;
+        DbIterator[] children = new DbIterator[4];
+        for (int i = 0; i < children.length; i++)
+            children[i] = range(i * perChild, (i + 1) * perChild, 10);
+        Gather op = new Gather(children);
+        SystemTestUtil.matchTuples(op, rangeTuples(0, 4 * perChild, 10));
+
+        // a closed gather can run again
+        SystemTestUtil.matchTuples(op, rangeTuples(0, 4 * perChild, 10));
+    }
+
+    @Test public void gatherRewind() throws Exception {
+        Gather op = new Gather(new DbIterator[] { range(0, 50, 5), range(50, 100, 5) });
+        op.open();
+        int n = 0;
+        while (op.hasNext()) {
+            op.next();
+            n++;
+        }
+        assertEquals(100, n);
+        op.rewind();
+        n = 0;
+        while (op.hasNext()) {
+            op.next();
+            n++;
+        }
+        assertEquals(100, n);
+        op.close();
+    }
+
+    /**
+     * Every value of the partitioning field reaches exactly one output, and
+     * no tuple is lost or duplicated.
+     */
+    @Test public void repartitionByKey() throws Exception {
+        final int groups = 37;
+        Repartition r = new Repartition(new DbIterator[] {
+                range(0, 3000, groups), range(3000, 6000, groups), range(6000, 9000, groups) }, 1, 4);
+
+        HashMap<Integer, Integer> owner = new HashMap<Integer, Integer>();
+        int total = 0;
+        for (int o = 0; o < r.numOutputs(); o++)
+            r.getOutput(o).open();
+        // consume outputs round robin so that no queue stays full
+        boolean more = true;
+        while (more) {
+            more = false;
+            for (int o = 0; o < r.numOutputs(); o++) {
+                DbIterator out = r.getOutput(o);
+                if (!out.hasNext())
+                    continue;
+                more = true;
+                int key = ((IntField) out.next().getField(1)).getValue();
+                Integer prev = owner.put(key, o);
+                assertTrue(prev == null || prev == o);
+                total++;
+            }
+        }
+        for (int o = 0; o < r.numOutputs(); o++)
+            r.getOutput(o).close();
+        assertEquals(9000, total);
+        assertEquals(groups, owner.size());
+    }
+
+    /**
+     * A parallel grouped aggregate: repartition on the group field, aggregate
+     * each output on its own thread, and gather the results.
+     */
+    @Test public void repartitionedAggregate() throws Exception {
+        final int groups = 50, outputs = 3;
+        Repartition r = new Repartition(new DbIterator[] {
+                range(0, 5000, groups), range(5000, 10000, groups) }, 1, outputs);
+        DbIterator[] aggs = new DbIterator[outputs];
+        for (int o = 0; o < outputs; o++)
+            aggs[o] = new Aggregate(r.getOutput(o), 0, 1, Aggregator.Op.COUNT);
+        Gather op = new Gather(aggs);
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (int g = 0; g < groups; g++)
+            expected.add(new ArrayList<Integer>(Arrays.asList(g, 10000 / groups)));
+        SystemTestUtil.matchTuples(op, expected);
+    }
+
+    @Test public void broadcastToAll() throws Exception {
+        Broadcast b = new Broadcast(new DbIterator[] { range(0, 600, 7), range(600, 1000, 7) }, 3);
+        DbIterator[] children = new DbIterator[b.numOutputs()];
+        for (int o = 0; o < children.length; o++)
+            children[o] = b.getOutput(o);
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (int o = 0; o < children.length; o++)
+            expected.addAll(rangeTuples(0, 1000, 7));
+        SystemTestUtil.matchTuples(new Gather(children), expected);
+    }
+
+    /**
+     * A failing child surfaces as a DbException from the consumer.
+     */
+    @Test public void childFailure() throws Exception {
+        DbIterator failing = new Filter(new Predicate(0, Predicate.Op.EQUALS, new IntField(0)),
+                range(0, 10, 1)) {
+            private static final long serialVersionUID = 1L;
+
+            protected Tuple fetchNext() throws DbException {
+                throw new DbException("boom");
+            }
+        };
+        Gather op = new Gather(new DbIterator[] { range(0, 100000, 3), failing });
+        op.open();
+        try {
+            while (op.hasNext())
+                op.next();
+            fail("expected the child's exception");
+        } catch (DbException e) {
+            // expected
+        }
+        op.close();
+    }
+
+    /**
+     * Scans a table larger than the buffer pool in page ranges on several
+     * threads: filter + aggregate per range, then combine the partial counts.
+     */
+    @Test public void parallelFilterAggregate() throws Exception {
+        final int rows = 60000;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, rows, 1000, null, tuples);
+        assertTrue(f.numPages() > BufferPool.DEFAULT_PAGES);
+
+        int expected = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) < 300)
+                expected++;
+        }
+
+        TransactionId tid = new TransactionId();
+        SeqScan[] scans = SeqScan.split(tid, f.getId(), "t", 4);
+        assertEquals(4, scans.length);
+        DbIterator[] partials = new DbIterator[scans.length];
+        for (int i = 0; i < scans.length; i++) {
+            Filter filter = new Filter(
+                    new Predicate(0, Predicate.Op.LESS_THAN, new IntField(300)), scans[i]);
+            partials[i] = new Aggregate(filter, 0, Aggregator.NO_GROUPING, Aggregator.Op.COUNT);
+        }
+        Aggregate total = new Aggregate(new Gather(partials), 0,
+                Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+        total.open();
+        assertTrue(total.hasNext());
+        assertEquals(expected, ((IntField) total.next().getField(0)).getValue());
+        assertTrue(TestUtil.checkExhausted(total));
+        total.close();
+    }
+
+    /**
+     * The page ranges of a split scan cover every tuple exactly once.
+     */
+    @Test public void splitScanCoversTable() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 5000, null, tuples);
+        SeqScan[] scans = SeqScan.split(new TransactionId(), f.getId(), "t", 3);
+        SystemTestUtil.matchTuples(new Gather(scans), tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ExchangeTest.class);
+    }
+}
@@ -0,0 +1,175 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+    int width1 = 2;
+    int width2 = 3;
+    DbIterator scan1;
+    DbIterator scan2;
+    DbIterator eqJoin;
+
+    /**
+     * Initialize each unit test
+     */
+    @Before public void createTupleLists() throws Exception {
+        this.scan1 = TestUtil.createTupleList(width1,
+                new int[] { 1, 2,
+                            3, 4,
+                            5, 6,
+                            7, 8 });
+        this.scan2 = TestUtil.createTupleList(width2,
+                new int[] { 1, 2, 3,
+                            2, 3, 4,
+                            3, 4, 5,
+                            4, 5, 6,
+                            5, 6, 7 });
+        this.eqJoin = TestUtil.createTupleList(width1 + width2,
+                new int[] { 1, 2, 1, 2, 3,
+                            3, 4, 3, 4, 5,
+                            5, 6, 5, 6, 7 });
+    }
+
+    /**
+     * Unit test for HashEquiJoin.getTupleDesc()
+     */
+    @Test public void getTupleDesc() {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2);
+        TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+        assertEquals(expected, op.getTupleDesc());
+    }
+
+    /**
+     * Unit test for HashEquiJoin when both inputs fit in memory
+     */
+    @Test public void eqJoin() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2);
+        op.open();
+        eqJoin.open();
+        TestUtil.matchAllTuples(eqJoin, op);
+        assertEquals(0, op.getPartitionPasses());
+    }
+
+    /**
+     * Unit test for HashEquiJoin.rewind()
+     */
+    @Test public void rewind() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2);
+        op.open();
+        while (op.hasNext()) {
+            assertNotNull(op.next());
+        }
+        assertTrue(TestUtil.checkExhausted(op));
+        op.rewind();
+
+        eqJoin.open();
+        Tuple expected = eqJoin.next();
+        Tuple actual = op.next();
+        assertTrue(TestUtil.compareTuples(expected, actual));
+    }
+
+    /** A tuple fetched by hasNext() before a rewind is not returned after it. */
+    @Test public void rewindAfterHasNext() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2);
+        op.open();
+        assertTrue(op.hasNext());
+        op.rewind();
+        int count = 0;
+        while (op.hasNext()) {
+            op.next();
+            count++;
+        }
+        assertEquals(3, count);
+    }
+
+    /**
+     * The left input overflows the budget and is partitioned, so the join
+     * builds on the right input instead of buffering both.
+     */
+    @Test public void buildOnRight() throws Exception {
+        final int rows = 20000;
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashEquiJoin op = new HashEquiJoin(pred, new TestUtil.MockScan(0, rows, 1),
+                new TestUtil.MockScan(100, 200, 1), 1);
+        op.open();
+        int count = 0;
+        while (op.hasNext()) {
+            Tuple t = op.next();
+            assertEquals(((IntField) t.getField(0)).getValue(), ((IntField) t.getField(1)).getValue());
+            count++;
+        }
+        op.close();
+        assertEquals(100, count);
+        assertEquals(1, op.getPartitionPasses());
+    }
+
+    /**
+     * Both inputs exceed a one page budget, so the join must partition them
+     * to disk and still produce every match.
+     */
+    @Test public void graceJoin() throws Exception {
+        final int rows = 20000;
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        HashEquiJoin op = new HashEquiJoin(pred, new TestUtil.MockScan(0, rows, 1),
+                new TestUtil.MockScan(0, rows, 2), 1);
+        op.open();
+        boolean[] seen = new boolean[rows];
+        int count = 0;
+        while (op.hasNext()) {
+            Tuple t = op.next();
+            int v = ((IntField) t.getField(0)).getValue();
+            assertEquals(v, ((IntField) t.getField(2)).getValue());
+            assertFalse(seen[v]);
+            seen[v] = true;
+            count++;
+        }
+        op.close();
+        assertEquals(rows, count);
+        assertTrue(op.getPartitionPasses() >= 2);
+    }
+
+    /**
+     * All tuples share one key, so partitioning cannot split the build side
+     * and the join falls back to joining it in chunks.
+     */
+    @Test public void skewedJoin() throws Exception {
+        final int rows1 = 1200, rows2 = 600;
+        int[] data1 = new int[rows1 * 2];
+        for (int i = 0; i < rows1; i++)
+            data1[2 * i] = 7;
+        int[] data2 = new int[rows2 * 2];
+        for (int i = 0; i < rows2; i++)
+            data2[2 * i] = 7;
+
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashEquiJoin op = new HashEquiJoin(pred, TestUtil.createTupleList(2, data1),
+                TestUtil.createTupleList(2, data2), 1);
+        op.open();
+        int count = 0;
+        while (op.hasNext()) {
+            op.next();
+            count++;
+        }
+        op.close();
+        assertEquals(rows1 * rows2, count);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashEquiJoinTest.class);
+    }
+}
@@ -0,0 +1,159 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashFileTest extends SimpleDbTestBase {
+
+    private HashFile hf;
+    private TransactionId tid;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    /**
+     * Small pages make buckets split and the directory grow past one page;
+     * the BufferPool is large enough to hold every page, since nothing is
+     * flushed.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        BufferPool.setPageSize(256);
+        Database.resetBufferPool(4000);
+        File f = File.createTempFile("hash", ".dat");
+        f.delete();
+        f.deleteOnExit();
+        hf = new HashFile(f, 0, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+
+        Random r = new Random(11);
+        tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 6000; i++) {
+            // key 7 is duplicated far more than a bucket holds
+            int key = i % 10 == 0 ? 7 : r.nextInt(4000);
+            insert(key, i);
+        }
+    }
+
+    @After public void tearDown() {
+        BufferPool.setPageSize(BufferPool.PAGE_SIZE);
+    }
+
+    private void insert(int key, int value) throws Exception {
+        tuples.add(new ArrayList<Integer>(Arrays.asList(key, value)));
+        Database.getBufferPool().insertTuple(tid, hf.getId(),
+                Utility.getHeapTuple(new int[] { key, value }));
+    }
+
+    private static ArrayList<ArrayList<Integer>> sortedCopy(List<ArrayList<Integer>> rows) {
+        ArrayList<ArrayList<Integer>> copy = new ArrayList<ArrayList<Integer>>(rows);
+        Collections.sort(copy, new Comparator<ArrayList<Integer>>() {
+            public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+                int c = a.get(0).compareTo(b.get(0));
+                return c != 0 ? c : a.get(1).compareTo(b.get(1));
+            }
+        });
+        return copy;
+    }
+
+    private ArrayList<Tuple> readAll(DbFileIterator it) throws Exception {
+        ArrayList<Tuple> rows = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext())
+            rows.add(it.next());
+        it.close();
+        return rows;
+    }
+
+    private ArrayList<ArrayList<Integer>> toLists(List<Tuple> rows) {
+        ArrayList<ArrayList<Integer>> lists = new ArrayList<ArrayList<Integer>>();
+        for (Tuple t : rows)
+            lists.add(SystemTestUtil.tupleToList(t));
+        return lists;
+    }
+
+    private ArrayList<ArrayList<Integer>> withKey(int key) {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) == key)
+                rows.add(t);
+        }
+        return rows;
+    }
+
+    @Test public void scanAndLookup() throws Exception {
+        assertEquals(sortedCopy(tuples), sortedCopy(toLists(readAll(hf.iterator(tid)))));
+        for (int key : new int[] { 7, 0, 1, 1234, 3999, 4000, -5 }) {
+            assertEquals(sortedCopy(withKey(key)),
+                    sortedCopy(toLists(readAll(hf.lookup(tid, new IntField(key))))));
+        }
+    }
+
+    /**
+     * The directory grows past one page, while a lookup of a key without
+     * many duplicates still reads a single bucket page.
+     */
+    @Test public void directoryGrowth() throws Exception {
+        HashMetaPage meta = (HashMetaPage) Database.getBufferPool().getPage(tid,
+                HashMetaPage.getId(hf.getId()), Permissions.READ_ONLY);
+        assertTrue(meta.getNumDirectoryPages() > 1);
+        assertTrue((1 << meta.getGlobalDepth()) > HashDirectoryPage.getNumEntries());
+        ArrayList<Tuple> rare = readAll(hf.lookup(tid, new IntField(tuples.get(1).get(0))));
+        HashBucketPage p = (HashBucketPage) Database.getBufferPool().getPage(tid,
+                rare.get(0).getRecordId().getPageId(), Permissions.READ_ONLY);
+        assertNull(p.getNextId());
+        // the pages hold at least half as many tuples as they could
+        int slots = HashBucketPage.getNumSlots(hf.getTupleDesc());
+        assertTrue(hf.numPages() - 1 - meta.getNumDirectoryPages() < 2 * tuples.size() / slots);
+    }
+
+    @Test public void deleteAndReinsert() throws Exception {
+        Random r = new Random(4);
+        ArrayList<Tuple> all = readAll(hf.iterator(tid));
+        Collections.shuffle(all, r);
+        List<Tuple> deleted = all.subList(0, all.size() / 2);
+        for (Tuple t : deleted) {
+            tuples.remove(SystemTestUtil.tupleToList(t));
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        assertEquals(sortedCopy(tuples), sortedCopy(toLists(readAll(hf.iterator(tid)))));
+        assertEquals(sortedCopy(withKey(7)),
+                sortedCopy(toLists(readAll(hf.lookup(tid, new IntField(7))))));
+
+        int pages = hf.numPages();
+        for (int i = 0; i < 1000; i++)
+            insert(r.nextInt(4000), -i);
+        assertEquals(pages, hf.numPages());
+        assertEquals(sortedCopy(tuples), sortedCopy(toLists(readAll(hf.iterator(tid)))));
+    }
+
+    @Test public void persistence() throws Exception {
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(4000);
+        assertEquals(sortedCopy(withKey(7)),
+                sortedCopy(toLists(readAll(hf.lookup(tid, new IntField(7))))));
+        assertEquals(tuples.size(), readAll(hf.iterator(tid)).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void stringKey() throws Exception {
+        new HashFile(File.createTempFile("hash", ".dat"), 0,
+                new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE }));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashFileTest.class);
+    }
+}
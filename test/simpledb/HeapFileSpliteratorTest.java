@@ -0,0 +1,106 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HeapFileSpliteratorTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 20000;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile hf;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, ROWS, null, tuples);
+        tid = new TransactionId();
+    }
+
+    private List<ArrayList<Integer>> collect(Spliterator<Tuple> s) {
+        final ArrayList<ArrayList<Integer>> out = new ArrayList<ArrayList<Integer>>();
+        s.forEachRemaining(t -> out.add(SystemTestUtil.tupleToList(t)));
+        return out;
+    }
+
+    @Test public void sequentialStreamReadsAll() throws Exception {
+        List<ArrayList<Integer>> read = hf.stream(tid, false)
+                .map(SystemTestUtil::tupleToList).collect(Collectors.toList());
+        assertEquals(tuples, read);
+    }
+
+    @Test public void parallelReduction() throws Exception {
+        long expected = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) % 2 == 0)
+                expected += t.get(0);
+        }
+        long sum = hf.stream(tid, true)
+                .filter(t -> ((IntField) t.getField(1)).getValue() % 2 == 0)
+                .mapToLong(t -> ((IntField) t.getField(0)).getValue())
+                .sum();
+        assertEquals(expected, sum);
+
+        // an ordered parallel collect keeps the file order
+        List<ArrayList<Integer>> read = hf.stream(tid, true)
+                .map(SystemTestUtil::tupleToList).collect(Collectors.toList());
+        assertEquals(tuples, read);
+    }
+
+    /**
+     * Splitting divides the pages in halves; the prefix and the rest cover
+     * the file in order and the estimates add up.
+     */
+    @Test public void splitByPages() throws Exception {
+        Spliterator<Tuple> rest = hf.spliterator(tid);
+        assertEquals(hf.numPages() * (long) hf.tuplesPerPage(), rest.estimateSize());
+        Spliterator<Tuple> prefix = rest.trySplit();
+        assertNotNull(prefix);
+        assertEquals(hf.numPages() * (long) hf.tuplesPerPage(),
+                prefix.estimateSize() + rest.estimateSize());
+
+        List<ArrayList<Integer>> read = collect(prefix);
+        read.addAll(collect(rest));
+        assertEquals(tuples, read);
+        assertEquals(0, rest.estimateSize());
+    }
+
+    /**
+     * After reading some pages the estimate is based on their average fill,
+     * and counts the tuples left on the page in progress.
+     */
+    @Test public void estimateTracksTuplesRead() throws Exception {
+        Spliterator<Tuple> s = hf.spliterator(tid);
+        int n = 0;
+        while (n < hf.tuplesPerPage() + 10 && s.tryAdvance(t -> { }))
+            n++;
+        assertEquals(ROWS - n, s.estimateSize(), hf.tuplesPerPage());
+        Spliterator<Tuple> prefix = s.trySplit();
+        assertEquals(ROWS - n, prefix.estimateSize() + s.estimateSize(), hf.tuplesPerPage());
+        assertEquals(ROWS - n, collect(prefix).size() + collect(s).size());
+    }
+
+    @Test public void singlePageDoesNotSplit() throws Exception {
+        Spliterator<Tuple> s = new HeapFileSpliterator(hf, tid, 0, 1);
+        assertNull(s.trySplit());
+        assertEquals(hf.tuplesPerPage(), collect(s).size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileSpliteratorTest.class);
+    }
+}
@@ -0,0 +1,90 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HeapFileWriteTest extends SimpleDbTestBase {
+    private TransactionId tid;
+    private HeapFile empty;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        File f = File.createTempFile("empty", ".dat");
+        f.deleteOnExit();
+        empty = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+        tid = new TransactionId();
+    }
+
+    /**
+     * Inserting fills the existing page before the file grows by a page.
+     */
+    @Test public void addTuple() throws Exception {
+        int perPage = empty.tuplesPerPage();
+        for (int i = 0; i < perPage; i++) {
+            ArrayList<Page> modified = empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+            assertEquals(1, modified.size());
+            assertEquals(0, modified.get(0).getId().pageNumber());
+        }
+        assertEquals(1, empty.numPages());
+
+        Tuple t = Utility.getHeapTuple(perPage, 2);
+        ArrayList<Page> modified = empty.insertTuple(tid, t);
+        assertEquals(1, modified.get(0).getId().pageNumber());
+        assertEquals(2, empty.numPages());
+        assertEquals(new RecordId(modified.get(0).getId(), 0), t.getRecordId());
+    }
+
+    @Test public void deleteTuple() throws Exception {
+        Tuple t = Utility.getHeapTuple(7, 2);
+        empty.insertTuple(tid, t);
+        HeapPage p = (HeapPage) empty.deleteTuple(tid, t).get(0);
+        assertEquals(empty.tuplesPerPage(), p.getNumEmptySlots());
+        assertNull(t.getRecordId());
+        try {
+            empty.deleteTuple(tid, t);
+            fail("deleted a tuple that is not in the file");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Changes made through the BufferPool are seen by scans, and reach the
+     * file once the pages are flushed.
+     */
+    @Test public void bufferPoolWriteAndFlush() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1000, null, tuples);
+        Tuple t = Utility.getHeapTuple(new int[] { -1, -2 });
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid,
+                t.getRecordId().getPageId(), Permissions.READ_ONLY);
+        assertEquals(tid, p.isDirty());
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>(tuples);
+        expected.add(new ArrayList<Integer>(Arrays.asList(-1, -2)));
+        SystemTestUtil.matchTuples(hf, tid, expected);
+
+        Database.getBufferPool().flushPages(tid);
+        assertNull(p.isDirty());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(hf, tid, expected);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileWriteTest.class);
+    }
+}
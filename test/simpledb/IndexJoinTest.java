@@ -0,0 +1,125 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IndexJoinTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+    private ArrayList<ArrayList<Integer>> outerRows;
+    private ArrayList<ArrayList<Integer>> innerRows;
+    private int outerId;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        Database.resetBufferPool(500);
+        tid = new TransactionId();
+        outerRows = new ArrayList<ArrayList<Integer>>();
+        outerId = SystemTestUtil.createRandomHeapFile(2, 300, 200, null, outerRows).getId();
+
+        Random r = new Random(8);
+        innerRows = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 1000; i++)
+            innerRows.add(new ArrayList<Integer>(Arrays.asList(r.nextInt(400), i, -i)));
+    }
+
+    /** @return the id of a new table of the inner rows stored in file */
+    private int load(DbFile file) throws Exception {
+        Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+        for (ArrayList<Integer> row : innerRows) {
+            Database.getBufferPool().insertTuple(tid, file.getId(),
+                    Utility.getHeapTuple(new int[] { row.get(0), row.get(1), row.get(2) }));
+        }
+        return file.getId();
+    }
+
+    private static File tempFile() throws Exception {
+        File f = File.createTempFile("index", ".dat");
+        f.delete();
+        f.deleteOnExit();
+        return f;
+    }
+
+    private ArrayList<ArrayList<Integer>> expectedJoin() {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> o : outerRows) {
+            for (ArrayList<Integer> i : innerRows) {
+                if (o.get(1).equals(i.get(0))) {
+                    ArrayList<Integer> row = new ArrayList<Integer>(o);
+                    row.addAll(i);
+                    rows.add(row);
+                }
+            }
+        }
+        return rows;
+    }
+
+    private void checkJoin(int innerId) throws Exception {
+        IndexJoin join = new IndexJoin(tid, new SeqScan(tid, outerId, "o"), 1, innerId, "i");
+        assertEquals(5, join.getTupleDesc().numFields());
+        SystemTestUtil.matchTuples(join, expectedJoin());
+        assertEquals(outerRows.size(), join.getLookups());
+    }
+
+    @Test public void joinWithHashFile() throws Exception {
+        checkJoin(load(new HashFile(tempFile(), 0, Utility.getTupleDesc(3))));
+    }
+
+    @Test public void joinWithBTreeFile() throws Exception {
+        checkJoin(load(new BTreeFile(tempFile(), 0, Utility.getTupleDesc(3))));
+    }
+
+    @Test public void rewind() throws Exception {
+        int innerId = load(new HashFile(tempFile(), 0, Utility.getTupleDesc(3)));
+        IndexJoin join = new IndexJoin(tid, new SeqScan(tid, outerId, "o"), 1, innerId, "i");
+        join.open();
+        int n = 0;
+        while (join.hasNext()) {
+            join.next();
+            n++;
+        }
+        join.rewind();
+        int m = 0;
+        while (join.hasNext()) {
+            join.next();
+            m++;
+        }
+        join.close();
+        assertEquals(expectedJoin().size(), n);
+        assertEquals(n, m);
+    }
+
+    @Test public void lookup() throws Exception {
+        int innerId = load(new HashFile(tempFile(), 0, Utility.getTupleDesc(3)));
+        int key = innerRows.get(0).get(0);
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> row : innerRows) {
+            if (row.get(0) == key)
+                expected.add(row);
+        }
+        SystemTestUtil.matchTuples(new IndexLookup(tid, innerId, "i", new IntField(key)), expected);
+        SystemTestUtil.matchTuples(new IndexLookup(tid, innerId, "i", new IntField(-1)),
+                new ArrayList<ArrayList<Integer>>());
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void lookupNeedsIndex() {
+        new IndexLookup(tid, outerId, "o", new IntField(1));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexJoinTest.class);
+    }
+}
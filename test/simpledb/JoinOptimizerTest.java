@@ -0,0 +1,153 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class JoinOptimizerTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+    private HeapFile big, mid, small;
+
+    private static HeapFile createTable(ArrayList<ArrayList<Integer>> tuples, String prefix)
+            throws Exception {
+        File f = File.createTempFile("join", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        return Utility.openHeapFile(2, prefix, f);
+    }
+
+    private static ArrayList<ArrayList<Integer>> rows(int n, int mod0, int mod1) {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < n; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i % mod0, i % mod1)));
+        return tuples;
+    }
+
+    /**
+     * A chain big.b0 = mid.m0, mid.m1 = small.s0: big has ten rows for each
+     * row of mid, and mid 40 rows for each row of small.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+        big = createTable(rows(20000, 2000, 997), "b");
+        mid = createTable(rows(2000, 2000, 50), "m");
+        small = createTable(rows(50, 50, 50), "s");
+    }
+
+    private static int value(Tuple t, int field) {
+        return ((IntField) t.getField(field)).getValue();
+    }
+
+    private JoinOptimizer chainQuery() {
+        JoinOptimizer opt = new JoinOptimizer(tid);
+        opt.addTable(big.getId(), "big");
+        opt.addTable(mid.getId(), "mid");
+        opt.addTable(small.getId(), "small");
+        opt.addJoin("big", "b0", Predicate.Op.EQUALS, "mid", "m0");
+        opt.addJoin("small", "s0", Predicate.Op.EQUALS, "mid", "m1");
+        opt.addFilter("small", "s1", Predicate.Op.LESS_THAN, new IntField(5));
+        return opt;
+    }
+
+    /**
+     * The filtered small table is joined first, the big table last, and
+     * small and big are never joined by a cross product.
+     */
+    @Test public void chainJoinOrder() throws Exception {
+        JoinOptimizer opt = chainQuery();
+        DbIterator plan = opt.optimize();
+        assertEquals(Arrays.asList("small", "mid", "big"), opt.getJoinOrder());
+        assertTrue(plan instanceof HashEquiJoin);
+
+        int b0 = opt.getOutputField("big", "b0");
+        int m0 = opt.getOutputField("mid", "m0");
+        int m1 = opt.getOutputField("mid", "m1");
+        int s0 = opt.getOutputField("small", "s0");
+        int s1 = opt.getOutputField("small", "s1");
+        plan.open();
+        int n = 0;
+        while (plan.hasNext()) {
+            Tuple t = plan.next();
+            assertEquals(value(t, b0), value(t, m0));
+            assertEquals(value(t, m1), value(t, s0));
+            assertTrue(value(t, s1) < 5);
+            n++;
+        }
+        plan.close();
+        // 5 small rows, 200 mid rows, 2000 big rows
+        assertEquals(2000, n);
+        assertEquals(2000, opt.getPlanCardinality(), 1000);
+    }
+
+    /** Statistics already in the Catalog are used instead of a sample. */
+    @Test public void usesCatalogStats() throws Exception {
+        TableStats stats = TableStats.analyze(big.getId(), tid);
+        chainQuery().optimize();
+        assertSame(stats, Database.getCatalog().getTableStats(big.getId()));
+        assertNotNull(Database.getCatalog().getTableStats(small.getId()));
+    }
+
+    @Test public void crossProductWhenDisconnected() throws Exception {
+        JoinOptimizer opt = new JoinOptimizer(tid);
+        opt.addTable(small.getId(), "x");
+        opt.addTable(small.getId(), "y");
+        opt.addFilter("x", "s0", Predicate.Op.LESS_THAN, new IntField(3));
+        DbIterator plan = opt.optimize();
+        assertTrue(plan instanceof Join);
+        plan.open();
+        int n = 0;
+        while (plan.hasNext()) {
+            plan.next();
+            n++;
+        }
+        assertEquals(3 * 50, n);
+    }
+
+    /**
+     * A range predicate is evaluated by a nested loops join, and a second
+     * predicate between the same tables is applied on top of the join.
+     */
+    @Test public void rangeAndResidualPredicates() throws Exception {
+        JoinOptimizer opt = new JoinOptimizer(tid);
+        opt.addTable(small.getId(), "x");
+        opt.addTable(mid.getId(), "y");
+        opt.addJoin("x", "s0", Predicate.Op.GREATER_THAN, "y", "m1");
+        opt.addJoin("y", "m0", Predicate.Op.LESS_THAN, "x", "s1");
+        DbIterator plan = opt.optimize();
+
+        int expected = 0;
+        for (int s = 0; s < 50; s++) {
+            for (int m = 0; m < 2000; m++) {
+                if (s > m % 50 && m < s)
+                    expected++;
+            }
+        }
+        int xs0 = opt.getOutputField("x", "s0");
+        int ym0 = opt.getOutputField("y", "m0");
+        plan.open();
+        int n = 0;
+        while (plan.hasNext()) {
+            Tuple t = plan.next();
+            assertTrue(value(t, ym0) < value(t, xs0));
+            n++;
+        }
+        assertEquals(expected, n);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(JoinOptimizerTest.class);
+    }
+}
@@ -0,0 +1,120 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class JoinTest extends SimpleDbTestBase {
+
+    int width1 = 2;
+    int width2 = 3;
+    DbIterator scan1;
+    DbIterator scan2;
+    DbIterator gtJoin;
+
+    /**
+     * Initialize each unit test
+     */
+    @Before public void createTupleLists() throws Exception {
+        this.scan1 = TestUtil.createTupleList(width1,
+                new int[] { 1, 2,
+                            3, 4,
+                            5, 6,
+                            7, 8 });
+        this.scan2 = TestUtil.createTupleList(width2,
+                new int[] { 1, 2, 3,
+                            2, 3, 4,
+                            3, 4, 5,
+                            4, 5, 6,
+                            5, 6, 7 });
+        // ordered by inner tuple, then outer tuple
+        this.gtJoin = TestUtil.createTupleList(width1 + width2,
+                new int[] { 3, 4, 1, 2, 3,
+                            5, 6, 1, 2, 3,
+                            7, 8, 1, 2, 3,
+                            3, 4, 2, 3, 4,
+                            5, 6, 2, 3, 4,
+                            7, 8, 2, 3, 4,
+                            5, 6, 3, 4, 5,
+                            7, 8, 3, 4, 5,
+                            5, 6, 4, 5, 6,
+                            7, 8, 4, 5, 6,
+                            7, 8, 5, 6, 7 });
+    }
+
+    @Test public void getTupleDesc() {
+        Join op = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0), scan1, scan2);
+        assertEquals(Utility.getTupleDesc(width1 + width2), op.getTupleDesc());
+    }
+
+    @Test public void gtJoin() throws Exception {
+        Join op = new Join(new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0), scan1, scan2);
+        op.open();
+        gtJoin.open();
+        TestUtil.compareDbIterators(gtJoin, op);
+        assertEquals(1, op.getInnerScans());
+    }
+
+    @Test public void rewind() throws Exception {
+        Join op = new Join(new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0), scan1, scan2);
+        op.open();
+        while (op.hasNext())
+            assertNotNull(op.next());
+        op.rewind();
+        gtJoin.open();
+        TestUtil.compareDbIterators(gtJoin, op);
+    }
+
+    @Test public void crossProduct() throws Exception {
+        Join op = new Join(null, scan1, scan2);
+        op.open();
+        int n = 0;
+        while (op.hasNext()) {
+            op.next();
+            n++;
+        }
+        assertEquals(4 * 5, n);
+    }
+
+    /**
+     * With a one page budget, the inner child is scanned once per page of
+     * outer tuples.
+     */
+    @Test public void multipleBlocks() throws Exception {
+        int perPage = SpillFile.tuplesPerPage(Utility.getTupleDesc(width1));
+        int rows = perPage * 2 + 10;
+        int[] data = new int[rows * width1];
+        for (int i = 0; i < rows; i++)
+            data[i * width1] = i % 7;
+        Join op = new Join(new JoinPredicate(0, Predicate.Op.LESS_THAN_OR_EQ, 0),
+                TestUtil.createTupleList(width1, data), scan2, 1);
+        op.open();
+        int n = 0;
+        while (op.hasNext()) {
+            Tuple t = op.next();
+            assertTrue(((IntField) t.getField(0)).getValue() <= ((IntField) t.getField(width1)).getValue());
+            n++;
+        }
+        int expected = 0;
+        for (int i = 0; i < rows; i++) {
+            for (int v = 1; v <= 5; v++) {
+                if (i % 7 <= v)
+                    expected++;
+            }
+        }
+        assertEquals(expected, n);
+        assertEquals(3, op.getInnerScans());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(JoinTest.class);
+    }
+}
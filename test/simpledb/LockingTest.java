@@ -0,0 +1,335 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LockingTest extends SimpleDbTestBase {
+
+    /** How long a LockGrabber gets to acquire a lock that is free */
+    private static final long TIMEOUT = 200;
+
+    private HeapFile hf;
+    private PageId p0, p1;
+    private TransactionId tid1, tid2;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 1100, null, null);
+        p0 = new HeapPageId(hf.getId(), 0);
+        p1 = new HeapPageId(hf.getId(), 1);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+        bp = Database.resetBufferPool(50);
+    }
+
+    /** Starts a thread asking for a lock, and gives it time to get it. */
+    private TestUtil.LockGrabber grab(TransactionId tid, PageId pid, Permissions perm)
+            throws Exception {
+        TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid, pid, perm);
+        t.start();
+        Thread.sleep(TIMEOUT);
+        return t;
+    }
+
+    @Test public void sharedLocks() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        assertTrue(grab(tid2, p0, Permissions.READ_ONLY).acquired());
+        assertTrue(bp.holdsLock(tid1, p0));
+        assertTrue(bp.holdsLock(tid2, p0));
+        assertFalse(bp.holdsLock(tid1, p1));
+    }
+
+    @Test public void exclusiveLocks() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        assertFalse(grab(tid2, p0, Permissions.READ_ONLY).acquired());
+        assertTrue(grab(tid2, p1, Permissions.READ_WRITE).acquired());
+    }
+
+    @Test public void releaseWakesWaiters() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        TestUtil.LockGrabber t = grab(tid2, p0, Permissions.READ_WRITE);
+        assertFalse(t.acquired());
+        bp.transactionComplete(tid1);
+        t.join(TIMEOUT);
+        assertTrue(t.acquired());
+        assertFalse(bp.holdsLock(tid1, p0));
+        assertTrue(bp.getLockManager().holdsExclusive(tid2, p0));
+    }
+
+    @Test public void upgrade() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        assertTrue(bp.getLockManager().holdsExclusive(tid1, p0));
+
+        // another reader keeps a shared lock from being upgraded
+        bp.getPage(tid1, p1, Permissions.READ_ONLY);
+        bp.getPage(tid2, p1, Permissions.READ_ONLY);
+        TestUtil.LockGrabber t = grab(tid1, p1, Permissions.READ_WRITE);
+        assertFalse(t.acquired());
+        bp.transactionComplete(tid2);
+        t.join(TIMEOUT);
+        assertTrue(t.acquired());
+    }
+
+    /** Two transactions upgrading the same page deadlock; the younger aborts. */
+    @Test public void upgradeDeadlock() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        bp.getPage(tid2, p0, Permissions.READ_ONLY);
+        TestUtil.LockGrabber older = grab(tid1, p0, Permissions.READ_WRITE);
+        TestUtil.LockGrabber younger = grab(tid2, p0, Permissions.READ_WRITE);
+        older.join(TIMEOUT);
+        assertTrue(younger.getError() instanceof TransactionAbortedException);
+        assertTrue(older.acquired());
+        assertNull(older.getError());
+    }
+
+    /**
+     * A cycle of waits across pages is found even when it is closed by the
+     * older transaction, which then waits for the younger one to abort.
+     */
+    @Test public void crossDeadlock() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        bp.getPage(tid2, p1, Permissions.READ_WRITE);
+        TestUtil.LockGrabber younger = grab(tid2, p0, Permissions.READ_WRITE);
+        assertFalse(younger.acquired());
+        TestUtil.LockGrabber older = grab(tid1, p1, Permissions.READ_WRITE);
+        older.join(TIMEOUT);
+        younger.join(TIMEOUT);
+        assertTrue(younger.getError() instanceof TransactionAbortedException);
+        assertTrue(older.acquired());
+        assertFalse(bp.holdsLock(tid2, p1));
+    }
+
+    /** A full page an insert only looked at is not kept locked. */
+    @Test public void insertLocks() throws Exception {
+        bp.insertTuple(tid1, hf.getId(), Utility.getHeapTuple(new int[] { 1, 2 }));
+        PageId last = new HeapPageId(hf.getId(), hf.numPages() - 1);
+        assertTrue(bp.getLockManager().holdsExclusive(tid1, last));
+        assertFalse(bp.holdsLock(tid1, p0));
+    }
+
+    private int count(TransactionId tid) throws Exception {
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    @Test public void abortDiscardsChanges() throws Exception {
+        for (int i = 0; i < 10; i++)
+            bp.insertTuple(tid1, hf.getId(), Utility.getHeapTuple(new int[] { i, i }));
+        assertEquals(1110, count(tid1));
+        bp.transactionComplete(tid1, false);
+        assertEquals(1100, count(tid2));
+    }
+
+    @Test public void commitForcesChanges() throws Exception {
+        for (int i = 0; i < 10; i++)
+            bp.insertTuple(tid1, hf.getId(), Utility.getHeapTuple(new int[] { i, i }));
+        bp.transactionComplete(tid1, true);
+        Database.resetBufferPool(50);
+        assertEquals(1110, count(tid2));
+    }
+
+    /** A lock request made on a thread of its own, since it may block. */
+    private abstract static class Attempt extends Thread {
+        volatile boolean acquired;
+
+        abstract void lock() throws Exception;
+
+        public void run() {
+            try {
+                lock();
+                acquired = true;
+            } catch (Exception e) {
+            }
+        }
+
+        Attempt begin() throws Exception {
+            start();
+            join(TIMEOUT);
+            return this;
+        }
+    }
+
+    @Test public void modes() {
+        LockManager.Mode IS = LockManager.Mode.IS, IX = LockManager.Mode.IX,
+                S = LockManager.Mode.S, SIX = LockManager.Mode.SIX, X = LockManager.Mode.X;
+        assertTrue(IS.compatible(SIX));
+        assertTrue(IX.compatible(IX));
+        assertFalse(IX.compatible(S));
+        assertFalse(SIX.compatible(IX));
+        assertFalse(X.compatible(IS));
+        assertEquals(SIX, S.lub(IX));
+        assertEquals(X, SIX.lub(X));
+        assertTrue(SIX.covers(S));
+        assertFalse(SIX.covers(X));
+    }
+
+    @Test public void fullScanTakesTableLock() throws Exception {
+        DbFileIterator it = hf.iterator(tid1);
+        it.open();
+        while (it.hasNext())
+            it.next();
+        it.close();
+        assertEquals(LockManager.Mode.S, bp.getLockManager().getTableMode(tid1, hf.getId()));
+        assertTrue(bp.getLockManager().getLockedPages(tid1).isEmpty());
+        assertTrue(bp.holdsLock(tid1, p1));
+        assertTrue(grab(tid2, p0, Permissions.READ_ONLY).acquired());
+        assertFalse(grab(tid2, p1, Permissions.READ_WRITE).acquired());
+    }
+
+    @Test public void intentionLocks() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        assertEquals(LockManager.Mode.IX, bp.getLockManager().getTableMode(tid1, hf.getId()));
+        assertTrue(grab(tid2, p1, Permissions.READ_ONLY).acquired());
+        assertEquals(LockManager.Mode.IS, bp.getLockManager().getTableMode(tid2, hf.getId()));
+        Attempt table = new Attempt() {
+            void lock() throws Exception {
+                bp.lockTable(tid2, hf.getId(), Permissions.READ_ONLY);
+            }
+        }.begin();
+        assertFalse(table.acquired);
+        bp.transactionComplete(tid1);
+        table.join(TIMEOUT);
+        assertTrue(table.acquired);
+    }
+
+    /** A table scanned and then updated is held in SIX, which admits readers of other pages. */
+    @Test public void sixLock() throws Exception {
+        bp.lockTable(tid1, hf.getId(), Permissions.READ_ONLY);
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        assertEquals(LockManager.Mode.SIX, bp.getLockManager().getTableMode(tid1, hf.getId()));
+        assertEquals(LockManager.Mode.X, bp.getLockManager().getPageMode(tid1, p0));
+        assertTrue(grab(tid2, p1, Permissions.READ_ONLY).acquired());
+        assertFalse(grab(tid2, p0, Permissions.READ_ONLY).acquired());
+    }
+
+    @Test public void tupleLocks() throws Exception {
+        final RecordId r0 = new RecordId(p0, 0);
+        final RecordId r1 = new RecordId(p0, 1);
+        bp.lockTuple(tid1, r0, Permissions.READ_WRITE);
+        assertEquals(LockManager.Mode.IX, bp.getLockManager().getPageMode(tid1, p0));
+        assertEquals(LockManager.Mode.X, bp.getLockManager().getTupleMode(tid1, r0));
+        assertTrue(new Attempt() {
+            void lock() throws Exception {
+                bp.lockTuple(tid2, r1, Permissions.READ_WRITE);
+            }
+        }.begin().acquired);
+        assertFalse(new Attempt() {
+            void lock() throws Exception {
+                bp.lockTuple(tid2, new RecordId(new HeapPageId(hf.getId(), 0), 0), Permissions.READ_ONLY);
+            }
+        }.begin().acquired);
+        // a page lock conflicts with the other transaction's tuple lock
+        assertFalse(grab(tid2, p0, Permissions.READ_ONLY).acquired());
+    }
+
+    @Test public void escalation() throws Exception {
+        LockManager lm = bp.getLockManager();
+        lm.setEscalationThreshold(10);
+        // nine tuple locks and the intention lock on their page
+        for (int i = 0; i < 9; i++)
+            lm.acquireTuple(tid1, new RecordId(p0, i), Permissions.READ_ONLY);
+        assertEquals(LockManager.Mode.IS, lm.getTableMode(tid1, hf.getId()));
+        lm.acquireTuple(tid1, new RecordId(p1, 0), Permissions.READ_ONLY);
+        assertEquals(LockManager.Mode.S, lm.getTableMode(tid1, hf.getId()));
+        assertNull(lm.getTupleMode(tid1, new RecordId(p0, 3)));
+        assertNull(lm.getPageMode(tid1, p0));
+        assertTrue(bp.holdsLock(tid1, p1));
+
+        // a writer escalates to an exclusive table lock
+        for (int i = 0; i < 11; i++)
+            lm.acquireTuple(tid2, new RecordId(new HeapPageId(-1, 0), i), Permissions.READ_WRITE);
+        assertEquals(LockManager.Mode.X, lm.getTableMode(tid2, -1));
+        assertTrue(lm.getLockedPages(tid2).isEmpty());
+    }
+
+    /**
+     * A read-only transaction locks the pages it reads like any reader, so
+     * writers of other pages of the table are not blocked.
+     */
+    @Test public void readOnlyTransaction() throws Exception {
+        TransactionId ro = new TransactionId(true);
+        bp.getPage(ro, p0, Permissions.READ_ONLY);
+        assertEquals(LockManager.Mode.IS, bp.getLockManager().getTableMode(ro, hf.getId()));
+        assertEquals(LockManager.Mode.S, bp.getLockManager().getPageMode(ro, p0));
+        assertTrue(grab(tid2, p0, Permissions.READ_ONLY).acquired());
+        assertTrue(grab(tid1, p1, Permissions.READ_WRITE).acquired());
+        assertFalse(grab(tid2, p0, Permissions.READ_WRITE).acquired());
+        bp.transactionComplete(ro);
+        assertNull(bp.getLockManager().getTableMode(ro, hf.getId()));
+        assertTrue(bp.getLockManager().getLockedPages(ro).isEmpty());
+    }
+
+    @Test(expected = DbException.class) public void readOnlyTransactionCannotWrite() throws Exception {
+        bp.insertTuple(new TransactionId(true), hf.getId(), Utility.getHeapTuple(new int[] { 1, 2 }));
+    }
+
+    @Test public void readOnlyTransactionIsNotLogged() throws Exception {
+        LogFile log = Database.getLogFile();
+        TransactionId ro = new TransactionId(true);
+        int before = log.getTotalRecords();
+        log.logXactionBegin(ro);
+        log.logCommit(ro);
+        log.logAbort(ro);
+        assertEquals(before, log.getTotalRecords());
+    }
+
+    /**
+     * Many threads locking pages of many tables; every acquire and release
+     * goes through a partition of the lock table.
+     */
+    @Test public void concurrentReaders() throws Exception {
+        final LockManager lm = new LockManager();
+        final ArrayList<Throwable> errors = new ArrayList<Throwable>();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final int table = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int round = 0; round < 100; round++) {
+                            TransactionId tid = new TransactionId();
+                            for (int pg = 0; pg < 20; pg++)
+                                lm.acquire(tid, new HeapPageId(pg % 2 == 0 ? -1 : table, pg),
+                                        pg % 2 == 0 ? Permissions.READ_ONLY : Permissions.READ_WRITE);
+                            lm.releaseAll(tid);
+                            assertTrue(lm.getLockedPages(tid).isEmpty());
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        assertTrue(errors.toString(), errors.isEmpty());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockingTest.class);
+    }
+}
@@ -0,0 +1,382 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.Callable;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LogFileTest extends SimpleDbTestBase {
+
+    private LogFile log;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        File f = File.createTempFile("log", ".dat");
+        f.deleteOnExit();
+        log = new LogFile(f);
+    }
+
+    private void commit() throws Exception {
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.logCommit(tid);
+    }
+
+    @Test public void eachCommitForcesAlone() throws Exception {
+        for (int i = 0; i < 3; i++)
+            commit();
+        assertEquals(3, log.getNumForces());
+        assertEquals(6, log.getTotalRecords());
+    }
+
+    /** Concurrent committers share the forces of the log. */
+    @Test public void groupCommit() throws Exception {
+        log.setGroupCommitDelay(50000);
+        final ArrayList<Throwable> errors = new ArrayList<Throwable>();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        commit();
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(16, log.getTotalRecords());
+        assertTrue(log.getNumForces() < threads.length);
+    }
+
+    /** Runs a task on a new thread, collecting what it throws. */
+    private static Thread run(final ArrayList<Throwable> errors, final Callable<?> task) {
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    task.call();
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            }
+        };
+        t.start();
+        return t;
+    }
+
+    /** Records are appended while the log is being forced. */
+    @Test public void appendsDuringForce() throws Exception {
+        final ArrayList<Throwable> errors = new ArrayList<Throwable>();
+        Thread committer, appender;
+        synchronized (log.forceLock) {
+            // the committer's force cannot finish until the lock is released
+            committer = run(errors, new Callable<Object>() {
+                public Object call() throws Exception {
+                    commit();
+                    return null;
+                }
+            });
+            while (committer.getState() != Thread.State.BLOCKED)
+                Thread.sleep(1);
+            appender = run(errors, new Callable<Object>() {
+                public Object call() throws Exception {
+                    log.logXactionBegin(new TransactionId());
+                    return null;
+                }
+            });
+            appender.join(5000);
+            assertFalse("the append waited for the force", appender.isAlive());
+            assertEquals(0, log.getNumForces());
+        }
+        committer.join();
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(3, log.getTotalRecords());
+        assertEquals(1, log.getNumForces());
+    }
+
+    /** Records stay in the log buffer until the log is forced. */
+    @Test public void bufferedAppends() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        for (int i = 0; i < 10; i++)
+            log.logWrite(tid, page.getBeforeImage(), page);
+        assertEquals(LogFile.LONG_SIZE, log.logFile.length());
+        long lsn = log.getCurrentLsn();
+        assertTrue(lsn > LogFile.LONG_SIZE);
+
+        log.force(lsn);
+        assertEquals(lsn, log.logFile.length());
+        assertEquals(1, log.getNumForces());
+        // already on disk
+        log.force(lsn);
+        assertEquals(1, log.getNumForces());
+
+        // the records read back when the log is truncated
+        log.logCommit(tid);
+        log.logCheckpoint();
+        assertTrue(log.getCurrentLsn() > lsn);
+        assertTrue(log.logFile.length() < lsn);
+    }
+
+    /** Returns a copy of a page with its first tuple deleted. */
+    private static HeapPage withoutFirstTuple(HeapPage page) throws Exception {
+        HeapPage changed = (HeapPage) page.getBeforeImage();
+        changed.deleteTuple(changed.iterator().next());
+        return changed;
+    }
+
+    @Test public void deltas() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        HeapPage changed = withoutFirstTuple(page);
+        changed.insertTuple(Utility.getHeapTuple(new int[] { -1, -2 }));
+        PageDelta d = PageDelta.diff(page, changed);
+        // a header bit and the slot
+        assertEquals(1, d.getNumRanges());
+        assertTrue(d.getNumBytes() < 16);
+        assertArrayEquals(changed.getPageData(), d.apply(page, true).getPageData());
+        assertArrayEquals(page.getPageData(), d.apply(changed, false).getPageData());
+        assertTrue(d.appliesTo(page.getPageData(), true));
+        assertFalse(d.appliesTo(changed.getPageData(), true));
+        assertTrue(d.appliesTo(changed.getPageData(), false));
+
+        // far smaller than two page images
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        long lsn = log.getCurrentLsn();
+        log.logWrite(tid, page, changed);
+        assertTrue(log.getCurrentLsn() - lsn < 100);
+    }
+
+    /** An aborted transaction's changes that reached disk are undone. */
+    @Test public void rollback() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+        HeapPageId pid = new HeapPageId(hf.getId(), 1);
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        HeapPage changed = withoutFirstTuple(page);
+        log.logWrite(tid, page, changed);
+        HeapPage again = withoutFirstTuple(changed);
+        log.logWrite(tid, changed, again);
+        hf.writePage(again);
+
+        log.logAbort(tid);
+        assertArrayEquals(page.getPageData(), hf.readPage(pid).getPageData());
+    }
+
+    /**
+     * After a crash, committed changes that never reached disk are redone,
+     * and uncommitted ones that did are undone.
+     */
+    @Test public void recover() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+        HeapPageId p0 = new HeapPageId(hf.getId(), 0), p1 = new HeapPageId(hf.getId(), 1);
+        HeapPage page0 = (HeapPage) hf.readPage(p0), page1 = (HeapPage) hf.readPage(p1);
+
+        TransactionId loser = new TransactionId();
+        log.logXactionBegin(loser);
+        HeapPage lost = withoutFirstTuple(page1);
+        log.logWrite(loser, page1, lost);
+        hf.writePage(lost);
+
+        TransactionId winner = new TransactionId();
+        log.logXactionBegin(winner);
+        HeapPage won = withoutFirstTuple(page0);
+        log.logWrite(winner, page0, won);
+        log.logCommit(winner);
+
+        LogFile restarted = new LogFile(log.logFile);
+        restarted.recover();
+        assertArrayEquals(won.getPageData(), hf.readPage(p0).getPageData());
+        assertArrayEquals(page1.getPageData(), hf.readPage(p1).getPageData());
+    }
+
+    /** Waits for the WAL writer to force the log, and fails if it takes too long. */
+    private void awaitForces(long n) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (log.getNumForces() < n) {
+            assertTrue("the log was not forced", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    /** Commits spread over several intervals are each forced within about one. */
+    @Test public void asyncCommit() throws Exception {
+        final long interval = 50, slack = 250;
+        log.setAsyncCommit(true);
+        log.setAsyncCommitInterval(interval);
+        for (int i = 1; i <= 3; i++) {
+            long committed = System.currentTimeMillis();
+            commit();
+            assertEquals(i - 1, log.getNumForces());
+            awaitForces(i);
+            assertTrue(System.currentTimeMillis() - committed < interval + slack);
+            assertEquals(0, log.getUnflushedCommitAge());
+            // the WAL writer goes idle before the next commit
+            Thread.sleep(2 * interval);
+        }
+        assertTrue(log.getMaxUnflushedCommitAge() >= interval);
+        assertTrue(log.getMaxUnflushedCommitAge() < interval + slack);
+
+        // a transaction may still commit synchronously
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.logCommit(tid, false);
+        assertEquals(4, log.getNumForces());
+    }
+
+    /** Enough waiting log is forced without waiting for the interval. */
+    @Test public void asyncCommitSizeThreshold() throws Exception {
+        log.setAsyncCommitInterval(60000);
+        log.setAsyncCommitBytes(1);
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.logCommit(tid, true);
+        awaitForces(1);
+        assertTrue(log.getMaxUnflushedCommitAge() < 60000);
+    }
+
+    /**
+     * A checkpoint writes the pages dirty when it began in the background,
+     * while transactions go on logging.
+     */
+    @Test public void fuzzyCheckpoint() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1500, null, null);
+        BufferPool bp = Database.getBufferPool();
+        TransactionId writer = new TransactionId();
+        byte[][] original = dirtyPages(hf, writer);
+
+        log.setCheckpointRate(10);
+        Thread checkpoint = log.logCheckpointInBackground();
+        commit();
+        assertTrue(checkpoint.isAlive());
+        checkpoint.join();
+
+        for (int pg = 0; pg < 3; pg++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), pg);
+            Page cached = bp.getPage(writer, pid, Permissions.READ_ONLY);
+            assertArrayEquals(cached.getPageData(), hf.readPage(pid).getPageData());
+            // still the writer's until it commits
+            assertEquals(writer, cached.isDirty());
+        }
+
+        // the log still reads back after the checkpoint and truncation, and
+        // a crash undoes the writes of the transaction that never committed
+        commit();
+        new LogFile(log.logFile).recover();
+        for (int pg = 0; pg < 3; pg++)
+            assertArrayEquals(original[pg], hf.readPage(new HeapPageId(hf.getId(), pg)).getPageData());
+    }
+
+    /**
+     * Deletes a tuple from each of the first three pages of a file.
+     * @return the data of the pages before
+     */
+    private static byte[][] dirtyPages(HeapFile hf, TransactionId tid) throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        byte[][] original = new byte[3][];
+        for (int pg = 0; pg < 3; pg++) {
+            HeapPage p = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), pg), Permissions.READ_ONLY);
+            original[pg] = p.getPageData();
+            bp.deleteTuple(tid, p.iterator().next());
+        }
+        assertEquals(3, bp.getDirtyPages().size());
+        return original;
+    }
+
+    /** An abort undoes the writes of a checkpoint through the log. */
+    @Test public void abortAfterCheckpoint() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1500, null, null);
+        BufferPool bp = Database.getBufferPool();
+        TransactionId writer = new TransactionId();
+        byte[][] original = dirtyPages(hf, writer);
+        log.logCheckpoint();
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        assertFalse(Arrays.equals(original[0], hf.readPage(pid).getPageData()));
+
+        bp.transactionComplete(writer, false);
+        for (int pg = 0; pg < 3; pg++) {
+            pid = new HeapPageId(hf.getId(), pg);
+            assertArrayEquals(original[pg], hf.readPage(pid).getPageData());
+            assertArrayEquals(original[pg], bp.getPage(new TransactionId(), pid, Permissions.READ_ONLY).getPageData());
+        }
+    }
+
+    /** A transaction that commits after a checkpoint wrote its pages is redone. */
+    @Test public void commitAfterCheckpoint() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1500, null, null);
+        BufferPool bp = Database.getBufferPool();
+        TransactionId writer = new TransactionId();
+        dirtyPages(hf, writer);
+        log.logCheckpoint();
+        // changed again after the checkpoint wrote it
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage p = (HeapPage) bp.getPage(writer, pid, Permissions.READ_WRITE);
+        bp.deleteTuple(writer, p.iterator().next());
+        byte[][] committed = new byte[3][];
+        for (int pg = 0; pg < 3; pg++)
+            committed[pg] = bp.getPage(writer, new HeapPageId(hf.getId(), pg), Permissions.READ_ONLY).getPageData();
+        bp.transactionComplete(writer, true);
+
+        new LogFile(log.logFile).recover();
+        for (int pg = 0; pg < 3; pg++)
+            assertArrayEquals(committed[pg], hf.readPage(new HeapPageId(hf.getId(), pg)).getPageData());
+    }
+
+    /**
+     * Recovery does not redo a committed transaction over a later one that
+     * changed the same page without logging it, as a transaction a
+     * checkpoint never wrote out does.
+     */
+    @Test public void recoverKeepsLaterCommit() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1500, null, null);
+        BufferPool bp = Database.getBufferPool();
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        TransactionId first = new TransactionId();
+        HeapPage p = (HeapPage) bp.getPage(first, pid, Permissions.READ_WRITE);
+        bp.deleteTuple(first, p.iterator().next());
+        log.logCheckpoint();
+        bp.transactionComplete(first, true);
+
+        // a neighbouring slot, with its bit in the same header byte
+        TransactionId second = new TransactionId();
+        p = (HeapPage) bp.getPage(second, pid, Permissions.READ_WRITE);
+        bp.deleteTuple(second, p.iterator().next());
+        bp.transactionComplete(second, true);
+        byte[] committed = hf.readPage(pid).getPageData();
+
+        new LogFile(log.logFile).recover();
+        assertArrayEquals(committed, hf.readPage(pid).getPageData());
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void negativeDelay() {
+        log.setGroupCommitDelay(-1);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogFileTest.class);
+    }
+}
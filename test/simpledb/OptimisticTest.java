@@ -0,0 +1,201 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class OptimisticTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private BufferPool bp;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 1100, null, tuples);
+        bp = Database.resetBufferPool(50);
+        bp.setOptimistic(true);
+    }
+
+    private void insert(TransactionId tid, int a, int b) throws Exception {
+        bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { a, b }));
+    }
+
+    private ArrayList<Tuple> scan(TransactionId tid) throws Exception {
+        ArrayList<Tuple> rows = new ArrayList<Tuple>();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            rows.add(it.next());
+        it.close();
+        return rows;
+    }
+
+    /** Deletes the first tuple on the specified page. */
+    private void deleteFrom(TransactionId tid, int pgNo) throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), pgNo);
+        HeapPage p = (HeapPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
+        bp.deleteTuple(tid, p.iterator().next());
+    }
+
+    /** Writes go to private copies, and no locks are taken. */
+    @Test public void privateWrites() throws Exception {
+        TransactionId writer = new TransactionId();
+        for (int i = 0; i < 600; i++)
+            insert(writer, -i, i);
+        assertEquals(1700, scan(writer).size());
+        assertTrue(bp.getLockManager().getLockedPages(writer).isEmpty());
+
+        TransactionId reader = new TransactionId();
+        SystemTestUtil.matchTuples(new SeqScan(reader, hf.getId(), "t"), tuples);
+        bp.transactionComplete(reader);
+
+        bp.transactionComplete(writer);
+        assertEquals(1700, scan(new TransactionId()).size());
+    }
+
+    @Test public void abortDiscardsWrites() throws Exception {
+        TransactionId writer = new TransactionId();
+        deleteFrom(writer, 0);
+        insert(writer, -1, -1);
+        bp.transactionComplete(writer, false);
+        SystemTestUtil.matchTuples(new SeqScan(new TransactionId(), hf.getId(), "t"), tuples);
+    }
+
+    /** A transaction fails validation if a page it read was written since it started. */
+    @Test public void conflictAborts() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        bp.getPage(t1, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        deleteFrom(t1, 1);
+        deleteFrom(t2, 0);
+        bp.transactionComplete(t2);
+        try {
+            bp.transactionComplete(t1);
+            fail("expected the transaction to abort");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        assertEquals(1, bp.getValidator().getNumAborts());
+        // only t2's delete was installed
+        assertEquals(1099, scan(new TransactionId()).size());
+    }
+
+    @Test public void disjointTransactionsCommit() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        deleteFrom(t1, 0);
+        deleteFrom(t2, 1);
+        bp.transactionComplete(t2);
+        bp.transactionComplete(t1);
+        assertEquals(1098, scan(new TransactionId()).size());
+        assertEquals(0, bp.getValidator().getNumAborts());
+    }
+
+    /** Only transactions that committed after a transaction started conflict with it. */
+    @Test public void earlierCommitsDoNotConflict() throws Exception {
+        TransactionId t1 = new TransactionId();
+        deleteFrom(t1, 0);
+        TransactionId reader = new TransactionId();
+        bp.getPage(reader, new HeapPageId(hf.getId(), 2), Permissions.READ_ONLY);
+        bp.transactionComplete(t1);
+
+        TransactionId t2 = new TransactionId();
+        deleteFrom(t2, 0);
+        bp.transactionComplete(t2);
+        assertEquals(1098, scan(new TransactionId()).size());
+        // t1's write set is kept for the reader that started before it
+        assertEquals(2, bp.getValidator().getHistorySize());
+        bp.transactionComplete(reader);
+        assertEquals(0, bp.getValidator().getHistorySize());
+    }
+
+    /** Pages released before commit are not validated. */
+    @Test public void releasedPagesDoNotConflict() throws Exception {
+        TransactionId t1 = new TransactionId();
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        bp.getPage(t1, pid, Permissions.READ_ONLY);
+        assertTrue(bp.holdsLock(t1, pid));
+        bp.releasePage(t1, pid);
+        assertFalse(bp.holdsLock(t1, pid));
+        deleteFrom(t1, 1);
+
+        TransactionId t2 = new TransactionId();
+        deleteFrom(t2, 0);
+        bp.transactionComplete(t2);
+        bp.transactionComplete(t1);
+        assertEquals(1098, scan(new TransactionId()).size());
+    }
+
+    /** Transactions on several threads retry until they commit, and no update is lost. */
+    @Test public void concurrentIncrements() throws Exception {
+        final int threads = 4, perThread = 20;
+        final Random rand = new Random(0);
+        Thread[] workers = new Thread[threads];
+        final Exception[] error = new Exception[1];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < perThread; j++) {
+                            while (true) {
+                                TransactionId tid = new TransactionId();
+                                try {
+                                    int pgNo;
+                                    synchronized (rand) {
+                                        pgNo = rand.nextInt(hf.numPages());
+                                    }
+                                    HeapPage p = (HeapPage) bp.getPage(tid,
+                                            new HeapPageId(hf.getId(), pgNo), Permissions.READ_ONLY);
+                                    Tuple t = p.iterator().next();
+                                    bp.deleteTuple(tid, t);
+                                    insert(tid, ((IntField) t.getField(0)).getValue() + 1,
+                                            ((IntField) t.getField(1)).getValue());
+                                    bp.transactionComplete(tid);
+                                    break;
+                                } catch (TransactionAbortedException e) {
+                                    bp.transactionComplete(tid, false);
+                                }
+                            }
+                        }
+                    } catch (Exception e) {
+                        synchronized (error) {
+                            error[0] = e;
+                        }
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        for (Thread w : workers)
+            w.join();
+        if (error[0] != null)
+            throw error[0];
+
+        long expected = threads * perThread, sum = 0;
+        for (ArrayList<Integer> row : tuples)
+            expected += row.get(0);
+        ArrayList<Tuple> rows = scan(new TransactionId());
+        for (Tuple t : rows)
+            sum += ((IntField) t.getField(0)).getValue();
+        assertEquals(1100, rows.size());
+        assertEquals(expected, sum);
+        assertEquals(0, bp.getValidator().getHistorySize());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OptimisticTest.class);
+    }
+}
@@ -0,0 +1,169 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+    DbIterator scan1;
+    DbIterator ascending;
+    DbIterator descending;
+
+    /**
+     * Initialize each unit test
+     */
+    @Before public void createTupleLists() throws Exception {
+        this.scan1 = TestUtil.createTupleList(2,
+                new int[] { 1, 2,
+                            3, 4,
+                            5, 6,
+                            7, 8,
+                            2, 3 });
+        this.ascending = TestUtil.createTupleList(2,
+                new int[] { 1, 2,
+                            2, 3,
+                            3, 4,
+                            5, 6,
+                            7, 8 });
+        this.descending = TestUtil.createTupleList(2,
+                new int[] { 7, 8,
+                            5, 6,
+                            3, 4,
+                            2, 3,
+                            1, 2 });
+    }
+
+    /**
+     * Unit test for OrderBy.getTupleDesc()
+     */
+    @Test public void getTupleDesc() {
+        OrderBy op = new OrderBy(0, true, scan1);
+        assertEquals(Utility.getTupleDesc(2), op.getTupleDesc());
+    }
+
+    @Test public void sortAscending() throws Exception {
+        OrderBy op = new OrderBy(0, true, scan1);
+        op.open();
+        ascending.open();
+        TestUtil.compareDbIterators(ascending, op);
+        assertEquals(0, op.getNumRuns());
+    }
+
+    @Test public void sortDescending() throws Exception {
+        OrderBy op = new OrderBy(1, false, scan1);
+        op.open();
+        descending.open();
+        TestUtil.compareDbIterators(descending, op);
+    }
+
+    @Test public void rewind() throws Exception {
+        OrderBy op = new OrderBy(0, true, scan1);
+        op.open();
+        while (op.hasNext())
+            op.next();
+        op.rewind();
+        ascending.open();
+        TestUtil.compareDbIterators(ascending, op);
+    }
+
+    /** A tuple fetched by hasNext() before a rewind is not returned after it. */
+    @Test public void rewindAfterHasNext() throws Exception {
+        OrderBy op = new OrderBy(0, true, scan1);
+        op.open();
+        assertTrue(op.hasNext());
+        op.rewind();
+        ascending.open();
+        TestUtil.compareDbIterators(ascending, op);
+    }
+
+    /**
+     * Sorts on an int column descending, then a string column ascending.
+     */
+    @Test public void multiColumn() throws Exception {
+        DbIterator scan = TestUtil.createTupleList(2,
+                new Object[] { 1, "b",
+                               2, "z",
+                               1, "a",
+                               2, "c" });
+        DbIterator expected = TestUtil.createTupleList(2,
+                new Object[] { 2, "c",
+                               2, "z",
+                               1, "a",
+                               1, "b" });
+        OrderBy op = new OrderBy(new int[] { 0, 1 }, new boolean[] { false, true },
+                scan, BufferPool.DEFAULT_PAGES);
+        op.open();
+        TestUtil.compareDbIterators(expected, op);
+    }
+
+    /**
+     * Sorts input much larger than a two page budget, which forces several
+     * runs and more than one merge pass.
+     */
+    @Test public void externalSort() throws Exception {
+        final int rows = 20000;
+        Random r = new Random(42);
+        int[] data = new int[rows * 2];
+        for (int i = 0; i < rows; i++) {
+            data[2 * i] = r.nextInt(1000);
+            data[2 * i + 1] = i;
+        }
+        OrderBy op = new OrderBy(new int[] { 0 }, new boolean[] { true },
+                TestUtil.createTupleList(2, data), 2);
+        op.open();
+        assertTrue(op.getNumRuns() > 2);
+        assertFalse(op.isInputSorted());
+
+        int count = 0;
+        Tuple last = null;
+        while (op.hasNext()) {
+            Tuple t = op.next();
+            if (last != null) {
+                int k1 = ((IntField) last.getField(0)).getValue();
+                int k2 = ((IntField) t.getField(0)).getValue();
+                assertTrue(k1 <= k2);
+                // the merge is stable, so ties keep their input order
+                if (k1 == k2)
+                    assertTrue(((IntField) last.getField(1)).getValue()
+                            < ((IntField) t.getField(1)).getValue());
+            }
+            last = t;
+            count++;
+        }
+        assertEquals(rows, count);
+        op.close();
+    }
+
+    /**
+     * Input that already arrives in order is detected and not merged.
+     */
+    @Test public void presortedInput() throws Exception {
+        final int rows = 5000;
+        OrderBy op = new OrderBy(new int[] { 0 }, new boolean[] { true },
+                new TestUtil.MockScan(0, rows, 2), 2);
+        op.open();
+        assertTrue(op.isInputSorted());
+        assertTrue(op.getNumRuns() > 1);
+        for (int i = 0; i < rows; i++) {
+            assertTrue(op.hasNext());
+            assertEquals(i, ((IntField) op.next().getField(0)).getValue());
+        }
+        assertTrue(TestUtil.checkExhausted(op));
+        op.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OrderByTest.class);
+    }
+}
@@ -0,0 +1,185 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageBloomFiltersTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 3000;
+    private static final int USERS = 100000;
+
+    private HeapFile hf;
+    private TransactionId tid;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    /** An unsorted table: field 0 increases, field 1 is a random user id. */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        BufferPool.setPageSize(256);
+        Database.resetBufferPool(2000);
+        File f = File.createTempFile("bloom", ".dat");
+        f.deleteOnExit();
+        hf = new HeapFile(f, Utility.getTupleDesc(3));
+        PageBloomFilters.sidecar(hf).deleteOnExit();
+        ZoneMap.sidecar(hf).deleteOnExit();
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+
+        Random r = new Random(5);
+        tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ROWS; i++)
+            insert(i, r.nextInt(USERS));
+        Database.getBufferPool().flushAllPages();
+    }
+
+    @After public void tearDown() {
+        BufferPool.setPageSize(BufferPool.PAGE_SIZE);
+    }
+
+    private void insert(int a, int user) throws Exception {
+        tuples.add(new ArrayList<Integer>(Arrays.asList(a, user, -a)));
+        Database.getBufferPool().insertTuple(tid, hf.getId(),
+                Utility.getHeapTuple(new int[] { a, user, -a }));
+    }
+
+    private static Predicate userIs(int user) {
+        return new Predicate(1, Predicate.Op.EQUALS, new IntField(user));
+    }
+
+    private void checkScan(Predicate p) throws Exception {
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (new IntField(t.get(p.getField())).compare(p.getOp(), p.getOperand()))
+                expected.add(t);
+        }
+        SystemTestUtil.matchTuples(new Filter(p, new SeqScan(tid, hf.getId(), "t",
+                new Predicate[] { p })), expected);
+    }
+
+    /** @return the number of pages of the file the predicate rules out */
+    private int skipped(Predicate p) {
+        PagePruner pruner = hf.pruner(p);
+        int n = 0;
+        for (int i = 0; i < hf.numPages(); i++) {
+            if (!pruner.mayMatch(i))
+                n++;
+        }
+        return n;
+    }
+
+    @Test public void bloomFilter() {
+        BloomFilter f = BloomFilter.create(1000, 0.01);
+        for (int i = 0; i < 1000; i++)
+            f.add(new IntField(i * 7));
+        for (int i = 0; i < 1000; i++)
+            assertTrue(f.mightContain(new IntField(i * 7)));
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (f.mightContain(new IntField(-1 - i)))
+                falsePositives++;
+        }
+        assertTrue(falsePositives < 300);
+        assertTrue(f.getFalsePositiveRate() < 0.03);
+        assertTrue(f.mightContain(new IntField(7)));
+    }
+
+    @Test public void pointLookupsSkipPages() throws Exception {
+        hf.buildBloomFilters(tid, new int[] { 1 }, 1);
+        int pages = hf.numPages();
+        for (int i = 0; i < 20; i++) {
+            Predicate p = userIs(tuples.get(i * 97).get(1));
+            checkScan(p);
+            assertTrue(skipped(p) >= pages * 9 / 10);
+        }
+        checkScan(userIs(-1));
+        assertTrue(skipped(userIs(-1)) >= pages * 9 / 10);
+        // predicates other than equality, and fields without filters, skip nothing
+        assertEquals(0, skipped(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(-1))));
+        assertEquals(0, skipped(new Predicate(2, Predicate.Op.EQUALS, new IntField(1))));
+    }
+
+    @Test public void falsePositiveRate() throws Exception {
+        PageBloomFilters bf = hf.buildBloomFilters(tid, new int[] { 1 }, 1);
+        double estimate = bf.getFalsePositiveRate(1);
+        assertTrue(estimate > 0 && estimate < 0.05);
+
+        HashSet<Integer> users = new HashSet<Integer>();
+        for (ArrayList<Integer> t : tuples)
+            users.add(t.get(1));
+        int probes = 0, falsePositives = 0;
+        for (int u = 0; probes < 200; u++) {
+            if (users.contains(u))
+                continue;
+            probes++;
+            falsePositives += hf.numPages() - skipped(userIs(u));
+        }
+        double measured = (double) falsePositives / (probes * hf.numPages());
+        assertTrue(measured < 0.05);
+    }
+
+    @Test public void blocks() throws Exception {
+        PageBloomFilters bf = hf.buildBloomFilters(tid, new int[] { 1, 0 }, 4);
+        assertEquals(4, bf.getPagesPerBlock());
+        Predicate p = userIs(tuples.get(100).get(1));
+        checkScan(p);
+        PagePruner pruner = hf.pruner(p);
+        for (int i = 0; i < hf.numPages(); i++)
+            assertEquals(pruner.mayMatch(i - i % 4), pruner.mayMatch(i));
+        assertTrue(skipped(p) >= hf.numPages() * 3 / 4);
+        checkScan(new Predicate(0, Predicate.Op.EQUALS, new IntField(1234)));
+    }
+
+    @Test public void insertsAndReload() throws Exception {
+        hf.buildBloomFilters(tid, new int[] { 1 }, 2);
+        for (int i = 0; i < 200; i++)
+            insert(ROWS + i, USERS + i);
+        checkScan(userIs(USERS + 7));
+        checkScan(userIs(USERS + 199));
+
+        Database.getBufferPool().flushAllPages();
+        HeapFile reopened = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        PageBloomFilters bf = reopened.getBloomFilters();
+        assertNotNull(bf);
+        assertArrayEquals(new int[] { 1 }, bf.getFields());
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        hf = reopened;
+        checkScan(userIs(USERS + 199));
+        checkScan(userIs(tuples.get(5).get(1)));
+        assertTrue(skipped(userIs(USERS + 199)) >= hf.numPages() * 3 / 4);
+    }
+
+    @Test public void withZoneMap() throws Exception {
+        hf.buildZoneMap(tid);
+        hf.buildBloomFilters(tid, new int[] { 1 }, 1);
+        ArrayList<Integer> t = tuples.get(1500);
+        Predicate[] preds = new Predicate[] { userIs(t.get(1)),
+                new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(1000)) };
+        PagePruner pruner = hf.pruner(preds);
+        int read = 0;
+        for (int i = 0; i < hf.numPages(); i++) {
+            if (pruner.mayMatch(i))
+                read++;
+        }
+        assertTrue(read >= 1 && read <= 5);
+        SystemTestUtil.matchTuples(new Filter(preds[0], new Filter(preds[1],
+                new SeqScan(tid, hf.getId(), "t", preds))), Arrays.asList(t));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageBloomFiltersTest.class);
+    }
+}
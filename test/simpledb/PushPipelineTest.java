@@ -0,0 +1,140 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PushPipelineTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 30000;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile hf;
+    private TransactionId tid;
+    private MorselScheduler scheduler;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(3, ROWS, 100, null, tuples);
+        tid = new TransactionId();
+        scheduler = new MorselScheduler(4, 2);
+    }
+
+    @After public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test public void collectAll() throws Exception {
+        List<Tuple> out = new PushPipeline(hf, tid).collect(scheduler);
+        ArrayList<ArrayList<Integer>> copy = new ArrayList<ArrayList<Integer>>(tuples);
+        for (Tuple t : out)
+            assertTrue(copy.remove(SystemTestUtil.tupleToList(t)));
+        assertTrue(copy.isEmpty());
+        assertEquals((hf.numPages() + 1) / 2, scheduler.getMorselsRun());
+    }
+
+    @Test public void filterCount() throws Exception {
+        int expected = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) >= 40)
+                expected++;
+        }
+        long n = new PushPipeline(hf, tid)
+                .filter(new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(40)))
+                .count(scheduler);
+        assertEquals(expected, n);
+    }
+
+    /**
+     * Per-worker partial aggregates merge into the same result as a
+     * single-threaded aggregate, including AVG, which needs sums and counts.
+     */
+    @Test public void groupedAggregate() throws Exception {
+        for (Aggregator.Op op : new Aggregator.Op[] {
+                Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.MIN,
+                Aggregator.Op.MAX, Aggregator.Op.COUNT }) {
+            PushPipeline p = new PushPipeline(hf, tid)
+                    .filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(50)))
+                    .project(new int[] { 2, 1 });
+            assertEquals(Type.INT_TYPE, p.getTupleDesc().getFieldType(1));
+            DbIterator actual = p.aggregate(scheduler, 1, 0, op);
+
+            DbIterator expected = new Aggregate(
+                    new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(50)),
+                            new SeqScan(tid, hf.getId(), "t")), 1, 2, op);
+            ArrayList<ArrayList<Integer>> expectedTuples = new ArrayList<ArrayList<Integer>>();
+            expected.open();
+            while (expected.hasNext())
+                expectedTuples.add(SystemTestUtil.tupleToList(expected.next()));
+            expected.close();
+            SystemTestUtil.matchTuples(actual, expectedTuples);
+        }
+    }
+
+    /**
+     * A worker that is much slower than the others has its morsels stolen,
+     * and every morsel is still processed exactly once.
+     */
+    @Test public void slowWorkerIsStolenFrom() throws Exception {
+        final AtomicInteger pushed = new AtomicInteger();
+        scheduler.run(hf, tid, new PushStage.Factory() {
+            public PushStage create(final int worker) {
+                return new PushStage() {
+                    public void push(Tuple t) {
+                        int n = pushed.incrementAndGet();
+                        if (worker == 0 && n % 16 == 0) {
+                            try {
+                                Thread.sleep(1);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }
+                    }
+
+                    public void finish() {
+                    }
+                };
+            }
+        });
+        assertEquals(ROWS, pushed.get());
+        assertTrue(scheduler.getMorselsStolen() > 0);
+    }
+
+    @Test public void stageFailure() throws Exception {
+        try {
+            scheduler.run(hf, tid, new PushStage.Factory() {
+                public PushStage create(int worker) {
+                    return new PushStage() {
+                        public void push(Tuple t) throws DbException {
+                            throw new DbException("boom");
+                        }
+
+                        public void finish() {
+                        }
+                    };
+                }
+            });
+            fail("expected the stage's exception");
+        } catch (DbException e) {
+            assertEquals("boom", e.getMessage());
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PushPipelineTest.class);
+    }
+}
@@ -0,0 +1,114 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class RoaringBitmapTest extends SimpleDbTestBase {
+
+    /**
+     * @return a random set mixing sparse chunks, which use array containers,
+     *         and dense chunks, which use bitmap containers
+     */
+    private static TreeSet<Integer> randomSet(Random r) {
+        TreeSet<Integer> s = new TreeSet<Integer>();
+        for (int chunk = 0; chunk < 6; chunk++) {
+            int n = r.nextBoolean() ? r.nextInt(200) : 5000 + r.nextInt(30000);
+            for (int i = 0; i < n; i++)
+                s.add((chunk * 3 << 16) | r.nextInt(1 << 16));
+        }
+        return s;
+    }
+
+    private static RoaringBitmap bitmapOf(Set<Integer> s) {
+        RoaringBitmap b = new RoaringBitmap();
+        for (int v : s)
+            b.add(v);
+        return b;
+    }
+
+    private static void assertSame(Set<Integer> expected, RoaringBitmap b) {
+        assertEquals(expected.size(), b.getCardinality());
+        int[] values = b.toArray();
+        int k = 0;
+        for (int v : expected)
+            assertEquals(v, values[k++]);
+    }
+
+    @Test public void addRemoveContains() {
+        RoaringBitmap b = RoaringBitmap.of(5, 1 << 20, 3, 5);
+        assertSame(new TreeSet<Integer>(Arrays.asList(3, 5, 1 << 20)), b);
+        assertTrue(b.contains(1 << 20));
+        assertFalse(b.contains(4));
+        assertFalse(b.contains(-1));
+        b.remove(1 << 20);
+        b.remove(42);
+        assertSame(new TreeSet<Integer>(Arrays.asList(3, 5)), b);
+        b.remove(3);
+        b.remove(5);
+        assertTrue(b.isEmpty());
+    }
+
+    /** Containers switch between arrays and bitmaps as they grow and shrink. */
+    @Test public void containerConversion() {
+        RoaringBitmap b = new RoaringBitmap();
+        for (int i = 0; i < 10000; i++)
+            b.add(i * 2);
+        assertEquals(10000, b.getCardinality());
+        assertTrue(b.getSizeInBytes() <= 2 * 8192);
+        for (int i = 100; i < 10000; i++)
+            b.remove(i * 2);
+        assertEquals(100, b.getCardinality());
+        assertTrue(b.getSizeInBytes() < 1000);
+        assertTrue(b.contains(198));
+        assertFalse(b.contains(200));
+    }
+
+    @Test public void setOperations() {
+        Random r = new Random(1);
+        for (int round = 0; round < 5; round++) {
+            TreeSet<Integer> a = randomSet(r), c = randomSet(r);
+            RoaringBitmap ba = bitmapOf(a), bc = bitmapOf(c);
+
+            TreeSet<Integer> and = new TreeSet<Integer>(a);
+            and.retainAll(c);
+            assertSame(and, ba.and(bc));
+            TreeSet<Integer> or = new TreeSet<Integer>(a);
+            or.addAll(c);
+            assertSame(or, ba.or(bc));
+            TreeSet<Integer> andNot = new TreeSet<Integer>(a);
+            andNot.removeAll(c);
+            assertSame(andNot, ba.andNot(bc));
+
+            // the operands are left unchanged
+            assertSame(a, ba);
+            assertSame(c, bc);
+        }
+    }
+
+    @Test public void serialize() throws Exception {
+        RoaringBitmap b = bitmapOf(randomSet(new Random(2)));
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        b.serialize(dos);
+        dos.close();
+        RoaringBitmap read = RoaringBitmap.deserialize(
+                new DataInputStream(new ByteArrayInputStream(baos.toByteArray())));
+        assertEquals(b, read);
+        assertEquals(b.hashCode(), read.hashCode());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RoaringBitmapTest.class);
+    }
+}
@@ -0,0 +1,175 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SnapshotTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private BufferPool bp;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 1100, null, tuples);
+        bp = Database.resetBufferPool(50);
+    }
+
+    private TransactionId snapshot() {
+        TransactionId tid = new TransactionId();
+        bp.beginSnapshot(tid);
+        return tid;
+    }
+
+    private void insert(TransactionId tid, int a, int b) throws Exception {
+        bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { a, b }));
+    }
+
+    private ArrayList<Tuple> scan(TransactionId tid) throws Exception {
+        ArrayList<Tuple> rows = new ArrayList<Tuple>();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            rows.add(it.next());
+        it.close();
+        return rows;
+    }
+
+    @Test public void snapshotIgnoresLaterCommits() throws Exception {
+        TransactionId reader = snapshot();
+        TransactionId writer = new TransactionId();
+        for (int i = 0; i < 600; i++)
+            insert(writer, -i, i);
+        bp.transactionComplete(writer, true);
+        assertTrue(bp.getVersionStore().getNumVersions() > 0);
+
+        SystemTestUtil.matchTuples(new SeqScan(reader, hf.getId(), "t"), tuples);
+        assertEquals(1700, scan(new TransactionId()).size());
+        assertEquals(1100, scan(reader).size());
+        bp.transactionComplete(reader);
+        // nothing is kept once no snapshot needs it
+        assertEquals(0, bp.getVersionStore().getNumVersions());
+    }
+
+    @Test public void snapshotSeesEarlierCommits() throws Exception {
+        TransactionId writer = new TransactionId();
+        insert(writer, -1, -1);
+        bp.transactionComplete(writer, true);
+        TransactionId reader = snapshot();
+        assertEquals(1101, scan(reader).size());
+        assertEquals(0, bp.getVersionStore().getNumVersions());
+    }
+
+    /** Readers and writers do not block each other. */
+    @Test public void noBlocking() throws Exception {
+        TransactionId writer = new TransactionId();
+        insert(writer, -1, -1);
+        Tuple victim = scan(writer).get(0);
+        bp.deleteTuple(writer, victim);
+
+        TransactionId reader = snapshot();
+        // the writer holds exclusive locks, yet the reader neither waits nor
+        // sees its changes
+        SystemTestUtil.matchTuples(new SeqScan(reader, hf.getId(), "t"), tuples);
+        assertTrue(bp.getLockManager().getLockedPages(reader).isEmpty());
+        assertNull(bp.getLockManager().getTableMode(reader, hf.getId()));
+
+        // the writer may write pages the reader has read
+        insert(writer, -2, -2);
+        bp.transactionComplete(writer, true);
+        SystemTestUtil.matchTuples(new SeqScan(reader, hf.getId(), "t"), tuples);
+        bp.transactionComplete(reader);
+    }
+
+    @Test public void abortedChangesAreNeverSeen() throws Exception {
+        TransactionId reader = snapshot();
+        TransactionId writer = new TransactionId();
+        insert(writer, -1, -1);
+        bp.transactionComplete(writer, false);
+        assertEquals(0, bp.getVersionStore().getNumVersions());
+        assertEquals(1100, scan(reader).size());
+    }
+
+    /** Versions are kept for the oldest snapshot, and dropped when it ends. */
+    @Test public void garbageCollection() throws Exception {
+        TransactionId old = snapshot();
+        TransactionId w1 = new TransactionId();
+        insert(w1, -1, -1);
+        bp.transactionComplete(w1, true);
+        TransactionId young = snapshot();
+        TransactionId w2 = new TransactionId();
+        insert(w2, -2, -2);
+        bp.transactionComplete(w2, true);
+        assertEquals(2, bp.getVersionStore().getNumVersions());
+
+        assertEquals(1100, scan(old).size());
+        assertEquals(1101, scan(young).size());
+        bp.transactionComplete(old);
+        assertEquals(1, bp.getVersionStore().getNumVersions());
+        assertEquals(1101, scan(young).size());
+        bp.transactionComplete(young);
+        assertEquals(0, bp.getVersionStore().getNumVersions());
+    }
+
+    /**
+     * A snapshot scan reads every page, since the zone map describes the
+     * newest version of each page rather than the one the snapshot sees.
+     */
+    @Test public void snapshotScansAreNotPruned() throws Exception {
+        TransactionId builder = new TransactionId();
+        hf.buildZoneMap(builder);
+        bp.transactionComplete(builder);
+        TransactionId reader = snapshot();
+
+        // move every value on the first page out of the range scanned for;
+        // the new values go to the last page first, then back to the first
+        TransactionId writer = new TransactionId();
+        ArrayList<Tuple> moved = new ArrayList<Tuple>();
+        Iterator<Tuple> it = ((HeapPage) bp.getPage(writer, new HeapPageId(hf.getId(), 0),
+                Permissions.READ_ONLY)).iterator();
+        while (it.hasNext())
+            moved.add(it.next());
+        for (Tuple t : moved) {
+            bp.deleteTuple(writer, t);
+            insert(writer, -1 - ((IntField) t.getField(0)).getValue(), 0);
+        }
+        bp.transactionComplete(writer, true);
+
+        Predicate[] nonNegative = { new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0)) };
+        assertFalse(hf.pruner(nonNegative).mayMatch(0));
+        assertEquals(1100, count(hf.iterator(reader, nonNegative)));
+        bp.transactionComplete(reader);
+    }
+
+    private static int count(DbFileIterator it) throws Exception {
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    @Test(expected = DbException.class) public void snapshotsAreReadOnly() throws Exception {
+        insert(snapshot(), 1, 1);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SnapshotTest.class);
+    }
+}
@@ -0,0 +1,142 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TableStatsTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 40000;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile hf;
+    private TransactionId tid;
+
+    /**
+     * Column 0 is uniform over [0, 1000), column 1 is a key, and column 2 is
+     * skewed: half of its values are 7.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        Random r = new Random(11);
+        tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ROWS; i++) {
+            int skewed = r.nextBoolean() ? 7 : r.nextInt(10000);
+            tuples.add(new ArrayList<Integer>(Arrays.asList(r.nextInt(1000), i, skewed)));
+        }
+        File f = File.createTempFile("stats", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 3);
+        hf = Utility.openHeapFile(3, f);
+        tid = new TransactionId();
+    }
+
+    private double actualSelectivity(int field, Predicate.Op op, int v) {
+        int n = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (new IntField(t.get(field)).compare(op, new IntField(v)))
+                n++;
+        }
+        return (double) n / tuples.size();
+    }
+
+    @Test public void analyzeFullScan() throws Exception {
+        TableStats stats = TableStats.analyze(hf.getId(), tid);
+        assertSame(stats, Database.getCatalog().getTableStats(hf.getId()));
+        assertFalse(stats.isSampled());
+        assertEquals(ROWS, stats.totalTuples());
+        assertEquals(hf.numPages() * TableStats.IOCOSTPERPAGE, stats.estimateScanCost(), 0.0);
+
+        assertEquals(new IntField(0), stats.getMin(1));
+        assertEquals(new IntField(ROWS - 1), stats.getMax(1));
+        assertEquals(ROWS, stats.getNonNullCount(0));
+        assertEquals(1000, stats.getDistinctCount(0), 1000 * 0.05);
+        assertEquals(ROWS, stats.getDistinctCount(1), ROWS * 0.05);
+
+        for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.LESS_THAN,
+                Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.EQUALS, Predicate.Op.NOT_EQUALS }) {
+            for (int v : new int[] { -5, 0, 250, 999, 2000 }) {
+                assertEquals(op + " " + v, actualSelectivity(0, op, v),
+                        stats.estimateSelectivity(0, op, new IntField(v)), 0.03);
+            }
+        }
+    }
+
+    @Test public void mostCommonValues() throws Exception {
+        TableStats stats = TableStats.analyze(hf.getId(), tid);
+        Map<Field, Long> mcvs = stats.getMostCommonValues(2);
+        assertEquals(new IntField(7), mcvs.keySet().iterator().next());
+        double actual = actualSelectivity(2, Predicate.Op.EQUALS, 7);
+        assertEquals(actual, stats.estimateSelectivity(2, Predicate.Op.EQUALS, new IntField(7)), 0.03);
+        // a rare value gets a small share of the remaining rows
+        assertTrue(stats.estimateSelectivity(2, Predicate.Op.EQUALS, new IntField(8)) < 0.01);
+        // a key column has no common values
+        assertTrue(stats.getMostCommonValues(1).isEmpty());
+    }
+
+    @Test public void analyzeSample() throws Exception {
+        TableStats stats = TableStats.analyzeSample(hf.getId(), tid, 0.25, 1);
+        assertTrue(stats.isSampled());
+        assertEquals(ROWS, stats.totalTuples(), ROWS * 0.1);
+        assertEquals(ROWS, stats.getDistinctCount(1), ROWS * 0.2);
+        assertEquals(1000, stats.getDistinctCount(0), 1000 * 0.1);
+        assertEquals(actualSelectivity(0, Predicate.Op.LESS_THAN, 300),
+                stats.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(300)), 0.05);
+    }
+
+    /**
+     * Inserts and deletes through the BufferPool keep the stored statistics
+     * up to date.
+     */
+    @Test public void incrementalUpdates() throws Exception {
+        TableStats stats = TableStats.analyze(hf.getId(), tid);
+        ArrayList<Tuple> added = new ArrayList<Tuple>();
+        for (int i = 0; i < 2000; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] { 5000, ROWS + i, 7 });
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            added.add(t);
+        }
+        assertEquals(ROWS + 2000, stats.totalTuples());
+        assertEquals(new IntField(5000), stats.getMax(0));
+        assertEquals(2000.0 / (ROWS + 2000),
+                stats.estimateSelectivity(0, Predicate.Op.EQUALS, new IntField(5000)), 0.01);
+        assertEquals(ROWS + 2000, stats.getDistinctCount(1), ROWS * 0.05);
+
+        for (Tuple t : added)
+            Database.getBufferPool().deleteTuple(tid, t);
+        assertEquals(ROWS, stats.totalTuples());
+        assertEquals(0, stats.estimateSelectivity(0, Predicate.Op.EQUALS, new IntField(5000)), 0.001);
+    }
+
+    @Test public void hyperLogLogMerge() {
+        HyperLogLog a = new HyperLogLog();
+        HyperLogLog b = new HyperLogLog();
+        for (int i = 0; i < 60000; i++)
+            a.add(new IntField(i));
+        for (int i = 40000; i < 100000; i++)
+            b.add(new IntField(i));
+        assertEquals(60000, a.estimate(), 60000 * 0.05);
+        a.merge(b);
+        assertEquals(100000, a.estimate(), 100000 * 0.05);
+
+        HyperLogLog s = new HyperLogLog();
+        for (int i = 0; i < 50; i++)
+            s.add(new StringField("v" + (i % 20), Type.STRING_LEN));
+        assertEquals(20, s.estimate());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TableStatsTest.class);
+    }
+}
@@ -344,7 +344,7 @@ public class TestUtil {
 
                 try {
                     Database.getBufferPool().transactionComplete(tid, false);
-                } catch (java.io.IOException e2) {
+                } catch (Exception e2) {
                     e2.printStackTrace();
                 }
             }
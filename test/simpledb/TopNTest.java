@@ -0,0 +1,80 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TopNTest extends SimpleDbTestBase {
+
+    /**
+     * Checks TopN against a stable sort of the same data followed by a limit.
+     */
+    private TopN checkAgainstSort(int[] data, boolean asc, int limit) throws Exception {
+        TopN op = new TopN(TestUtil.createTupleList(2, data), 0, asc, limit);
+        OrderBy sorted = new OrderBy(0, asc, TestUtil.createTupleList(2, data));
+        op.open();
+        sorted.open();
+        for (int i = 0; i < limit && sorted.hasNext(); i++) {
+            assertTrue(op.hasNext());
+            assertTrue(TestUtil.compareTuples(sorted.next(), op.next()));
+        }
+        assertTrue(TestUtil.checkExhausted(op));
+        return op;
+    }
+
+    @Test public void smallestFew() throws Exception {
+        checkAgainstSort(new int[] { 5, 0, 3, 1, 9, 2, 1, 3, 7, 4 }, true, 3);
+    }
+
+    @Test public void largestFew() throws Exception {
+        checkAgainstSort(new int[] { 5, 0, 3, 1, 9, 2, 1, 3, 7, 4 }, false, 2);
+    }
+
+    @Test public void limitLargerThanInput() throws Exception {
+        checkAgainstSort(new int[] { 5, 0, 3, 1, 9, 2 }, true, 10);
+    }
+
+    @Test public void zeroLimit() throws Exception {
+        TopN op = new TopN(TestUtil.createTupleList(1, new int[] { 1, 2, 3 }), 0, true, 0);
+        op.open();
+        assertTrue(TestUtil.checkExhausted(op));
+    }
+
+    /**
+     * On large random input most rows are rejected by the threshold check,
+     * and ties keep their input order.
+     */
+    @Test public void thresholdRejects() throws Exception {
+        final int rows = 20000;
+        Random r = new Random(3);
+        int[] data = new int[rows * 2];
+        for (int i = 0; i < rows; i++) {
+            data[2 * i] = r.nextInt(5000);
+            data[2 * i + 1] = i;
+        }
+        TopN op = checkAgainstSort(data, true, 100);
+        assertTrue(op.getRejectedCount() > rows / 2);
+    }
+
+    @Test public void stringField() throws Exception {
+        TopN op = new TopN(TestUtil.createTupleList(2,
+                new Object[] { "pear", 1, "apple", 2, "fig", 3, "kiwi", 4 }), 0, true, 2);
+        DbIterator expected = TestUtil.createTupleList(2,
+                new Object[] { "apple", 2, "fig", 3 });
+        op.open();
+        TestUtil.compareDbIterators(expected, op);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TopNTest.class);
+    }
+}
@@ -0,0 +1,243 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 2000;
+
+    private HeapFile hf;
+    private TransactionId tid;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    /**
+     * A time-ordered table: field 0 increases with every insert, while
+     * field 1 is random.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        BufferPool.setPageSize(256);
+        Database.resetBufferPool(2000);
+        File f = File.createTempFile("zone", ".dat");
+        f.deleteOnExit();
+        hf = hf(f);
+        ZoneMap.sidecar(hf).deleteOnExit();
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+
+        Random r = new Random(3);
+        tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ROWS; i++)
+            insert(i, r.nextInt(1000));
+        Database.getBufferPool().flushAllPages();
+        hf.buildZoneMap(tid);
+    }
+
+    @After public void tearDown() {
+        BufferPool.setPageSize(BufferPool.PAGE_SIZE);
+    }
+
+    private static HeapFile hf(File f) {
+        return new HeapFile(f, Utility.getTupleDesc(2));
+    }
+
+    private void insert(int a, int b) throws Exception {
+        tuples.add(new ArrayList<Integer>(Arrays.asList(a, b)));
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { a, b }));
+    }
+
+    private ArrayList<ArrayList<Integer>> matching(Predicate... preds) {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            boolean ok = true;
+            for (Predicate p : preds)
+                ok &= new IntField(t.get(p.getField())).compare(p.getOp(), p.getOperand());
+            if (ok)
+                rows.add(t);
+        }
+        return rows;
+    }
+
+    /** @return the number of pages of the file the predicates rule out */
+    private int skipped(Predicate... preds) {
+        PagePruner pruner = hf.pruner(preds);
+        int n = 0;
+        for (int i = 0; i < hf.numPages(); i++) {
+            if (!pruner.mayMatch(i))
+                n++;
+        }
+        return n;
+    }
+
+    private void checkScan(Predicate... preds) throws Exception {
+        Filter filter = new Filter(preds[0], new SeqScan(tid, hf.getId(), "t", preds));
+        ArrayList<Predicate> rest = new ArrayList<Predicate>(Arrays.asList(preds));
+        rest.remove(0);
+        DbIterator it = filter;
+        for (Predicate p : rest)
+            it = new Filter(p, it);
+        SystemTestUtil.matchTuples(it, matching(preds));
+    }
+
+    private static Predicate pred(int field, Predicate.Op op, int v) {
+        return new Predicate(field, op, new IntField(v));
+    }
+
+    @Test public void rangeScans() throws Exception {
+        checkScan(pred(0, Predicate.Op.GREATER_THAN_OR_EQ, 1900));
+        checkScan(pred(0, Predicate.Op.LESS_THAN, 10));
+        checkScan(pred(0, Predicate.Op.EQUALS, 777));
+        checkScan(pred(0, Predicate.Op.GREATER_THAN, 500), pred(0, Predicate.Op.LESS_THAN_OR_EQ, 600));
+        checkScan(pred(0, Predicate.Op.NOT_EQUALS, 5));
+        checkScan(pred(1, Predicate.Op.LESS_THAN, 3));
+        checkScan(pred(0, Predicate.Op.GREATER_THAN, ROWS));
+    }
+
+    @Test public void skipsPages() throws Exception {
+        int pages = hf.numPages();
+        assertTrue(skipped(pred(0, Predicate.Op.GREATER_THAN_OR_EQ, 1900)) >= pages * 9 / 10);
+        assertEquals(pages - 1, skipped(pred(0, Predicate.Op.EQUALS, 777)));
+        assertEquals(pages, skipped(pred(0, Predicate.Op.LESS_THAN, 0)));
+        assertEquals(0, skipped(pred(0, Predicate.Op.NOT_EQUALS, 5)));
+        // the random column does not cluster
+        assertEquals(0, skipped(pred(1, Predicate.Op.GREATER_THAN, 100)));
+    }
+
+    /**
+     * A checkpoint writing a page before its transaction commits does not
+     * narrow the page's zone, since the transaction may still abort.
+     */
+    @Test public void checkpointKeepsUncommittedRange() throws Exception {
+        // start from the table as committed on disk
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(2000);
+        tid = new TransactionId();
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        Tuple max = null;
+        Iterator<Tuple> it = p.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (max == null || ((IntField) t.getField(0)).compare(Predicate.Op.GREATER_THAN, max.getField(0)))
+                max = t;
+        }
+        Predicate isMax = new Predicate(0, Predicate.Op.EQUALS, max.getField(0));
+        Database.getBufferPool().deleteTuple(tid, max);
+
+        File f = File.createTempFile("log", ".dat");
+        f.deleteOnExit();
+        new LogFile(f).logCheckpoint();
+        assertTrue(hf.getZoneMap().mayMatch(0, isMax));
+
+        Database.getBufferPool().transactionComplete(tid, false);
+        checkScan(isMax);
+    }
+
+    /** A skipped page is never asked of the BufferPool, so never read. */
+    @Test public void skippedPagesAreNotRead() throws Exception {
+        final int[] reads = new int[1];
+        HeapFile counting = new HeapFile(hf.getFile(), hf.getTupleDesc()) {
+            public Page readPage(PageId pid) {
+                reads[0]++;
+                return super.readPage(pid);
+            }
+        };
+        Database.getCatalog().addTable(counting, SystemTestUtil.getUUID());
+        Database.resetBufferPool(2000);
+        DbFileIterator it = counting.iterator(tid, new PagePruner() {
+            public boolean mayMatch(int pgNo) {
+                return pgNo == 2;
+            }
+        });
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            assertEquals(2, it.next().getRecordId().getPageId().pageNumber());
+            n++;
+        }
+        it.close();
+        assertEquals(counting.tuplesPerPage(), n);
+        assertEquals(1, reads[0]);
+    }
+
+    /** Inserts widen the zones in memory before the pages are written. */
+    @Test public void insertsAndDeletes() throws Exception {
+        insert(-5, 0);
+        insert(ROWS + 5, 0);
+        checkScan(pred(0, Predicate.Op.LESS_THAN, 0));
+        checkScan(pred(0, Predicate.Op.GREATER_THAN, ROWS));
+
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        Tuple first = it.next();
+        it.close();
+        tuples.remove(SystemTestUtil.tupleToList(first));
+        Database.getBufferPool().deleteTuple(tid, first);
+        checkScan(pred(0, Predicate.Op.EQUALS, 0));
+
+        Database.getBufferPool().flushAllPages();
+        assertTrue(hf.getZoneMap().getNumPages() >= hf.numPages());
+        checkScan(pred(0, Predicate.Op.LESS_THAN, 0));
+        checkScan(pred(0, Predicate.Op.GREATER_THAN, ROWS));
+    }
+
+    @Test public void sidecarIsReloaded() throws Exception {
+        HeapFile reopened = hf(hf.getFile());
+        assertNotNull(reopened.getZoneMap());
+        assertEquals(hf.numPages(), reopened.getZoneMap().getNumPages());
+        for (int i = 0; i < hf.numPages(); i++) {
+            Predicate p = pred(0, Predicate.Op.LESS_THAN, 100);
+            assertEquals(hf.getZoneMap().mayMatch(i, p), reopened.getZoneMap().mayMatch(i, p));
+        }
+    }
+
+    @Test public void staleSidecarIsIgnored() throws Exception {
+        assertTrue(hf.getFile().setLastModified(ZoneMap.sidecar(hf).lastModified() + 10000));
+        assertNull(hf(hf.getFile()).getZoneMap());
+    }
+
+    @Test public void stringPrefixes() throws Exception {
+        File f = File.createTempFile("zone", ".dat");
+        f.deleteOnExit();
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE });
+        HeapFile sf = new HeapFile(f, td);
+        ZoneMap.sidecar(sf).deleteOnExit();
+        Database.getCatalog().addTable(sf, SystemTestUtil.getUUID());
+        String[] names = new String[200];
+        for (int i = 0; i < names.length; i++) {
+            // values share a prefix longer than the zone map keeps
+            names[i] = String.format("timestamp-%05d", i);
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField(names[i], Type.STRING_LEN));
+            Database.getBufferPool().insertTuple(tid, sf.getId(), t);
+        }
+        sf.buildZoneMap(tid);
+        PagePruner pruner = sf.pruner(new Predicate(0, Predicate.Op.EQUALS,
+                new StringField(names[17], Type.STRING_LEN)));
+        for (int i = 0; i < sf.numPages(); i++)
+            assertTrue(pruner.mayMatch(i));
+        pruner = sf.pruner(new Predicate(0, Predicate.Op.LESS_THAN,
+                new StringField("a", Type.STRING_LEN)));
+        for (int i = 0; i < sf.numPages(); i++)
+            assertFalse(pruner.mayMatch(i));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}